@@ -0,0 +1,81 @@
+package UI;
+
+import java.io.IOException;
+import javafx.fxml.FXMLLoader;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Eventos de Java Flight Recorder de la interfaz. Es la única clase del
+ * paquete que usa {@code jdk.jfr}, por eso está en {@code src-jfr}, que solo
+ * se compila con JDK 11 o posterior: {@link EventSupport} la carga por su
+ * nombre solo si la máquina virtual tiene JFR, y el resto del código usa
+ * {@link HandlerEvent} y {@link FxmlLoadEvent}.
+ */
+public final class JfrEvents implements EventSupport.Factory {
+
+    /**
+     * Evento {@code bank.ControllerHandler}, ver {@link HandlerEvent}.
+     */
+    @Name("bank.ControllerHandler")
+    @Label("Controller Handler")
+    @Category({"Bank", "UI"})
+    @Description("Manejador de un controlador o recarga de tabla en el hilo de JavaFX")
+    static final class ControllerHandler extends Event implements HandlerEvent {
+
+        @Label("Controller")
+        String controller;
+
+        @Label("Handler")
+        String handler;
+    }
+
+    /**
+     * Evento {@code bank.FxmlLoad}, ver {@link FxmlLoadEvent}.
+     */
+    @Name("bank.FxmlLoad")
+    @Label("FXML Load")
+    @Category({"Bank", "UI"})
+    @Description("Carga de una vista FXML con su controlador")
+    static final class FxmlLoad extends Event {
+
+        @Label("FXML")
+        String fxml;
+
+        @Label("Controller")
+        String controller;
+    }
+
+    @Override
+    public HandlerEvent startHandler(String controller, String handler) {
+        ControllerHandler event = new ControllerHandler();
+        if (!event.isEnabled()) {
+            return EventSupport.NONE;
+        }
+        event.controller = controller;
+        event.handler = handler;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public <T> T load(FXMLLoader loader) throws IOException {
+        FxmlLoad event = new FxmlLoad();
+        if (!event.isEnabled()) {
+            return loader.load();
+        }
+        event.begin();
+        try {
+            return loader.load();
+        } finally {
+            String path = (loader.getLocation() == null) ? null : loader.getLocation().getPath();
+            event.fxml = (path == null) ? null : path.substring(path.lastIndexOf('/') + 1);
+            Object controller = loader.getController();
+            event.controller = (controller == null) ? null : controller.getClass().getSimpleName();
+            event.commit();
+        }
+    }
+}
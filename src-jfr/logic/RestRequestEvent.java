@@ -0,0 +1,129 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event of one request of the shared REST client,
+ * {@code bank.RestRequest}: it starts when the request leaves the filters
+ * that choose the server and ends when the response headers arrive, on the
+ * thread that receives them.
+ * <p>
+ * The event is only built while a recording has it enabled, so it costs
+ * nothing otherwise. This class is only built and loaded on runtimes with
+ * Java Flight Recorder: it lives in the {@code src-jfr} source root, and
+ * {@link RESTClientFactory} creates its {@link Recorder} by name through
+ * {@link FlightRecorder}. Requests that get no response (connection or read
+ * failure) are not committed; the response body size is the one announced
+ * by the server, -1 for a streamed body.
+ */
+@Name("bank.RestRequest")
+@Label("REST Request")
+@Category({"Bank", "REST"})
+@Description("Request of the shared REST client, from sending to the response headers")
+@StackTrace(false)
+final class RestRequestEvent extends Event {
+
+    private static final String EVENT_PROPERTY = "logic.RestRequestEvent.event";
+
+    @Label("Method")
+    String method;
+
+    @Label("Endpoint")
+    @Description("Resource method, with the ids replaced, for example GET account/customer/{id}")
+    String endpoint;
+
+    @Label("Operation")
+    @Description("Logical operation of the clients, for example account.findByCustomer")
+    String operation;
+
+    @Label("Server")
+    String server;
+
+    @Label("Status")
+    int status;
+
+    @Label("Request Bytes")
+    @DataAmount
+    long requestBytes;
+
+    @Label("Response Bytes")
+    @Description("Content-Length of the response, -1 if not known")
+    @DataAmount
+    long responseBytes = -1;
+
+    /**
+     * Request and response filter and writer interceptor of the shared
+     * client.
+     */
+    static final class Recorder implements ClientRequestFilter, ClientResponseFilter, WriterInterceptor {
+
+        @Override
+        public void filter(ClientRequestContext request) {
+            RestRequestEvent event = new RestRequestEvent();
+            if (!event.isEnabled()) {
+                return;
+            }
+            event.method = request.getMethod();
+            event.endpoint = Endpoints.nameOf(request.getMethod(), request.getUri());
+            event.operation = Endpoints.operationOf(event.endpoint);
+            event.server = request.getUri().getHost() + ":" + request.getUri().getPort();
+            event.begin();
+            request.setProperty(EVENT_PROPERTY, event);
+        }
+
+        @Override
+        public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+            final RestRequestEvent event = (RestRequestEvent) context.getProperty(EVENT_PROPERTY);
+            if (event != null) {
+                // Outside ContentEncoding, so the body is counted as sent
+                context.setOutputStream(new FilterOutputStream(context.getOutputStream()) {
+                    @Override
+                    public void write(int b) throws IOException {
+                        out.write(b);
+                        event.requestBytes++;
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                        event.requestBytes += len;
+                    }
+                });
+            }
+            context.proceed();
+        }
+
+        @Override
+        public void filter(ClientRequestContext request, ClientResponseContext response) {
+            RestRequestEvent event = (RestRequestEvent) request.getProperty(EVENT_PROPERTY);
+            if (event == null) {
+                return;
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.status = response.getStatus();
+                event.responseBytes = response.getLength();
+                event.commit();
+            }
+        }
+    }
+}
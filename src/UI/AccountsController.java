@@ -7,6 +7,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javafx.application.Platform;
@@ -29,8 +30,12 @@ import javafx.stage.Modality;
 import javafx.stage.Stage;
 import javafx.stage.WindowEvent;
 import javafx.util.Callback;
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.core.GenericType;
 import logic.AccountRESTClient;
+import logic.EntityCache;
+import logic.RetryPolicy;
+import logic.ServerPool;
 import model.Account;
 import model.AccountType;
 import model.Customer;
@@ -82,6 +87,11 @@ public class AccountsController implements Initializable, MenuActionsHandler {
     
     // Variable para localizar la cuenta que se está creando
     private Account creatingAccount = null;
+    // Clave de idempotencia del alta en curso: si el usuario vuelve a pulsar Save
+    // tras un error de red, el servidor reconoce la repetición y no duplica la cuenta
+    private String creatingAccountKey = null;
+    // Estado de btnCreate antes de deshabilitarlo por falta de servidor; null si no está deshabilitado por eso
+    private Boolean createDisabledBeforeOffline = null;
 
     @FXML
     private MenuBar menuBar;
@@ -191,6 +201,38 @@ public class AccountsController implements Initializable, MenuActionsHandler {
         stage.setResizable(false);
         stage.initModality(Modality.APPLICATION_MODAL);
 
+        // Modo degradado: con los disyuntores de todos los servidores abiertos no
+        // responde ninguno, las lecturas salen de la caché y no se permiten altas
+        // hasta que se recupere alguno
+        final Stage window = stage;
+        final String title = stage.getTitle();
+        final ServerPool.Listener serverState = new ServerPool.Listener() {
+            @Override
+            public void offlineChanged(final boolean offline) {
+                Platform.runLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        window.setTitle(offline ? title + " (servidor sin respuesta: datos en caché)" : title);
+                        if (offline && !creationMode && createDisabledBeforeOffline == null) {
+                            createDisabledBeforeOffline = btnCreate.isDisable();
+                            btnCreate.setDisable(true);
+                        } else if (!offline && createDisabledBeforeOffline != null) {
+                            // Vuelve al estado que tenía antes de quedarse sin servidor
+                            btnCreate.setDisable(createDisabledBeforeOffline);
+                            createDisabledBeforeOffline = null;
+                        }
+                    }
+                });
+            }
+        };
+        ServerPool.addListener(serverState);
+        stage.setOnHidden(new EventHandler<WindowEvent>() {
+            @Override
+            public void handle(WindowEvent event) {
+                ServerPool.removeListener(serverState);
+            }
+        });
+
         // Evento al mostrar ventana
         stage.setOnShowing(new EventHandler<WindowEvent>() {
             @Override
@@ -301,13 +343,14 @@ public class AccountsController implements Initializable, MenuActionsHandler {
    
     
     private void loadAccountsData() {
+        HandlerEvent trace = HandlerEvent.start("AccountsController", "loadAccountsData");
         try {
         // Definimos el tipo exacto que queremos recibir: Una Lista de Accounts
         // Usamos una clase anónima interna para capturar el tipo genérico
         GenericType<List<Account>> listType = new GenericType<List<Account>>() {};
 
         // Llamamos al servidor usando el nuevo método que acepta listType
-        List<Account> accountsList = accountClient.findAccountsByCustomerId_XML(listType, String.valueOf(userCustomer.getId()));
+        List<Account> accountsList = accountClient.findAccountsByCustomerId(listType, String.valueOf(userCustomer.getId()));
 
         // Convertimos la lista estándar de Java a una ObservableList para la tabla
         accountsData = FXCollections.observableArrayList(accountsList);
@@ -320,6 +363,8 @@ public class AccountsController implements Initializable, MenuActionsHandler {
         
         // Mostrar alerta al usuario
         showErrorAlert("Error loading server accounts: " + ex.getMessage());
+    } finally {
+        trace.commit();
     }
     }
 
@@ -490,7 +535,7 @@ public class AccountsController implements Initializable, MenuActionsHandler {
             try {
                 // Llamada al Servidor (REST PUT)
                 // Enviamos el objeto Account modificado y su ID como String
-                accountClient.updateAccount_XML(selectedAccount);
+                accountClient.updateAccount(selectedAccount);
 
                 // Feedback de éxito
                 Alert successAlert = new Alert(Alert.AlertType.INFORMATION);
@@ -524,6 +569,7 @@ public class AccountsController implements Initializable, MenuActionsHandler {
     
     @FXML
     private void handleCreateAction(ActionEvent event) {
+        HandlerEvent trace = HandlerEvent.start("AccountsController", "handleCreateAction");
         try {
             if (!creationMode) {
                 loadAccountsData();
@@ -542,6 +588,7 @@ public class AccountsController implements Initializable, MenuActionsHandler {
                 
                 // Guardamos la referencia a la nueva cuenta
                 creatingAccount = newAccount;
+                creatingAccountKey = RetryPolicy.newIdempotencyKey();
                 
                 // Añadir a la lista observable (se muestra en tabla automáticamente)
                 accountsData.add(newAccount);
@@ -586,48 +633,83 @@ public class AccountsController implements Initializable, MenuActionsHandler {
                 // Añadimos el usuario actual a la lista de dueños de la cuenta
                 newAccount.getCustomers().add(userCustomer);                
                 
-                // Enviar al servidor
+                // Enviar al servidor sin bloquear la ventana. La clave de la
+                // operación es la misma en cada Save, así que si se repite tras
+                // un error de red el servidor no duplica la cuenta
                 LOGGER.info("Enviando nueva cuenta al servidor: " + newAccount.getId());
-                accountClient.createAccount_XML(newAccount);
-                
-                // 4. Feedback al usuario
-                Alert alert = new Alert(Alert.AlertType.INFORMATION);
-                alert.setTitle("Created Account");
-                alert.setHeaderText(null);
-                alert.setContentText("The account has been created successfully.");
-                alert.showAndWait();
-                
-                // Resetear estado
-                creationMode = false;
-                creatingAccount = null;
-                btnCreate.setText("Create");
-                btnCancel.setDisable(true);
-                btnCancel.setOpacity(0.0);
-                btnMovements.setDisable(false);
-                
-                // Recargamos datos para asegurar que tenemos lo que hay en BBDD
-                // y limpiamos cualquier estado "sucio" de la tabla.
-                loadAccountsData();
-                
-                // Restaurar botones según selección (el listener de la tabla lo hará, 
-                // pero forzamos el estado inicial correcto)
-                btnModify.setDisable(true);
-                btnDelete.setDisable(true);
+                btnCreate.setDisable(true);
+                accountClient.createAccountAsync(newAccount, creatingAccountKey, Platform::runLater)
+                        .whenComplete((ignored, error) -> accountCreated(error));
             }
             
         } catch (Exception e) {
-            LOGGER.severe("Error en proceso de creación: " + e.getMessage());
-            showErrorAlert("Error creating the account " + e.getMessage());
-            
-            // Si falla al guardar, recargamos datos (borrando la fila local no guardada)
-            creationMode = false;
-            creatingAccount = null;
-            btnCancel.setDisable(true);
-            btnCancel.setOpacity(0.0);
-            btnCreate.setText("Create");
-            btnMovements.setDisable(false);
-            loadAccountsData();
+            creationFailed(e);
+        } finally {
+            trace.commit();
+        }
+    }
+
+    /**
+     * Termina el alta cuando el servidor ha contestado (en el hilo de JavaFX).
+     *
+     * @param error null si la cuenta se ha creado.
+     */
+    private void accountCreated(Throwable error) {
+        btnCreate.setDisable(false);
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
         }
+        if (error instanceof ProcessingException) {
+            // Sin respuesta del servidor: la cuenta puede haberse creado o no.
+            // Se conserva la fila y la clave para que Save repita la misma operación.
+            LOGGER.log(Level.WARNING, "Sin respuesta al crear la cuenta", error);
+            showErrorAlert("The server did not answer. Press Save to try again.");
+            return;
+        }
+        if (error != null) {
+            creationFailed(error);
+            return;
+        }
+
+        // 4. Feedback al usuario
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.setTitle("Created Account");
+        alert.setHeaderText(null);
+        alert.setContentText("The account has been created successfully.");
+        alert.showAndWait();
+
+        // Resetear estado
+        creationMode = false;
+        creatingAccount = null;
+        creatingAccountKey = null;
+        btnCreate.setText("Create");
+        btnCancel.setDisable(true);
+        btnCancel.setOpacity(0.0);
+        btnMovements.setDisable(false);
+
+        // Recargamos datos para asegurar que tenemos lo que hay en BBDD
+        // y limpiamos cualquier estado "sucio" de la tabla.
+        loadAccountsData();
+
+        // Restaurar botones según selección (el listener de la tabla lo hará,
+        // pero forzamos el estado inicial correcto)
+        btnModify.setDisable(true);
+        btnDelete.setDisable(true);
+    }
+
+    private void creationFailed(Throwable e) {
+        LOGGER.severe("Error en proceso de creación: " + e.getMessage());
+        showErrorAlert("Error creating the account " + e.getMessage());
+
+        // Si falla al guardar, recargamos datos (borrando la fila local no guardada)
+        creationMode = false;
+        creatingAccount = null;
+        creatingAccountKey = null;
+        btnCancel.setDisable(true);
+        btnCancel.setOpacity(0.0);
+        btnCreate.setText("Create");
+        btnMovements.setDisable(false);
+        loadAccountsData();
     }
     
     @FXML
@@ -651,6 +733,7 @@ public class AccountsController implements Initializable, MenuActionsHandler {
                  // Resetear estado
                 creationMode = false;
                 creatingAccount = null;
+                creatingAccountKey = null;
                 btnCreate.setText("Create");
                 
                 // Restaurar estado de los botones
@@ -756,7 +839,7 @@ public class AccountsController implements Initializable, MenuActionsHandler {
         try {
             // Cargar el FXML de Movimientos
             FXMLLoader loader = new FXMLLoader(getClass().getResource("/UI/FXMLDocumentMyMovements.fxml"));
-            Parent root = loader.load();
+            Parent root = FxmlLoadEvent.load(loader);
 
             // Obtener la controladora
             MovementController controller = loader.getController();
@@ -792,7 +875,8 @@ public class AccountsController implements Initializable, MenuActionsHandler {
         try {
             LOGGER.info("Refrescando datos de la tabla...");
             
-            // Recargar los datos desde el servidor
+            // Recargar los datos desde el servidor (sin usar la caché local de cuentas)
+            EntityCache.invalidate(EntityCache.customerTag(userCustomer.getId()));
             loadAccountsData();
             tbAccounts.refresh();
             
@@ -807,6 +891,7 @@ public class AccountsController implements Initializable, MenuActionsHandler {
             // Asegurar que salimos de modo creación si estábamos en él
             creationMode = false;
             creatingAccount = null;
+            creatingAccountKey = null;
             btnCancel.setDisable(true);
             btnCancel.setOpacity(0.0);
             
@@ -0,0 +1,34 @@
+package UI;
+
+import java.io.IOException;
+import javafx.fxml.FXMLLoader;
+import logic.FlightRecorder;
+
+/**
+ * Acceso a los eventos de Java Flight Recorder de la interfaz sin depender de
+ * {@code jdk.jfr}, que no forma parte de la API de Java 8: {@code JfrEvents}
+ * está en el directorio de fuentes {@code src-jfr}, que solo se compila con
+ * JDK 11 o posterior, y se carga por su nombre si la máquina virtual tiene
+ * JFR (ver {@link FlightRecorder}).
+ */
+final class EventSupport {
+
+    /**
+     * Crea los eventos; implementado por {@code JfrEvents}.
+     */
+    interface Factory {
+
+        HandlerEvent startHandler(String controller, String handler);
+
+        <T> T load(FXMLLoader loader) throws IOException;
+    }
+
+    /** Eventos de JFR, o null si la máquina virtual no lo tiene. */
+    static final Factory FACTORY = FlightRecorder.newInstance("UI.JfrEvents", Factory.class);
+
+    /** Manejador que no se graba. */
+    static final HandlerEvent NONE = () -> { };
+
+    private EventSupport() {
+    }
+}
@@ -0,0 +1,29 @@
+package UI;
+
+import java.io.IOException;
+import javafx.fxml.FXMLLoader;
+
+/**
+ * Evento de Java Flight Recorder {@code bank.FxmlLoad}: tiempo de cargar una
+ * vista FXML al navegar entre ventanas (lectura del fichero, creación de los
+ * nodos y {@code initialize} del controlador). Si la máquina virtual no tiene
+ * JFR la vista se carga sin más; el evento en sí está en {@code JfrEvents} ({@code src-jfr}).
+ */
+public final class FxmlLoadEvent {
+
+    private FxmlLoadEvent() {
+    }
+
+    /**
+     * Carga la vista del {@code loader} y registra el tiempo que ha tardado.
+     *
+     * @param <T> Tipo del nodo raíz.
+     * @param loader Cargador con la ubicación del FXML ya indicada.
+     * @return Nodo raíz de la vista.
+     * @throws IOException Si el FXML no se puede cargar.
+     */
+    public static <T> T load(FXMLLoader loader) throws IOException {
+        EventSupport.Factory events = EventSupport.FACTORY;
+        return (events == null) ? loader.load() : events.load(loader);
+    }
+}
@@ -19,6 +19,7 @@ import javafx.stage.WindowEvent;
 import javax.ws.rs.ClientErrorException;
 import javax.ws.rs.InternalServerErrorException;
 import javax.ws.rs.NotAuthorizedException;
+import logic.CircuitOpenException;
 import logic.CustomerRESTClient;
 import model.Customer;
 
@@ -164,6 +165,21 @@ public class GestionUsuariosController {
      * @param event Evento de acción del botón
      */
     private void handleLoginButtonOnAction(ActionEvent event) {
+        HandlerEvent trace = HandlerEvent.start("GestionUsuariosController", "handleLoginButtonOnAction");
+        try {
+            login(event);
+        } finally {
+            trace.commit();
+        }
+    }
+
+    /**
+     * Valida las credenciales, inicia sesión en el servidor y abre la
+     * ventana de cuentas del cliente.
+     * 
+     * @param event Evento de acción del botón
+     */
+    private void login(ActionEvent event) {
         String email = EmailTextField.getText().trim();
         String password = PasswordField.getText();
 
@@ -195,7 +211,7 @@ public class GestionUsuariosController {
             
             LOGGER.info("Conectando a REST API para autenticación...");
             
-            customer = client.findCustomerByEmailPassword_XML(Customer.class, encEmail, encPassword);
+            customer = client.findCustomerByEmailPassword(Customer.class, encEmail, encPassword);
             
             // Autenticación exitosa
             if (customer != null && customer.getId() != null) {
@@ -242,6 +258,13 @@ public class GestionUsuariosController {
             }
             setControlsDisabled(false);
             
+        } catch (CircuitOpenException e) {
+            // Servidor caído en los últimos intentos: se avisa sin esperar al timeout
+            LOGGER.warning("Evento: login_error_circuit - " + e.getMessage());
+            showErrorAlert("The server is not responding.\n" +
+                          "Please, try again in a few seconds.");
+            setControlsDisabled(false);
+            
         } catch (Exception e) {
             // Error genérico (red, timeout, encoding, etc.)
             LOGGER.log(Level.SEVERE, "Error autenticacion REST", e);
@@ -379,7 +402,7 @@ public class GestionUsuariosController {
             
             // 2. Cargar el FXML
             LOGGER.info("Paso 2: Cargando FXML...");
-            Parent root = (Parent) loader.load();
+            Parent root = FxmlLoadEvent.load(loader);
             LOGGER.info("FXML cargado exitosamente. Root: " + (root != null ? "OK" : "NULL"));
             
             // 3. Obtener el controlador
@@ -481,7 +504,7 @@ public class GestionUsuariosController {
             
             // 2. Cargar el FXML
             FXMLLoader loader = new FXMLLoader(fxmlUrl);
-            Parent root = loader.load();
+            Parent root = FxmlLoadEvent.load(loader);
             
             if (root == null) {
                 LOGGER.severe("ERROR: Root es null al cargar Sign-Up FXML");
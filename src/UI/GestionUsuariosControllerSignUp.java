@@ -915,7 +915,7 @@ public class GestionUsuariosControllerSignUp {
      * 2. Recoge los datos de los {@link TextField}.
      * 3. Convierte Zip y Phone a los tipos numéricos esperados.
      * 4. Crea un objeto {@link Customer}.
-     * 5. Llama al método {@code create_XML} del {@link CustomerRESTClient}.
+     * 5. Llama al método {@code create} del {@link CustomerRESTClient}.
      * 6. Si tiene éxito, muestra una alerta informativa y cierra la ventana.
      * 7. Si falla, captura excepciones específicas (ej. {@link ForbiddenException}
      * para email duplicado, {@link InternalServerErrorException} para errores 500)
@@ -951,7 +951,7 @@ public class GestionUsuariosControllerSignUp {
             customer.setPassword(tfPass.getText());
 
             CustomerRESTClient client = new CustomerRESTClient();
-            client.create_XML(customer);
+            client.create(customer);
             client.close();
 
             // SI LLEGAS AQUÍ, ES PORQUE EL SERVIDOR DIJO "ÉXITO"
@@ -0,0 +1,41 @@
+package UI;
+
+/**
+ * Evento de Java Flight Recorder {@code bank.ControllerHandler}: duración de
+ * un manejador de un controlador o de una recarga de tabla ejecutada en el
+ * hilo de JavaFX. Sirve para ver en la grabación qué acción del usuario
+ * bloquea la interfaz y cuánto, junto a las peticiones REST
+ * ({@code bank.RestRequest}) que hace mientras tanto.
+ * <p>
+ * Uso:
+ * <pre>
+ * HandlerEvent trace = HandlerEvent.start("MovementController", "recalculateLocalBalances");
+ * try {
+ *     ...
+ * } finally {
+ *     trace.commit();
+ * }
+ * </pre>
+ * Si la máquina virtual no tiene JFR o no hay ninguna grabación con el evento
+ * activado, {@code start} y {@code commit} no hacen nada. El evento en sí está
+ * en {@code JfrEvents} ({@code src-jfr}).
+ */
+public interface HandlerEvent {
+
+    /**
+     * Termina la medida y graba el evento.
+     */
+    void commit();
+
+    /**
+     * Empieza a medir un manejador.
+     *
+     * @param controller Clase del controlador, sin paquete.
+     * @param handler Nombre del método.
+     * @return Evento ya empezado, para hacer {@code commit()} al terminar.
+     */
+    static HandlerEvent start(String controller, String handler) {
+        EventSupport.Factory events = EventSupport.FACTORY;
+        return (events == null) ? EventSupport.NONE : events.startHandler(controller, handler);
+    }
+}
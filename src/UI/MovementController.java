@@ -1,9 +1,13 @@
 package UI;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
 import javafx.beans.property.*;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.WeakChangeListener;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
@@ -13,9 +17,13 @@ import javafx.scene.control.cell.TextFieldTableCell;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.stage.Stage;
+import javafx.util.Callback;
 import javafx.util.StringConverter;
 import logic.AccountRESTClient;
 import logic.MovementRESTClient;
+import logic.Page;
+import logic.RunningBalanceLedger;
+import logic.ServerPool;
 import model.Account;
 import model.Customer;
 import model.Movement;
@@ -24,10 +32,15 @@ import java.net.URL;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.ws.rs.core.GenericType;
 
@@ -83,6 +96,39 @@ public class MovementController implements Initializable {
 
     // Flag para ignorar eventos del ComboBox cuando cambiamos la selección por código
     private boolean isProgrammaticUpdate = false;
+
+    // Libro de saldos incremental: orden cronológico y sumas parciales de los movimientos
+    private final RunningBalanceLedger balanceLedger = new RunningBalanceLedger();
+    // Las celdas de saldo se repintan cuando cambia la revisión, desde la fila indicada
+    private final LongProperty balanceRevision = new SimpleLongProperty(0);
+    private int invalidatedFrom = 0;
+
+    // Carga de movimientos en segundo plano y su número de generación (solo gana la última)
+    private Task<Long> movementsTask;
+    private long loadGeneration = 0;
+    // Lectura en streaming: tamaño de los lotes y filas que se pasan a la tabla en cada pulso
+    private static final int STREAM_BATCH_SIZE = 500;
+    private static final int MAX_ROWS_PER_PULSE = 5000;
+    private StreamedLoad streamedLoad;
+    private AnimationTimer batchPump;
+
+    // Aviso de modo degradado cuando se abren o se cierran los disyuntores de todos los servidores
+    private final ServerPool.Listener serverState = offline -> Platform.runLater(() -> {
+        if (offline) {
+            lblStatus.setGraphic(null);
+            lblStatus.setText("Servidor sin respuesta: se muestran datos en caché.");
+        } else {
+            lblStatus.setText("Conexión con el servidor restablecida.");
+        }
+    });
+
+    // Paginación en el servidor: tamaño de página y páginas que se conservan en memoria
+    private static final int PAGE_SIZE = 100;
+    private static final int MAX_PAGES_IN_MEMORY = 10;
+    // Lista paginada en uso, o null si todos los movimientos están en masterData
+    private PagedMovementList pagedData;
+    // Ordenación por defecto de la tabla (se desactiva en modo paginado)
+    private Callback<TableView<Movement>, Boolean> defaultSortPolicy;
     
     // Formateador estándar de fechas para la visualización en tabla
     private final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("dd/MM/yyyy");
@@ -151,6 +197,7 @@ public class MovementController implements Initializable {
 
         // 5. Vinculación de la lista maestra con el control visual
         tvMovements.setItems(masterData);
+        defaultSortPolicy = tvMovements.getSortPolicy();
 
         // 6. ATAJO DE TECLADO: Cerrar con tecla ESCAPE
         Platform.runLater(() -> {
@@ -164,11 +211,14 @@ public class MovementController implements Initializable {
             }
         });
         
-        // 7. Configuración estética del título de la ventana
+        // 7. Configuración estética del título de la ventana y aviso de modo degradado
+        // mientras la ventana esté abierta, se cierre como se cierre
         Platform.runLater(() -> {
             if (lblUserId.getScene() != null) {
                 Stage stage = (Stage) lblUserId.getScene().getWindow();
                 stage.setTitle("Movements"); 
+                ServerPool.addListener(serverState);
+                stage.setOnHidden(event -> ServerPool.removeListener(serverState));
             }
         });
     }
@@ -212,7 +262,7 @@ public class MovementController implements Initializable {
         colAmount.setCellValueFactory(cellData -> new SimpleObjectProperty<>(cellData.getValue().getAmount()));
         colAmount.setCellFactory(TextFieldTableCell.forTableColumn(new StringConverter<Double>() {
             @Override
-            public String toString(Double object) { return object == null ? "0.00" : object.toString(); }
+            public String toString(Double object) { return object == null ? "" : object.toString(); }
 
             @Override
             public Double fromString(String string) {
@@ -243,11 +293,43 @@ public class MovementController implements Initializable {
 
         // D) COLUMNA BALANCE: Muestra el saldo acumulativo (no se edita, se calcula)
         colBalance.setCellValueFactory(cellData -> new ReadOnlyObjectWrapper<>(cellData.getValue()));
+        // El saldo se consulta al libro incremental (O(log n)) en el momento de pintar la celda.
+        // Cuando cambian los saldos a partir de una fila, solo se repintan las celdas
+        // visibles desde esa fila en adelante (ver invalidateBalancesFrom).
         colBalance.setCellFactory(column -> new TableCell<Movement, Movement>() {
+            // La tabla crea y descarta celdas al redimensionarse: el aviso se registra
+            // con referencia débil para que las celdas descartadas se puedan liberar
+            private final ChangeListener<Number> onRevision = (obs, oldRev, newRev) -> {
+                if (getIndex() >= invalidatedFrom) renderBalance();
+            };
+
+            {
+                balanceRevision.addListener(new WeakChangeListener<>(onRevision));
+            }
+
             @Override
             protected void updateItem(Movement item, boolean empty) {
                 super.updateItem(item, empty);
-                setText((empty || item == null) ? null : String.format("%.2f €", item.getBalance()));
+                renderBalance();
+            }
+
+            private void renderBalance() {
+                Movement item = getItem();
+                if (isEmpty() || item == null || item == PagedMovementList.PLACEHOLDER) {
+                    setText(null);
+                    return;
+                }
+                // Modo paginado: el saldo sale de las sumas por página ("…" mientras se descargan)
+                if (pagedData != null && pagedData.isServerRow(getIndex())) {
+                    Double balance = pagedData.balanceAt(getIndex());
+                    setText(balance == null ? "…" : String.format("%.2f €", balance));
+                    return;
+                }
+                int index = balanceLedger.indexOf(item);
+                // Las filas nuevas aún no guardadas no están en el libro: muestran su saldo previsto
+                double balance = (index >= 0) ? balanceLedger.balanceAt(index)
+                        : (item.getBalance() != null ? item.getBalance() : 0.0);
+                setText(String.format("%.2f €", balance));
             }
         });
     }
@@ -272,7 +354,7 @@ public class MovementController implements Initializable {
     private void loadUserAccounts(boolean selectFirst) {
         try {
             GenericType<List<Account>> listType = new GenericType<List<Account>>() {};
-            List<Account> accounts = accountClient.findAccountsByCustomerId_XML(listType, String.valueOf(currentCustomer.getId()));
+            List<Account> accounts = accountClient.findAccountsByCustomerId(listType, String.valueOf(currentCustomer.getId()));
 
             isProgrammaticUpdate = true; // Evitamos disparar el listener durante el refresco
             
@@ -303,57 +385,307 @@ public class MovementController implements Initializable {
 
     /**
      * Descarga y muestra los movimientos financieros de una cuenta seleccionada.
+     * La petición se ejecuta en segundo plano (Task) para no congelar la ventana.
+     * Cada carga lleva un número de generación: si el usuario cambia de cuenta
+     * antes de que termine, la carga anterior se cancela (abortando la petición
+     * HTTP) y su resultado se descarta aunque llegue tarde.
+     * <p>
+     * Se pide la primera página y la respuesta se lee en streaming: los
+     * movimientos llegan en lotes según se descargan. Si la cuenta cabe en una
+     * página se trabaja en memoria como siempre, y si no, la tabla pasa a una
+     * {@link PagedMovementList} que descarga el resto de páginas según se
+     * desplaza el usuario. Si el servidor no admite paginación y devuelve la
+     * lista entera, las filas se van añadiendo a la tabla en cada pulso de
+     * JavaFX en cuanto se supera una página, sin esperar al final de la
+     * respuesta (ver {@link #pumpStreamedBatches()}).
      */
     private void loadMovementsForAccount(Account account) {
         if (account == null) return;
 
-        try {
-            GenericType<List<Movement>> listType = new GenericType<List<Movement>>() {};
-            List<Movement> movementsList = movementClient.findMovementByAccount_XML(listType, String.valueOf(account.getId()));
+        // Cancelamos la carga anterior aunque su hilo no haya empezado: solo cuenta la última selección
+        if (movementsTask != null && !movementsTask.isDone()) {
+            movementsTask.cancel();
+        }
+        final long generation = ++loadGeneration;
+        final String accountId = String.valueOf(account.getId());
+        final StreamedLoad load = new StreamedLoad(accountId);
+        streamedLoad = load;
+
+        Task<Long> task = new Task<Long>() {
+            // Petición HTTP en curso, para poder abortarla al cancelar la tarea
+            private volatile CompletableFuture<Long> request;
 
-            masterData.clear();
-            masterData.addAll(movementsList);
+            @Override
+            protected Long call() throws Exception {
+                // Los lotes se encolan desde el hilo que lee la respuesta
+                request = movementClient.findMovementByAccountStreamAsync(accountId, 0, PAGE_SIZE,
+                        STREAM_BATCH_SIZE, load.inbox::add, Runnable::run)
+                        .toCompletableFuture();
+                // Cancelada antes de tener la petición: cancelled() no pudo abortarla
+                if (isCancelled()) {
+                    request.cancel(true);
+                }
+                try {
+                    return request.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw (cause instanceof Exception) ? (Exception) cause : e;
+                }
+            }
 
-            // IMPORTANTE: Calculamos los saldos línea a línea localmente
-            recalculateLocalBalances();
-            lblStatus.setText("Movimientos cargados: " + movementsList.size());
+            @Override
+            protected void cancelled() {
+                CompletableFuture<Long> pending = request;
+                if (pending != null) {
+                    pending.cancel(true);
+                }
+            }
+        };
 
-        } catch (Exception e) {
+        task.setOnSucceeded(e -> {
+            // Solo se aplica el resultado de la selección más reciente
+            if (generation != loadGeneration) return;
+            // Todos los lotes están ya en la cola; el siguiente pulso los vacía y termina la carga
+            load.total = task.getValue();
+        });
+        task.setOnFailed(e -> {
+            if (generation != loadGeneration) return;
+            stopStreamedLoad();
+            lblStatus.setGraphic(null);
             lblStatus.setText("Error al cargar movimientos.");
-            e.printStackTrace();
+            LOGGER.log(Level.SEVERE, "Error al cargar movimientos de la cuenta " + accountId, task.getException());
+        });
+
+        // Indicador de progreso en la barra de estado mientras dura la carga
+        ProgressIndicator progress = new ProgressIndicator();
+        progress.setPrefSize(14, 14);
+        lblStatus.setGraphic(progress);
+        lblStatus.setText("Cargando movimientos de la cuenta " + accountId + "...");
+
+        if (batchPump == null) {
+            batchPump = new AnimationTimer() {
+                @Override
+                public void handle(long now) {
+                    pumpStreamedBatches();
+                }
+            };
         }
+        batchPump.start();
+
+        movementsTask = task;
+        Thread loader = new Thread(task, "movements-loader-" + generation);
+        loader.setDaemon(true);
+        loader.start();
     }
 
     /**
-     * Algoritmo de cálculo de saldos parciales.
-     * Ordena cronológicamente y acumula importes sobre el saldo inicial de la cuenta.
+     * Estado de la carga en curso. La cola se llena desde el hilo de red; el
+     * resto solo se usa en el hilo de JavaFX.
      */
-    private void recalculateLocalBalances() {
-        // 1. Ordenación por fecha (Timestamp)
-        masterData.sort((m1, m2) -> {
-            if (m1.getTimestamp() == null || m2.getTimestamp() == null) return 0;
-            return m1.getTimestamp().compareTo(m2.getTimestamp());
-        });
+    private static final class StreamedLoad {
+        final String accountId;
+        final ConcurrentLinkedQueue<List<Movement>> inbox = new ConcurrentLinkedQueue<>();
+        // Filas recibidas mientras no se sabe si la respuesta es una sola página
+        List<Movement> firstRows = new ArrayList<>();
+        // true cuando la respuesta resultó ser la lista entera y ya se está mostrando
+        boolean showingRows;
+        // Total anunciado por el servidor (-1 si no lo envía); null hasta que termina la respuesta
+        Long total;
+
+        StreamedLoad(String accountId) {
+            this.accountId = accountId;
+        }
+    }
 
-        // 2. Determinar punto de partida (Balance de apertura)
-        double runningBalance = 0.0;
-        Account selectedAccount = cbAccountSelector.getValue();
-        if (selectedAccount != null && selectedAccount.getBeginBalance() != null) {
-            runningBalance = selectedAccount.getBeginBalance();
+    /**
+     * Pulso de JavaFX durante una carga: pasa a la tabla los lotes recibidos,
+     * como mucho {@link #MAX_ROWS_PER_PULSE} filas por pulso para que la
+     * ventana siga respondiendo, y termina la carga cuando la respuesta se ha
+     * leído entera y la cola está vacía.
+     */
+    private void pumpStreamedBatches() {
+        StreamedLoad load = streamedLoad;
+        if (load == null) {
+            batchPump.stop();
+            return;
+        }
+        int added = 0;
+        List<Movement> batch;
+        while (added < MAX_ROWS_PER_PULSE && (batch = load.inbox.poll()) != null) {
+            appendStreamedRows(load, batch);
+            added += batch.size();
+        }
+        if (load.total != null && load.inbox.isEmpty()) {
+            finishStreamedLoad(load);
+        } else if (added > 0 && load.showingRows) {
+            lblStatus.setText("Cargando movimientos... " + masterData.size());
+        }
+    }
+
+    /**
+     * Añade un lote a la tabla. Hasta superar una página no se sabe si el
+     * servidor ha paginado la respuesta, así que esas filas se guardan; después
+     * cada movimiento entra en el libro de saldos y, si llega en orden
+     * cronológico (lo normal), se añade al final de la tabla sin reordenar nada.
+     */
+    private void appendStreamedRows(StreamedLoad load, List<Movement> rows) {
+        if (!load.showingRows) {
+            load.firstRows.addAll(rows);
+            if (load.firstRows.size() <= PAGE_SIZE) return;
+            load.showingRows = true;
+            showAllMovements(load.firstRows);
+            load.firstRows = null;
+            return;
+        }
+        int firstChanged = Integer.MAX_VALUE;
+        boolean appended = true;
+        for (Movement mov : rows) {
+            int index = balanceLedger.insert(mov);
+            firstChanged = Math.min(firstChanged, index);
+            appended &= index == balanceLedger.size() - 1;
         }
+        if (appended) {
+            masterData.addAll(rows);
+        } else {
+            masterData.setAll(balanceLedger.toList());
+        }
+        invalidateBalancesFrom(firstChanged);
+        updateBalanceField();
+    }
 
-        // 3. Iteración para cálculo acumulativo
-        for (Movement m : masterData) {
-            runningBalance += m.getAmount();
-            m.setBalance(runningBalance); // Se guarda en el objeto para que la tabla lo muestre
+    /**
+     * Fin de la respuesta: si la cuenta no superaba una página se decide entre
+     * memoria y paginación como con cualquier primera página.
+     */
+    private void finishStreamedLoad(StreamedLoad load) {
+        stopStreamedLoad();
+        lblStatus.setGraphic(null);
+        if (load.showingRows) {
+            lblStatus.setText("Movimientos cargados: " + masterData.size());
+            return;
         }
 
-        // 4. Actualización de la UI en el hilo principal
-        final double finalBalance = runningBalance;
-        Platform.runLater(() -> {
-            tfBalance.setText(String.format("%.2f €", finalBalance));
-            tvMovements.refresh(); // Forzamos el repintado para actualizar la columna Balance
+        Page<Movement> firstPage = new Page<>(load.firstRows, 0, PAGE_SIZE, load.total);
+        if (firstPage.isComplete() || !firstPage.isPagingHonored()) {
+            // Todos los movimientos en memoria: calculamos los saldos línea a línea localmente
+            showAllMovements(firstPage.getItems());
+            lblStatus.setText("Movimientos cargados: " + firstPage.getItems().size());
+        } else {
+            showPagedMovements(load.accountId, firstPage);
+            lblStatus.setText(pagedData.isSizeKnown()
+                    ? "Movimientos: " + pagedData.serverSize() + " (carga por páginas)"
+                    : "Movimientos: más de " + firstPage.getItems().size() + " (carga por páginas)");
+        }
+    }
+
+    /** Detiene el volcado de lotes y descarta los pendientes. */
+    private void stopStreamedLoad() {
+        streamedLoad = null;
+        if (batchPump != null) {
+            batchPump.stop();
+        }
+    }
+
+    /**
+     * Muestra una cuenta cuyos movimientos están todos en memoria.
+     */
+    private void showAllMovements(List<Movement> movements) {
+        disposePagedData();
+        tvMovements.setSortPolicy(defaultSortPolicy);
+        tvMovements.setItems(masterData);
+        recalculateLocalBalances(movements);
+    }
+
+    /**
+     * Muestra una cuenta con muchos movimientos descargándolos por páginas.
+     * Las filas del servidor llegan ya en orden cronológico, así que la tabla
+     * no se puede reordenar en este modo.
+     */
+    private void showPagedMovements(String accountId, Page<Movement> firstPage) {
+        disposePagedData();
+        balanceLedger.clear();
+        masterData.clear();
+
+        Account selectedAccount = cbAccountSelector.getValue();
+        double openingBalance = (selectedAccount != null && selectedAccount.getBeginBalance() != null)
+                ? selectedAccount.getBeginBalance() : 0.0;
+        pagedData = new PagedMovementList(movementClient, accountId, PAGE_SIZE,
+                MAX_PAGES_IN_MEMORY, openingBalance, firstPage);
+        pagedData.setOnBalancesChanged(this::invalidateBalancesFrom);
+        pagedData.setOnError(error -> {
+            lblStatus.setText("Error al cargar movimientos.");
+            LOGGER.log(Level.SEVERE, "Error al cargar una página de movimientos de la cuenta " + accountId, error);
         });
+
+        tvMovements.setSortPolicy(table -> false);
+        tvMovements.setItems(pagedData);
+        invalidateBalancesFrom(0);
+        updateBalanceField();
+    }
+
+    /** Cancela las descargas de la lista paginada anterior, si la hay. */
+    private void disposePagedData() {
+        if (pagedData != null) {
+            pagedData.dispose();
+            pagedData = null;
+        }
+    }
+
+    /** Lista que muestra actualmente la tabla (en memoria o paginada). */
+    private ObservableList<Movement> currentRows() {
+        return (pagedData != null) ? pagedData : masterData;
+    }
+
+    /**
+     * Algoritmo de cálculo de saldos parciales.
+     * Reconstruye el libro de saldos (orden cronológico + sumas parciales) a partir de
+     * los movimientos recibidos y los publica en la tabla en ese orden. Si los datos
+     * ya llegan ordenados no se reordena nada, y los saldos de cada fila no se
+     * recorren aquí: la columna Balance los consulta al libro al pintarse.
+     */
+    private void recalculateLocalBalances(List<Movement> movements) {
+        HandlerEvent trace = HandlerEvent.start("MovementController", "recalculateLocalBalances");
+        try {
+            // 1. Determinar punto de partida (Balance de apertura)
+            double openingBalance = 0.0;
+            Account selectedAccount = cbAccountSelector.getValue();
+            if (selectedAccount != null && selectedAccount.getBeginBalance() != null) {
+                openingBalance = selectedAccount.getBeginBalance();
+            }
+
+            // 2. Ordenación por fecha e id y cálculo de sumas parciales
+            balanceLedger.reset(openingBalance, movements);
+
+            // 3. La tabla muestra los movimientos en el orden del libro
+            masterData.setAll(balanceLedger.toList());
+            invalidateBalancesFrom(0);
+            updateBalanceField();
+        } finally {
+            trace.commit();
+        }
+    }
+
+    /**
+     * Marca como obsoletos los saldos desde una fila en adelante; solo se
+     * repintan las celdas visibles afectadas.
+     */
+    private void invalidateBalancesFrom(int index) {
+        invalidatedFrom = Math.max(0, index);
+        balanceRevision.set(balanceRevision.get() + 1);
+    }
+
+    /**
+     * Muestra el saldo final del libro en el campo de saldo total. En modo
+     * paginado no se tienen todos los movimientos, así que se usa el saldo
+     * actual de la cuenta.
+     */
+    private void updateBalanceField() {
+        Account selectedAccount = cbAccountSelector.getValue();
+        if (pagedData != null && selectedAccount != null && selectedAccount.getBalance() != null) {
+            tfBalance.setText(String.format("%.2f €", selectedAccount.getBalance()));
+        } else {
+            tfBalance.setText(String.format("%.2f €", balanceLedger.finalBalance()));
+        }
     }
 
     // --- ACCIONES CRUD (Create, Remove) ---
@@ -376,7 +708,7 @@ public class MovementController implements Initializable {
             newMov.setBalance(Double.parseDouble(txt));
         } catch(Exception e) { newMov.setBalance(0.0); }
 
-        masterData.add(newMov);
+        currentRows().add(newMov);
         
         // Foco automático en la nueva fila para iniciar edición
         Platform.runLater(() -> {
@@ -401,6 +733,7 @@ public class MovementController implements Initializable {
      * Persiste un movimiento en el servidor previa validación de saldo.
      */
     private void createMovementOnServer(Movement mov) {
+        HandlerEvent trace = HandlerEvent.start("MovementController", "createMovementOnServer");
         try {
             Account acc = cbAccountSelector.getValue();
             double currentBal = 0.0;
@@ -422,7 +755,7 @@ public class MovementController implements Initializable {
                 if (typeStr.contains("STANDARD")) { 
                     if (currentBal < 0) {
                         showError("Fondos insuficientes (Cuenta Standard).");
-                        masterData.remove(mov);
+                        currentRows().remove(mov);
                         tvMovements.refresh();
                         return;
                     }
@@ -432,7 +765,7 @@ public class MovementController implements Initializable {
                     double limit = (acc.getCreditLine() != null) ? acc.getCreditLine() : 0.0;
                     if (currentBal < -limit) {
                         showError("Límite de crédito excedido (" + limit + " €).");
-                        masterData.remove(mov);
+                        currentRows().remove(mov);
                         tvMovements.refresh();
                         return;
                     }
@@ -442,30 +775,78 @@ public class MovementController implements Initializable {
             // Si las validaciones pasan, se envía al servidor REST
             mov.setBalance(currentBal); 
             mov.setAccount(acc);
-            movementClient.create_XML(mov, String.valueOf(acc.getId()));
-            
-            reloadEverything(); // Sincronización final con el estado del servidor
+            movementClient.create(mov, String.valueOf(acc.getId()));
+
+            if (pagedData != null || !assignServerId(mov, acc)) {
+                // Modo paginado, o sin id del servidor: se vuelve a pedir todo
+                reloadEverything();
+            } else {
+                // Actualización incremental del libro: solo cambian los saldos desde la nueva fila
+                invalidateBalancesFrom(balanceLedger.insert(mov));
+                updateBalanceField();
+
+                // Solo se refrescan las cuentas (saldo actual) manteniendo la selección
+                loadUserAccounts(false);
+            }
             lblStatus.setText("Guardado exitosamente.");
             
         } catch (Exception e) {
-            masterData.remove(mov); // Reversión en UI si falla la red
+            currentRows().remove(mov); // Reversión en UI si falla la red
             lblStatus.setText("Error al guardar.");
             showError("Error técnico: " + e.getMessage());
+        } finally {
+            trace.commit();
         }
     }
 
+    /**
+     * Asigna a un movimiento recién creado el id que le ha dado el servidor,
+     * que no lo devuelve al crearlo. El movimiento es la última fila de la
+     * cuenta, así que basta pedir una página de una sola fila (o la lista
+     * entera si el servidor no pagina).
+     *
+     * @return false si la última fila no es el movimiento creado.
+     */
+    private boolean assignServerId(Movement mov, Account acc) {
+        List<Movement> items = movementClient.findMovementByAccountPage(
+                String.valueOf(acc.getId()), balanceLedger.size(), 1).getItems();
+        if (items.isEmpty()) return false;
+        Movement last = items.get(items.size() - 1);
+        if (last.getId() == null || !last.getAmount().equals(mov.getAmount())) return false;
+        mov.setId(last.getId());
+        return true;
+    }
+
     /**
      * Elimina el último movimiento registrado (Función Deshacer).
      */
     @FXML
     void handleUndoLastMovement(ActionEvent event) {
-        if (masterData.isEmpty()) return;
+        if (currentRows().isEmpty()) return;
         
         if (!showConfirmation("¿Estás seguro de que deseas eliminar el último movimiento?")) {
             return;
         }
 
-        Movement last = masterData.get(masterData.size()-1); 
+        if (pagedData != null) {
+            // Modo paginado: puede que la última página aún no esté descargada
+            lblStatus.setText("Buscando el último movimiento...");
+            pagedData.lastServerRowAsync().whenComplete((last, error) -> {
+                if (error != null || last == null) {
+                    lblStatus.setText("Error al deshacer.");
+                    return;
+                }
+                removeLastMovement(last);
+            });
+            return;
+        }
+        removeLastMovement(masterData.get(masterData.size()-1));
+    }
+
+    /**
+     * Borra en el servidor el último movimiento y ajusta el saldo de la cuenta.
+     */
+    private void removeLastMovement(Movement last) {
         try {
             // Borrado físico en el servidor
             movementClient.remove(String.valueOf(last.getId()));
@@ -473,9 +854,21 @@ public class MovementController implements Initializable {
             // Actualización del balance de la cuenta tras el borrado
             Account acc = cbAccountSelector.getValue();
             acc.setBalance(acc.getBalance() - last.getAmount());
-            accountClient.updateAccount_XML(acc);
-            
-            reloadEverything();
+            accountClient.updateAccount(acc);
+
+            if (pagedData != null) {
+                // Modo paginado: se vuelve a pedir la primera página
+                reloadEverything();
+            } else {
+                // Actualización incremental: se quita la fila sin recargar ni reordenar los movimientos
+                int index = balanceLedger.remove(last);
+                masterData.remove(last);
+                invalidateBalancesFrom(index);
+                updateBalanceField();
+
+                // Solo se refrescan las cuentas (saldo actual) manteniendo la selección
+                loadUserAccounts(false);
+            }
             lblStatus.setText("Deshecho.");
         } catch (Exception e) {
             lblStatus.setText("Error al deshacer.");
@@ -521,7 +914,9 @@ public class MovementController implements Initializable {
     }
     
     // Identifica si un objeto es nuevo (ID nulo o 0) o ya existe en la base de datos
-    private boolean isNewRow(Movement m) { return m.getId() == null || m.getId() == 0; }
+    private boolean isNewRow(Movement m) {
+        return m != PagedMovementList.PLACEHOLDER && (m.getId() == null || m.getId() == 0);
+    }
     
     /** Método público para seleccionar una cuenta específica desde un controlador externo */
     public void setPreselectedAccount(Account account) {
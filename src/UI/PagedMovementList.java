@@ -0,0 +1,449 @@
+package UI;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import javafx.application.Platform;
+import javafx.collections.ObservableListBase;
+import logic.MovementRESTClient;
+import logic.Page;
+import model.Movement;
+
+/**
+ * Lista observable de movimientos que se descarga del servidor por páginas
+ * a medida que la tabla las pide (desplazamiento virtualizado).
+ * <p>
+ * Funcionamiento:
+ * <ul>
+ * <li>{@link #get(int)} devuelve la fila si su página está en memoria; si no,
+ * devuelve {@link #PLACEHOLDER} y pide la página en segundo plano. Al llegar,
+ * se notifica a la tabla que esas filas han sido reemplazadas.</li>
+ * <li>Al leer una página se precarga la siguiente, para que el desplazamiento
+ * hacia abajo no muestre huecos.</li>
+ * <li>Solo se guardan en memoria las {@code maxPages} páginas usadas más
+ * recientemente; el resto se descarta y se vuelve a pedir si hace falta.</li>
+ * <li>El saldo acumulado de una fila sale del saldo que envía el servidor en
+ * el primer movimiento de su página, más los importes de la página hasta esa
+ * fila. Si el servidor no lo envía se usa la suma de importes de las páginas
+ * anteriores ya descargadas; si falta alguna la fila queda sin saldo hasta
+ * que el usuario pase por ella. Nunca se descargan páginas solo para el saldo.
+ * Cuando se completan las sumas se avisa con
+ * {@link #setOnBalancesChanged(IntConsumer)}.</li>
+ * </ul>
+ * Si el servidor envía la cabecera {@code X-Total-Count}, el tamaño de la lista
+ * es exacto; si no, la lista crece página a página hasta recibir una página
+ * incompleta.
+ * <p>
+ * Las filas del servidor son de solo lectura. Al final se pueden añadir filas
+ * locales (movimientos nuevos aún no guardados) con {@code add} y quitarlas con
+ * {@code remove}. {@link #indexOf(Object)} busca por identidad y solo en las
+ * páginas cargadas y las filas locales.
+ * <p>
+ * Todos los métodos deben llamarse desde el hilo de JavaFX.
+ */
+public class PagedMovementList extends ObservableListBase<Movement> {
+
+    /**
+     * Fila que se muestra mientras su página se está descargando.
+     */
+    public static final Movement PLACEHOLDER = new Movement();
+
+    static {
+        PLACEHOLDER.setDescription("…");
+    }
+
+    private final MovementRESTClient client;
+    private final String accountId;
+    private final int pageSize;
+    private final int maxPages;
+    private final double openingBalance;
+    private final Executor fxExecutor;
+
+    // Páginas en memoria en orden de uso (LRU)
+    private final LinkedHashMap<Integer, List<Movement>> pages = new LinkedHashMap<>(16, 0.75f, true);
+    // Suma de importes de cada página descargada alguna vez
+    private final Map<Integer, Double> pageSums = new HashMap<>();
+    // Descargas en curso: resultado para quien espera y petición HTTP para cancelarla
+    private final Map<Integer, CompletableFuture<List<Movement>>> loading = new HashMap<>();
+    private final Map<Integer, CompletableFuture<Page<Movement>>> requests = new HashMap<>();
+    private final Set<Integer> failed = new HashSet<>();
+    private final List<Movement> localRows = new ArrayList<>();
+
+    private long total;
+    private int knownExtent;
+    private boolean complete;
+    private boolean disposed;
+
+    // prefix[q] = suma de las páginas 0..q-1, válido hasta prefixValid
+    private double[] prefix = new double[16];
+    private int prefixValid = 0;
+
+    private IntConsumer onBalancesChanged;
+    private Consumer<Throwable> onError;
+
+    /**
+     * @param client Cliente REST de movimientos.
+     * @param accountId Cuenta cuyos movimientos se muestran.
+     * @param pageSize Movimientos por página.
+     * @param maxPages Páginas que se conservan en memoria como máximo.
+     * @param openingBalance Saldo de apertura de la cuenta.
+     * @param firstPage Primera página, ya descargada.
+     */
+    public PagedMovementList(MovementRESTClient client, String accountId, int pageSize,
+            int maxPages, double openingBalance, Page<Movement> firstPage) {
+        this(client, accountId, pageSize, maxPages, openingBalance, firstPage, Platform::runLater);
+    }
+
+    /**
+     * Como el constructor público, con el executor en el que se reciben las
+     * páginas (el hilo de JavaFX fuera de las pruebas).
+     */
+    PagedMovementList(MovementRESTClient client, String accountId, int pageSize,
+            int maxPages, double openingBalance, Page<Movement> firstPage, Executor fxExecutor) {
+        this.fxExecutor = fxExecutor;
+        this.client = client;
+        this.accountId = accountId;
+        this.pageSize = pageSize;
+        this.maxPages = Math.max(2, maxPages);
+        this.openingBalance = openingBalance;
+        this.total = firstPage.getTotal();
+        store(0, firstPage);
+    }
+
+    /** Acción a ejecutar cuando cambian los saldos desde una fila en adelante. */
+    public void setOnBalancesChanged(IntConsumer onBalancesChanged) {
+        this.onBalancesChanged = onBalancesChanged;
+    }
+
+    /** Acción a ejecutar cuando falla la descarga de una página. */
+    public void setOnError(Consumer<Throwable> onError) {
+        this.onError = onError;
+    }
+
+    /**
+     * @return Número de filas del servidor (conocidas o previstas).
+     */
+    public int serverSize() {
+        if (total >= 0) {
+            return (int) total;
+        }
+        return knownExtent + (complete ? 0 : pageSize);
+    }
+
+    /**
+     * @return true si el número total de movimientos ya es conocido.
+     */
+    public boolean isSizeKnown() {
+        return total >= 0 || complete;
+    }
+
+    /**
+     * @param index Fila de la tabla.
+     * @return true si la fila corresponde a un movimiento del servidor.
+     */
+    public boolean isServerRow(int index) {
+        return index >= 0 && index < serverSize();
+    }
+
+    @Override
+    public int size() {
+        return serverSize() + localRows.size();
+    }
+
+    @Override
+    public Movement get(int index) {
+        int server = serverSize();
+        if (index >= server) {
+            return localRows.get(index - server);
+        }
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        int p = index / pageSize;
+        List<Movement> page = pages.get(p);
+        if (page == null) {
+            requestPage(p, false);
+            return PLACEHOLDER;
+        }
+        // Precarga de la página siguiente
+        if ((p + 1) * pageSize < server && !pages.containsKey(p + 1)) {
+            requestPage(p + 1, false);
+        }
+        int offset = index - p * pageSize;
+        return offset < page.size() ? page.get(offset) : PLACEHOLDER;
+    }
+
+    /**
+     * Saldo de la cuenta tras el movimiento de una fila.
+     *
+     * @param index Fila del servidor.
+     * @return El saldo, o null si todavía no se puede calcular (página sin
+     * descargar, o sin saldo del servidor ni páginas anteriores descargadas).
+     */
+    public Double balanceAt(int index) {
+        if (!isServerRow(index)) {
+            return null;
+        }
+        int p = index / pageSize;
+        List<Movement> page = pages.get(p);
+        if (page == null) {
+            return null;
+        }
+        Double before = balanceBefore(p, page);
+        if (before == null) {
+            return null;
+        }
+        double balance = before;
+        int offset = index - p * pageSize;
+        for (int i = 0; i <= offset && i < page.size(); i++) {
+            balance += amountOf(page.get(i));
+        }
+        return balance;
+    }
+
+    /**
+     * Obtiene el último movimiento del servidor, descargando lo necesario.
+     *
+     * @return Etapa que se completa en el hilo de JavaFX con el movimiento, o
+     * con null si la cuenta no tiene movimientos.
+     */
+    public CompletionStage<Movement> lastServerRowAsync() {
+        if (isSizeKnown()) {
+            int server = serverSize();
+            if (server == 0) {
+                return CompletableFuture.completedFuture(null);
+            }
+            final int last = server - 1;
+            final int p = last / pageSize;
+            return requestPage(p, true).thenApply(items -> {
+                int offset = last - p * pageSize;
+                return offset < items.size() ? items.get(offset) : items.get(items.size() - 1);
+            });
+        }
+        // Tamaño desconocido: se avanza página a página hasta la última
+        return requestPage(knownExtent / pageSize, true).thenCompose(items -> lastServerRowAsync());
+    }
+
+    /**
+     * Cancela las descargas en curso. La lista deja de actualizarse.
+     */
+    public void dispose() {
+        disposed = true;
+        for (CompletableFuture<Page<Movement>> request : new ArrayList<>(requests.values())) {
+            request.cancel(true);
+        }
+        requests.clear();
+        loading.clear();
+        pages.clear();
+    }
+
+    // --- Filas locales (movimientos nuevos no guardados) ---
+
+    @Override
+    public void add(int index, Movement movement) {
+        if (index != size()) {
+            throw new UnsupportedOperationException("Solo se pueden añadir filas al final");
+        }
+        localRows.add(movement);
+        beginChange();
+        nextAdd(index, index + 1);
+        endChange();
+    }
+
+    @Override
+    public Movement remove(int index) {
+        int server = serverSize();
+        if (index < server) {
+            throw new UnsupportedOperationException("Las filas del servidor son de solo lectura");
+        }
+        Movement removed = localRows.remove(index - server);
+        beginChange();
+        nextRemove(index, removed);
+        endChange();
+        return removed;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        int index = indexOf(o);
+        if (index < 0) {
+            return false;
+        }
+        remove(index);
+        return true;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        for (Map.Entry<Integer, List<Movement>> entry : pages.entrySet()) {
+            List<Movement> page = entry.getValue();
+            for (int i = 0; i < page.size(); i++) {
+                if (page.get(i) == o) {
+                    return entry.getKey() * pageSize + i;
+                }
+            }
+        }
+        for (int i = 0; i < localRows.size(); i++) {
+            if (localRows.get(i) == o) {
+                return serverSize() + i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    // --- Descarga de páginas ---
+
+    private CompletableFuture<List<Movement>> requestPage(final int p, boolean retryFailed) {
+        List<Movement> page = pages.get(p);
+        if (page != null) {
+            return CompletableFuture.completedFuture(page);
+        }
+        CompletableFuture<List<Movement>> pending = loading.get(p);
+        if (pending != null) {
+            return pending;
+        }
+        final CompletableFuture<List<Movement>> result = new CompletableFuture<>();
+        if (disposed || (failed.contains(p) && !retryFailed)) {
+            result.cancel(false);
+            return result;
+        }
+        CompletableFuture<Page<Movement>> request = client
+                .findMovementByAccountPageAsync(accountId, p * pageSize, pageSize, fxExecutor)
+                .toCompletableFuture();
+        loading.put(p, result);
+        requests.put(p, request);
+        request.whenComplete((loaded, error) -> {
+            loading.remove(p);
+            requests.remove(p);
+            if (disposed) {
+                result.cancel(false);
+                return;
+            }
+            if (error != null) {
+                failed.add(p);
+                result.completeExceptionally(error);
+                if (onError != null) {
+                    onError.accept(error);
+                }
+                return;
+            }
+            failed.remove(p);
+            pageLoaded(p, loaded);
+            result.complete(loaded.getItems());
+        });
+        return result;
+    }
+
+    private void pageLoaded(int p, Page<Movement> loaded) {
+        int oldServer = serverSize();
+        boolean newSum = store(p, loaded);
+        int newServer = serverSize();
+
+        beginChange();
+        int replacedEnd = Math.min(p * pageSize + loaded.getItems().size(),
+                Math.min(oldServer, newServer));
+        if (p * pageSize < replacedEnd) {
+            nextReplace(p * pageSize, replacedEnd,
+                    Collections.nCopies(replacedEnd - p * pageSize, PLACEHOLDER));
+        }
+        if (newServer > oldServer) {
+            nextAdd(oldServer, newServer);
+        } else if (newServer < oldServer) {
+            nextRemove(newServer, Collections.nCopies(oldServer - newServer, PLACEHOLDER));
+        }
+        endChange();
+
+        if (newSum && onBalancesChanged != null) {
+            onBalancesChanged.accept((p + 1) * pageSize);
+        }
+    }
+
+    /**
+     * Guarda una página y su suma. Devuelve true si la suma no se conocía.
+     */
+    private boolean store(int p, Page<Movement> loaded) {
+        List<Movement> items = loaded.getItems();
+        pages.put(p, items);
+        evict();
+        if (loaded.getTotal() >= 0) {
+            total = loaded.getTotal();
+        }
+        knownExtent = Math.max(knownExtent, p * pageSize + items.size());
+        if (loaded.isLast()) {
+            complete = true;
+        }
+        double sum = 0.0;
+        for (Movement m : items) {
+            sum += amountOf(m);
+        }
+        Double previous = pageSums.put(p, sum);
+        if (previous == null || previous != sum) {
+            prefixValid = Math.min(prefixValid, p);
+            return true;
+        }
+        return false;
+    }
+
+    private void evict() {
+        Iterator<Integer> eldest = pages.keySet().iterator();
+        while (pages.size() > maxPages && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    // --- Saldo acumulado ---
+
+    /**
+     * Saldo antes de la primera fila de una página: el del servidor en su
+     * primer movimiento o, si no lo trae, el saldo de apertura más las sumas
+     * de las páginas anteriores ya descargadas.
+     *
+     * @return El saldo, o null si no se conoce sin descargar nada.
+     */
+    private Double balanceBefore(int p, List<Movement> page) {
+        if (!page.isEmpty() && page.get(0).getBalance() != null) {
+            Movement first = page.get(0);
+            return first.getBalance() - amountOf(first);
+        }
+        Double before = sumBefore(p);
+        return (before == null) ? null : openingBalance + before;
+    }
+
+    private Double sumBefore(int p) {
+        if (prefix.length < p + 1) {
+            double[] bigger = new double[Math.max(p + 1, prefix.length * 2)];
+            System.arraycopy(prefix, 0, bigger, 0, prefix.length);
+            prefix = bigger;
+        }
+        while (prefixValid < p) {
+            Double sum = pageSums.get(prefixValid);
+            if (sum == null) {
+                return null;
+            }
+            prefix[prefixValid + 1] = prefix[prefixValid] + sum;
+            prefixValid++;
+        }
+        return prefix[p];
+    }
+
+    private static double amountOf(Movement m) {
+        return m.getAmount() != null ? m.getAmount() : 0.0;
+    }
+}
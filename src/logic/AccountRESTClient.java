@@ -6,6 +6,8 @@
 package logic;
 
 import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 import javax.ws.rs.ClientErrorException;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.WebTarget;
@@ -22,6 +24,8 @@ import model.Account;
  *        // do whatever with response
  *        client.close();
  * </pre>
+ * The methods without a format suffix use the client's {@link WireFormat};
+ * the {@code _XML} and {@code _JSON} ones always use that representation.
  *
  * @author edu
  */
@@ -29,69 +33,266 @@ public class AccountRESTClient {
 
     private WebTarget webTarget;
     private Client client;
-    private static final String BASE_URI = "http://localhost:8080/CRUDBankServerSide/webresources";
+    private static final String XML = javax.ws.rs.core.MediaType.APPLICATION_XML;
+    private static final String JSON = javax.ws.rs.core.MediaType.APPLICATION_JSON;
+    private WireFormat wireFormat = WireFormat.getDefault();
 
     public AccountRESTClient() {
-        client = javax.ws.rs.client.ClientBuilder.newClient();
-        webTarget = client.target(BASE_URI).path("account");
+        client = RESTClientFactory.getClient();
+        webTarget = client.target(ServerPool.getServiceUri()).path("account");
+    }
+
+    /**
+     * @return Representation used by the methods without a format suffix.
+     */
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    /**
+     * Changes the representation used by the methods without a format suffix.
+     *
+     * @param wireFormat XML or JSON.
+     */
+    public void setWireFormat(WireFormat wireFormat) {
+        if (wireFormat == null) {
+            throw new IllegalArgumentException("wireFormat must not be null");
+        }
+        this.wireFormat = wireFormat;
+    }
+
+    /**
+     * @return Circuit breaker of this client's service URI, that is, of the
+     * first replica only; the degraded mode depends on all of them, see
+     * {@link ServerPool#isOffline()}.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return CircuitBreaker.forServer(webTarget.getUri());
+    }
+
+    public <T> T findAccountsByCustomerId(GenericType<T> responseType, String id) throws ClientErrorException {
+        return findAccountsByCustomerId(responseType, id, wireFormat.getMediaType());
     }
 
     public <T> T findAccountsByCustomerId_XML(GenericType<T> responseType, String id) throws ClientErrorException {
-        WebTarget resource = webTarget;
-        resource = resource.path(java.text.MessageFormat.format("customer/{0}", new Object[]{id}));
-        return resource.request(javax.ws.rs.core.MediaType.APPLICATION_XML).get(responseType);
+        return findAccountsByCustomerId(responseType, id, XML);
+    }
+
+    public <T> T findAccountsByCustomerId_JSON(GenericType<T> responseType, String id) throws ClientErrorException {
+        return findAccountsByCustomerId(responseType, id, JSON);
     }
 
     public <T> T findAccountsByCustomerId_JSON(Class<T> responseType, String id) throws ClientErrorException {
-        WebTarget resource = webTarget;
-        resource = resource.path(java.text.MessageFormat.format("customer/{0}", new Object[]{id}));
-        return resource.request(javax.ws.rs.core.MediaType.APPLICATION_JSON).get(responseType);
+        return findAccountsByCustomerId_JSON(new GenericType<T>(responseType), id);
+    }
+
+    public <T> T find(GenericType<T> responseType, String id) throws ClientErrorException {
+        return find(responseType, id, wireFormat.getMediaType());
     }
 
     public <T> T find_XML(GenericType<T> responseType, String id) throws ClientErrorException {
-        WebTarget resource = webTarget;
-        resource = resource.path(java.text.MessageFormat.format("{0}", new Object[]{id}));
-        return resource.request(javax.ws.rs.core.MediaType.APPLICATION_XML).get(responseType);
+        return find(responseType, id, XML);
+    }
+
+    public <T> T find_JSON(GenericType<T> responseType, String id) throws ClientErrorException {
+        return find(responseType, id, JSON);
     }
 
     public <T> T find_JSON(Class<T> responseType, String id) throws ClientErrorException {
-        WebTarget resource = webTarget;
-        resource = resource.path(java.text.MessageFormat.format("{0}", new Object[]{id}));
-        return resource.request(javax.ws.rs.core.MediaType.APPLICATION_JSON).get(responseType);
+        return find_JSON(new GenericType<T>(responseType), id);
+    }
+
+    public void createAccount(Object requestEntity) throws ClientErrorException {
+        createAccount(requestEntity, wireFormat.getMediaType(), null);
+    }
+
+    /**
+     * Creates an account as one attempt of a logical operation that the
+     * caller may repeat (for example after an error): every call with the same
+     * key carries the same {@value RetryPolicy#IDEMPOTENCY_KEY_HEADER}, so
+     * the server can tell a repeat from a new account.
+     *
+     * @param requestEntity Account to create.
+     * @param idempotencyKey Key of the operation, from
+     * {@link RetryPolicy#newIdempotencyKey()}.
+     */
+    public void createAccount(Object requestEntity, String idempotencyKey) throws ClientErrorException {
+        createAccount(requestEntity, wireFormat.getMediaType(), idempotencyKey);
     }
 
     public void createAccount_XML(Object requestEntity) throws ClientErrorException {
-        webTarget.request(javax.ws.rs.core.MediaType.APPLICATION_XML).post(javax.ws.rs.client.Entity.entity(requestEntity, javax.ws.rs.core.MediaType.APPLICATION_XML));
+        createAccount(requestEntity, XML, null);
     }
 
     public void createAccount_JSON(Object requestEntity) throws ClientErrorException {
-        webTarget.request(javax.ws.rs.core.MediaType.APPLICATION_JSON).post(javax.ws.rs.client.Entity.entity(requestEntity, javax.ws.rs.core.MediaType.APPLICATION_JSON));
+        createAccount(requestEntity, JSON, null);
     }
 
     public void removeAccount(String id) throws ClientErrorException {
-        webTarget.path(java.text.MessageFormat.format("{0}", new Object[]{id})).request().delete();
+        try {
+            AsyncRequests.write(webTarget.path(java.text.MessageFormat.format("{0}", new Object[]{id})).request(), "DELETE", null, null);
+        } finally {
+            EntityCache.invalidate(EntityCache.accountTag(id));
+        }
+    }
+
+    public void updateAccount(Object requestEntity) throws ClientErrorException {
+        updateAccount(requestEntity, wireFormat.getMediaType(), null);
+    }
+
+    /**
+     * Like {@link #createAccount(Object, String)}, for an update.
+     */
+    public void updateAccount(Object requestEntity, String idempotencyKey) throws ClientErrorException {
+        updateAccount(requestEntity, wireFormat.getMediaType(), idempotencyKey);
     }
 
     public void updateAccount_XML(Object requestEntity) throws ClientErrorException {
-        webTarget.request(javax.ws.rs.core.MediaType.APPLICATION_XML).put(javax.ws.rs.client.Entity.entity(requestEntity, javax.ws.rs.core.MediaType.APPLICATION_XML));
+        updateAccount(requestEntity, XML, null);
     }
 
     public void updateAccount_JSON(Object requestEntity) throws ClientErrorException {
-        webTarget.request(javax.ws.rs.core.MediaType.APPLICATION_JSON).put(javax.ws.rs.client.Entity.entity(requestEntity, javax.ws.rs.core.MediaType.APPLICATION_JSON));
+        updateAccount(requestEntity, JSON, null);
+    }
+
+    public <T> T findAll(GenericType<T> responseType) throws ClientErrorException {
+        return findAll(responseType, wireFormat.getMediaType());
     }
 
     public <T> T findAll_XML(GenericType<T> responseType) throws ClientErrorException {
-        WebTarget resource = webTarget;
-        return resource.request(javax.ws.rs.core.MediaType.APPLICATION_XML).get(responseType);
+        return findAll(responseType, XML);
+    }
+
+    public <T> T findAll_JSON(GenericType<T> responseType) throws ClientErrorException {
+        return findAll(responseType, JSON);
     }
 
     public <T> T findAll_JSON(Class<T> responseType) throws ClientErrorException {
+        return findAll_JSON(new GenericType<T>(responseType));
+    }
+
+    // ---------------------------------------------------------------------
+    // Asynchronous variants. Each one returns immediately; the returned stage
+    // completes on the given executor and cancelling it aborts the request.
+    // Error statuses complete the stage exceptionally. See AsyncRequests.
+    // ---------------------------------------------------------------------
+
+    public <T> CompletionStage<T> findAccountsByCustomerIdAsync(GenericType<T> responseType, String id, Executor executor) {
+        return findAccountsByCustomerIdAsync(responseType, id, wireFormat.getMediaType(), executor);
+    }
+
+    public <T> CompletionStage<T> findAccountsByCustomerIdAsync_XML(GenericType<T> responseType, String id, Executor executor) {
+        return findAccountsByCustomerIdAsync(responseType, id, XML, executor);
+    }
+
+    public <T> CompletionStage<T> findAsync(GenericType<T> responseType, String id, Executor executor) {
+        return findAsync(responseType, id, wireFormat.getMediaType(), executor);
+    }
+
+    public <T> CompletionStage<T> findAsync_XML(GenericType<T> responseType, String id, Executor executor) {
+        return findAsync(responseType, id, XML, executor);
+    }
+
+    public <T> CompletionStage<T> findAllAsync(GenericType<T> responseType, Executor executor) {
+        return AsyncRequests.get(webTarget, wireFormat.getMediaType(), responseType, executor);
+    }
+
+    public <T> CompletionStage<T> findAllAsync_XML(GenericType<T> responseType, Executor executor) {
+        return AsyncRequests.get(webTarget, XML, responseType, executor);
+    }
+
+    public CompletionStage<Void> createAccountAsync(Object requestEntity, Executor executor) {
+        return writeAsync("POST", requestEntity, wireFormat.getMediaType(), null, executor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #createAccount(Object, String)}: every
+     * call with the same key is the same logical operation.
+     */
+    public CompletionStage<Void> createAccountAsync(Object requestEntity, String idempotencyKey, Executor executor) {
+        return writeAsync("POST", requestEntity, wireFormat.getMediaType(), idempotencyKey, executor);
+    }
+
+    public CompletionStage<Void> createAccountAsync_XML(Object requestEntity, Executor executor) {
+        return writeAsync("POST", requestEntity, XML, null, executor);
+    }
+
+    public CompletionStage<Void> updateAccountAsync(Object requestEntity, Executor executor) {
+        return writeAsync("PUT", requestEntity, wireFormat.getMediaType(), null, executor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #updateAccount(Object, String)}.
+     */
+    public CompletionStage<Void> updateAccountAsync(Object requestEntity, String idempotencyKey, Executor executor) {
+        return writeAsync("PUT", requestEntity, wireFormat.getMediaType(), idempotencyKey, executor);
+    }
+
+    public CompletionStage<Void> updateAccountAsync_XML(Object requestEntity, Executor executor) {
+        return writeAsync("PUT", requestEntity, XML, null, executor);
+    }
+
+    public CompletionStage<Void> removeAccountAsync(String id, Executor executor) {
+        return AsyncRequests.send(webTarget.path(java.text.MessageFormat.format("{0}", new Object[]{id})).request(), "DELETE", null, EntityCache.invalidating(executor, EntityCache.accountTag(id)));
+    }
+
+    // ---------------------------------------------------------------------
+    // Implementations shared by the XML, JSON and configured-format methods.
+    // ---------------------------------------------------------------------
+
+    private <T> T findAccountsByCustomerId(GenericType<T> responseType, String id, String mediaType) {
+        return AsyncRequests.await(findAccountsByCustomerIdAsync(responseType, id, mediaType, AsyncRequests.DIRECT));
+    }
+
+    private <T> T find(GenericType<T> responseType, String id, String mediaType) {
+        return AsyncRequests.await(findAsync(responseType, id, mediaType, AsyncRequests.DIRECT));
+    }
+
+    private <T> T findAll(GenericType<T> responseType, String mediaType) {
+        return AsyncRequests.await(AsyncRequests.get(webTarget, mediaType, responseType, AsyncRequests.DIRECT));
+    }
+
+    private void createAccount(Object requestEntity, String mediaType, String idempotencyKey) {
+        try {
+            AsyncRequests.write(webTarget.request(mediaType), "POST", javax.ws.rs.client.Entity.entity(requestEntity, mediaType), idempotencyKey);
+        } finally {
+            EntityCache.invalidate(EntityCache.accountWriteTags(requestEntity));
+        }
+    }
+
+    private void updateAccount(Object requestEntity, String mediaType, String idempotencyKey) {
+        try {
+            AsyncRequests.write(webTarget.request(mediaType), "PUT", javax.ws.rs.client.Entity.entity(requestEntity, mediaType), idempotencyKey);
+        } finally {
+            EntityCache.invalidate(EntityCache.accountWriteTags(requestEntity));
+        }
+    }
+
+    private <T> CompletionStage<T> findAccountsByCustomerIdAsync(GenericType<T> responseType, String id, String mediaType, Executor executor) {
+        WebTarget resource = webTarget;
+        resource = resource.path(java.text.MessageFormat.format("customer/{0}", new Object[]{id}));
+        return AsyncRequests.getCached(resource, mediaType, responseType, executor, EntityCache.customerTag(id), EntityCache.ALL_CUSTOMER_ACCOUNTS);
+    }
+
+    private <T> CompletionStage<T> findAsync(GenericType<T> responseType, String id, String mediaType, Executor executor) {
         WebTarget resource = webTarget;
-        return resource.request(javax.ws.rs.core.MediaType.APPLICATION_JSON).get(responseType);
+        resource = resource.path(java.text.MessageFormat.format("{0}", new Object[]{id}));
+        return AsyncRequests.getCached(resource, mediaType, responseType, executor, EntityCache.accountTag(id));
+    }
+
+    private CompletionStage<Void> writeAsync(String method, Object requestEntity, String mediaType, String idempotencyKey, Executor executor) {
+        return AsyncRequests.send(webTarget.request(mediaType), method, javax.ws.rs.client.Entity.entity(requestEntity, mediaType), idempotencyKey, EntityCache.invalidating(executor, EntityCache.accountWriteTags(requestEntity)));
     }
 
+    /**
+     * Releases this client; it must not be used afterwards. The shared
+     * client and its pooled connections are not closed: every REST client
+     * uses them, and only {@link RESTClientFactory#shutdown()} closes them,
+     * which the application does when it stops.
+     */
     public void close() {
-        client.close();
+        client = null;
+        webTarget = null;
     }
     
 }
@@ -0,0 +1,558 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.ForbiddenException;
+import javax.ws.rs.InternalServerErrorException;
+import javax.ws.rs.NotAcceptableException;
+import javax.ws.rs.NotAllowedException;
+import javax.ws.rs.NotAuthorizedException;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.NotSupportedException;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.RedirectionException;
+import javax.ws.rs.ServerErrorException;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Bridges Jersey's asynchronous invoker to {@link CompletionStage}.
+ * <p>
+ * Requests run on Jersey's own I/O threads and the response entity is read
+ * there too, so the caller's thread is never blocked. The returned stage is
+ * completed on the executor given by the caller (for example
+ * {@code Platform::runLater} so that dependent actions can touch the UI).
+ * Cancelling the returned stage aborts the request: no further attempt is
+ * sent, and the one in flight gets its pooled connection shut down (see
+ * {@link RequestAbort}) and gives back its permit at once.
+ * <p>
+ * Unlike the synchronous void methods of the REST clients, every stage
+ * returned here fails with the matching {@link WebApplicationException}
+ * subclass when the server answers with an error status.
+ * <p>
+ * GET requests addressed by {@link WebTarget} go through the
+ * {@link ValidatorCache}, and those sent with {@code getCached} through the
+ * {@link EntityCache} first. Identical GETs in flight at the same time are
+ * sent only once (see {@link RequestCoalescer}). The synchronous GET methods of the clients use the
+ * same path and wait with {@link #await(CompletionStage)}, so both variants
+ * share the same conditional request handling.
+ * <p>
+ * Every attempt is reported to the {@link CircuitBreaker} of its server.
+ * While it is open requests fail at once with a
+ * {@link CircuitOpenException}, which is never retried; while every replica's
+ * circuit is open ({@link ServerPool#isOffline()}) {@code getCached} falls
+ * back to expired cache entries. Attempts wait for a
+ * {@link ConcurrencyLimiter} permit before being sent, and each one may go to
+ * a different replica of the {@link ServerPool}.
+ */
+final class AsyncRequests {
+
+    /**
+     * Completes stages on the thread that received the response. Used by the
+     * synchronous methods, which just wait for the result.
+     */
+    static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * Only checks the status; the entity is discarded.
+     */
+    private static final ResponseReader<Void> STATUS_ONLY = new ResponseReader<Void>() {
+        @Override
+        public Void read(Response response) {
+            checkStatus(response);
+            return null;
+        }
+    };
+
+    /**
+     * Discards the response, whatever its status.
+     */
+    private static final ResponseReader<Void> DISCARD = new ResponseReader<Void>() {
+        @Override
+        public Void read(Response response) {
+            return null;
+        }
+    };
+
+    private AsyncRequests() {
+    }
+
+    /**
+     * Turns a response (a successful one, except for
+     * {@link #exchange exchange}) into the result of the stage. Called on
+     * Jersey's I/O thread; the response is closed afterwards.
+     *
+     * @param <T> Result type.
+     */
+    interface ResponseReader<T> {
+
+        T read(Response response);
+    }
+
+    /**
+     * {@link ResponseReader} that is also told which replica of the
+     * {@link ServerPool} answered, for results that depend on the server
+     * version rather than on the service.
+     *
+     * @param <T> Result type.
+     */
+    interface ReplicaResponseReader<T> extends ResponseReader<T> {
+
+        /**
+         * @param response Response to read.
+         * @param replica Base URI of the replica that answered, or null if
+         * the request was not addressed to the service.
+         */
+        T read(Response response, String replica);
+
+        @Override
+        default T read(Response response) {
+            return read(response, null);
+        }
+    }
+
+    /**
+     * Sends a GET request and reads the response entity as the given type.
+     */
+    static <T> CompletionStage<T> get(Invocation.Builder request,
+            GenericType<T> responseType, Executor executor) {
+        return invoke(request, "GET", null, checked(entityReader(responseType)), executor);
+    }
+
+    /**
+     * Sends a GET request and reads the response entity as the given class.
+     */
+    static <T> CompletionStage<T> get(Invocation.Builder request,
+            Class<T> responseType, Executor executor) {
+        return get(request, new GenericType<T>(responseType), executor);
+    }
+
+    /**
+     * Sends a GET request and builds the result from the whole response
+     * (status, headers and entity).
+     */
+    static <T> CompletionStage<T> get(Invocation.Builder request,
+            ResponseReader<T> reader, Executor executor) {
+        return invoke(request, "GET", null, checked(reader), executor);
+    }
+
+    /**
+     * Sends a conditional GET request (see {@link ValidatorCache}) and reads
+     * the response entity as the given type.
+     */
+    static <T> CompletionStage<T> get(WebTarget resource, String mediaType,
+            GenericType<T> responseType, Executor executor) {
+        return get(resource, mediaType, entityReader(responseType),
+                responseType.getType().toString(), executor);
+    }
+
+    /**
+     * Sends a conditional GET request (see {@link ValidatorCache}) and builds
+     * the result from the whole response.
+     */
+    static <T> CompletionStage<T> get(WebTarget resource, String mediaType,
+            ResponseReader<T> reader, Executor executor) {
+        return get(resource, mediaType, reader, reader.getClass().getName(), executor);
+    }
+
+    /**
+     * Like {@link #get(WebTarget, String, GenericType, Executor)}, but the
+     * result is looked up first in the {@link EntityCache} and stored there
+     * with the given tags.
+     */
+    static <T> CompletionStage<T> getCached(WebTarget resource, String mediaType,
+            GenericType<T> responseType, Executor executor, String... tags) {
+        String key = ValidatorCache.key(resource.getUri(), mediaType, responseType.getType().toString());
+        byte[] cached = EntityCache.lookup(key);
+        if (cached == null && ServerPool.isOffline()) {
+            // Degraded mode: no replica answers, an expired copy is better than failing
+            cached = EntityCache.lookupStale(key);
+        }
+        if (cached != null) {
+            CompletableFuture<T> stage = new CompletableFuture<T>();
+            T copy = Snapshots.restore(cached);
+            completeOn(executor, stage, copy, null);
+            return stage;
+        }
+        return coalesced(resource, mediaType, key,
+                EntityCache.storing(key, entityReader(responseType), tags), executor);
+    }
+
+    private static <T> CompletionStage<T> get(WebTarget resource, String mediaType,
+            ResponseReader<T> reader, String variant, Executor executor) {
+        String key = ValidatorCache.key(resource.getUri(), mediaType, variant);
+        return coalesced(resource, mediaType, key, reader, executor);
+    }
+
+    /**
+     * Sends a conditional GET, or joins the identical one already in flight
+     * (see {@link RequestCoalescer}). A GET never joins a call started before
+     * the last {@link EntityCache} invalidation, since that call may miss the
+     * write that caused it. A slow GET may be sent twice (see
+     * {@link HedgingPolicy}).
+     */
+    private static <T> CompletionStage<T> coalesced(final WebTarget resource, final String mediaType,
+            final String key, final ResponseReader<T> reader, Executor executor) {
+        String flightKey = key + "@" + EntityCache.generation();
+        return RequestCoalescer.join(flightKey, executor, HedgingPolicy.hedged(new RequestCoalescer.Call<T>() {
+            @Override
+            public CompletionStage<T> start() {
+                Invocation.Builder request = resource.request(mediaType);
+                return invoke(request, "GET", null, ValidatorCache.conditional(key, request, reader), DIRECT);
+            }
+        }));
+    }
+
+    /**
+     * Sends a request whose response entity is discarded (POST, PUT and
+     * DELETE calls).
+     */
+    static CompletionStage<Void> send(Invocation.Builder request, String method,
+            Entity<?> entity, Executor executor) {
+        return invoke(request, method, entity, STATUS_ONLY, executor);
+    }
+
+    /**
+     * Sends a write the way the synchronous client methods always have: only
+     * a failure to get an answer is thrown, error statuses are not reported.
+     * Retries and the idempotency key work as for any other request.
+     *
+     * @param idempotencyKey Key of the logical operation, or null for a new
+     * one.
+     * @throws ProcessingException If no answer could be obtained.
+     */
+    static void write(Invocation.Builder request, String method, Entity<?> entity,
+            String idempotencyKey) {
+        await(invoke(request, method, entity, idempotencyKey, DISCARD, DIRECT));
+    }
+
+    /**
+     * Like {@link #send(Invocation.Builder, String, Entity, Executor)} with
+     * the idempotency key of an operation that may be repeated by the caller.
+     */
+    static CompletionStage<Void> send(Invocation.Builder request, String method,
+            Entity<?> entity, String idempotencyKey, Executor executor) {
+        return invoke(request, method, entity, idempotencyKey, STATUS_ONLY, executor);
+    }
+
+    /**
+     * Sends a request and builds the result from the whole response, whatever
+     * its status: the reader decides what an error status means.
+     */
+    static <T> CompletionStage<T> exchange(Invocation.Builder request, String method,
+            Entity<?> entity, ResponseReader<T> reader, Executor executor) {
+        return invoke(request, method, entity, reader, executor);
+    }
+
+    /**
+     * Waits for a stage created with {@link #DIRECT} and returns its result,
+     * throwing the same exceptions as the synchronous Jersey invoker.
+     *
+     * @param stage Stage to wait for.
+     * @return Its result.
+     * @throws WebApplicationException If the server answered with an error.
+     * @throws ProcessingException If the request could not be completed.
+     */
+    static <T> T await(CompletionStage<T> stage) {
+        CompletableFuture<T> future = stage.toCompletableFuture();
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ProcessingException("Interrupted while waiting for the response", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ProcessingException(cause);
+        }
+    }
+
+    private static <T> ResponseReader<T> entityReader(final GenericType<T> responseType) {
+        return new ResponseReader<T>() {
+            @Override
+            public T read(Response response) {
+                return response.readEntity(responseType);
+            }
+        };
+    }
+
+    private static <T> ResponseReader<T> checked(final ResponseReader<T> reader) {
+        return new ResponseReader<T>() {
+            @Override
+            public T read(Response response) {
+                checkStatus(response);
+                return reader.read(response);
+            }
+        };
+    }
+
+    private static <T> CompletionStage<T> invoke(Invocation.Builder request,
+            String method, Entity<?> entity, ResponseReader<T> reader,
+            Executor executor) {
+        return invoke(request, method, entity, null, reader, executor);
+    }
+
+    /**
+     * Sends a request, retrying it as {@link RetryPolicy} allows. Writes get
+     * an idempotency key (the given one or a new one) shared by all their
+     * attempts. Error statuses that may be retried are retried before the
+     * reader sees the response; once the reader has started, the request is
+     * not repeated.
+     */
+    private static <T> CompletionStage<T> invoke(final Invocation.Builder request,
+            final String method, final Entity<?> entity, String idempotencyKey,
+            final ResponseReader<T> reader, final Executor executor) {
+        final CompletableFuture<T> stage = new CompletableFuture<T>();
+        if (!"GET".equals(method) && !"HEAD".equals(method) && !"OPTIONS".equals(method)) {
+            request.header(RetryPolicy.IDEMPOTENCY_KEY_HEADER,
+                    (idempotencyKey != null) ? idempotencyKey : RetryPolicy.newIdempotencyKey());
+        }
+        // Stops the current attempt, or the wait before the next one
+        final AtomicReference<Runnable> pending = new AtomicReference<Runnable>();
+
+        Runnable attempt = new Runnable() {
+            private int attempts;
+
+            @Override
+            public void run() {
+                if (stage.isDone()) {
+                    return;
+                }
+                final Runnable next = this;
+                final ConcurrencyLimiter.Task task = new ConcurrencyLimiter.Task() {
+                    @Override
+                    public void run(ConcurrencyLimiter.Permit permit) {
+                        send(next, permit);
+                    }
+                };
+                // Frees the place in the queue if cancelled before the permit
+                cancelWith(new Runnable() {
+                    @Override
+                    public void run() {
+                        ConcurrencyLimiter.cancel(task);
+                    }
+                });
+                try {
+                    ConcurrencyLimiter.execute(task);
+                } catch (LimitExceededException e) {
+                    completeOn(executor, stage, null, e);
+                    return;
+                }
+                if (stage.isCancelled()) {
+                    ConcurrencyLimiter.cancel(task);
+                }
+            }
+
+            private void send(final Runnable next, final ConcurrencyLimiter.Permit permit) {
+                if (stage.isDone()) {
+                    // Cancelled while waiting for the permit
+                    permit.ignored();
+                    return;
+                }
+                final int number = ++attempts;
+                final CircuitBreaker.Call call = new CircuitBreaker.Call();
+                request.property(CircuitBreaker.CALL_PROPERTY, call);
+                final ServerPool.Lease lease = new ServerPool.Lease();
+                request.property(ServerPool.LEASE_PROPERTY, lease);
+                final RequestAbort abort = new RequestAbort();
+                request.property(RequestAbort.PROPERTY, abort);
+                InvocationCallback<Response> callback = new InvocationCallback<Response>() {
+                    @Override
+                    public void completed(Response response) {
+                        long rtt = permit.elapsed();
+                        if (stage.isDone()) {
+                            // Cancelled while the response was on its way
+                            response.close();
+                            permit.ignored();
+                            return;
+                        }
+                        if (RetryPolicy.shouldRetry(method, response.getStatus(), number)) {
+                            response.close();
+                            permit.answered(response.getStatus(), rtt);
+                            retry(next, number);
+                            return;
+                        }
+                        try {
+                            T result = (reader instanceof ReplicaResponseReader)
+                                    ? ((ReplicaResponseReader<T>) reader).read(response, lease.getBaseUri())
+                                    : reader.read(response);
+                            completeOn(executor, stage, result, null);
+                        } catch (RuntimeException e) {
+                            completeOn(executor, stage, null, e);
+                        } finally {
+                            response.close();
+                            permit.answered(response.getStatus(), rtt);
+                        }
+                    }
+
+                    @Override
+                    public void failed(Throwable throwable) {
+                        CircuitOpenException open = CircuitOpenException.find(throwable);
+                        if (open != null) {
+                            // Not sent: fail at once, retrying would fail the same way
+                            lease.ignored();
+                            permit.ignored();
+                            completeOn(executor, stage, null, open);
+                            return;
+                        }
+                        if (stage.isDone()) {
+                            call.ignored();
+                            lease.ignored();
+                            permit.ignored();
+                        } else {
+                            call.failed();
+                            lease.failed();
+                            permit.failed();
+                        }
+                        if (!stage.isDone() && RetryPolicy.shouldRetry(method, throwable, number)) {
+                            retry(next, number);
+                            return;
+                        }
+                        completeOn(executor, stage, null, throwable);
+                    }
+                };
+
+                final Future<Response> sent;
+                try {
+                    if (entity == null) {
+                        sent = request.async().method(method, callback);
+                    } else {
+                        sent = request.async().method(method, entity, callback);
+                    }
+                } catch (RuntimeException e) {
+                    lease.ignored();
+                    permit.ignored();
+                    completeOn(executor, stage, null, e);
+                    return;
+                }
+                cancelWith(new Runnable() {
+                    @Override
+                    public void run() {
+                        // The callback still runs with the error, but finds the stage done
+                        abort.abort();
+                        sent.cancel(true);
+                        call.ignored();
+                        lease.ignored();
+                        permit.ignored();
+                    }
+                });
+            }
+
+            private void retry(Runnable next, int number) {
+                RetryPolicy.countRetry();
+                final Future<?> wait = RetryPolicy.scheduler().schedule(next, RetryPolicy.delayMillis(number), TimeUnit.MILLISECONDS);
+                cancelWith(new Runnable() {
+                    @Override
+                    public void run() {
+                        wait.cancel(false);
+                    }
+                });
+            }
+
+            private void cancelWith(Runnable cancel) {
+                pending.set(cancel);
+                // Cancelled before the hook was set; running it twice is harmless
+                if (stage.isCancelled()) {
+                    cancel.run();
+                }
+            }
+        };
+        attempt.run();
+
+        stage.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T result, Throwable error) {
+                Runnable cancel = pending.get();
+                if (stage.isCancelled() && cancel != null) {
+                    cancel.run();
+                }
+            }
+        });
+        return stage;
+    }
+
+    static <T> void completeOn(Executor executor, final CompletableFuture<T> stage,
+            final T result, final Throwable error) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (error == null) {
+                    stage.complete(result);
+                } else {
+                    stage.completeExceptionally(error);
+                }
+            }
+        });
+    }
+
+    /**
+     * Throws the same exception the synchronous invoker would throw for an
+     * error status.
+     *
+     * @param response Response to check.
+     * @throws WebApplicationException If the status is not 2xx.
+     */
+    static void checkStatus(Response response) throws WebApplicationException {
+        int status = response.getStatus();
+        if (status < 300) {
+            return;
+        }
+        switch (status) {
+            case 400:
+                throw new BadRequestException(response);
+            case 401:
+                throw new NotAuthorizedException(response);
+            case 403:
+                throw new ForbiddenException(response);
+            case 404:
+                throw new NotFoundException(response);
+            case 405:
+                throw new NotAllowedException(response);
+            case 406:
+                throw new NotAcceptableException(response);
+            case 415:
+                throw new NotSupportedException(response);
+            case 500:
+                throw new InternalServerErrorException(response);
+            case 503:
+                throw new ServiceUnavailableException(response);
+            default:
+                if (status < 400) {
+                    throw new RedirectionException(response);
+                } else if (status < 500) {
+                    throw new ClientErrorException(response);
+                }
+                throw new ServerErrorException(response);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+/**
+ * Outcome of one item of a batch request: the item sent and, if the server
+ * did not accept it, the error.
+ *
+ * @param <T> Item type.
+ */
+public final class BatchResult<T> {
+
+    private final T item;
+    private final Throwable error;
+
+    private BatchResult(T item, Throwable error) {
+        this.item = item;
+        this.error = error;
+    }
+
+    static <T> BatchResult<T> success(T item) {
+        return new BatchResult<T>(item, null);
+    }
+
+    static <T> BatchResult<T> failure(T item, Throwable error) {
+        return new BatchResult<T>(item, error);
+    }
+
+    /**
+     * @return The item, as sent (with its server id when the server returned
+     * it).
+     */
+    public T getItem() {
+        return item;
+    }
+
+    /**
+     * @return true if the server accepted the item.
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * @return Why the item was not accepted, or null if it was.
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult{" + (error == null ? "ok" : error.toString()) + ", " + item + "}";
+    }
+}
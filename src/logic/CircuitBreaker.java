@@ -0,0 +1,492 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+
+/**
+ * Circuit breaker per server (scheme, host and port), shared by the three
+ * REST clients, so that a server that is down makes requests fail at once
+ * instead of each one waiting for a connect or read timeout.
+ * <p>
+ * <b>Closed</b>: requests go through and the outcome of the last
+ * {@code windowSize} calls is recorded. A call fails if there is no answer or
+ * the answer is a 5xx status; it is slow if the answer takes longer than
+ * {@code slowCallMillis}. Once at least {@code minimumCalls} have been
+ * recorded, a failure rate or slow-call rate at or above its threshold opens
+ * the circuit.
+ * <p>
+ * <b>Open</b>: requests fail immediately with a
+ * {@link CircuitOpenException}, without touching the network. Cached reads
+ * are served from expired {@link EntityCache} entries when available. After
+ * {@code openMillis} the circuit becomes half-open.
+ * <p>
+ * <b>Half-open</b>: {@code halfOpenCalls} trial requests are let through
+ * (the rest fail fast). If their failure and slow-call rates are below the
+ * thresholds the circuit closes; otherwise it opens again.
+ * <p>
+ * State changes are reported to the {@link Listener}s of each breaker, on the
+ * thread that caused them.
+ * <p>
+ * Settings, read at startup:
+ * <ul>
+ * <li><b>bank.rest.circuit</b>: {@code false} disables the breakers (default
+ * true).</li>
+ * <li><b>bank.rest.circuit.windowSize</b> and
+ * <b>bank.rest.circuit.minimumCalls</b>: calls recorded and calls needed
+ * before the rates are evaluated (default 20 and 10).</li>
+ * <li><b>bank.rest.circuit.failureRate</b>: failure percentage that opens the
+ * circuit (default 50).</li>
+ * <li><b>bank.rest.circuit.slowCallMillis</b> and
+ * <b>bank.rest.circuit.slowCallRate</b>: slow-call duration and percentage
+ * (default 5000 and 80).</li>
+ * <li><b>bank.rest.circuit.openMillis</b>: time open before the trial
+ * requests (default 10000).</li>
+ * <li><b>bank.rest.circuit.halfOpenCalls</b>: trial requests (default 3).</li>
+ * </ul>
+ */
+public final class CircuitBreaker {
+
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+    /**
+     * Request property holding the {@link Call} of an attempt sent by
+     * {@link AsyncRequests}.
+     */
+    static final String CALL_PROPERTY = "logic.CircuitBreaker.call";
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Receives the state changes of a breaker.
+     */
+    public interface Listener {
+
+        void stateChanged(CircuitBreaker breaker, State from, State to);
+    }
+
+    private static volatile boolean enabled
+            = Boolean.parseBoolean(System.getProperty("bank.rest.circuit", "true"));
+    private static final int WINDOW_SIZE
+            = Math.max(1, Integer.getInteger("bank.rest.circuit.windowSize", 20));
+    private static volatile int minimumCalls
+            = Integer.getInteger("bank.rest.circuit.minimumCalls", 10);
+    private static volatile int failureRate
+            = Integer.getInteger("bank.rest.circuit.failureRate", 50);
+    private static volatile long slowCallNanos
+            = TimeUnit.MILLISECONDS.toNanos(Long.getLong("bank.rest.circuit.slowCallMillis", 5000L));
+    private static volatile int slowCallRate
+            = Integer.getInteger("bank.rest.circuit.slowCallRate", 80);
+    private static volatile long openNanos
+            = TimeUnit.MILLISECONDS.toNanos(Long.getLong("bank.rest.circuit.openMillis", 10000L));
+    private static volatile int halfOpenCalls
+            = Math.max(1, Integer.getInteger("bank.rest.circuit.halfOpenCalls", 3));
+
+    private static final ConcurrentHashMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    private final String server;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private final AtomicLong notPermitted = new AtomicLong();
+
+    // Guarded by this
+    private State state = State.CLOSED;
+    private final boolean[] failed = new boolean[WINDOW_SIZE];
+    private final boolean[] slow = new boolean[WINDOW_SIZE];
+    private int recorded;
+    private int next;
+    private int failures;
+    private int slowCalls;
+    private long openedAt;
+    // Number of the current half-open period; results of older trials are ignored
+    private int trialPeriod;
+    private int trialPermits;
+    private int trialResults;
+    private int trialFailures;
+    private int trialSlowCalls;
+
+    private CircuitBreaker(String server) {
+        this.server = server;
+    }
+
+    // ---------------------------------------------------------------------
+    // Registry and configuration
+    // ---------------------------------------------------------------------
+
+    /**
+     * @param uri Any URI of the server.
+     * @return The breaker of the server.
+     */
+    public static CircuitBreaker forServer(URI uri) {
+        String server = uri.getScheme() + "://" + uri.getRawAuthority();
+        CircuitBreaker breaker = BREAKERS.get(server);
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker(server);
+            breaker = BREAKERS.putIfAbsent(server, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns the breakers on or off. While off every request goes through and
+     * nothing is recorded.
+     */
+    public static void setEnabled(boolean enabled) {
+        CircuitBreaker.enabled = enabled;
+    }
+
+    /**
+     * Changes the thresholds of every breaker.
+     *
+     * @param minimumCalls Calls recorded before the rates are evaluated.
+     * @param failureRatePercent Failure percentage that opens the circuit.
+     * @param slowCallMillis Duration from which a call is slow.
+     * @param slowCallRatePercent Slow-call percentage that opens the circuit.
+     */
+    public static void setThresholds(int minimumCalls, int failureRatePercent,
+            long slowCallMillis, int slowCallRatePercent) {
+        if (minimumCalls < 1 || minimumCalls > WINDOW_SIZE) {
+            throw new IllegalArgumentException("minimumCalls must be between 1 and " + WINDOW_SIZE);
+        }
+        CircuitBreaker.minimumCalls = minimumCalls;
+        CircuitBreaker.failureRate = failureRatePercent;
+        CircuitBreaker.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        CircuitBreaker.slowCallRate = slowCallRatePercent;
+    }
+
+    /**
+     * Changes how long a circuit stays open and how many trial requests are
+     * let through when half-open.
+     */
+    public static void setRecovery(long openMillis, int halfOpenCalls) {
+        if (halfOpenCalls < 1) {
+            throw new IllegalArgumentException("halfOpenCalls must be at least 1");
+        }
+        CircuitBreaker.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        CircuitBreaker.halfOpenCalls = halfOpenCalls;
+    }
+
+    /**
+     * Closes every circuit and forgets the recorded calls. Listeners are
+     * kept.
+     */
+    public static void resetAll() {
+        for (CircuitBreaker breaker : BREAKERS.values()) {
+            breaker.reset();
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // State
+    // ---------------------------------------------------------------------
+
+    /**
+     * @return Scheme, host and port of the server.
+     */
+    public String getServer() {
+        return server;
+    }
+
+    /**
+     * @return Current state; an open circuit whose wait is over is reported
+     * (and becomes) half-open.
+     */
+    public State getState() {
+        State[] change;
+        State current;
+        synchronized (this) {
+            change = advance();
+            current = state;
+        }
+        fire(change);
+        return current;
+    }
+
+    /**
+     * @return Failure percentage of the recorded calls, or -1 if fewer than
+     * the minimum have been recorded.
+     */
+    public synchronized float getFailureRate() {
+        return (recorded < minimumCalls) ? -1 : 100f * failures / recorded;
+    }
+
+    /**
+     * @return Slow-call percentage of the recorded calls, or -1 if fewer than
+     * the minimum have been recorded.
+     */
+    public synchronized float getSlowCallRate() {
+        return (recorded < minimumCalls) ? -1 : 100f * slowCalls / recorded;
+    }
+
+    /**
+     * @return Requests failed fast since startup.
+     */
+    public long getNotPermittedCalls() {
+        return notPermitted.get();
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Closes the circuit and forgets the recorded calls.
+     */
+    public void reset() {
+        State[] change;
+        synchronized (this) {
+            change = moveTo(State.CLOSED);
+            clearWindow();
+        }
+        fire(change);
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker{" + server + ", " + getState() + "}";
+    }
+
+    // ---------------------------------------------------------------------
+    // Calls
+    // ---------------------------------------------------------------------
+
+    /**
+     * Asks permission for a call.
+     *
+     * @return The trial period the call belongs to (0 outside half-open), or
+     * -1 if the call must fail fast.
+     */
+    private int acquire() {
+        State[] change;
+        int permit;
+        synchronized (this) {
+            change = advance();
+            if (state == State.CLOSED) {
+                permit = 0;
+            } else if (state == State.HALF_OPEN && trialPermits > 0) {
+                trialPermits--;
+                permit = trialPeriod;
+            } else {
+                permit = -1;
+            }
+        }
+        fire(change);
+        if (permit < 0) {
+            notPermitted.incrementAndGet();
+        }
+        return permit;
+    }
+
+    private void record(int permit, boolean failure, long nanos) {
+        boolean isSlow = nanos >= slowCallNanos;
+        State[] change = null;
+        synchronized (this) {
+            if (state == State.CLOSED && permit == 0) {
+                if (recorded == WINDOW_SIZE) {
+                    failures -= failed[next] ? 1 : 0;
+                    slowCalls -= slow[next] ? 1 : 0;
+                } else {
+                    recorded++;
+                }
+                failed[next] = failure;
+                slow[next] = isSlow;
+                failures += failure ? 1 : 0;
+                slowCalls += isSlow ? 1 : 0;
+                next = (next + 1) % WINDOW_SIZE;
+                if (recorded >= minimumCalls && tripped(failures, slowCalls, recorded)) {
+                    change = moveTo(State.OPEN);
+                }
+            } else if (state == State.HALF_OPEN && permit == trialPeriod) {
+                trialResults++;
+                trialFailures += failure ? 1 : 0;
+                trialSlowCalls += isSlow ? 1 : 0;
+                if (tripped(trialFailures, trialSlowCalls, halfOpenCalls)) {
+                    change = moveTo(State.OPEN);
+                } else if (trialResults >= halfOpenCalls) {
+                    change = moveTo(State.CLOSED);
+                    clearWindow();
+                }
+            }
+        }
+        fire(change);
+    }
+
+    /**
+     * A trial call that ended without an outcome gives its permit back.
+     */
+    private synchronized void release(int permit) {
+        if (state == State.HALF_OPEN && permit > 0 && permit == trialPeriod) {
+            trialPermits++;
+        }
+    }
+
+    private static boolean tripped(int failures, int slowCalls, int calls) {
+        return 100L * failures >= (long) failureRate * calls || 100L * slowCalls >= (long) slowCallRate * calls;
+    }
+
+    // Guarded by this
+    private State[] advance() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            return moveTo(State.HALF_OPEN);
+        }
+        return null;
+    }
+
+    // Guarded by this
+    private State[] moveTo(State target) {
+        State from = state;
+        if (from == target) {
+            return null;
+        }
+        state = target;
+        if (target == State.OPEN) {
+            openedAt = System.nanoTime();
+        } else if (target == State.HALF_OPEN) {
+            trialPeriod++;
+            trialPermits = halfOpenCalls;
+            trialResults = 0;
+            trialFailures = 0;
+            trialSlowCalls = 0;
+        }
+        return new State[]{from, target};
+    }
+
+    // Guarded by this
+    private void clearWindow() {
+        recorded = 0;
+        next = 0;
+        failures = 0;
+        slowCalls = 0;
+        Arrays.fill(failed, false);
+        Arrays.fill(slow, false);
+    }
+
+    private void fire(State[] change) {
+        if (change == null) {
+            return;
+        }
+        LOGGER.log(change[1] == State.OPEN ? Level.WARNING : Level.INFO,
+                "Circuit breaker for {0}: {1} -> {2}", new Object[]{server, change[0], change[1]});
+        for (Listener listener : listeners) {
+            try {
+                listener.stateChanged(this, change[0], change[1]);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Circuit breaker listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Outcome of one attempt of a request: started by the request filter and
+     * ended exactly once, by the response filter (an answer), by
+     * {@link #failed()} (no answer) or by {@link #ignored()} (cancelled).
+     */
+    static final class Call {
+
+        private final AtomicBoolean ended = new AtomicBoolean();
+        private volatile CircuitBreaker breaker;
+        private volatile int permit;
+        private volatile long started;
+
+        void answered(int status) {
+            end(status >= 500);
+        }
+
+        void failed() {
+            end(true);
+        }
+
+        void ignored() {
+            CircuitBreaker target = breaker;
+            if (target != null && ended.compareAndSet(false, true)) {
+                target.release(permit);
+            }
+        }
+
+        private void end(boolean failure) {
+            CircuitBreaker target = breaker;
+            if (target != null && ended.compareAndSet(false, true)) {
+                target.record(permit, failure, System.nanoTime() - started);
+            }
+        }
+    }
+
+    /**
+     * Filter registered on the shared client.
+     */
+    static Object filter() {
+        return new Filter();
+    }
+
+    private static final class Filter implements ClientRequestFilter, ClientResponseFilter {
+
+        @Override
+        public void filter(ClientRequestContext request) throws IOException {
+            if (!enabled) {
+                return;
+            }
+            CircuitBreaker breaker = forServer(request.getUri());
+            int permit = breaker.acquire();
+            if (permit < 0) {
+                throw new CircuitOpenException(breaker.server);
+            }
+            Object property = request.getProperty(CALL_PROPERTY);
+            Call call;
+            if (property instanceof Call) {
+                call = (Call) property;
+            } else {
+                // Request sent directly with the Jersey client
+                call = new Call();
+                request.setProperty(CALL_PROPERTY, call);
+            }
+            call.breaker = breaker;
+            call.permit = permit;
+            call.started = System.nanoTime();
+        }
+
+        @Override
+        public void filter(ClientRequestContext request, ClientResponseContext response) throws IOException {
+            Object call = request.getProperty(CALL_PROPERTY);
+            if (call instanceof Call) {
+                ((Call) call).answered(response.getStatus());
+            }
+        }
+    }
+
+    /**
+     * @return Breakers created so far (for diagnostics).
+     */
+    static List<CircuitBreaker> all() {
+        return new ArrayList<CircuitBreaker>(BREAKERS.values());
+    }
+}
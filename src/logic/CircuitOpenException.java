@@ -0,0 +1,46 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import javax.ws.rs.ProcessingException;
+
+/**
+ * Thrown, without contacting the server, for a request to a server whose
+ * {@link CircuitBreaker} is open.
+ */
+public class CircuitOpenException extends ProcessingException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String server;
+
+    public CircuitOpenException(String server) {
+        super("Circuit breaker open for " + server);
+        this.server = server;
+    }
+
+    /**
+     * @return Server (scheme, host and port) whose circuit is open.
+     */
+    public String getServer() {
+        return server;
+    }
+
+    /**
+     * Finds a CircuitOpenException in a chain of causes.
+     *
+     * @param error Any exception.
+     * @return The exception, or null if the chain has none.
+     */
+    public static CircuitOpenException find(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CircuitOpenException) {
+                return (CircuitOpenException) cause;
+            }
+        }
+        return null;
+    }
+}
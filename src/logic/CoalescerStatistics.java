@@ -0,0 +1,58 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+/**
+ * Immutable snapshot of the counters of {@link RequestCoalescer}.
+ */
+public class CoalescerStatistics {
+
+    private final int inFlight;
+    private final long callsSent;
+    private final long callsCoalesced;
+
+    public CoalescerStatistics(int inFlight, long callsSent, long callsCoalesced) {
+        this.inFlight = inFlight;
+        this.callsSent = callsSent;
+        this.callsCoalesced = callsCoalesced;
+    }
+
+    /**
+     * @return Distinct GET requests currently on their way.
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return GET requests actually sent to the server.
+     */
+    public long getCallsSent() {
+        return callsSent;
+    }
+
+    /**
+     * @return GET requests that joined an identical request already in flight
+     * instead of being sent.
+     */
+    public long getCallsCoalesced() {
+        return callsCoalesced;
+    }
+
+    /**
+     * @return Fraction of GET requests that were collapsed.
+     */
+    public double getCoalescedRatio() {
+        long total = callsSent + callsCoalesced;
+        return total == 0 ? 0.0 : (double) callsCoalesced / total;
+    }
+
+    @Override
+    public String toString() {
+        return "CoalescerStatistics[inFlight=" + inFlight + ", callsSent=" + callsSent
+                + ", callsCoalesced=" + callsCoalesced + "]";
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adaptive limit on the REST requests this client has in flight, applied by
+ * {@link AsyncRequests} to every attempt, so that bulk operations (loading
+ * many accounts, refreshing everything) cannot flood the server and so that
+ * many desktop clients sharing one server back off together when it slows
+ * down.
+ * <p>
+ * The limit follows TCP Vegas: the shortest response time seen recently is
+ * taken as the time of a request that did not wait anywhere, and
+ * {@code limit * (1 - minRtt / rtt)} estimates how many requests are queued
+ * in the server. While that estimate is small the limit grows by one; when it
+ * is large the limit shrinks by one. A request that gets no answer, or an
+ * overload answer (429, 503, 504), reduces the limit multiplicatively (AIMD),
+ * since it means the server is already overwhelmed. The limit only grows
+ * while it is actually used, and the baseline time is renewed periodically so
+ * that a slower network does not keep the limit low forever.
+ * <p>
+ * Requests over the limit wait in a FIFO queue and are sent as others
+ * finish. When the queue is full the request fails at once with a
+ * {@link LimitExceededException}.
+ * <p>
+ * Settings, read at startup:
+ * <ul>
+ * <li><b>bank.rest.limit</b>: {@code false} disables the limit (default
+ * true).</li>
+ * <li><b>bank.rest.limit.initial</b>, <b>bank.rest.limit.min</b> and
+ * <b>bank.rest.limit.max</b>: starting limit and its bounds (default 4, 1 and
+ * 20).</li>
+ * <li><b>bank.rest.limit.queueSize</b>: requests that may wait for a permit
+ * (default 100).</li>
+ * </ul>
+ */
+public final class ConcurrencyLimiter {
+
+    /**
+     * Something to send once a permit is granted.
+     */
+    interface Task {
+
+        /**
+         * Called with a permit that must be ended exactly once.
+         */
+        void run(Permit permit);
+    }
+
+    // Samples after which the baseline response time is renewed
+    private static final int BASELINE_SAMPLES = 200;
+    // Multiplicative decrease on drops
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private static volatile boolean enabled
+            = Boolean.parseBoolean(System.getProperty("bank.rest.limit", "true"));
+    private static int minLimit = Math.max(1, Integer.getInteger("bank.rest.limit.min", 1));
+    private static int maxLimit = Math.max(minLimit, Integer.getInteger("bank.rest.limit.max", 20));
+    private static int initialLimit = Math.min(maxLimit,
+            Math.max(minLimit, Integer.getInteger("bank.rest.limit.initial", 4)));
+    private static int queueSize = Math.max(0, Integer.getInteger("bank.rest.limit.queueSize", 100));
+
+    private static final Object LOCK = new Object();
+    // Guarded by LOCK
+    private static double limit = initialLimit;
+    private static int inFlight;
+    private static final ArrayDeque<Task> QUEUE = new ArrayDeque<Task>();
+    private static long minRtt = Long.MAX_VALUE;
+    private static long windowMinRtt = Long.MAX_VALUE;
+    private static int windowSamples;
+
+    private static final AtomicLong REJECTED = new AtomicLong();
+    private static final AtomicLong QUEUED = new AtomicLong();
+    private static final AtomicLong DROPS = new AtomicLong();
+
+    private ConcurrencyLimiter() {
+    }
+
+    // ---------------------------------------------------------------------
+    // Configuration and statistics
+    // ---------------------------------------------------------------------
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns the limit on or off. Requests already waiting are still sent as
+     * permits are released.
+     */
+    public static void setEnabled(boolean enabled) {
+        ConcurrencyLimiter.enabled = enabled;
+    }
+
+    /**
+     * Changes the bounds of the limit and restarts it from {@code initial},
+     * forgetting the measured response times.
+     */
+    public static void setLimits(int initial, int min, int max) {
+        if (min < 1 || max < min || initial < min || initial > max) {
+            throw new IllegalArgumentException("Invalid limits: " + initial + ", " + min + ", " + max);
+        }
+        synchronized (LOCK) {
+            initialLimit = initial;
+            minLimit = min;
+            maxLimit = max;
+            limit = initial;
+            minRtt = Long.MAX_VALUE;
+            windowMinRtt = Long.MAX_VALUE;
+            windowSamples = 0;
+        }
+    }
+
+    /**
+     * Changes how many requests may wait for a permit.
+     *
+     * @param size 0 or more (0 rejects every request over the limit).
+     */
+    public static void setQueueSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must not be negative");
+        }
+        synchronized (LOCK) {
+            queueSize = size;
+        }
+    }
+
+    /**
+     * @return Requests that may be in flight now.
+     */
+    public static int getLimit() {
+        synchronized (LOCK) {
+            return (int) limit;
+        }
+    }
+
+    /**
+     * @return Requests sent and not yet answered.
+     */
+    public static int getInFlight() {
+        synchronized (LOCK) {
+            return inFlight;
+        }
+    }
+
+    /**
+     * @return Requests waiting for a permit.
+     */
+    public static int getQueueLength() {
+        synchronized (LOCK) {
+            return QUEUE.size();
+        }
+    }
+
+    /**
+     * @return Requests that had to wait for a permit since startup.
+     */
+    public static long getQueuedCount() {
+        return QUEUED.get();
+    }
+
+    /**
+     * @return Requests rejected because the queue was full since startup.
+     */
+    public static long getRejectedCount() {
+        return REJECTED.get();
+    }
+
+    /**
+     * @return Requests without answer or with an overload answer since
+     * startup.
+     */
+    public static long getDropCount() {
+        return DROPS.get();
+    }
+
+    // ---------------------------------------------------------------------
+    // Permits
+    // ---------------------------------------------------------------------
+
+    /**
+     * Runs the task now if the limit allows it, or queues it until a permit
+     * is released.
+     *
+     * @throws LimitExceededException If the queue is full.
+     */
+    static void execute(Task task) {
+        if (!enabled) {
+            task.run(new Permit(false));
+            return;
+        }
+        synchronized (LOCK) {
+            if (inFlight >= (int) limit) {
+                if (QUEUE.size() >= queueSize) {
+                    REJECTED.incrementAndGet();
+                    throw new LimitExceededException((int) limit, QUEUE.size());
+                }
+                QUEUE.addLast(task);
+                QUEUED.incrementAndGet();
+                return;
+            }
+            inFlight++;
+        }
+        task.run(new Permit(true));
+    }
+
+    /**
+     * Takes a task that is still waiting out of the queue, so that it no
+     * longer holds a place there. Used when its request is cancelled.
+     *
+     * @return true if it was waiting; false if it already got its permit.
+     */
+    static boolean cancel(Task task) {
+        synchronized (LOCK) {
+            return QUEUE.removeFirstOccurrence(task);
+        }
+    }
+
+    /**
+     * Ends a permit and passes the freed places to the queued tasks.
+     */
+    private static void release(long rttNanos, int sentWith, boolean sample, boolean dropped) {
+        ArrayDeque<Task> granted = new ArrayDeque<Task>();
+        synchronized (LOCK) {
+            inFlight--;
+            if (sample) {
+                update(rttNanos, sentWith, dropped);
+            }
+            while (!QUEUE.isEmpty() && (inFlight < (int) limit || !enabled)) {
+                granted.addLast(QUEUE.pollFirst());
+                inFlight++;
+            }
+        }
+        for (Task task : granted) {
+            task.run(new Permit(true));
+        }
+    }
+
+    /**
+     * Adjusts the limit with one response time.
+     *
+     * @param rttNanos Time from sending to the answer (or the failure).
+     * @param sentWith Requests in flight when this one was sent.
+     * @param dropped true if there was no answer or an overload answer.
+     */
+    static void update(long rttNanos, int sentWith, boolean dropped) {
+        synchronized (LOCK) {
+            if (dropped) {
+                DROPS.incrementAndGet();
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                return;
+            }
+            rttNanos = Math.max(1, rttNanos);
+            windowMinRtt = Math.min(windowMinRtt, rttNanos);
+            if (++windowSamples >= BASELINE_SAMPLES) {
+                minRtt = windowMinRtt;
+                windowMinRtt = Long.MAX_VALUE;
+                windowSamples = 0;
+            }
+            long baseline = Math.min(minRtt, windowMinRtt);
+            double queued = limit * (1 - (double) baseline / rttNanos);
+            double threshold = Math.max(1, Math.log10(limit));
+            if (queued <= 3 * threshold) {
+                // Little queueing: grow, but only if the limit is being used
+                if (2 * sentWith >= (int) limit) {
+                    limit = Math.min(maxLimit, limit + 1);
+                }
+            } else if (queued > 6 * threshold) {
+                limit = Math.max(minLimit, limit - 1);
+            }
+        }
+    }
+
+    /**
+     * Restores the initial limit and empties the measurements. Requests in
+     * flight or waiting are not affected.
+     */
+    static void reset() {
+        setLimits(initialLimit, minLimit, maxLimit);
+    }
+
+    /**
+     * Permission to have one request in flight.
+     */
+    static final class Permit {
+
+        private final boolean counted;
+        private final AtomicBoolean ended = new AtomicBoolean();
+        private final long started = System.nanoTime();
+        private final int sentWith;
+
+        private Permit(boolean counted) {
+            this.counted = counted;
+            synchronized (LOCK) {
+                this.sentWith = inFlight;
+            }
+        }
+
+        /**
+         * @return Time since the permit was granted.
+         */
+        long elapsed() {
+            return System.nanoTime() - started;
+        }
+
+        /**
+         * The request was answered.
+         *
+         * @param status HTTP status of the answer.
+         * @param rttNanos Time until the answer arrived (before reading its
+         * entity, which depends on its size rather than on the server).
+         */
+        void answered(int status, long rttNanos) {
+            end(rttNanos, true, status == 429 || status == 503 || status == 504);
+        }
+
+        /**
+         * The request got no answer.
+         */
+        void failed() {
+            end(elapsed(), true, true);
+        }
+
+        /**
+         * The request was not sent or was cancelled: it says nothing about
+         * the server.
+         */
+        void ignored() {
+            end(0, false, false);
+        }
+
+        private void end(long rttNanos, boolean sample, boolean dropped) {
+            if (counted && ended.compareAndSet(false, true)) {
+                release(rttNanos, sentWith, sample, dropped);
+            }
+        }
+    }
+}
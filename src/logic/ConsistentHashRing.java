@@ -0,0 +1,142 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Consistent-hash ring: maps keys (customer or account ids) to node names so
+ * that adding or removing a node only moves the keys of that node.
+ * <p>
+ * Each node is placed on the ring at {@code virtualNodes} pseudo-random
+ * points, derived from its name, which evens out the share of keys of each
+ * node; a key belongs to the first point at or after its own hash, going
+ * clockwise. Rings are immutable: a change of nodes builds a new ring, and
+ * the points of the nodes that stay are the same in both.
+ * <p>
+ * Lookups are a binary search over a sorted array, without locks.
+ */
+final class ConsistentHashRing {
+
+    /**
+     * Points per node used when none is given: enough for a spread within a
+     * few percent of the mean with tens of nodes.
+     */
+    static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private final List<String> nodes;
+    private final long[] points;
+    private final String[] owners;
+
+    /**
+     * @param nodes Names of the nodes, distinct.
+     * @param virtualNodes Points per node, at least 1.
+     */
+    ConsistentHashRing(List<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes < 1) {
+            throw new IllegalArgumentException("A ring needs nodes and at least one point per node");
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<String>(nodes));
+        int size = nodes.size() * virtualNodes;
+        long[] hashes = new long[size];
+        String[] byPoint = new String[size];
+        int p = 0;
+        for (String name : nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                hashes[p] = hash(name + "#" + i);
+                byPoint[p] = name;
+                p++;
+            }
+        }
+        // Sort the points, carrying their owners along
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        final long[] unsorted = hashes;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(unsorted[a], unsorted[b]);
+            }
+        });
+        points = new long[size];
+        owners = new String[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = hashes[order[i]];
+            owners[i] = byPoint[order[i]];
+        }
+    }
+
+    /**
+     * @return The nodes of the ring.
+     */
+    List<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return Node owning the key.
+     */
+    String get(String key) {
+        return owners[index(hash(key))];
+    }
+
+    /**
+     * Like {@link #get(String)}, skipping the nodes that are not accepted:
+     * their keys go to the next accepted node clockwise, and no other key
+     * moves.
+     *
+     * @return The owner, or null if no node is accepted.
+     */
+    String get(String key, Predicate<String> accepted) {
+        int start = index(hash(key));
+        String rejected = null;
+        for (int i = 0; i < points.length; i++) {
+            String node = owners[(start + i) % points.length];
+            if (node.equals(rejected)) {
+                continue;
+            }
+            if (accepted.test(node)) {
+                return node;
+            }
+            rejected = node;
+        }
+        return null;
+    }
+
+    private int index(long hash) {
+        int i = Arrays.binarySearch(points, hash);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return (i == points.length) ? 0 : i;
+    }
+
+    /**
+     * 64-bit FNV-1a of the UTF-8 bytes, finished with the MurmurHash3 mixer
+     * so that similar keys ("customer/1", "customer/2") land far apart.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
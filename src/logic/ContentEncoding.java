@@ -0,0 +1,287 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
+
+/**
+ * Opt-in HTTP compression for the shared REST client, with per-endpoint
+ * traffic metrics.
+ * <p>
+ * When enabled, every request advertises {@code Accept-Encoding: gzip,
+ * deflate} and compressed responses are decoded before the XML or JSON
+ * reader sees them. Request bodies are gzipped only when they reach a size
+ * threshold: a single movement or account is a few hundred bytes and is not
+ * worth the CPU on either side.
+ * <p>
+ * The metrics are collected whether compression is enabled or not, so that
+ * both settings can be compared: bytes on the wire against decoded bytes, and
+ * the time spent decoding (decompressing and unmarshalling) each response.
+ * Endpoints are named by {@link Endpoints}.
+ * <p>
+ * Settings, read at startup:
+ * <ul>
+ * <li><b>bank.rest.compression</b>: {@code true} to enable compression
+ * (default false).</li>
+ * <li><b>bank.rest.compression.minRequestBytes</b>: smallest request body
+ * that is gzipped (default 1024).</li>
+ * </ul>
+ */
+public final class ContentEncoding {
+
+    private static final String ACCEPTED_ENCODINGS = "gzip, deflate";
+    private static final String ENDPOINT_PROPERTY = "logic.ContentEncoding.endpoint";
+    private static final String COUNTED_PROPERTY = "logic.ContentEncoding.counted";
+    private static final String ENCODING_PROPERTY = "logic.ContentEncoding.encoding";
+
+    private static volatile boolean enabled
+            = Boolean.parseBoolean(System.getProperty("bank.rest.compression", "false"));
+    private static volatile int minRequestBytes
+            = Integer.getInteger("bank.rest.compression.minRequestBytes", 1024);
+
+    private static final Map<String, Counters> COUNTERS = new ConcurrentHashMap<String, Counters>();
+
+    private ContentEncoding() {
+    }
+
+    /**
+     * Traffic counters of one endpoint.
+     */
+    private static final class Counters {
+
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong compressedRequests = new AtomicLong();
+        final AtomicLong requestBytesRaw = new AtomicLong();
+        final AtomicLong requestBytesOnWire = new AtomicLong();
+        final AtomicLong responses = new AtomicLong();
+        final AtomicLong compressedResponses = new AtomicLong();
+        final AtomicLong responseBytesOnWire = new AtomicLong();
+        final AtomicLong responseBytesDecoded = new AtomicLong();
+        final AtomicLong decodeNanos = new AtomicLong();
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        ContentEncoding.enabled = enabled;
+    }
+
+    public static int getMinRequestBytes() {
+        return minRequestBytes;
+    }
+
+    /**
+     * @param bytes Smallest request body that is sent compressed.
+     */
+    public static void setMinRequestBytes(int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("bytes must not be negative");
+        }
+        minRequestBytes = bytes;
+    }
+
+    /**
+     * Takes a snapshot of the traffic counters of every endpoint used so far.
+     *
+     * @return Statistics by endpoint name, sorted by name.
+     */
+    public static Map<String, TrafficStatistics> getStatistics() {
+        Map<String, TrafficStatistics> statistics = new TreeMap<String, TrafficStatistics>();
+        for (Map.Entry<String, Counters> entry : COUNTERS.entrySet()) {
+            Counters c = entry.getValue();
+            statistics.put(entry.getKey(), new TrafficStatistics(entry.getKey(),
+                    c.requests.get(), c.compressedRequests.get(),
+                    c.requestBytesRaw.get(), c.requestBytesOnWire.get(),
+                    c.responses.get(), c.compressedResponses.get(),
+                    c.responseBytesOnWire.get(), c.responseBytesDecoded.get(),
+                    c.decodeNanos.get()));
+        }
+        return statistics;
+    }
+
+    /**
+     * Resets the traffic counters.
+     */
+    public static void clearStatistics() {
+        COUNTERS.clear();
+    }
+
+    /**
+     * @return Provider to register in the shared client.
+     */
+    static Object provider() {
+        return new Interceptor();
+    }
+
+    private static Counters countersFor(Object endpoint) {
+        String name = endpoint == null ? "?" : endpoint.toString();
+        Counters counters = COUNTERS.get(name);
+        if (counters == null) {
+            Counters created = new Counters();
+            counters = COUNTERS.putIfAbsent(name, created);
+            if (counters == null) {
+                counters = created;
+            }
+        }
+        return counters;
+    }
+
+    /**
+     * Request filter, writer and reader interceptor of the shared client.
+     */
+    private static class Interceptor implements ClientRequestFilter, WriterInterceptor,
+            ReaderInterceptor {
+
+        @Override
+        public void filter(ClientRequestContext requestContext) {
+            String endpoint = Endpoints.nameOf(requestContext.getMethod(), requestContext.getUri());
+            requestContext.setProperty(ENDPOINT_PROPERTY, endpoint);
+            countersFor(endpoint).requests.incrementAndGet();
+            if (!enabled) {
+                return;
+            }
+            if (!requestContext.getHeaders().containsKey(HttpHeaders.ACCEPT_ENCODING)) {
+                requestContext.getHeaders().putSingle(HttpHeaders.ACCEPT_ENCODING, ACCEPTED_ENCODINGS);
+            }
+            if (requestContext.hasEntity()) {
+                // The connector only sends headers set while writing the
+                // body (Content-Encoding) if the body is buffered first
+                requestContext.setProperty(ClientProperties.REQUEST_ENTITY_PROCESSING,
+                        RequestEntityProcessing.BUFFERED);
+            }
+        }
+
+        @Override
+        public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+            Counters counters = countersFor(context.getProperty(ENDPOINT_PROPERTY));
+            OutputStream wire = context.getOutputStream();
+            ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            context.setOutputStream(raw);
+            context.proceed();
+
+            byte[] body = raw.toByteArray();
+            counters.requestBytesRaw.addAndGet(body.length);
+            if (enabled && body.length >= minRequestBytes
+                    && !context.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+                GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+                gzip.write(body);
+                gzip.close();
+                body = compressed.toByteArray();
+                context.getHeaders().putSingle(HttpHeaders.CONTENT_ENCODING, "gzip");
+                counters.compressedRequests.incrementAndGet();
+            }
+            counters.requestBytesOnWire.addAndGet(body.length);
+            wire.write(body);
+            context.setOutputStream(wire);
+        }
+
+        @Override
+        public Object aroundReadFrom(ReaderInterceptorContext context) throws IOException {
+            // A buffered entity may be read more than once (and decoded each
+            // time); its bytes are counted the first time, its decode time always
+            boolean first = context.getProperty(COUNTED_PROPERTY) == null;
+            context.setProperty(COUNTED_PROPERTY, Boolean.TRUE);
+
+            // The header is removed once decoded, so the encoding is kept for
+            // the next reads of a buffered entity
+            String encoding = context.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+            if (encoding == null) {
+                encoding = (String) context.getProperty(ENCODING_PROPERTY);
+            }
+            CountingInputStream wire = new CountingInputStream(context.getInputStream());
+            CountingInputStream decoded = wire;
+            boolean compressed = false;
+            if ("gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)) {
+                decoded = new CountingInputStream(new GZIPInputStream(wire));
+                compressed = true;
+            } else if ("deflate".equalsIgnoreCase(encoding)) {
+                decoded = new CountingInputStream(new InflaterInputStream(wire));
+                compressed = true;
+            }
+            if (compressed) {
+                context.setProperty(ENCODING_PROPERTY, encoding);
+                context.getHeaders().remove(HttpHeaders.CONTENT_ENCODING);
+            }
+            context.setInputStream(decoded);
+
+            long start = System.nanoTime();
+            Object entity = context.proceed();
+            long nanos = System.nanoTime() - start;
+
+            Counters counters = countersFor(context.getProperty(ENDPOINT_PROPERTY));
+            counters.decodeNanos.addAndGet(nanos);
+            if (first) {
+                counters.responses.incrementAndGet();
+                if (compressed) {
+                    counters.compressedResponses.incrementAndGet();
+                }
+                counters.responseBytesOnWire.addAndGet(wire.count);
+                counters.responseBytesDecoded.addAndGet(decoded.count);
+            }
+            return entity;
+        }
+    }
+
+    /**
+     * Counts the bytes read through it.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -5,12 +5,15 @@
  */
 package logic;
 
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 import javax.ws.rs.ClientErrorException;
 import javax.ws.rs.ForbiddenException;
 import javax.ws.rs.InternalServerErrorException;
 import javax.ws.rs.NotAuthorizedException;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
 
 /**
  * Cliente REST de Jersey generado para el recurso REST: CustomerFacadeREST
@@ -27,7 +30,10 @@ import javax.ws.rs.client.WebTarget;
  * (Crear, Leer, Actualizar, Eliminar) relacionadas con el cliente y la autenticación.
  *
  * El cliente admite los formatos de datos **XML** y **JSON** tanto para las solicitudes como para las respuestas.
- * Se conecta a un servidor que se ejecuta en **localhost:8080**.
+ * Los métodos sin sufijo de formato usan el {@link WireFormat} del cliente;
+ * los terminados en {@code _XML} o {@code _JSON} usan siempre ese formato.
+ * Se conecta por defecto a un servidor que se ejecuta en **localhost:8080**
+ * (varias réplicas con {@code bank.rest.baseUris}, ver {@link ServerPool}).
  *
  * Los métodos incluyen:
  * - Crear nuevos clientes
@@ -52,71 +58,229 @@ public class CustomerRESTClient {
 
     private WebTarget webTarget;
     private Client client;
-    private static final String BASE_URI = "http://localhost:8080/CRUDBankServerSide/webresources";
+    private static final String XML = javax.ws.rs.core.MediaType.APPLICATION_XML;
+    private static final String JSON = javax.ws.rs.core.MediaType.APPLICATION_JSON;
+    private WireFormat wireFormat = WireFormat.getDefault();
 
     public CustomerRESTClient() {
-        client = javax.ws.rs.client.ClientBuilder.newClient();
-        webTarget = client.target(BASE_URI).path("customer");
+        client = RESTClientFactory.getClient();
+        webTarget = client.target(ServerPool.getServiceUri()).path("customer");
+    }
+
+    /**
+     * @return Representación usada por los métodos sin sufijo de formato.
+     */
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    /**
+     * Cambia la representación usada por los métodos sin sufijo de formato.
+     *
+     * @param wireFormat XML o JSON.
+     */
+    public void setWireFormat(WireFormat wireFormat) {
+        if (wireFormat == null) {
+            throw new IllegalArgumentException("wireFormat must not be null");
+        }
+        this.wireFormat = wireFormat;
+    }
+
+    /**
+     * @return Disyuntor de la URI de servicio de este cliente, es decir, de
+     * la primera réplica; el modo degradado depende de todas ellas, ver
+     * {@link ServerPool#isOffline()}.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return CircuitBreaker.forServer(webTarget.getUri());
+    }
+
+    public void edit(Object requestEntity) throws ClientErrorException {
+        edit(requestEntity, wireFormat.getMediaType());
     }
 
     public void edit_XML(Object requestEntity) throws ClientErrorException {
-        webTarget.request(javax.ws.rs.core.MediaType.APPLICATION_XML).put(javax.ws.rs.client.Entity.entity(requestEntity, javax.ws.rs.core.MediaType.APPLICATION_XML));
+        edit(requestEntity, XML);
     }
 
     public void edit_JSON(Object requestEntity) throws ClientErrorException {
-        webTarget.request(javax.ws.rs.core.MediaType.APPLICATION_JSON).put(javax.ws.rs.client.Entity.entity(requestEntity, javax.ws.rs.core.MediaType.APPLICATION_JSON));
+        edit(requestEntity, JSON);
+    }
+
+    public <T> T findCustomerByEmailPassword(Class<T> responseType, String email, String password) throws InternalServerErrorException, NotAuthorizedException {
+        return findCustomerByEmailPassword(responseType, email, password, wireFormat.getMediaType());
     }
 
     public <T> T findCustomerByEmailPassword_XML(Class<T> responseType, String email, String password) throws InternalServerErrorException, NotAuthorizedException {
-        WebTarget resource = webTarget;
-        resource = resource.path(java.text.MessageFormat.format("sigin/{0}/{1}", new Object[]{email, password}));
-        return resource.request(javax.ws.rs.core.MediaType.APPLICATION_XML).get(responseType);
+        return findCustomerByEmailPassword(responseType, email, password, XML);
     }
 
     public <T> T findCustomerByEmailPassword_JSON(Class<T> responseType, String email, String password) throws ClientErrorException {
-        WebTarget resource = webTarget;
-        resource = resource.path(java.text.MessageFormat.format("signin/{0}/{1}", new Object[]{email, password}));
-        return resource.request(javax.ws.rs.core.MediaType.APPLICATION_JSON).get(responseType);
+        return findCustomerByEmailPassword(responseType, email, password, JSON);
+    }
+
+    public <T> T find(Class<T> responseType, String id) throws ClientErrorException {
+        return find(responseType, id, wireFormat.getMediaType());
     }
 
     public <T> T find_XML(Class<T> responseType, String id) throws ClientErrorException {
-        WebTarget resource = webTarget;
-        resource = resource.path(java.text.MessageFormat.format("{0}", new Object[]{id}));
-        return resource.request(javax.ws.rs.core.MediaType.APPLICATION_XML).get(responseType);
+        return find(responseType, id, XML);
     }
 
     public <T> T find_JSON(Class<T> responseType, String id) throws ClientErrorException {
-        WebTarget resource = webTarget;
-        resource = resource.path(java.text.MessageFormat.format("{0}", new Object[]{id}));
-        return resource.request(javax.ws.rs.core.MediaType.APPLICATION_JSON).get(responseType);
+        return find(responseType, id, JSON);
+    }
+
+    public void create(Object requestEntity) throws ForbiddenException, InternalServerErrorException {
+        create(requestEntity, wireFormat.getMediaType());
     }
 
     public void create_XML(Object requestEntity) throws ForbiddenException, InternalServerErrorException {
-        webTarget.request(javax.ws.rs.core.MediaType.APPLICATION_XML)
-            .post(javax.ws.rs.client.Entity.entity(requestEntity,
-                 javax.ws.rs.core.MediaType.APPLICATION_XML),requestEntity.getClass());
+        create(requestEntity, XML);
     }
 
     public void create_JSON(Object requestEntity) throws ClientErrorException {
-        webTarget.request(javax.ws.rs.core.MediaType.APPLICATION_JSON).post(javax.ws.rs.client.Entity.entity(requestEntity, javax.ws.rs.core.MediaType.APPLICATION_JSON));
+        AsyncRequests.write(webTarget.request(JSON), "POST", javax.ws.rs.client.Entity.entity(requestEntity, JSON), null);
+    }
+
+    public <T> T findAll(GenericType<T> responseType) throws ClientErrorException {
+        return AsyncRequests.await(AsyncRequests.get(webTarget.request(wireFormat.getMediaType()), responseType, AsyncRequests.DIRECT));
     }
 
     public <T> T findAll_XML(Class<T> responseType) throws ClientErrorException {
         WebTarget resource = webTarget;
-        return resource.request(javax.ws.rs.core.MediaType.APPLICATION_XML).get(responseType);
+        return AsyncRequests.await(AsyncRequests.get(resource.request(XML), responseType, AsyncRequests.DIRECT));
     }
 
     public <T> T findAll_JSON(Class<T> responseType) throws ClientErrorException {
         WebTarget resource = webTarget;
-        return resource.request(javax.ws.rs.core.MediaType.APPLICATION_JSON).get(responseType);
+        return AsyncRequests.await(AsyncRequests.get(resource.request(JSON), responseType, AsyncRequests.DIRECT));
+    }
+
+    public <T> T findAll_JSON(GenericType<T> responseType) throws ClientErrorException {
+        return AsyncRequests.await(AsyncRequests.get(webTarget.request(JSON), responseType, AsyncRequests.DIRECT));
     }
 
     public void remove(String id) throws ClientErrorException {
-        webTarget.path(java.text.MessageFormat.format("{0}", new Object[]{id})).request().delete();
+        AsyncRequests.write(webTarget.path(java.text.MessageFormat.format("{0}", new Object[]{id})).request(), "DELETE", null, null);
+    }
+
+    // Implementaciones comunes a los métodos XML, JSON y de formato configurado.
+
+    private void edit(Object requestEntity, String mediaType) {
+        AsyncRequests.write(webTarget.request(mediaType), "PUT", javax.ws.rs.client.Entity.entity(requestEntity, mediaType), null);
+    }
+
+    private <T> T findCustomerByEmailPassword(Class<T> responseType, String email, String password, String mediaType) {
+        // El recurso del servidor se llama "sigin" (sic) en ambos formatos
+        WebTarget resource = webTarget;
+        resource = resource.path(java.text.MessageFormat.format("sigin/{0}/{1}", new Object[]{email, password}));
+        return AsyncRequests.await(AsyncRequests.get(resource.request(mediaType), responseType, AsyncRequests.DIRECT));
+    }
+
+    private <T> T find(Class<T> responseType, String id, String mediaType) {
+        WebTarget resource = webTarget;
+        resource = resource.path(java.text.MessageFormat.format("{0}", new Object[]{id}));
+        return AsyncRequests.await(AsyncRequests.get(resource.request(mediaType), responseType, AsyncRequests.DIRECT));
+    }
+
+    private void create(Object requestEntity, String mediaType) {
+        // Como antes, los códigos de error se lanzan (p. ej. ForbiddenException)
+        AsyncRequests.await(AsyncRequests.send(webTarget.request(mediaType), "POST",
+                javax.ws.rs.client.Entity.entity(requestEntity, mediaType), AsyncRequests.DIRECT));
+    }
+
+    // ---------------------------------------------------------------------
+    // Variantes asíncronas. Devuelven el control inmediatamente; la etapa
+    // devuelta se completa en el executor indicado y cancelarla aborta la
+    // petición. Los códigos de error completan la etapa con la excepción
+    // correspondiente. Ver AsyncRequests.
+    // ---------------------------------------------------------------------
+
+    public CompletionStage<Void> editAsync(Object requestEntity, Executor executor) {
+        return editAsync(requestEntity, null, executor);
+    }
+
+    /**
+     * Modifica el cliente como un intento de una operación que quien llama
+     * puede repetir: todas las llamadas con la misma clave llevan la misma
+     * cabecera {@value RetryPolicy#IDEMPOTENCY_KEY_HEADER}, así que el
+     * servidor distingue una repetición de un cambio nuevo.
+     *
+     * @param requestEntity Cliente modificado.
+     * @param idempotencyKey Clave de la operación, de
+     * {@link RetryPolicy#newIdempotencyKey()}.
+     * @param executor Donde se completa la etapa.
+     */
+    public CompletionStage<Void> editAsync(Object requestEntity, String idempotencyKey, Executor executor) {
+        return AsyncRequests.send(webTarget.request(wireFormat.getMediaType()), "PUT", javax.ws.rs.client.Entity.entity(requestEntity, wireFormat.getMediaType()), idempotencyKey, executor);
+    }
+
+    public <T> CompletionStage<T> findCustomerByEmailPasswordAsync(Class<T> responseType, String email, String password, Executor executor) {
+        WebTarget resource = webTarget;
+        resource = resource.path(java.text.MessageFormat.format("sigin/{0}/{1}", new Object[]{email, password}));
+        return AsyncRequests.get(resource.request(wireFormat.getMediaType()), responseType, executor);
+    }
+
+    public <T> CompletionStage<T> findAsync(Class<T> responseType, String id, Executor executor) {
+        WebTarget resource = webTarget;
+        resource = resource.path(java.text.MessageFormat.format("{0}", new Object[]{id}));
+        return AsyncRequests.get(resource.request(wireFormat.getMediaType()), responseType, executor);
+    }
+
+    public CompletionStage<Void> createAsync(Object requestEntity, Executor executor) {
+        return createAsync(requestEntity, null, executor);
+    }
+
+    /**
+     * Como {@link #editAsync(Object, String, Executor)}, para un alta.
+     */
+    public CompletionStage<Void> createAsync(Object requestEntity, String idempotencyKey, Executor executor) {
+        return AsyncRequests.send(webTarget.request(wireFormat.getMediaType()), "POST", javax.ws.rs.client.Entity.entity(requestEntity, wireFormat.getMediaType()), idempotencyKey, executor);
+    }
+
+    public <T> CompletionStage<T> findAllAsync(GenericType<T> responseType, Executor executor) {
+        return AsyncRequests.get(webTarget.request(wireFormat.getMediaType()), responseType, executor);
+    }
+
+    public CompletionStage<Void> editAsync_XML(Object requestEntity, Executor executor) {
+        return AsyncRequests.send(webTarget.request(javax.ws.rs.core.MediaType.APPLICATION_XML), "PUT", javax.ws.rs.client.Entity.entity(requestEntity, javax.ws.rs.core.MediaType.APPLICATION_XML), executor);
+    }
+
+    public <T> CompletionStage<T> findCustomerByEmailPasswordAsync_XML(Class<T> responseType, String email, String password, Executor executor) {
+        WebTarget resource = webTarget;
+        resource = resource.path(java.text.MessageFormat.format("sigin/{0}/{1}", new Object[]{email, password}));
+        return AsyncRequests.get(resource.request(javax.ws.rs.core.MediaType.APPLICATION_XML), responseType, executor);
+    }
+
+    public <T> CompletionStage<T> findAsync_XML(Class<T> responseType, String id, Executor executor) {
+        WebTarget resource = webTarget;
+        resource = resource.path(java.text.MessageFormat.format("{0}", new Object[]{id}));
+        return AsyncRequests.get(resource.request(javax.ws.rs.core.MediaType.APPLICATION_XML), responseType, executor);
+    }
+
+    public CompletionStage<Void> createAsync_XML(Object requestEntity, Executor executor) {
+        return AsyncRequests.send(webTarget.request(javax.ws.rs.core.MediaType.APPLICATION_XML), "POST", javax.ws.rs.client.Entity.entity(requestEntity, javax.ws.rs.core.MediaType.APPLICATION_XML), executor);
+    }
+
+    public <T> CompletionStage<T> findAllAsync_XML(Class<T> responseType, Executor executor) {
+        WebTarget resource = webTarget;
+        return AsyncRequests.get(resource.request(javax.ws.rs.core.MediaType.APPLICATION_XML), responseType, executor);
+    }
+
+    public CompletionStage<Void> removeAsync(String id, Executor executor) {
+        return AsyncRequests.send(webTarget.path(java.text.MessageFormat.format("{0}", new Object[]{id})).request(), "DELETE", null, executor);
     }
 
+    /**
+     * Libera este cliente, que no debe usarse después. El cliente compartido
+     * y sus conexiones no se cierran: los usan todos los clientes REST y solo
+     * los cierra {@link RESTClientFactory#shutdown()}, que la aplicación
+     * llama al terminar.
+     */
     public void close() {
-        client.close();
+        client = null;
+        webTarget = null;
     }
     
 }
@@ -0,0 +1,119 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Names REST endpoints for the per-endpoint metrics, replacing the variable
+ * parts of the path so that every request to the same resource method is
+ * counted together, for example {@code GET movement/account/{id}}.
+ * <p>
+ * Path segments with digits become {@code {id}}. A segment with an
+ * {@code @} becomes {@code {email}} and the segment after it
+ * {@code {password}}, so the credentials of the sign-in URI never reach the
+ * metrics. Endpoints are also grouped by the logical operation of the
+ * clients that call them, for {@link RequestMetrics}.
+ */
+final class Endpoints {
+
+    private static final String RESOURCES_ROOT = "/webresources/";
+
+    private static final Map<String, String> OPERATIONS = new HashMap<String, String>();
+
+    static {
+        for (String resource : new String[]{"customer", "account", "movement"}) {
+            OPERATIONS.put("GET " + resource, resource + ".findAll");
+            OPERATIONS.put("GET " + resource + "/{id}", resource + ".find");
+            OPERATIONS.put("POST " + resource, resource + ".create");
+            OPERATIONS.put("PUT " + resource, resource + ".update");
+            OPERATIONS.put("DELETE " + resource + "/{id}", resource + ".remove");
+        }
+        OPERATIONS.put("GET customer/sigin/{email}/{password}", "customer.signin");
+        OPERATIONS.put("GET account/customer/{id}", "account.findByCustomer");
+        OPERATIONS.put("GET movement/account/{id}", "movement.findByAccount");
+        // Movements are created under their account
+        OPERATIONS.put("POST movement/{id}", "movement.create");
+        OPERATIONS.put("POST movement/{id}/batch", "movement.createBatch");
+    }
+
+    private Endpoints() {
+    }
+
+    /**
+     * @param method HTTP method.
+     * @param uri Request URI.
+     * @return Endpoint name, for example {@code GET account/customer/{id}}.
+     */
+    static String nameOf(String method, URI uri) {
+        String path = resourcePath(uri);
+        StringBuilder name = new StringBuilder(method).append(' ');
+        String[] segments = path.split("/");
+        boolean afterEmail = false;
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (i > 0) {
+                name.append('/');
+            }
+            if (afterEmail) {
+                name.append("{password}");
+                afterEmail = false;
+            } else if (segment.indexOf('@') >= 0 || segment.contains("%40")) {
+                name.append("{email}");
+                afterEmail = true;
+            } else if (hasDigit(segment)) {
+                name.append("{id}");
+            } else {
+                name.append(segment);
+            }
+        }
+        return name.toString();
+    }
+
+    /**
+     * Names the logical operation of a request, as the application sees it:
+     * the resource and the client method, for example
+     * {@code account.findByCustomer} for {@code GET account/customer/{id}}.
+     *
+     * @param endpoint Endpoint name from {@link #nameOf(String, URI)}.
+     * @return Operation name, or the endpoint name if it is not one of the
+     * resource methods of the server.
+     */
+    static String operationOf(String endpoint) {
+        String operation = OPERATIONS.get(endpoint);
+        return (operation == null) ? endpoint : operation;
+    }
+
+    /**
+     * @param uri Request URI.
+     * @return Raw path of the resource, relative to the resources root and
+     * without the query, for example {@code account/customer/12}.
+     */
+    static String resourcePath(URI uri) {
+        String path = uri.getRawPath();
+        if (path == null) {
+            path = "";
+        }
+        int root = path.indexOf(RESOURCES_ROOT);
+        if (root >= 0) {
+            path = path.substring(root + RESOURCES_ROOT.length());
+        } else if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        return path;
+    }
+
+    private static boolean hasDigit(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            if (Character.isDigit(segment.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.ws.rs.core.Response;
+import model.Account;
+import model.Customer;
+import model.Movement;
+
+/**
+ * Client-side cache of the account and movement lookups, so that windows
+ * opened one after another (Accounts, then Movements) do not download the
+ * same lists again.
+ * <p>
+ * Cached results live for a limited time (TTL) and the cache holds a bounded
+ * number of them, dropping the least recently used first. Every entry is
+ * tagged with the customer, account and movement ids it contains; the write
+ * methods of the REST clients invalidate exactly the entries tagged with the
+ * ids they change. Results are stored as snapshots and each caller gets its
+ * own copy (see {@link Snapshots}).
+ * <p>
+ * Changes made by other clients are only seen once the entry expires, or
+ * after an explicit {@link #invalidate(String...)} (the Refresh action of the
+ * Accounts window does so). Expired results are not served, but they are
+ * kept until they are replaced or evicted: while the {@link CircuitBreaker}s
+ * of all the servers are open they are the degraded, read-only answer (see
+ * {@link #lookupStale(String)}).
+ * <p>
+ * Configuration, read at startup and adjustable at run time:
+ * <ul>
+ * <li><b>bank.rest.entityCache</b>: {@code false} disables the cache
+ * (default {@code true}).</li>
+ * <li><b>bank.rest.entityCache.ttlSeconds</b>: time to live (default 30).</li>
+ * <li><b>bank.rest.entityCache.maxEntries</b>: maximum cached results
+ * (default 128).</li>
+ * </ul>
+ */
+public final class EntityCache {
+
+    /**
+     * Tag carried by every accounts-by-customer list, used when a new account
+     * does not say which customers own it.
+     */
+    static final String ALL_CUSTOMER_ACCOUNTS = "customer:*";
+
+    private static volatile boolean enabled
+            = Boolean.parseBoolean(System.getProperty("bank.rest.entityCache", "true"));
+    private static volatile long ttlMillis
+            = TimeUnit.SECONDS.toMillis(Long.getLong("bank.rest.entityCache.ttlSeconds", 30L));
+    private static volatile int maxEntries
+            = Integer.getInteger("bank.rest.entityCache.maxEntries", 128);
+
+    private static final LinkedHashMap<String, Entry> ENTRIES = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    // Increases with every invalidation; responses requested before it are not stored
+    private static final AtomicLong GENERATION = new AtomicLong();
+
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    private static final AtomicLong EVICTIONS = new AtomicLong();
+    private static final AtomicLong EXPIRATIONS = new AtomicLong();
+    private static final AtomicLong INVALIDATIONS = new AtomicLong();
+
+    private EntityCache() {
+    }
+
+    private static final class Entry {
+
+        final byte[] snapshot;
+        final long expiresAt;
+        final Set<String> tags;
+        boolean expired;
+
+        Entry(byte[] snapshot, long expiresAt, Set<String> tags) {
+            this.snapshot = snapshot;
+            this.expiresAt = expiresAt;
+            this.tags = tags;
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // Configuration and statistics
+    // ---------------------------------------------------------------------
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns the cache on or off. Turning it off also empties it.
+     *
+     * @param enabled true to cache results.
+     */
+    public static void setEnabled(boolean enabled) {
+        EntityCache.enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    /**
+     * Changes the time to live of the entries stored from now on.
+     *
+     * @param ttl Time to live.
+     * @param unit Unit of {@code ttl}.
+     */
+    public static void setTimeToLive(long ttl, TimeUnit unit) {
+        ttlMillis = unit.toMillis(ttl);
+    }
+
+    /**
+     * Changes the maximum number of cached results.
+     *
+     * @param max Maximum entries, at least 1.
+     */
+    public static void setMaxEntries(int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException("max must be at least 1");
+        }
+        synchronized (ENTRIES) {
+            maxEntries = max;
+            evictOverflow();
+        }
+    }
+
+    /**
+     * Empties the cache. Counters are kept.
+     */
+    public static void clear() {
+        GENERATION.incrementAndGet();
+        synchronized (ENTRIES) {
+            ENTRIES.clear();
+        }
+    }
+
+    /**
+     * Takes a snapshot of the cache counters.
+     *
+     * @return Current statistics.
+     */
+    public static EntityCacheStatistics getStatistics() {
+        int size;
+        synchronized (ENTRIES) {
+            size = ENTRIES.size();
+        }
+        return new EntityCacheStatistics(size, HITS.get(), MISSES.get(),
+                EVICTIONS.get(), EXPIRATIONS.get(), INVALIDATIONS.get());
+    }
+
+    // ---------------------------------------------------------------------
+    // Tags
+    // ---------------------------------------------------------------------
+
+    /** Tag of the accounts-by-customer list of a customer. */
+    public static String customerTag(Object customerId) {
+        return "customer:" + customerId;
+    }
+
+    /** Tag of every cached result that contains an account. */
+    public static String accountTag(Object accountId) {
+        return "account:" + accountId;
+    }
+
+    /** Tag of the movement list of an account. */
+    public static String accountMovementsTag(Object accountId) {
+        return "account-movements:" + accountId;
+    }
+
+    /** Tag of every cached result that contains a movement. */
+    public static String movementTag(Object movementId) {
+        return "movement:" + movementId;
+    }
+
+    /**
+     * Tags invalidated when an account is created or changed: the account
+     * itself and the account lists of its customers (or of every customer if
+     * the entity does not say).
+     */
+    static String[] accountWriteTags(Object entity) {
+        Set<String> tags = new HashSet<String>();
+        boolean ownersKnown = false;
+        if (entity instanceof Account) {
+            Account account = (Account) entity;
+            if (account.getId() != null) {
+                tags.add(accountTag(account.getId()));
+            }
+            if (account.getCustomers() != null) {
+                for (Customer customer : account.getCustomers()) {
+                    tags.add(customerTag(customer.getId()));
+                    ownersKnown = true;
+                }
+            }
+        }
+        if (!ownersKnown) {
+            tags.add(ALL_CUSTOMER_ACCOUNTS);
+        }
+        return tags.toArray(new String[tags.size()]);
+    }
+
+    // ---------------------------------------------------------------------
+    // Lookup, store and invalidation
+    // ---------------------------------------------------------------------
+
+    /**
+     * Looks up a result.
+     *
+     * @param key Request key.
+     * @return Snapshot of the result, or null on a miss.
+     */
+    static byte[] lookup(String key) {
+        if (!enabled) {
+            return null;
+        }
+        synchronized (ENTRIES) {
+            Entry entry = ENTRIES.get(key);
+            if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+                // Kept for lookupStale until it is replaced or evicted
+                if (!entry.expired) {
+                    entry.expired = true;
+                    EXPIRATIONS.incrementAndGet();
+                }
+                entry = null;
+            }
+            if (entry == null) {
+                MISSES.incrementAndGet();
+                return null;
+            }
+            HITS.incrementAndGet();
+            return entry.snapshot;
+        }
+    }
+
+    /**
+     * Looks up a result even if it has expired. Used only when the server
+     * cannot be reached; invalidated results are never returned.
+     *
+     * @param key Request key.
+     * @return Snapshot of the last result stored, or null if there is none.
+     */
+    static byte[] lookupStale(String key) {
+        if (!enabled) {
+            return null;
+        }
+        synchronized (ENTRIES) {
+            Entry entry = ENTRIES.get(key);
+            return (entry != null) ? entry.snapshot : null;
+        }
+    }
+
+    /**
+     * @return Number of invalidations so far. Requests started in different
+     * generations must not share a response (see {@link RequestCoalescer}).
+     */
+    static long generation() {
+        return GENERATION.get();
+    }
+
+    /**
+     * Wraps a reader so that its result is stored in the cache.
+     *
+     * @param key Request key.
+     * @param reader Reader of the response.
+     * @param tags Tags of the request; the ids found in the result are added.
+     * @return Reader that stores what it reads.
+     */
+    static <T> AsyncRequests.ResponseReader<T> storing(final String key,
+            final AsyncRequests.ResponseReader<T> reader, final String... tags) {
+        final long generation = GENERATION.get();
+        return new AsyncRequests.ResponseReader<T>() {
+            @Override
+            public T read(Response response) {
+                T value = reader.read(response);
+                if (enabled) {
+                    store(key, value, generation, tags);
+                }
+                return value;
+            }
+        };
+    }
+
+    private static void store(String key, Object value, long generation, String... tags) {
+        byte[] snapshot = Snapshots.take(value);
+        if (snapshot == null) {
+            return;
+        }
+        Set<String> allTags = new HashSet<String>();
+        for (String tag : tags) {
+            allTags.add(tag);
+        }
+        addContentTags(value, allTags);
+        Entry entry = new Entry(snapshot, System.currentTimeMillis() + ttlMillis, allTags);
+        synchronized (ENTRIES) {
+            // A write happened while the request was in flight: the result may be stale
+            if (generation != GENERATION.get()) {
+                return;
+            }
+            ENTRIES.put(key, entry);
+            evictOverflow();
+        }
+    }
+
+    private static void addContentTags(Object value, Set<String> tags) {
+        if (value instanceof Collection) {
+            for (Object item : (Collection<?>) value) {
+                addContentTags(item, tags);
+            }
+        } else if (value instanceof Account) {
+            tags.add(accountTag(((Account) value).getId()));
+        } else if (value instanceof Movement) {
+            tags.add(movementTag(((Movement) value).getId()));
+        }
+    }
+
+    private static void evictOverflow() {
+        Iterator<String> eldest = ENTRIES.keySet().iterator();
+        while (ENTRIES.size() > maxEntries && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            EVICTIONS.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drops every cached result carrying any of the given tags.
+     *
+     * @param tags Tags built with {@link #customerTag(Object)},
+     * {@link #accountTag(Object)}, {@link #accountMovementsTag(Object)} or
+     * {@link #movementTag(Object)}.
+     */
+    public static void invalidate(String... tags) {
+        GENERATION.incrementAndGet();
+        synchronized (ENTRIES) {
+            Iterator<Map.Entry<String, Entry>> it = ENTRIES.entrySet().iterator();
+            while (it.hasNext()) {
+                Set<String> entryTags = it.next().getValue().tags;
+                for (String tag : tags) {
+                    if (entryTags.contains(tag)) {
+                        it.remove();
+                        INVALIDATIONS.incrementAndGet();
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Wraps the executor of an asynchronous write so that the affected
+     * entries are invalidated as soon as the server answers (or the request
+     * fails), before any dependent action of the caller runs.
+     */
+    static Executor invalidating(final Executor executor, final String... tags) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                invalidate(tags);
+                executor.execute(command);
+            }
+        };
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+/**
+ * Immutable snapshot of the counters of {@link EntityCache}.
+ */
+public class EntityCacheStatistics {
+
+    private final int entries;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long expirations;
+    private final long invalidations;
+
+    public EntityCacheStatistics(int entries, long hits, long misses, long evictions,
+            long expirations, long invalidations) {
+        this.entries = entries;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.expirations = expirations;
+        this.invalidations = invalidations;
+    }
+
+    /**
+     * @return Results currently cached, including expired ones kept for
+     * degraded operation.
+     */
+    public int getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return Requests answered from the cache without contacting the server.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return Requests that had to be sent to the server (expired entries
+     * included).
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return Entries dropped because the cache was full (least recently used
+     * first).
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return Entries dropped because their time to live had passed.
+     */
+    public long getExpirations() {
+        return expirations;
+    }
+
+    /**
+     * @return Entries dropped because a write changed the data they hold.
+     */
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * @return Fraction of lookups answered from the cache.
+     */
+    public double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return "EntityCacheStatistics[entries=" + entries + ", hits=" + hits
+                + ", misses=" + misses + ", evictions=" + evictions
+                + ", expirations=" + expirations
+                + ", invalidations=" + invalidations + "]";
+    }
+}
@@ -0,0 +1,546 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import javax.xml.bind.DatatypeConverter;
+import model.Account;
+import model.AccountType;
+import model.Customer;
+import model.Movement;
+
+/**
+ * JSON mapping of the {@link Account}, {@link Customer} and {@link Movement}
+ * entities, written by hand on top of {@link JsonReader} and
+ * {@link JsonWriter} so that no reflection or intermediate tree is involved.
+ * <p>
+ * The documents have the same shape as the server's JAXB-based JSON: one
+ * property per XML element, null properties left out, dates as
+ * {@code xsd:dateTime} strings and lists as top-level arrays. Unknown
+ * properties are skipped; dates are also accepted as epoch milliseconds, and
+ * a single object is accepted where a list is expected.
+ */
+public final class EntityJson {
+
+    private EntityJson() {
+    }
+
+    /**
+     * @param type Raw type requested.
+     * @param genericType Full type, for collections.
+     * @return Whether the type is one entity or a collection of entities.
+     */
+    public static boolean supports(Class<?> type, Type genericType) {
+        if (isEntity(type)) {
+            return true;
+        }
+        return Collection.class.isAssignableFrom(type) && elementType(genericType) != null;
+    }
+
+    /**
+     * Reads a whole document as the given type.
+     *
+     * @param in Source of the document.
+     * @param type An entity class or a collection class.
+     * @param genericType Full type; for collections it gives the entity class.
+     * @return The entity or the collection.
+     * @throws IOException If the input cannot be read or is malformed.
+     */
+    public static Object read(Reader in, Class<?> type, Type genericType) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        Object result;
+        if (isEntity(type)) {
+            result = readEntity(reader, type);
+        } else {
+            Class<?> element = elementType(genericType);
+            if (element == null) {
+                throw new IllegalArgumentException("Unsupported type " + genericType);
+            }
+            Collection<Object> collection = newCollection(type);
+            readArray(reader, element, collection);
+            result = collection;
+        }
+        if (reader.peek() != JsonReader.Token.END_DOCUMENT) {
+            throw new IOException("Malformed JSON: unexpected content after the document");
+        }
+        return result;
+    }
+
+    /**
+     * Writes an entity or a collection of entities as a JSON document.
+     *
+     * @param out Destination; it is not flushed or closed.
+     * @param value Entity or collection.
+     * @throws IOException If the output cannot be written.
+     */
+    public static void write(Writer out, Object value) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        if (value instanceof Collection) {
+            writer.beginArray();
+            for (Object item : (Collection<?>) value) {
+                writeEntity(writer, item);
+            }
+            writer.endArray();
+        } else {
+            writeEntity(writer, value);
+        }
+    }
+
+    public static Account readAccount(JsonReader reader) throws IOException {
+        Account account = new Account();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonReader.Token.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "id":
+                    account.setId(reader.nextLong());
+                    break;
+                case "type":
+                    account.setType(AccountType.valueOf(reader.nextString()));
+                    break;
+                case "description":
+                    account.setDescription(reader.nextString());
+                    break;
+                case "balance":
+                    account.setBalance(reader.nextDouble());
+                    break;
+                case "creditLine":
+                    account.setCreditLine(reader.nextDouble());
+                    break;
+                case "beginBalance":
+                    account.setBeginBalance(reader.nextDouble());
+                    break;
+                case "beginBalanceTimestamp":
+                    account.setBeginBalanceTimestamp(readDate(reader));
+                    break;
+                case "customers":
+                    Set<Customer> customers = new HashSet<Customer>();
+                    readArray(reader, Customer.class, customers);
+                    account.setCustomers(customers);
+                    break;
+                case "movements":
+                    Set<Movement> movements = new HashSet<Movement>();
+                    readArray(reader, Movement.class, movements);
+                    account.setMovements(movements);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return account;
+    }
+
+    public static Customer readCustomer(JsonReader reader) throws IOException {
+        Customer customer = new Customer();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonReader.Token.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "id":
+                    customer.setId(reader.nextLong());
+                    break;
+                case "firstName":
+                    customer.setFirstName(reader.nextString());
+                    break;
+                case "lastName":
+                    customer.setLastName(reader.nextString());
+                    break;
+                case "middleInitial":
+                    customer.setMiddleInitial(reader.nextString());
+                    break;
+                case "street":
+                    customer.setStreet(reader.nextString());
+                    break;
+                case "city":
+                    customer.setCity(reader.nextString());
+                    break;
+                case "state":
+                    customer.setState(reader.nextString());
+                    break;
+                case "zip":
+                    customer.setZip((int) reader.nextLong());
+                    break;
+                case "phone":
+                    customer.setPhone(reader.nextLong());
+                    break;
+                case "email":
+                    customer.setEmail(reader.nextString());
+                    break;
+                case "password":
+                    customer.setPassword(reader.nextString());
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return customer;
+    }
+
+    public static Movement readMovement(JsonReader reader) throws IOException {
+        Movement movement = new Movement();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonReader.Token.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "id":
+                    movement.setId(reader.nextLong());
+                    break;
+                case "timestamp":
+                    movement.setTimestamp(readDate(reader));
+                    break;
+                case "amount":
+                    movement.setAmount(reader.nextDouble());
+                    break;
+                case "balance":
+                    movement.setBalance(reader.nextDouble());
+                    break;
+                case "description":
+                    movement.setDescription(reader.nextString());
+                    break;
+                case "account":
+                    movement.setAccount(readAccount(reader));
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return movement;
+    }
+
+    public static void writeAccount(JsonWriter writer, Account account) throws IOException {
+        writer.beginObject();
+        if (account.getBalance() != null) {
+            writer.name("balance").value(account.getBalance());
+        }
+        if (account.getBeginBalance() != null) {
+            writer.name("beginBalance").value(account.getBeginBalance());
+        }
+        if (account.getBeginBalanceTimestamp() != null) {
+            writer.name("beginBalanceTimestamp").value(formatDate(account.getBeginBalanceTimestamp()));
+        }
+        if (account.getCreditLine() != null) {
+            writer.name("creditLine").value(account.getCreditLine());
+        }
+        if (account.getCustomers() != null) {
+            writer.name("customers").beginArray();
+            for (Customer customer : account.getCustomers()) {
+                writeCustomer(writer, customer);
+            }
+            writer.endArray();
+        }
+        if (account.getDescription() != null) {
+            writer.name("description").value(account.getDescription());
+        }
+        if (account.getId() != null) {
+            writer.name("id").value(account.getId());
+        }
+        if (account.getMovements() != null) {
+            writer.name("movements").beginArray();
+            for (Movement movement : account.getMovements()) {
+                writeMovement(writer, movement);
+            }
+            writer.endArray();
+        }
+        if (account.getType() != null) {
+            writer.name("type").value(account.getType().name());
+        }
+        writer.endObject();
+    }
+
+    public static void writeCustomer(JsonWriter writer, Customer customer) throws IOException {
+        writer.beginObject();
+        if (customer.getCity() != null) {
+            writer.name("city").value(customer.getCity());
+        }
+        if (customer.getEmail() != null) {
+            writer.name("email").value(customer.getEmail());
+        }
+        if (customer.getFirstName() != null) {
+            writer.name("firstName").value(customer.getFirstName());
+        }
+        if (customer.getId() != null) {
+            writer.name("id").value(customer.getId());
+        }
+        if (customer.getLastName() != null) {
+            writer.name("lastName").value(customer.getLastName());
+        }
+        if (customer.getMiddleInitial() != null) {
+            writer.name("middleInitial").value(customer.getMiddleInitial());
+        }
+        if (customer.getPassword() != null) {
+            writer.name("password").value(customer.getPassword());
+        }
+        if (customer.getPhone() != null) {
+            writer.name("phone").value(customer.getPhone());
+        }
+        if (customer.getState() != null) {
+            writer.name("state").value(customer.getState());
+        }
+        if (customer.getStreet() != null) {
+            writer.name("street").value(customer.getStreet());
+        }
+        if (customer.getZip() != null) {
+            writer.name("zip").value(customer.getZip());
+        }
+        writer.endObject();
+    }
+
+    /**
+     * Writes a movement. Its account is left out, as in the XML form, where
+     * it is {@code @XmlTransient}.
+     */
+    public static void writeMovement(JsonWriter writer, Movement movement) throws IOException {
+        writer.beginObject();
+        if (movement.getAmount() != null) {
+            writer.name("amount").value(movement.getAmount());
+        }
+        if (movement.getBalance() != null) {
+            writer.name("balance").value(movement.getBalance());
+        }
+        if (movement.getDescription() != null) {
+            writer.name("description").value(movement.getDescription());
+        }
+        if (movement.getId() != null) {
+            writer.name("id").value(movement.getId());
+        }
+        if (movement.getTimestamp() != null) {
+            writer.name("timestamp").value(formatDate(movement.getTimestamp()));
+        }
+        writer.endObject();
+    }
+
+    private static boolean isEntity(Class<?> type) {
+        return type == Account.class || type == Customer.class || type == Movement.class;
+    }
+
+    private static Class<?> elementType(Type genericType) {
+        if (!(genericType instanceof ParameterizedType)) {
+            return null;
+        }
+        Type[] arguments = ((ParameterizedType) genericType).getActualTypeArguments();
+        if (arguments.length == 1 && arguments[0] instanceof Class && isEntity((Class<?>) arguments[0])) {
+            return (Class<?>) arguments[0];
+        }
+        return null;
+    }
+
+    private static Collection<Object> newCollection(Class<?> type) {
+        if (type.isAssignableFrom(ArrayList.class)) {
+            return new ArrayList<Object>();
+        }
+        if (type.isAssignableFrom(LinkedHashSet.class)) {
+            return new LinkedHashSet<Object>();
+        }
+        throw new IllegalArgumentException("Unsupported collection type " + type.getName());
+    }
+
+    private static Object readEntity(JsonReader reader, Class<?> type) throws IOException {
+        if (type == Account.class) {
+            return readAccount(reader);
+        }
+        if (type == Customer.class) {
+            return readCustomer(reader);
+        }
+        return readMovement(reader);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void readArray(JsonReader reader, Class<T> element, Collection<? super T> into)
+            throws IOException {
+        if (reader.peek() == JsonReader.Token.BEGIN_OBJECT) {
+            // Some JSON providers write one-element lists as a bare object
+            into.add((T) readEntity(reader, element));
+            return;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+            into.add((T) readEntity(reader, element));
+        }
+        reader.endArray();
+    }
+
+    private static void writeEntity(JsonWriter writer, Object entity) throws IOException {
+        if (entity instanceof Movement) {
+            writeMovement(writer, (Movement) entity);
+        } else if (entity instanceof Account) {
+            writeAccount(writer, (Account) entity);
+        } else if (entity instanceof Customer) {
+            writeCustomer(writer, (Customer) entity);
+        } else {
+            throw new IllegalArgumentException("Unsupported entity "
+                    + (entity == null ? null : entity.getClass().getName()));
+        }
+    }
+
+    private static Date readDate(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonReader.Token.NUMBER) {
+            return new Date(reader.nextLong());
+        }
+        String text = reader.nextString();
+        long millis = parseDate(text);
+        if (millis != Long.MIN_VALUE) {
+            return new Date(millis);
+        }
+        try {
+            return DatatypeConverter.parseDateTime(text).getTime();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed JSON: invalid date \"" + text + "\"", e);
+        }
+    }
+
+    /**
+     * Parses the usual {@code yyyy-MM-ddTHH:mm:ss[.SSS](Z|+hh:mm)} form
+     * without going through a calendar.
+     *
+     * @return Epoch milliseconds, or {@code Long.MIN_VALUE} if the text has
+     * another form.
+     */
+    static long parseDate(String text) {
+        int length = text.length();
+        if (length < 20 || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != 'T'
+                || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            return Long.MIN_VALUE;
+        }
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 2);
+        int day = digits(text, 8, 2);
+        int hour = digits(text, 11, 2);
+        int minute = digits(text, 14, 2);
+        int second = digits(text, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return Long.MIN_VALUE;
+        }
+        int i = 19;
+        int millis = 0;
+        if (text.charAt(i) == '.') {
+            int scale = 100;
+            i++;
+            int start = i;
+            while (i < length && Character.isDigit(text.charAt(i))) {
+                millis += (text.charAt(i) - '0') * scale;
+                scale /= 10;
+                i++;
+            }
+            if (i == start) {
+                return Long.MIN_VALUE;
+            }
+        }
+        if (i >= length) {
+            return Long.MIN_VALUE;
+        }
+        int offsetMinutes;
+        char zone = text.charAt(i);
+        if (zone == 'Z' && i + 1 == length) {
+            offsetMinutes = 0;
+        } else if ((zone == '+' || zone == '-') && i + 6 == length && text.charAt(i + 3) == ':') {
+            int hours = digits(text, i + 1, 2);
+            int minutes = digits(text, i + 4, 2);
+            if (hours < 0 || minutes < 0) {
+                return Long.MIN_VALUE;
+            }
+            offsetMinutes = (hours * 60 + minutes) * (zone == '-' ? -1 : 1);
+        } else {
+            return Long.MIN_VALUE;
+        }
+        long days = daysFromCivil(year, month, day);
+        long seconds = days * 86400L + hour * 3600L + minute * 60L + second - offsetMinutes * 60L;
+        return seconds * 1000L + millis;
+    }
+
+    /**
+     * Formats a date as {@code yyyy-MM-ddTHH:mm:ss.SSSZ} (UTC), a valid
+     * {@code xsd:dateTime}.
+     */
+    static String formatDate(Date date) {
+        long millis = date.getTime();
+        long days = Math.floorDiv(millis, 86400000L);
+        int millisOfDay = (int) Math.floorMod(millis, 86400000L);
+        // Civil date from days since the epoch (proleptic Gregorian)
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        char[] out = new char[24];
+        put(out, 0, (int) year, 4);
+        out[4] = '-';
+        put(out, 5, month, 2);
+        out[7] = '-';
+        put(out, 8, day, 2);
+        out[10] = 'T';
+        put(out, 11, millisOfDay / 3600000, 2);
+        out[13] = ':';
+        put(out, 14, millisOfDay / 60000 % 60, 2);
+        out[16] = ':';
+        put(out, 17, millisOfDay / 1000 % 60, 2);
+        out[19] = '.';
+        put(out, 20, millisOfDay % 1000, 3);
+        out[23] = 'Z';
+        return new String(out);
+    }
+
+    private static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int digits(String text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static void put(char[] out, int start, int value, int count) {
+        for (int i = start + count - 1; i >= start; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
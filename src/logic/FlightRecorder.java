@@ -0,0 +1,73 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Access to Java Flight Recorder, which is not part of the Java 8 API and is
+ * missing from older Java 8 runtimes.
+ * <p>
+ * The classes of the application's events extend {@code jdk.jfr.Event}, so
+ * they live in a separate source root, {@code src-jfr}, that the build only
+ * compiles with a JDK that has {@code jdk.jfr} (11 or later). Nothing in
+ * {@code src} refers to them directly: they are loaded by name, through
+ * {@link #newInstance(String, Class)}, only once the runtime is known to have
+ * {@code jdk.jfr}. Without it, or in a build made on Java 8 that lacks those
+ * classes, the events are simply not recorded.
+ */
+public final class FlightRecorder {
+
+    private static final Logger LOGGER = Logger.getLogger(FlightRecorder.class.getName());
+
+    private static final boolean AVAILABLE = lookUp();
+
+    private FlightRecorder() {
+    }
+
+    private static boolean lookUp() {
+        try {
+            Class.forName("jdk.jfr.Event", false, FlightRecorder.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            LOGGER.config("Java Flight Recorder is not available; events are not recorded");
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the runtime has the {@code jdk.jfr} API.
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * Creates an instance of a class that uses the {@code jdk.jfr} API.
+     *
+     * @param <T> Type the instance is used as.
+     * @param className Binary name of the class; it needs a no-argument
+     * constructor accessible from this package.
+     * @param type Type the instance is used as, free of {@code jdk.jfr}.
+     * @return The new instance, or null without Java Flight Recorder or if
+     * the class cannot be loaded.
+     */
+    public static <T> T newInstance(String className, Class<T> type) {
+        if (!AVAILABLE) {
+            return null;
+        }
+        try {
+            return type.cast(Class.forName(className).getDeclaredConstructor().newInstance());
+        } catch (ClassNotFoundException e) {
+            LOGGER.config("Flight recorder support " + className + " not built; events are not recorded");
+            return null;
+        } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+            LOGGER.log(Level.WARNING, "Flight recorder support " + className + " not loaded", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * Hedged GET requests, applied by {@link AsyncRequests} to the conditional
+ * GETs of entities ({@code find_XML}, {@code findAccountsByCustomerId_XML},
+ * {@code findMovementByAccount_XML} and the like), to cut the tail latency
+ * caused by an occasional slow answer.
+ * <p>
+ * When the first attempt has not answered after the given percentile of the
+ * response times observed recently, a second attempt of the same request is
+ * sent on another connection, to whatever replica the {@link ServerPool}
+ * chooses (with least-outstanding balancing, never the busy one if another
+ * is available). The first successful answer wins and the other attempt is
+ * cancelled, which aborts its HTTP request; the request only fails if both
+ * attempts fail. Only requests whose reader has no side effects besides the
+ * caches are hedged: streamed and paged reads are not.
+ * <p>
+ * Hedging is not tried until enough response times have been observed, and
+ * the hedges sent are kept under a share of the hedgeable requests, so that
+ * a slow server does not receive twice the load just when it can least
+ * afford it.
+ * <p>
+ * Settings, read at startup:
+ * <ul>
+ * <li><b>bank.rest.hedge</b>: {@code true} enables hedging (default
+ * false).</li>
+ * <li><b>bank.rest.hedge.percentile</b>: response time percentile after which
+ * the second attempt is sent (default 95).</li>
+ * <li><b>bank.rest.hedge.minDelayMillis</b>: shortest wait before the second
+ * attempt (default 10).</li>
+ * <li><b>bank.rest.hedge.budget</b>: hedges allowed, as a percentage of the
+ * hedgeable requests (default 10).</li>
+ * </ul>
+ */
+public final class HedgingPolicy {
+
+    // Response times kept to compute the percentile
+    private static final int WINDOW = 256;
+    // Response times needed before hedging
+    private static final int MIN_SAMPLES = 20;
+    // New samples after which the delay is computed again
+    private static final int RECOMPUTE_EVERY = 16;
+
+    private static volatile boolean enabled
+            = Boolean.parseBoolean(System.getProperty("bank.rest.hedge", "false"));
+    private static volatile double percentile
+            = checkPercentile(Double.parseDouble(System.getProperty("bank.rest.hedge.percentile", "95")));
+    private static volatile long minDelayMillis
+            = Math.max(0L, Long.getLong("bank.rest.hedge.minDelayMillis", 10L));
+    private static volatile int budgetPercent
+            = Math.max(0, Math.min(100, Integer.getInteger("bank.rest.hedge.budget", 10)));
+
+    private static final Object LOCK = new Object();
+    // Guarded by LOCK
+    private static final long[] SAMPLES = new long[WINDOW];
+    private static int sampleCount;
+    private static int nextSample;
+    private static int sinceComputed;
+    private static long delayNanos = -1;
+
+    private static final AtomicLong REQUESTS = new AtomicLong();
+    private static final AtomicLong HEDGES = new AtomicLong();
+    private static final AtomicLong HEDGE_WINS = new AtomicLong();
+
+    private HedgingPolicy() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        HedgingPolicy.enabled = enabled;
+    }
+
+    /**
+     * Changes the response time percentile after which the second attempt is
+     * sent.
+     *
+     * @param percentile Greater than 0 and less than 100.
+     */
+    public static void setPercentile(double percentile) {
+        HedgingPolicy.percentile = checkPercentile(percentile);
+        synchronized (LOCK) {
+            delayNanos = -1;
+        }
+    }
+
+    /**
+     * Changes the shortest wait before the second attempt.
+     *
+     * @param millis Not negative.
+     */
+    public static void setMinDelay(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Invalid delay: " + millis);
+        }
+        minDelayMillis = millis;
+    }
+
+    /**
+     * Changes the share of hedgeable requests that may be hedged.
+     *
+     * @param percent Between 0 and 100.
+     */
+    public static void setBudget(int percent) {
+        if (percent < 0 || percent > 100) {
+            throw new IllegalArgumentException("Invalid budget: " + percent);
+        }
+        budgetPercent = percent;
+    }
+
+    /**
+     * @return Current wait before the second attempt, in milliseconds, or -1
+     * while too few response times have been observed.
+     */
+    public static long getDelayMillis() {
+        long nanos = delayNanos();
+        return (nanos < 0) ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * @return Second attempts sent since startup.
+     */
+    public static long getHedgedCount() {
+        return HEDGES.get();
+    }
+
+    /**
+     * @return Second attempts that answered before the first one.
+     */
+    public static long getHedgeWinCount() {
+        return HEDGE_WINS.get();
+    }
+
+    /**
+     * Forgets the observed response times and the counters.
+     */
+    static void reset() {
+        synchronized (LOCK) {
+            sampleCount = 0;
+            nextSample = 0;
+            sinceComputed = 0;
+            delayNanos = -1;
+        }
+        REQUESTS.set(0);
+        HEDGES.set(0);
+        HEDGE_WINS.set(0);
+    }
+
+    /**
+     * Wraps a call so that, while hedging is enabled, a second one is started
+     * if the first is slow. The call must be safe to start twice.
+     */
+    static <T> RequestCoalescer.Call<T> hedged(final RequestCoalescer.Call<T> call) {
+        return new RequestCoalescer.Call<T>() {
+            @Override
+            public CompletionStage<T> start() {
+                return enabled ? race(call) : call.start();
+            }
+        };
+    }
+
+    private static <T> CompletionStage<T> race(final RequestCoalescer.Call<T> call) {
+        REQUESTS.incrementAndGet();
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        final AtomicReference<CompletableFuture<T>> first = new AtomicReference<CompletableFuture<T>>();
+        final AtomicReference<CompletableFuture<T>> second = new AtomicReference<CompletableFuture<T>>();
+        attempt(call, result, first, second, false);
+
+        long delay = delayNanos();
+        if (delay >= 0) {
+            delay = Math.max(delay, TimeUnit.MILLISECONDS.toNanos(minDelayMillis));
+            final Future<?> timer = RetryPolicy.scheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (result.isDone() || !withinBudget()) {
+                        return;
+                    }
+                    HEDGES.incrementAndGet();
+                    CompletableFuture<T> hedge = attempt(call, result, second, first, true);
+                    if (result.isDone()) {
+                        hedge.cancel(true);
+                    }
+                }
+            }, delay, TimeUnit.NANOSECONDS);
+            result.whenComplete(new BiConsumer<T, Throwable>() {
+                @Override
+                public void accept(T value, Throwable error) {
+                    timer.cancel(false);
+                }
+            });
+        }
+        result.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable error) {
+                if (result.isCancelled()) {
+                    first.get().cancel(true);
+                    CompletableFuture<T> hedge = second.get();
+                    if (hedge != null) {
+                        hedge.cancel(true);
+                    }
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Starts one attempt of a race: its success completes the result and
+     * cancels the other attempt; its failure does so only if the other
+     * attempt cannot answer any more.
+     */
+    private static <T> CompletableFuture<T> attempt(RequestCoalescer.Call<T> call,
+            final CompletableFuture<T> result, AtomicReference<CompletableFuture<T>> self,
+            final AtomicReference<CompletableFuture<T>> other, final boolean hedge) {
+        final long start = System.nanoTime();
+        final CompletableFuture<T> stage = call.start().toCompletableFuture();
+        // Published before it can end, so that a failure of the other sees it
+        self.set(stage);
+        stage.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable error) {
+                if (error == null) {
+                    record(System.nanoTime() - start);
+                    if (result.complete(value)) {
+                        if (hedge) {
+                            HEDGE_WINS.incrementAndGet();
+                        }
+                        CompletableFuture<T> loser = other.get();
+                        if (loser != null) {
+                            loser.cancel(true);
+                        }
+                    }
+                    return;
+                }
+                CompletableFuture<T> rival = other.get();
+                if (rival == null || rival.isDone()) {
+                    result.completeExceptionally(error);
+                }
+            }
+        });
+        return stage;
+    }
+
+    private static boolean withinBudget() {
+        return HEDGES.get() * 100 < (long) budgetPercent * REQUESTS.get();
+    }
+
+    private static void record(long nanos) {
+        synchronized (LOCK) {
+            SAMPLES[nextSample] = nanos;
+            nextSample = (nextSample + 1) % WINDOW;
+            sampleCount = Math.min(WINDOW, sampleCount + 1);
+            sinceComputed++;
+        }
+    }
+
+    private static long delayNanos() {
+        synchronized (LOCK) {
+            if (sampleCount < MIN_SAMPLES) {
+                return -1;
+            }
+            if (delayNanos < 0 || sinceComputed >= RECOMPUTE_EVERY) {
+                long[] sorted = Arrays.copyOf(SAMPLES, sampleCount);
+                Arrays.sort(sorted);
+                int rank = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+                delayNanos = sorted[Math.max(0, Math.min(sorted.length - 1, rank))];
+                sinceComputed = 0;
+            }
+            return delayNanos;
+        }
+    }
+
+    private static double checkPercentile(double percentile) {
+        if (!(percentile > 0 && percentile < 100)) {
+            throw new IllegalArgumentException("Invalid percentile: " + percentile);
+        }
+        return percentile;
+    }
+}
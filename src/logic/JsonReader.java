@@ -0,0 +1,516 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Pull reader for JSON documents (RFC 8259), reading the input one token at
+ * a time from its own buffer, without building a tree.
+ * <p>
+ * Typical use:
+ * <pre>
+ *     reader.beginObject();
+ *     while (reader.hasNext()) {
+ *         String name = reader.nextName();
+ *         ... reader.nextString(), nextLong(), skipValue() ...
+ *     }
+ *     reader.endObject();
+ * </pre>
+ * Malformed input is reported with an {@link IOException} giving the
+ * character offset. Not thread-safe.
+ */
+public final class JsonReader implements Closeable {
+
+    /**
+     * Kind of the next token.
+     */
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER,
+        BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int pos;
+    private int limit;
+    /**
+     * Characters discarded from the buffer so far, for error messages.
+     */
+    private long consumed;
+
+    private int[] scopes = new int[32];
+    private int depth = 1;
+    private Token peeked;
+
+    private final StringBuilder scratch = new StringBuilder(64);
+
+    public JsonReader(Reader in) {
+        if (in == null) {
+            throw new IllegalArgumentException("in must not be null");
+        }
+        this.in = in;
+        scopes[0] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Returns the kind of the next token without consuming it.
+     *
+     * @return Next token.
+     * @throws IOException If the input cannot be read or is malformed.
+     */
+    public Token peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+        int scope = scopes[depth - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY:
+                scopes[depth - 1] = NONEMPTY_ARRAY;
+                if (nextNonWhitespace() == ']') {
+                    return peeked = Token.END_ARRAY;
+                }
+                break;
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                }
+                if (c != ',') {
+                    throw syntaxError("expected ',' or ']'");
+                }
+                pos++;
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return peeked = Token.END_OBJECT;
+                }
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("expected ',' or '}'");
+                    }
+                    pos++;
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("expected a name");
+                }
+                scopes[depth - 1] = DANGLING_NAME;
+                return peeked = Token.NAME;
+            case DANGLING_NAME:
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("expected ':'");
+                }
+                pos++;
+                scopes[depth - 1] = NONEMPTY_OBJECT;
+                break;
+            case EMPTY_DOCUMENT:
+                scopes[depth - 1] = NONEMPTY_DOCUMENT;
+                break;
+            default:
+                if (nextNonWhitespace() == -1) {
+                    return peeked = Token.END_DOCUMENT;
+                }
+                throw syntaxError("expected end of document");
+        }
+        return peeked = peekValue();
+    }
+
+    private Token peekValue() throws IOException {
+        int c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                return Token.STRING;
+            case 't':
+            case 'f':
+                return Token.BOOLEAN;
+            case 'n':
+                return Token.NULL;
+            case -1:
+                throw syntaxError("unexpected end of document");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return Token.NUMBER;
+                }
+                throw syntaxError("unexpected character '" + (char) c + "'");
+        }
+    }
+
+    /**
+     * @return Whether the current array or object has another element.
+     * @throws IOException If the input cannot be read or is malformed.
+     */
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        pos++;
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        pos++;
+        depth--;
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        pos++;
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        pos++;
+        depth--;
+    }
+
+    /**
+     * @return Name of the next property of the current object.
+     * @throws IOException If the input cannot be read or is malformed.
+     */
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        pos++;
+        return readString();
+    }
+
+    /**
+     * @return Next string value; numbers are returned as written.
+     * @throws IOException If the input cannot be read or is malformed.
+     */
+    public String nextString() throws IOException {
+        Token token = peek();
+        peeked = null;
+        if (token == Token.STRING) {
+            pos++;
+            return readString();
+        }
+        if (token == Token.NUMBER) {
+            return readNumber().toString();
+        }
+        throw syntaxError("expected a string but was " + token);
+    }
+
+    /**
+     * @return Next number, also accepted as a quoted string.
+     * @throws IOException If the input cannot be read or is malformed.
+     */
+    public double nextDouble() throws IOException {
+        String text = nextString();
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw syntaxError("expected a number but was \"" + text + "\"");
+        }
+    }
+
+    /**
+     * @return Next integral number, also accepted as a quoted string.
+     * @throws IOException If the input cannot be read or is malformed.
+     */
+    public long nextLong() throws IOException {
+        Token token = peek();
+        if (token != Token.NUMBER) {
+            String text = nextString();
+            try {
+                return Long.parseLong(text.trim());
+            } catch (NumberFormatException e) {
+                throw syntaxError("expected an integer but was \"" + text + "\"");
+            }
+        }
+        peeked = null;
+        CharSequence number = readNumber();
+        int length = number.length();
+        boolean negative = number.charAt(0) == '-';
+        long value = 0;
+        for (int i = negative ? 1 : 0; i < length; i++) {
+            char c = number.charAt(i);
+            if (c < '0' || c > '9' || value < -(Long.MAX_VALUE / 10)) {
+                // Fraction, exponent or overflow: take the slow path
+                double d = parseDouble(number);
+                if (d != Math.rint(d) || Math.abs(d) > Long.MAX_VALUE) {
+                    throw syntaxError("expected an integer but was " + number);
+                }
+                return (long) d;
+            }
+            value = value * 10 - (c - '0');
+        }
+        return negative ? value : -value;
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        if (buffer[pos] == 't') {
+            literal("true");
+            return true;
+        }
+        literal("false");
+        return false;
+    }
+
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+        literal("null");
+    }
+
+    /**
+     * Skips the next value, including nested arrays and objects.
+     *
+     * @throws IOException If the input cannot be read or is malformed.
+     */
+    public void skipValue() throws IOException {
+        int level = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    level++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    level++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    level--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    level--;
+                    break;
+                case NAME:
+                    nextName();
+                    break;
+                case BOOLEAN:
+                    nextBoolean();
+                    break;
+                case NULL:
+                    nextNull();
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("unexpected end of document");
+                default:
+                    nextString();
+                    break;
+            }
+        } while (level > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (depth == scopes.length) {
+            int[] larger = new int[depth * 2];
+            System.arraycopy(scopes, 0, larger, 0, depth);
+            scopes = larger;
+        }
+        scopes[depth++] = scope;
+    }
+
+    /**
+     * @return The next non-whitespace character, not consumed, or -1 at the
+     * end of the input.
+     */
+    private int nextNonWhitespace() throws IOException {
+        while (true) {
+            if (pos == limit && !fill(1)) {
+                return -1;
+            }
+            char c = buffer[pos];
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                pos++;
+            } else {
+                return c;
+            }
+        }
+    }
+
+    /**
+     * Makes sure at least {@code minimum} characters are buffered after
+     * {@code pos}, moving the unread ones to the start of the buffer.
+     */
+    private boolean fill(int minimum) throws IOException {
+        if (pos > 0) {
+            consumed += pos;
+            limit -= pos;
+            System.arraycopy(buffer, pos, buffer, 0, limit);
+            pos = 0;
+        }
+        while (limit < minimum) {
+            int n = in.read(buffer, limit, buffer.length - limit);
+            if (n < 0) {
+                return false;
+            }
+            limit += n;
+        }
+        return true;
+    }
+
+    /**
+     * Reads a string whose opening quote has been consumed.
+     */
+    private String readString() throws IOException {
+        StringBuilder builder = null;
+        while (true) {
+            int p = pos;
+            int start = p;
+            while (p < limit) {
+                char c = buffer[p++];
+                if (c == '"') {
+                    pos = p;
+                    if (builder == null) {
+                        return new String(buffer, start, p - start - 1);
+                    }
+                    builder.append(buffer, start, p - start - 1);
+                    return builder.toString();
+                }
+                if (c == '\\') {
+                    pos = p;
+                    if (builder == null) {
+                        builder = scratch;
+                        builder.setLength(0);
+                    }
+                    builder.append(buffer, start, p - start - 1);
+                    builder.append(readEscape());
+                    p = pos;
+                    start = p;
+                } else if (c < 0x20) {
+                    pos = p - 1;
+                    throw syntaxError("control character in string");
+                }
+            }
+            if (builder == null) {
+                builder = scratch;
+                builder.setLength(0);
+            }
+            builder.append(buffer, start, p - start);
+            pos = p;
+            if (!fill(1)) {
+                throw syntaxError("unterminated string");
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        if (pos == limit && !fill(1)) {
+            throw syntaxError("unterminated escape sequence");
+        }
+        char c = buffer[pos++];
+        switch (c) {
+            case 'u':
+                if (limit - pos < 4 && !fill(4)) {
+                    throw syntaxError("unterminated escape sequence");
+                }
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(buffer[pos++], 16);
+                    if (digit < 0) {
+                        throw syntaxError("malformed \\u escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            case 'n':
+                return '\n';
+            case 't':
+                return '\t';
+            case 'r':
+                return '\r';
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case '"':
+            case '\\':
+            case '/':
+                return c;
+            default:
+                throw syntaxError("invalid escape sequence \\" + c);
+        }
+    }
+
+    /**
+     * Reads the characters of a number into the scratch buffer.
+     */
+    private CharSequence readNumber() throws IOException {
+        StringBuilder number = scratch;
+        number.setLength(0);
+        while (true) {
+            if (pos == limit && !fill(1)) {
+                break;
+            }
+            char c = buffer[pos];
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                number.append(c);
+                pos++;
+            } else {
+                break;
+            }
+        }
+        if (number.length() == 0 || number.charAt(number.length() - 1) == '-') {
+            throw syntaxError("malformed number");
+        }
+        return number;
+    }
+
+    private double parseDouble(CharSequence number) throws IOException {
+        try {
+            return Double.parseDouble(number.toString());
+        } catch (NumberFormatException e) {
+            throw syntaxError("malformed number " + number);
+        }
+    }
+
+    private void literal(String word) throws IOException {
+        int length = word.length();
+        if (limit - pos < length && !fill(length)) {
+            throw syntaxError("expected " + word);
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer[pos + i] != word.charAt(i)) {
+                throw syntaxError("expected " + word);
+            }
+        }
+        pos += length;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("Malformed JSON at character " + (consumed + pos) + ": " + message);
+    }
+}
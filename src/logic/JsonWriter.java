@@ -0,0 +1,224 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streaming writer for compact JSON documents, the counterpart of
+ * {@link JsonReader}. Commas and colons are inserted automatically; calls in
+ * an order that would produce invalid JSON throw
+ * {@link IllegalStateException}. Not thread-safe.
+ */
+public final class JsonWriter implements Closeable, Flushable {
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private static final String[] ESCAPES = new String[128];
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ESCAPES[c] = String.format("\\u%04x", c);
+        }
+        ESCAPES['"'] = "\\\"";
+        ESCAPES['\\'] = "\\\\";
+        ESCAPES['\t'] = "\\t";
+        ESCAPES['\b'] = "\\b";
+        ESCAPES['\n'] = "\\n";
+        ESCAPES['\r'] = "\\r";
+        ESCAPES['\f'] = "\\f";
+    }
+
+    private final Writer out;
+    private int[] scopes = new int[32];
+    private int depth = 1;
+
+    public JsonWriter(Writer out) {
+        if (out == null) {
+            throw new IllegalArgumentException("out must not be null");
+        }
+        this.out = out;
+        scopes[0] = EMPTY_DOCUMENT;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        push(EMPTY_OBJECT);
+        out.write('{');
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        int scope = scopes[depth - 1];
+        if (scope != EMPTY_OBJECT && scope != NONEMPTY_OBJECT) {
+            throw new IllegalStateException("Not inside an object");
+        }
+        depth--;
+        out.write('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        push(EMPTY_ARRAY);
+        out.write('[');
+        return this;
+    }
+
+    public JsonWriter endArray() throws IOException {
+        int scope = scopes[depth - 1];
+        if (scope != EMPTY_ARRAY && scope != NONEMPTY_ARRAY) {
+            throw new IllegalStateException("Not inside an array");
+        }
+        depth--;
+        out.write(']');
+        return this;
+    }
+
+    /**
+     * Writes the name of the next property of the current object.
+     *
+     * @param name Property name.
+     * @return This writer.
+     * @throws IOException If the output cannot be written.
+     */
+    public JsonWriter name(String name) throws IOException {
+        int scope = scopes[depth - 1];
+        if (scope == NONEMPTY_OBJECT) {
+            out.write(',');
+        } else if (scope != EMPTY_OBJECT) {
+            throw new IllegalStateException("Not expecting a name");
+        }
+        string(name);
+        out.write(':');
+        scopes[depth - 1] = DANGLING_NAME;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        string(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    /**
+     * @param value A finite number; JSON has no NaN or infinity.
+     * @return This writer.
+     * @throws IOException If the output cannot be written.
+     */
+    public JsonWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+        }
+        beforeValue();
+        out.write(Double.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        beforeValue();
+        out.write("null");
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Flushes and closes the underlying writer.
+     *
+     * @throws IOException If the output cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void push(int scope) {
+        if (depth == scopes.length) {
+            int[] larger = new int[depth * 2];
+            System.arraycopy(scopes, 0, larger, 0, depth);
+            scopes = larger;
+        }
+        scopes[depth++] = scope;
+    }
+
+    private void beforeValue() throws IOException {
+        switch (scopes[depth - 1]) {
+            case EMPTY_DOCUMENT:
+                scopes[depth - 1] = NONEMPTY_DOCUMENT;
+                break;
+            case EMPTY_ARRAY:
+                scopes[depth - 1] = NONEMPTY_ARRAY;
+                break;
+            case NONEMPTY_ARRAY:
+                out.write(',');
+                break;
+            case DANGLING_NAME:
+                scopes[depth - 1] = NONEMPTY_OBJECT;
+                break;
+            default:
+                throw new IllegalStateException("Not expecting a value");
+        }
+    }
+
+    private void string(String value) throws IOException {
+        out.write('"');
+        int last = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String escape;
+            if (c < 128) {
+                escape = ESCAPES[c];
+            } else if (c == '\u2028') {
+                escape = "\\u2028";
+            } else if (c == '\u2029') {
+                escape = "\\u2029";
+            } else {
+                continue;
+            }
+            if (escape == null) {
+                continue;
+            }
+            if (last < i) {
+                out.write(value, last, i - last);
+            }
+            out.write(escape);
+            last = i + 1;
+        }
+        if (last < length) {
+            out.write(value, last, length - last);
+        }
+        out.write('"');
+    }
+}
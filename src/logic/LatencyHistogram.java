@@ -0,0 +1,113 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size latency histogram with the HdrHistogram layout: values are
+ * microseconds, counted in buckets whose width doubles with every power of
+ * two, each split into 128 sub-buckets, so any percentile is reported with
+ * a relative error under 1% from 1 microsecond up to about 19 hours
+ * (longer values are counted as the maximum).
+ * <p>
+ * Recording is lock-free and takes constant time; memory is about 32 KB per
+ * histogram whatever the number of values. A snapshot taken while values are
+ * being recorded may miss the latest of them.
+ */
+final class LatencyHistogram {
+
+    // 2 significant digits: 128 sub-buckets in the upper half of each bucket
+    private static final int SUB_BUCKET_HALF_COUNT_MAGNITUDE = 7;
+    private static final int SUB_BUCKET_HALF_COUNT = 1 << SUB_BUCKET_HALF_COUNT_MAGNITUDE;
+    private static final long SUB_BUCKET_MASK = (2L << SUB_BUCKET_HALF_COUNT_MAGNITUDE) - 1;
+    // 256 << 29 > 2^36 microseconds
+    private static final int BUCKET_COUNT = 30;
+    static final long MAX_MICROS = (1L << 36) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray((BUCKET_COUNT + 1) * SUB_BUCKET_HALF_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * @param nanos Latency to count.
+     */
+    void record(long nanos) {
+        long micros = Math.max(0, Math.min(MAX_MICROS, TimeUnit.NANOSECONDS.toMicros(nanos)));
+        counts.incrementAndGet(index(micros));
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        long max = maxMicros.get();
+        while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+            max = maxMicros.get();
+        }
+    }
+
+    long getCount() {
+        return count.get();
+    }
+
+    long getTotalMicros() {
+        return totalMicros.get();
+    }
+
+    long getMaxMicros() {
+        return maxMicros.get();
+    }
+
+    /**
+     * @param percentile Between 0 and 100.
+     * @return Smallest value, in microseconds, that the given percentage of
+     * the values do not exceed, rounded up to the width of its sub-bucket; 0
+     * if empty.
+     */
+    long getValueAtPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestEquivalentValue(i), maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        totalMicros.set(0);
+        maxMicros.set(0);
+    }
+
+    static int index(long micros) {
+        int bucket = 64 - Long.numberOfLeadingZeros(micros | SUB_BUCKET_MASK) - (SUB_BUCKET_HALF_COUNT_MAGNITUDE + 1);
+        int subBucket = (int) (micros >>> bucket);
+        return ((bucket + 1) << SUB_BUCKET_HALF_COUNT_MAGNITUDE) + (subBucket - SUB_BUCKET_HALF_COUNT);
+    }
+
+    /**
+     * @return Largest value counted in the given slot.
+     */
+    static long highestEquivalentValue(int index) {
+        int bucket = (index >> SUB_BUCKET_HALF_COUNT_MAGNITUDE) - 1;
+        int subBucket = (index & (SUB_BUCKET_HALF_COUNT - 1)) + SUB_BUCKET_HALF_COUNT;
+        if (bucket < 0) {
+            subBucket -= SUB_BUCKET_HALF_COUNT;
+            bucket = 0;
+        }
+        return ((long) subBucket << bucket) + (1L << bucket) - 1;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+/**
+ * Immutable snapshot of the requests of one logical operation, collected by
+ * {@link RequestMetrics}: response time percentiles, bytes sent and received
+ * and errors by status class.
+ */
+public class LatencyStatistics {
+
+    private final String operation;
+    private final long requests;
+    private final long clientErrors;
+    private final long serverErrors;
+    private final long unanswered;
+    private final long requestBytes;
+    private final long responseBytes;
+    private final long meanMicros;
+    private final long p50Micros;
+    private final long p90Micros;
+    private final long p99Micros;
+    private final long p999Micros;
+    private final long maxMicros;
+
+    public LatencyStatistics(String operation, long requests, long clientErrors, long serverErrors,
+            long unanswered, long requestBytes, long responseBytes, long meanMicros, long p50Micros,
+            long p90Micros, long p99Micros, long p999Micros, long maxMicros) {
+        this.operation = operation;
+        this.requests = requests;
+        this.clientErrors = clientErrors;
+        this.serverErrors = serverErrors;
+        this.unanswered = unanswered;
+        this.requestBytes = requestBytes;
+        this.responseBytes = responseBytes;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p90Micros = p90Micros;
+        this.p99Micros = p99Micros;
+        this.p999Micros = p999Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    /**
+     * @return Operation name, for example {@code account.findByCustomer}.
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return Responses received, errors included.
+     */
+    public long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return Responses with a 4xx status.
+     */
+    public long getClientErrors() {
+        return clientErrors;
+    }
+
+    /**
+     * @return Responses with a 5xx status.
+     */
+    public long getServerErrors() {
+        return serverErrors;
+    }
+
+    /**
+     * @return Requests sent that got no response (connection or read
+     * failure), or whose response had not arrived yet.
+     */
+    public long getUnanswered() {
+        return unanswered;
+    }
+
+    /**
+     * @return Size of the request bodies as sent.
+     */
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    /**
+     * @return Size of the response bodies read, as received.
+     */
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    public double getMeanMillis() {
+        return meanMicros / 1000.0;
+    }
+
+    /**
+     * @return Median response time.
+     */
+    public double getP50Millis() {
+        return p50Micros / 1000.0;
+    }
+
+    public double getP90Millis() {
+        return p90Micros / 1000.0;
+    }
+
+    public double getP99Millis() {
+        return p99Micros / 1000.0;
+    }
+
+    public double getP999Millis() {
+        return p999Micros / 1000.0;
+    }
+
+    public double getMaxMillis() {
+        return maxMicros / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyStatistics[" + operation + ": requests=" + requests
+                + ", 4xx=" + clientErrors + ", 5xx=" + serverErrors
+                + ", unanswered=" + unanswered
+                + ", requestBytes=" + requestBytes + ", responseBytes=" + responseBytes
+                + String.format(", mean=%.2fms, p50=%.2fms, p90=%.2fms, p99=%.2fms, p999=%.2fms, max=%.2fms",
+                        getMeanMillis(), getP50Millis(), getP90Millis(), getP99Millis(), getP999Millis(),
+                        getMaxMillis()) + "]";
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import javax.ws.rs.ProcessingException;
+
+/**
+ * Thrown, without contacting the server, for a request that found the
+ * {@link ConcurrencyLimiter} at its limit and its queue full.
+ */
+public class LimitExceededException extends ProcessingException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int limit;
+
+    public LimitExceededException(int limit, int queued) {
+        super("Too many REST requests: " + limit + " in flight and " + queued + " waiting");
+        this.limit = limit;
+    }
+
+    /**
+     * @return Requests allowed in flight when this one was rejected.
+     */
+    public int getLimit() {
+        return limit;
+    }
+}
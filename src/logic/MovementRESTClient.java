@@ -5,11 +5,29 @@
  */
 package logic;
 
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.Response;
 import model.Movement;
 
 /**
@@ -22,6 +40,8 @@ import model.Movement;
  *        // do whatever with response
  *        client.close();
  * </pre>
+ * The methods without a format suffix use the client's {@link WireFormat};
+ * the {@code _XML} and {@code _JSON} ones always use that representation.
  *
  * @author pablo
  */
@@ -29,59 +49,590 @@ public class MovementRESTClient {
 
     private WebTarget webTarget;
     private Client client;
-    private static final String BASE_URI = "http://localhost:8080/CRUDBankServerSide/webresources";
+    private final String baseUri;
+    private static final String XML = javax.ws.rs.core.MediaType.APPLICATION_XML;
+    private static final String JSON = javax.ws.rs.core.MediaType.APPLICATION_JSON;
+    private WireFormat wireFormat = WireFormat.getDefault();
+
+    /**
+     * Requests in flight at once when a batch is sent movement by movement.
+     */
+    private static final int PIPELINE_WINDOW = Math.max(1, Integer.getInteger("bank.rest.batch.window", 4));
+    /**
+     * Whether each server (by the base URI of the replica that answered) has
+     * the batch resource; absent until a batch is sent to it.
+     */
+    private static final ConcurrentHashMap<String, Boolean> BATCH_RESOURCE = new ConcurrentHashMap<String, Boolean>();
 
     public MovementRESTClient() {
-        client = javax.ws.rs.client.ClientBuilder.newClient();
-        webTarget = client.target(BASE_URI).path("movement");
+        this(ServerPool.getServiceUri());
+    }
+
+    /**
+     * Client for the service at another base URI (tests and local servers).
+     */
+    MovementRESTClient(String baseUri) {
+        client = RESTClientFactory.getClient();
+        webTarget = client.target(baseUri).path("movement");
+        this.baseUri = baseUri;
+    }
+
+    /**
+     * @return Representation used by the methods without a format suffix.
+     */
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    /**
+     * Changes the representation used by the methods without a format suffix.
+     *
+     * @param wireFormat XML or JSON.
+     */
+    public void setWireFormat(WireFormat wireFormat) {
+        if (wireFormat == null) {
+            throw new IllegalArgumentException("wireFormat must not be null");
+        }
+        this.wireFormat = wireFormat;
+    }
+
+    /**
+     * @return Circuit breaker of this client's service URI, that is, of the
+     * first replica only; the degraded mode depends on all of them, see
+     * {@link ServerPool#isOffline()}.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return CircuitBreaker.forServer(webTarget.getUri());
+    }
+
+    public <T> T findMovementByAccount(GenericType<T> responseType, String id) throws ClientErrorException {
+        return AsyncRequests.await(findMovementByAccountAsync(responseType, id, wireFormat.getMediaType(), AsyncRequests.DIRECT));
     }
 
     public <T> T findMovementByAccount_XML(GenericType<T> responseType, String id) throws ClientErrorException {
-        WebTarget resource = webTarget;
-        resource = resource.path(java.text.MessageFormat.format("account/{0}", new Object[]{id}));
-        return resource.request(javax.ws.rs.core.MediaType.APPLICATION_XML).get(responseType);
+        return AsyncRequests.await(findMovementByAccountAsync(responseType, id, XML, AsyncRequests.DIRECT));
+    }
+
+    public <T> T findMovementByAccount_JSON(GenericType<T> responseType, String id) throws ClientErrorException {
+        return AsyncRequests.await(findMovementByAccountAsync(responseType, id, JSON, AsyncRequests.DIRECT));
     }
 
     public <T> T findMovementByAccount_JSON(Class<T> responseType, String id) throws ClientErrorException {
-        WebTarget resource = webTarget;
-        resource = resource.path(java.text.MessageFormat.format("account/{0}", new Object[]{id}));
-        return resource.request(javax.ws.rs.core.MediaType.APPLICATION_JSON).get(responseType);
+        return findMovementByAccount_JSON(new GenericType<T>(responseType), id);
+    }
+
+    /**
+     * Requests one page of the movements of an account
+     * ({@code account/{id}?from=&limit=}) in the client's wire format. See
+     * {@link Page} for how the end of the list and servers without paging
+     * support are detected.
+     *
+     * @param id Account id.
+     * @param from Position of the first movement wanted.
+     * @param limit Maximum number of movements wanted.
+     * @return The page.
+     * @throws ClientErrorException If the server answers with an error status.
+     */
+    public Page<Movement> findMovementByAccountPage(String id, int from, int limit) throws ClientErrorException {
+        return AsyncRequests.await(findMovementByAccountPageAsync(id, from, limit, wireFormat.getMediaType(), AsyncRequests.DIRECT));
+    }
+
+    /**
+     * Like {@link #findMovementByAccountPage(String, int, int)}, always in XML.
+     */
+    public Page<Movement> findMovementByAccountPage_XML(String id, int from, int limit) throws ClientErrorException {
+        return AsyncRequests.await(findMovementByAccountPageAsync(id, from, limit, XML, AsyncRequests.DIRECT));
+    }
+
+    public void edit(Object requestEntity) throws ClientErrorException {
+        edit(requestEntity, wireFormat.getMediaType(), null);
     }
 
     public void edit_XML(Object requestEntity) throws ClientErrorException {
-        webTarget.request(javax.ws.rs.core.MediaType.APPLICATION_XML).put(javax.ws.rs.client.Entity.entity(requestEntity, javax.ws.rs.core.MediaType.APPLICATION_XML));
+        edit(requestEntity, XML, null);
     }
 
     public void edit_JSON(Object requestEntity) throws ClientErrorException {
-        webTarget.request(javax.ws.rs.core.MediaType.APPLICATION_JSON).put(javax.ws.rs.client.Entity.entity(requestEntity, javax.ws.rs.core.MediaType.APPLICATION_JSON));
+        edit(requestEntity, JSON, null);
+    }
+
+    public <T> T find(GenericType<T> responseType, String id) throws ClientErrorException {
+        return AsyncRequests.await(findAsync(responseType, id, wireFormat.getMediaType(), AsyncRequests.DIRECT));
     }
 
     public <T> T find_XML(GenericType<T> responseType, String id) throws ClientErrorException {
-        WebTarget resource = webTarget;
-        resource = resource.path(java.text.MessageFormat.format("{0}", new Object[]{id}));
-        return resource.request(javax.ws.rs.core.MediaType.APPLICATION_XML).get(responseType);
+        return AsyncRequests.await(findAsync(responseType, id, XML, AsyncRequests.DIRECT));
+    }
+
+    public <T> T find_JSON(GenericType<T> responseType, String id) throws ClientErrorException {
+        return AsyncRequests.await(findAsync(responseType, id, JSON, AsyncRequests.DIRECT));
     }
 
     public <T> T find_JSON(Class<T> responseType, String id) throws ClientErrorException {
-        WebTarget resource = webTarget;
-        resource = resource.path(java.text.MessageFormat.format("{0}", new Object[]{id}));
-        return resource.request(javax.ws.rs.core.MediaType.APPLICATION_JSON).get(responseType);
+        return find_JSON(new GenericType<T>(responseType), id);
+    }
+
+    public void create(Object requestEntity, String accountId) throws ClientErrorException {
+        create(requestEntity, accountId, wireFormat.getMediaType(), null);
+    }
+
+    /**
+     * Creates a movement as one attempt of a logical operation that the
+     * caller may repeat: every call with the same key carries the same
+     * {@value RetryPolicy#IDEMPOTENCY_KEY_HEADER}, so the server can tell a
+     * repeat from a new movement.
+     *
+     * @param requestEntity Movement to create.
+     * @param accountId Account id.
+     * @param idempotencyKey Key of the operation, from
+     * {@link RetryPolicy#newIdempotencyKey()}.
+     */
+    public void create(Object requestEntity, String accountId, String idempotencyKey) throws ClientErrorException {
+        create(requestEntity, accountId, wireFormat.getMediaType(), idempotencyKey);
     }
 
     public void create_XML(Object requestEntity, String accountId) throws ClientErrorException {
-        webTarget.path(java.text.MessageFormat.format("{0}", new Object[]{accountId})).request(javax.ws.rs.core.MediaType.APPLICATION_XML).post(javax.ws.rs.client.Entity.entity(requestEntity, javax.ws.rs.core.MediaType.APPLICATION_XML));
+        create(requestEntity, accountId, XML, null);
     }
 
     public void create_JSON(Object requestEntity, String accountId) throws ClientErrorException {
-        webTarget.path(java.text.MessageFormat.format("{0}", new Object[]{accountId})).request(javax.ws.rs.core.MediaType.APPLICATION_JSON).post(javax.ws.rs.client.Entity.entity(requestEntity, javax.ws.rs.core.MediaType.APPLICATION_JSON));
+        create(requestEntity, accountId, JSON, null);
+    }
+
+    /**
+     * Creates several movements of an account. They are sent in one request
+     * to {@code movement/{accountId}/batch}; replicas without that resource
+     * (404 or 405) are remembered, and the movements they refuse are posted
+     * one by one to {@code movement/{accountId}}, keeping up to
+     * {@code bank.rest.batch.window} requests (4 by default) in flight on the
+     * pooled connections instead of waiting for each answer.
+     * <p>
+     * Item failures are reported in the results, never thrown. A batch
+     * request is all or nothing: if the server rejects it, every item carries
+     * that error.
+     *
+     * @param movements Movements to create, in order.
+     * @param accountId Account id.
+     * @return One result per movement, in the same order.
+     */
+    public List<BatchResult<Movement>> createAll(List<Movement> movements, String accountId) {
+        return AsyncRequests.await(createAllAsync(movements, accountId, wireFormat.getMediaType(), AsyncRequests.DIRECT));
+    }
+
+    public List<BatchResult<Movement>> createAll_XML(List<Movement> movements, String accountId) {
+        return AsyncRequests.await(createAllAsync(movements, accountId, XML, AsyncRequests.DIRECT));
     }
 
     public void remove(String id) throws ClientErrorException {
-        webTarget.path(java.text.MessageFormat.format("{0}", new Object[]{id})).request().delete();
+        try {
+            AsyncRequests.write(webTarget.path(java.text.MessageFormat.format("{0}", new Object[]{id})).request(), "DELETE", null, null);
+        } finally {
+            EntityCache.invalidate(EntityCache.movementTag(id));
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // Asynchronous variants. Each one returns immediately; the returned stage
+    // completes on the given executor and cancelling it aborts the request.
+    // Error statuses complete the stage exceptionally. See AsyncRequests.
+    // ---------------------------------------------------------------------
+
+    public <T> CompletionStage<T> findMovementByAccountAsync(GenericType<T> responseType, String id, Executor executor) {
+        return findMovementByAccountAsync(responseType, id, wireFormat.getMediaType(), executor);
+    }
+
+    public <T> CompletionStage<T> findMovementByAccountAsync_XML(GenericType<T> responseType, String id, Executor executor) {
+        return findMovementByAccountAsync(responseType, id, XML, executor);
+    }
+
+    public CompletionStage<Page<Movement>> findMovementByAccountPageAsync(String id, int from, int limit, Executor executor) {
+        return findMovementByAccountPageAsync(id, from, limit, wireFormat.getMediaType(), executor);
+    }
+
+    public CompletionStage<Page<Movement>> findMovementByAccountPageAsync_XML(String id, int from, int limit, Executor executor) {
+        return findMovementByAccountPageAsync(id, from, limit, XML, executor);
+    }
+
+    /**
+     * Requests the movements of an account like
+     * {@link #findMovementByAccountPageAsync(String, int, int, Executor)}, but
+     * hands them over in batches while the response is being read instead of
+     * building the whole list first. Each batch holds at most
+     * {@code batchSize} movements, in the order the server sent them, and is
+     * passed to {@code onBatch} on the thread that reads the response. The
+     * response is not cached; cancelling the stage stops the reading.
+     *
+     * @param id Account id.
+     * @param from Position of the first movement wanted.
+     * @param limit Maximum number of movements wanted; servers without paging
+     * support send them all.
+     * @param batchSize Maximum movements per batch.
+     * @param onBatch Receives each batch.
+     * @param executor Executor on which the stage completes.
+     * @return Stage completed, after the last batch, with the total reported
+     * in {@link Page#TOTAL_COUNT_HEADER}, or -1 if the server did not report
+     * it.
+     */
+    public CompletionStage<Long> findMovementByAccountStreamAsync(String id, int from, int limit, int batchSize, Consumer<List<Movement>> onBatch, Executor executor) {
+        return findMovementByAccountStreamAsync(id, from, limit, batchSize, onBatch, wireFormat.getMediaType(), executor);
+    }
+
+    public CompletionStage<Long> findMovementByAccountStreamAsync_XML(String id, int from, int limit, int batchSize, Consumer<List<Movement>> onBatch, Executor executor) {
+        return findMovementByAccountStreamAsync(id, from, limit, batchSize, onBatch, XML, executor);
+    }
+
+    public CompletionStage<Void> editAsync(Object requestEntity, Executor executor) {
+        return editAsync(requestEntity, wireFormat.getMediaType(), null, executor);
+    }
+
+    /**
+     * Like {@link #editAsync(Object, Executor)} as one attempt of a logical
+     * operation that the caller may repeat; see
+     * {@link #create(Object, String, String)}.
+     */
+    public CompletionStage<Void> editAsync(Object requestEntity, String idempotencyKey, Executor executor) {
+        return editAsync(requestEntity, wireFormat.getMediaType(), idempotencyKey, executor);
+    }
+
+    public CompletionStage<Void> editAsync_XML(Object requestEntity, Executor executor) {
+        return editAsync(requestEntity, XML, null, executor);
+    }
+
+    public <T> CompletionStage<T> findAsync(GenericType<T> responseType, String id, Executor executor) {
+        return findAsync(responseType, id, wireFormat.getMediaType(), executor);
+    }
+
+    public <T> CompletionStage<T> findAsync_XML(GenericType<T> responseType, String id, Executor executor) {
+        return findAsync(responseType, id, XML, executor);
+    }
+
+    public CompletionStage<Void> createAsync(Object requestEntity, String accountId, Executor executor) {
+        return createAsync(requestEntity, accountId, wireFormat.getMediaType(), null, executor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #create(Object, String, String)}.
+     */
+    public CompletionStage<Void> createAsync(Object requestEntity, String accountId, String idempotencyKey, Executor executor) {
+        return createAsync(requestEntity, accountId, wireFormat.getMediaType(), idempotencyKey, executor);
+    }
+
+    public CompletionStage<Void> createAsync_XML(Object requestEntity, String accountId, Executor executor) {
+        return createAsync(requestEntity, accountId, XML, null, executor);
+    }
+
+    /**
+     * Asynchronous variant of {@link #createAll(List, String)}. The stage
+     * never fails; cancelling it stops sending the movements not yet sent.
+     */
+    public CompletionStage<List<BatchResult<Movement>>> createAllAsync(List<Movement> movements, String accountId, Executor executor) {
+        return createAllAsync(movements, accountId, wireFormat.getMediaType(), executor);
+    }
+
+    public CompletionStage<List<BatchResult<Movement>>> createAllAsync_XML(List<Movement> movements, String accountId, Executor executor) {
+        return createAllAsync(movements, accountId, XML, executor);
+    }
+
+    public CompletionStage<Void> removeAsync(String id, Executor executor) {
+        return AsyncRequests.send(webTarget.path(java.text.MessageFormat.format("{0}", new Object[]{id})).request(), "DELETE", null, EntityCache.invalidating(executor, EntityCache.movementTag(id)));
+    }
+
+    // ---------------------------------------------------------------------
+    // Implementations shared by the XML, JSON and configured-format methods.
+    // ---------------------------------------------------------------------
+
+    private void edit(Object requestEntity, String mediaType, String idempotencyKey) {
+        try {
+            AsyncRequests.write(webTarget.request(mediaType), "PUT", javax.ws.rs.client.Entity.entity(requestEntity, mediaType), idempotencyKey);
+        } finally {
+            EntityCache.invalidate(movementWriteTags(requestEntity));
+        }
+    }
+
+    private void create(Object requestEntity, String accountId, String mediaType, String idempotencyKey) {
+        try {
+            AsyncRequests.write(webTarget.path(java.text.MessageFormat.format("{0}", new Object[]{accountId})).request(mediaType), "POST", javax.ws.rs.client.Entity.entity(requestEntity, mediaType), idempotencyKey);
+        } finally {
+            EntityCache.invalidate(EntityCache.accountMovementsTag(accountId), EntityCache.accountTag(accountId));
+        }
+    }
+
+    private CompletionStage<List<BatchResult<Movement>>> createAllAsync(List<Movement> movements, final String accountId, final String mediaType, Executor executor) {
+        final List<Movement> items = new ArrayList<Movement>(movements);
+        final CompletableFuture<List<BatchResult<Movement>>> result = new CompletableFuture<List<BatchResult<Movement>>>();
+        final Executor done = EntityCache.invalidating(executor, EntityCache.accountMovementsTag(accountId), EntityCache.accountTag(accountId));
+        if (items.isEmpty()) {
+            AsyncRequests.completeOn(executor, result, Collections.<BatchResult<Movement>>emptyList(), null);
+            return result;
+        }
+        if (!mayHaveBatchResource()) {
+            pipeline(items, accountId, mediaType, result, done);
+            return result;
+        }
+        Entity<GenericEntity<List<Movement>>> entity = Entity.entity(new GenericEntity<List<Movement>>(items) {}, mediaType);
+        final CompletableFuture<List<BatchResult<Movement>>> batch = AsyncRequests.exchange(
+                webTarget.path(java.text.MessageFormat.format("{0}/batch", new Object[]{accountId})).request(mediaType),
+                "POST", entity, new AsyncRequests.ReplicaResponseReader<List<BatchResult<Movement>>>() {
+            @Override
+            public List<BatchResult<Movement>> read(Response response, String replica) {
+                return readBatch(response, items, (replica != null) ? replica : baseUri);
+            }
+        }, AsyncRequests.DIRECT).toCompletableFuture();
+        batch.whenComplete(new BiConsumer<List<BatchResult<Movement>>, Throwable>() {
+            @Override
+            public void accept(List<BatchResult<Movement>> results, Throwable error) {
+                if (error != null) {
+                    AsyncRequests.completeOn(done, result, failures(items, error), null);
+                } else if (results == null) {
+                    pipeline(items, accountId, mediaType, result, done);
+                } else {
+                    AsyncRequests.completeOn(done, result, results, null);
+                }
+            }
+        });
+        result.whenComplete(new BiConsumer<List<BatchResult<Movement>>, Throwable>() {
+            @Override
+            public void accept(List<BatchResult<Movement>> results, Throwable error) {
+                if (result.isCancelled()) {
+                    batch.cancel(true);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return false if every server the batch request may be sent to is known
+     * to lack the batch resource. The replica is chosen when the request is
+     * sent, so while any of them may have it the batch is tried.
+     */
+    private boolean mayHaveBatchResource() {
+        List<String> servers = Collections.singletonList(baseUri);
+        if (baseUri.equals(ServerPool.getServiceUri())) {
+            servers = new ArrayList<String>();
+            for (ServerPool.Node node : ServerPool.getNodes()) {
+                servers.add(node.getBaseUri());
+            }
+        }
+        for (String server : servers) {
+            if (!Boolean.FALSE.equals(BATCH_RESOURCE.get(server))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the answer to a batch request: null if the server has no batch
+     * resource, otherwise one result per movement. When the server returns the
+     * created movements their ids are copied to the ones sent.
+     */
+    private static List<BatchResult<Movement>> readBatch(Response response, List<Movement> items, String server) {
+        int status = response.getStatus();
+        if (status == Response.Status.NOT_FOUND.getStatusCode() || status == Response.Status.METHOD_NOT_ALLOWED.getStatusCode()) {
+            BATCH_RESOURCE.put(server, Boolean.FALSE);
+            return null;
+        }
+        BATCH_RESOURCE.put(server, Boolean.TRUE);
+        try {
+            AsyncRequests.checkStatus(response);
+        } catch (WebApplicationException e) {
+            return failures(items, e);
+        }
+        if (status == Response.Status.OK.getStatusCode() && response.hasEntity()) {
+            List<Movement> created = response.readEntity(new GenericType<List<Movement>>() {});
+            if (created.size() == items.size()) {
+                for (int i = 0; i < items.size(); i++) {
+                    items.get(i).setId(created.get(i).getId());
+                }
+            }
+        }
+        List<BatchResult<Movement>> results = new ArrayList<BatchResult<Movement>>(items.size());
+        for (Movement movement : items) {
+            results.add(BatchResult.success(movement));
+        }
+        return results;
+    }
+
+    /**
+     * Posts the movements one by one, with up to {@link #PIPELINE_WINDOW}
+     * requests in flight; each answer starts the next request.
+     */
+    private void pipeline(final List<Movement> items, final String accountId, final String mediaType,
+            final CompletableFuture<List<BatchResult<Movement>>> result, final Executor done) {
+        final AtomicReferenceArray<BatchResult<Movement>> results = new AtomicReferenceArray<BatchResult<Movement>>(items.size());
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger pending = new AtomicInteger(items.size());
+        final WebTarget target = webTarget.path(java.text.MessageFormat.format("{0}", new Object[]{accountId}));
+        Runnable sender = new Runnable() {
+            // Sends asked for and not yet made. Only the caller that raises it
+            // from zero sends; answers that arrive meanwhile (at once, or every
+            // item after a cancellation) are sent by its loop, not recursively.
+            private final AtomicInteger requested = new AtomicInteger();
+
+            @Override
+            public void run() {
+                if (requested.getAndIncrement() > 0) {
+                    return;
+                }
+                do {
+                    sendNext();
+                } while (requested.decrementAndGet() > 0);
+            }
+
+            private void sendNext() {
+                final int i = next.getAndIncrement();
+                if (i >= items.size()) {
+                    return;
+                }
+                final Movement movement = items.get(i);
+                if (result.isDone()) {
+                    // Cancelled: the rest are not sent
+                    finish(i, BatchResult.failure(movement, new CancellationException()));
+                    return;
+                }
+                AsyncRequests.send(target.request(mediaType), "POST", Entity.entity(movement, mediaType), AsyncRequests.DIRECT)
+                        .whenComplete(new BiConsumer<Void, Throwable>() {
+                    @Override
+                    public void accept(Void ignored, Throwable error) {
+                        finish(i, (error == null) ? BatchResult.success(movement) : BatchResult.failure(movement, unwrap(error)));
+                    }
+                });
+            }
+
+            private void finish(int i, BatchResult<Movement> outcome) {
+                results.set(i, outcome);
+                if (pending.decrementAndGet() > 0) {
+                    run();
+                    return;
+                }
+                List<BatchResult<Movement>> all = new ArrayList<BatchResult<Movement>>(items.size());
+                for (int j = 0; j < items.size(); j++) {
+                    all.add(results.get(j));
+                }
+                AsyncRequests.completeOn(done, result, all, null);
+            }
+        };
+        for (int i = 0; i < Math.min(PIPELINE_WINDOW, items.size()); i++) {
+            sender.run();
+        }
+    }
+
+    private static List<BatchResult<Movement>> failures(List<Movement> items, Throwable error) {
+        List<BatchResult<Movement>> results = new ArrayList<BatchResult<Movement>>(items.size());
+        for (Movement movement : items) {
+            results.add(BatchResult.failure(movement, unwrap(error)));
+        }
+        return results;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+    }
+
+    private <T> CompletionStage<T> findMovementByAccountAsync(GenericType<T> responseType, String id, String mediaType, Executor executor) {
+        WebTarget resource = webTarget;
+        resource = resource.path(java.text.MessageFormat.format("account/{0}", new Object[]{id}));
+        return AsyncRequests.getCached(resource, mediaType, responseType, executor, EntityCache.accountMovementsTag(id));
+    }
+
+    private CompletionStage<Page<Movement>> findMovementByAccountPageAsync(String id, final int from, final int limit, String mediaType, Executor executor) {
+        return AsyncRequests.get(pageTarget(id, from, limit), mediaType, new AsyncRequests.ResponseReader<Page<Movement>>() {
+            @Override
+            public Page<Movement> read(Response response) {
+                return readPage(response, from, limit);
+            }
+        }, executor);
+    }
+
+    private CompletionStage<Long> findMovementByAccountStreamAsync(String id, int from, int limit, final int batchSize, final Consumer<List<Movement>> onBatch, final String mediaType, Executor executor) {
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final CompletableFuture<Long> stage = AsyncRequests.get(pageTarget(id, from, limit).request(mediaType), new AsyncRequests.ResponseReader<Long>() {
+            @Override
+            public Long read(Response response) {
+                InputStream in = response.readEntity(InputStream.class);
+                if (JSON.equals(mediaType)) {
+                    MovementStream.readJson(in, batchSize, onBatch, cancelled);
+                } else {
+                    MovementStream.readXml(in, batchSize, onBatch, cancelled);
+                }
+                return readTotal(response);
+            }
+        }, executor).toCompletableFuture();
+        stage.whenComplete(new BiConsumer<Long, Throwable>() {
+            @Override
+            public void accept(Long total, Throwable error) {
+                if (stage.isCancelled()) {
+                    cancelled.set(true);
+                }
+            }
+        });
+        return stage;
+    }
+
+    private <T> CompletionStage<T> findAsync(GenericType<T> responseType, String id, String mediaType, Executor executor) {
+        WebTarget resource = webTarget;
+        resource = resource.path(java.text.MessageFormat.format("{0}", new Object[]{id}));
+        return AsyncRequests.get(resource, mediaType, responseType, executor);
+    }
+
+    private CompletionStage<Void> editAsync(Object requestEntity, String mediaType, String idempotencyKey, Executor executor) {
+        return AsyncRequests.send(webTarget.request(mediaType), "PUT", javax.ws.rs.client.Entity.entity(requestEntity, mediaType), idempotencyKey, EntityCache.invalidating(executor, movementWriteTags(requestEntity)));
+    }
+
+    private CompletionStage<Void> createAsync(Object requestEntity, String accountId, String mediaType, String idempotencyKey, Executor executor) {
+        return AsyncRequests.send(webTarget.path(java.text.MessageFormat.format("{0}", new Object[]{accountId})).request(mediaType), "POST", javax.ws.rs.client.Entity.entity(requestEntity, mediaType), idempotencyKey, EntityCache.invalidating(executor, EntityCache.accountMovementsTag(accountId), EntityCache.accountTag(accountId)));
+    }
+
+    /**
+     * Cache entries affected by editing a movement: the movement and, if
+     * known, the movement list and balance of its account.
+     */
+    private static String[] movementWriteTags(Object entity) {
+        if (entity instanceof Movement) {
+            Movement movement = (Movement) entity;
+            if (movement.getAccount() != null) {
+                Object accountId = movement.getAccount().getId();
+                return new String[]{EntityCache.movementTag(movement.getId()),
+                    EntityCache.accountMovementsTag(accountId), EntityCache.accountTag(accountId)};
+            }
+            return new String[]{EntityCache.movementTag(movement.getId())};
+        }
+        return new String[0];
+    }
+
+    private WebTarget pageTarget(String id, int from, int limit) {
+        return webTarget.path(java.text.MessageFormat.format("account/{0}", new Object[]{id}))
+                .queryParam("from", from)
+                .queryParam("limit", limit);
+    }
+
+    private static Page<Movement> readPage(Response response, int from, int limit) {
+        List<Movement> items = response.readEntity(new GenericType<List<Movement>>() {});
+        return new Page<Movement>(items, from, limit, readTotal(response));
+    }
+
+    private static long readTotal(Response response) {
+        String header = response.getHeaderString(Page.TOTAL_COUNT_HEADER);
+        if (header != null) {
+            try {
+                return Long.parseLong(header.trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return -1;
     }
 
+    /**
+     * Releases this client; it must not be used afterwards. The shared
+     * client and its pooled connections are not closed: every REST client
+     * uses them, and only {@link RESTClientFactory#shutdown()} closes them,
+     * which the application does when it stops.
+     */
     public void close() {
-        client.close();
+        client = null;
+        webTarget = null;
     }
     
 }
@@ -0,0 +1,171 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import javax.ws.rs.ProcessingException;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import model.Movement;
+
+/**
+ * Reads a list of movements one element at a time and hands them over in
+ * batches, so that the first rows can be shown while the rest of a long
+ * response is still arriving and the whole list never has to be held twice.
+ * <p>
+ * XML lists are read with StAX, unmarshalling each {@code <movement>} with
+ * JAXB as it is reached; JSON arrays with {@link EntityJson}. Each batch is a
+ * new list of at most {@code batchSize} movements, passed to the consumer on
+ * the calling thread; a consumer that blocks slows the reading down.
+ */
+final class MovementStream {
+
+    private static final XMLInputFactory XML_INPUT = XMLInputFactory.newInstance();
+    private static JAXBContext context;
+
+    static {
+        XML_INPUT.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_INPUT.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private MovementStream() {
+    }
+
+    private static synchronized JAXBContext context() throws JAXBException {
+        if (context == null) {
+            context = JAXBContext.newInstance(Movement.class);
+        }
+        return context;
+    }
+
+    /**
+     * Reads an XML list of movements ({@code <movements><movement>...}).
+     *
+     * @param in Response body; it is not closed.
+     * @param batchSize Maximum movements per batch.
+     * @param onBatch Receives each batch.
+     * @param cancelled Stops the reading with a {@link CancellationException}
+     * when set.
+     * @return Number of movements read.
+     * @throws ProcessingException If the body cannot be read or parsed.
+     */
+    static long readXml(InputStream in, int batchSize, Consumer<List<Movement>> onBatch,
+            AtomicBoolean cancelled) {
+        XMLStreamReader reader = null;
+        try {
+            Unmarshaller unmarshaller = context().createUnmarshaller();
+            reader = XML_INPUT.createXMLStreamReader(in);
+            Batcher batcher = new Batcher(batchSize, onBatch, cancelled);
+            // Root element (the list)
+            reader.nextTag();
+            reader.next();
+            while (reader.hasNext()) {
+                if (reader.getEventType() == XMLStreamConstants.START_ELEMENT) {
+                    batcher.add(unmarshaller.unmarshal(reader, Movement.class).getValue());
+                } else {
+                    reader.next();
+                }
+            }
+            return batcher.finish();
+        } catch (JAXBException | XMLStreamException e) {
+            throw new ProcessingException("Error reading the movement list", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // Nothing else to release; the body is closed by the caller
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a JSON array of movements.
+     *
+     * @param in Response body, UTF-8; it is not closed.
+     * @param batchSize Maximum movements per batch.
+     * @param onBatch Receives each batch.
+     * @param cancelled Stops the reading with a {@link CancellationException}
+     * when set.
+     * @return Number of movements read.
+     * @throws ProcessingException If the body cannot be read or parsed.
+     */
+    static long readJson(InputStream in, int batchSize, Consumer<List<Movement>> onBatch,
+            AtomicBoolean cancelled) {
+        try {
+            JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            Batcher batcher = new Batcher(batchSize, onBatch, cancelled);
+            if (reader.peek() == JsonReader.Token.BEGIN_OBJECT) {
+                batcher.add(EntityJson.readMovement(reader));
+            } else {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    batcher.add(EntityJson.readMovement(reader));
+                }
+                reader.endArray();
+            }
+            return batcher.finish();
+        } catch (IOException e) {
+            throw new ProcessingException("Error reading the movement list", e);
+        }
+    }
+
+    /**
+     * Groups movements into batches.
+     */
+    private static class Batcher {
+
+        private final int batchSize;
+        private final Consumer<List<Movement>> onBatch;
+        private final AtomicBoolean cancelled;
+        private List<Movement> batch;
+        private long count;
+
+        Batcher(int batchSize, Consumer<List<Movement>> onBatch, AtomicBoolean cancelled) {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("batchSize must be at least 1");
+            }
+            this.batchSize = batchSize;
+            this.onBatch = onBatch;
+            this.cancelled = cancelled;
+            this.batch = new ArrayList<Movement>(batchSize);
+        }
+
+        void add(Movement movement) {
+            if (cancelled.get()) {
+                throw new CancellationException("Movement stream cancelled");
+            }
+            batch.add(movement);
+            count++;
+            if (batch.size() == batchSize) {
+                onBatch.accept(batch);
+                batch = new ArrayList<Movement>(batchSize);
+            }
+        }
+
+        long finish() {
+            if (!batch.isEmpty()) {
+                onBatch.accept(batch);
+                batch = new ArrayList<Movement>(0);
+            }
+            return count;
+        }
+    }
+}
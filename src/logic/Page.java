@@ -0,0 +1,99 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * One page of a list resource requested with {@code from} and {@code limit}
+ * query parameters.
+ * <p>
+ * The total number of items is known only when the server sends the
+ * {@code X-Total-Count} header; otherwise it is -1 and the end of the list is
+ * detected by a page shorter than the limit. A server that does not support
+ * paging ignores the query parameters and returns the whole list, which is
+ * reported by {@link #isPagingHonored()}.
+ *
+ * @param <T> Item type.
+ */
+public class Page<T> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Response header carrying the total number of items.
+     */
+    public static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+
+    private final List<T> items;
+    private final int from;
+    private final int limit;
+    private final long total;
+
+    public Page(List<T> items, int from, int limit, long total) {
+        this.items = items;
+        this.from = from;
+        this.limit = limit;
+        this.total = total;
+    }
+
+    /**
+     * @return Items of the page, in server order.
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * @return Position of the first item of the page in the whole list.
+     */
+    public int getFrom() {
+        return from;
+    }
+
+    /**
+     * @return Maximum number of items requested.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return Total number of items, or -1 if the server did not report it.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return false if the server ignored the paging parameters and returned
+     * more items than requested (the whole list).
+     */
+    public boolean isPagingHonored() {
+        return items.size() <= limit;
+    }
+
+    /**
+     * @return true if no items follow this page.
+     */
+    public boolean isLast() {
+        if (!isPagingHonored()) {
+            return true;
+        }
+        if (total >= 0) {
+            return from + items.size() >= total;
+        }
+        return items.size() < limit;
+    }
+
+    /**
+     * @return true if this page holds the whole list.
+     */
+    public boolean isComplete() {
+        return !isPagingHonored() || (from == 0 && isLast());
+    }
+}
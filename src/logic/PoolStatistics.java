@@ -0,0 +1,99 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+/**
+ * Immutable snapshot of the shared connection pool managed by
+ * {@link RESTClientFactory}. Comparing {@link #getConnectionsOpened()} with
+ * {@link #getRequestsSent()} shows how well keep-alive connections are being
+ * reused.
+ */
+public class PoolStatistics {
+
+    private final int leased;
+    private final int available;
+    private final int pending;
+    private final int maxTotal;
+    private final int maxPerRoute;
+    private final long connectionsOpened;
+    private final long requestsSent;
+
+    public PoolStatistics(int leased, int available, int pending, int maxTotal,
+            int maxPerRoute, long connectionsOpened, long requestsSent) {
+        this.leased = leased;
+        this.available = available;
+        this.pending = pending;
+        this.maxTotal = maxTotal;
+        this.maxPerRoute = maxPerRoute;
+        this.connectionsOpened = connectionsOpened;
+        this.requestsSent = requestsSent;
+    }
+
+    /**
+     * @return Connections currently in use by a request.
+     */
+    public int getLeased() {
+        return leased;
+    }
+
+    /**
+     * @return Idle keep-alive connections ready to be reused.
+     */
+    public int getAvailable() {
+        return available;
+    }
+
+    /**
+     * @return Requests waiting for a free connection.
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * @return Maximum connections in the whole pool.
+     */
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    /**
+     * @return Maximum connections per host.
+     */
+    public int getMaxPerRoute() {
+        return maxPerRoute;
+    }
+
+    /**
+     * @return TCP connections opened since the client was created.
+     */
+    public long getConnectionsOpened() {
+        return connectionsOpened;
+    }
+
+    /**
+     * @return Requests sent since the client was created.
+     */
+    public long getRequestsSent() {
+        return requestsSent;
+    }
+
+    /**
+     * @return Average number of requests served by each TCP connection.
+     */
+    public double getRequestsPerConnection() {
+        return connectionsOpened == 0 ? 0.0 : (double) requestsSent / connectionsOpened;
+    }
+
+    @Override
+    public String toString() {
+        return "PoolStatistics[leased=" + leased + ", available=" + available
+                + ", pending=" + pending + ", maxTotal=" + maxTotal
+                + ", maxPerRoute=" + maxPerRoute
+                + ", connectionsOpened=" + connectionsOpened
+                + ", requestsSent=" + requestsSent + "]";
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+
+/**
+ * Process-wide factory for the JAX-RS {@link Client} shared by
+ * {@link AccountRESTClient}, {@link CustomerRESTClient} and
+ * {@link MovementRESTClient}.
+ * <p>
+ * The client is built once, on first use, on top of a pooled keep-alive
+ * connector so that a login, accounts and movements session reuses the same
+ * few sockets instead of opening a new TCP connection for every request.
+ * Idle connections are evicted periodically by a daemon thread.
+ * <p>
+ * The pool can be tuned with the following system properties, read when the
+ * client is first created:
+ * <ul>
+ * <li><b>bank.rest.maxConnectionsPerRoute</b>: maximum connections per host
+ * (default 4).</li>
+ * <li><b>bank.rest.maxConnectionsTotal</b>: maximum connections in the pool
+ * (default 20).</li>
+ * <li><b>bank.rest.idleTimeoutSeconds</b>: seconds a connection may stay idle
+ * before it is closed (default 30).</li>
+ * <li><b>bank.rest.connectTimeoutMillis</b> and
+ * <b>bank.rest.readTimeoutMillis</b>: socket timeouts (default 5000 and
+ * 30000).</li>
+ * </ul>
+ * Response compression is negotiated by {@link ContentEncoding}, which is
+ * opt-in, rather than silently by the connector. Requests are spread over the
+ * replicas of the {@link ServerPool}, and requests to a server that is down
+ * fail fast through its {@link CircuitBreaker}. Response times are measured
+ * by {@link RequestMetrics} and reported to Java Flight Recorder as
+ * {@code bank.RestRequest} events, and the traffic can be saved for later
+ * replay with {@link TrafficRecorder}.
+ */
+public final class RESTClientFactory {
+
+    private static final Logger LOGGER = Logger.getLogger("logic.RESTClientFactory");
+
+    private static final int MAX_CONNECTIONS_PER_ROUTE
+            = Integer.getInteger("bank.rest.maxConnectionsPerRoute", 4);
+    private static final int MAX_CONNECTIONS_TOTAL
+            = Integer.getInteger("bank.rest.maxConnectionsTotal", 20);
+    private static final long IDLE_TIMEOUT_SECONDS
+            = Long.getLong("bank.rest.idleTimeoutSeconds", 30L);
+    private static final int CONNECT_TIMEOUT_MILLIS
+            = Integer.getInteger("bank.rest.connectTimeoutMillis", 5000);
+    private static final int READ_TIMEOUT_MILLIS
+            = Integer.getInteger("bank.rest.readTimeoutMillis", 30000);
+
+    private static Client client;
+    private static PoolingHttpClientConnectionManager connectionManager;
+    private static ScheduledExecutorService evictor;
+
+    /**
+     * Provider that records {@code bank.RestRequest} events, registered after
+     * the filters that choose the server and before {@link ContentEncoding}.
+     * It is in the {@code src-jfr} source root, built only on JDK 11 or later.
+     */
+    private static final String JFR_RECORDER = "logic.RestRequestEvent$Recorder";
+
+    private static final AtomicLong CONNECTIONS_OPENED = new AtomicLong();
+    private static final AtomicLong REQUESTS_SENT = new AtomicLong();
+
+    private RESTClientFactory() {
+    }
+
+    /**
+     * Returns the shared client, creating it on first call. The returned
+     * client is thread-safe and must not be closed by callers; closing a REST
+     * client does not close it either. It stays open until
+     * {@link #shutdown()}, called from {@code SignUpSignIn.stop()}.
+     *
+     * @return The shared JAX-RS client.
+     */
+    public static synchronized Client getClient() {
+        if (client == null) {
+            client = createClient();
+        }
+        return client;
+    }
+
+    /**
+     * Changes the maximum number of pooled connections per host. Takes effect
+     * for new leases; connections already open are not closed.
+     *
+     * @param max Maximum connections per route, at least 1.
+     */
+    public static synchronized void setMaxConnectionsPerRoute(int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException("max must be at least 1");
+        }
+        getClient();
+        connectionManager.setDefaultMaxPerRoute(max);
+    }
+
+    /**
+     * Takes a snapshot of the connection pool counters.
+     *
+     * @return Current pool statistics.
+     */
+    public static synchronized PoolStatistics getPoolStatistics() {
+        getClient();
+        PoolStats stats = connectionManager.getTotalStats();
+        return new PoolStatistics(stats.getLeased(), stats.getAvailable(),
+                stats.getPending(), stats.getMax(),
+                connectionManager.getDefaultMaxPerRoute(),
+                CONNECTIONS_OPENED.get(), REQUESTS_SENT.get());
+    }
+
+    /**
+     * Closes the shared client and every pooled connection. A later call to
+     * {@link #getClient()} builds a fresh client.
+     */
+    public static synchronized void shutdown() {
+        if (client == null) {
+            return;
+        }
+        LOGGER.info("Closing shared REST client: " + getPoolStatistics());
+        evictor.shutdownNow();
+        client.close();
+        connectionManager.shutdown();
+        client = null;
+        connectionManager = null;
+        evictor = null;
+    }
+
+    private static Client createClient() {
+        Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", new CountingSocketFactory())
+                .build();
+        connectionManager = new PoolingHttpClientConnectionManager(registry);
+        connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+        connectionManager.setMaxTotal(MAX_CONNECTIONS_TOTAL);
+
+        ClientConfig config = new ClientConfig();
+        // Lets AsyncRequests abort a request by shutting down its connection
+        config.property(ApacheClientProperties.CONNECTION_MANAGER, RequestAbort.manage(connectionManager));
+        config.property(ClientProperties.CONNECT_TIMEOUT, CONNECT_TIMEOUT_MILLIS);
+        config.property(ClientProperties.READ_TIMEOUT, READ_TIMEOUT_MILLIS);
+        // Compression is handled by ContentEncoding, not by HttpClient itself
+        config.property(ApacheClientProperties.REQUEST_CONFIG,
+                RequestConfig.custom().setContentCompressionEnabled(false).build());
+        config.connectorProvider(new ApacheConnectorProvider());
+        config.register(new RequestCounter());
+        config.register(RequestAbort.filter(), 50);
+        // The replica is chosen before the circuit breaker looks at the URI
+        config.register(ServerPool.filter(), 100);
+        config.register(CircuitBreaker.filter(), 200);
+        // Sees the final URI, and the request body as ContentEncoding sends it
+        config.register(TrafficRecorder.filter(), 300);
+        config.register(RequestMetrics.filter(), 400);
+        // Only with Java Flight Recorder in the runtime, see FlightRecorder
+        Object recorder = FlightRecorder.newInstance(JFR_RECORDER, Object.class);
+        if (recorder != null) {
+            config.register(recorder, 450);
+        }
+        config.register(ContentEncoding.provider());
+        config.register(JsonEntityProvider.class);
+
+        final PoolingHttpClientConnectionManager manager = connectionManager;
+        evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "rest-idle-evictor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    manager.closeExpiredConnections();
+                    manager.closeIdleConnections(IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Error evicting idle connections", e);
+                }
+            }
+        }, IDLE_TIMEOUT_SECONDS, IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        LOGGER.info("Shared REST client created (maxPerRoute=" + MAX_CONNECTIONS_PER_ROUTE
+                + ", maxTotal=" + MAX_CONNECTIONS_TOTAL
+                + ", idleTimeout=" + IDLE_TIMEOUT_SECONDS + "s)");
+        return ClientBuilder.newClient(config);
+    }
+
+    /**
+     * Plain socket factory that counts every new TCP connection, so that the
+     * number of handshakes can be compared with the number of requests.
+     */
+    private static class CountingSocketFactory extends PlainConnectionSocketFactory {
+
+        @Override
+        public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host,
+                InetSocketAddress remoteAddress, InetSocketAddress localAddress,
+                HttpContext context) throws IOException {
+            Socket connected = super.connectSocket(connectTimeout, socket, host,
+                    remoteAddress, localAddress, context);
+            CONNECTIONS_OPENED.incrementAndGet();
+            return connected;
+        }
+    }
+
+    /**
+     * Counts the requests sent through the shared client.
+     */
+    private static class RequestCounter implements ClientRequestFilter {
+
+        @Override
+        public void filter(ClientRequestContext requestContext) {
+            REQUESTS_SENT.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Aborts one attempt sent by {@link AsyncRequests} while the connector runs
+ * it.
+ * <p>
+ * The Apache connector sends each request as a blocking call on a Jersey
+ * thread, and interrupting that thread does not stop a socket read. The
+ * attempt's handle is therefore tied to the pooled connection it leases:
+ * the request filter passes it to the sending thread, and the connection
+ * manager of the shared client, wrapped by {@link #manage}, records the
+ * connection leased on that thread. {@link #abort()} then cancels the wait
+ * for a connection or shuts the leased one down, so the blocked call fails at
+ * once and the pool gets its place back. A connection is forgotten as soon as
+ * it is released, so an abort never touches a connection that another
+ * request is using.
+ */
+final class RequestAbort {
+
+    private static final Logger LOGGER = Logger.getLogger(RequestAbort.class.getName());
+
+    /**
+     * Request property holding the {@link RequestAbort} of an attempt.
+     */
+    static final String PROPERTY = "logic.RequestAbort";
+
+    // Handle of the request being sent on this thread, set by the filter
+    private static final ThreadLocal<RequestAbort> SENDING = new ThreadLocal<RequestAbort>();
+
+    // Guarded by this
+    private boolean aborted;
+    private ConnectionRequest waiting;
+    private HttpClientConnection connection;
+
+    /**
+     * Stops the attempt: no connection is leased for it from now on, and the
+     * one it holds is shut down.
+     */
+    void abort() {
+        ConnectionRequest request;
+        HttpClientConnection leased;
+        synchronized (this) {
+            if (aborted) {
+                return;
+            }
+            aborted = true;
+            request = waiting;
+            leased = connection;
+            waiting = null;
+            connection = null;
+            if (leased != null) {
+                // Still under the lock, so it cannot be released and leased again meanwhile
+                try {
+                    leased.shutdown();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Error shutting down an aborted connection", e);
+                }
+            }
+        }
+        if (request != null) {
+            request.cancel();
+        }
+    }
+
+    synchronized boolean isAborted() {
+        return aborted;
+    }
+
+    private synchronized boolean waitingFor(ConnectionRequest request) {
+        if (!aborted) {
+            waiting = request;
+        }
+        return !aborted;
+    }
+
+    private synchronized boolean leased(HttpClientConnection leased) {
+        waiting = null;
+        if (!aborted) {
+            connection = leased;
+        }
+        return !aborted;
+    }
+
+    private synchronized void released(HttpClientConnection released) {
+        if (connection == released) {
+            connection = null;
+        }
+    }
+
+    /**
+     * @return Filter to register on the shared client; it runs on the thread
+     * that then calls the connector.
+     */
+    static Object filter() {
+        return new ClientRequestFilter() {
+            @Override
+            public void filter(ClientRequestContext request) {
+                Object abort = request.getProperty(PROPERTY);
+                if (abort instanceof RequestAbort) {
+                    SENDING.set((RequestAbort) abort);
+                } else {
+                    SENDING.remove();
+                }
+            }
+        };
+    }
+
+    /**
+     * @param manager Connection manager of the shared client.
+     * @return Manager that ties the connections it leases to the attempts.
+     */
+    static HttpClientConnectionManager manage(HttpClientConnectionManager manager) {
+        return new Manager(manager);
+    }
+
+    /**
+     * Connection manager that records which attempt holds each connection.
+     */
+    private static final class Manager implements HttpClientConnectionManager {
+
+        private final HttpClientConnectionManager delegate;
+        private final ConcurrentHashMap<HttpClientConnection, RequestAbort> holders
+                = new ConcurrentHashMap<HttpClientConnection, RequestAbort>();
+
+        Manager(HttpClientConnectionManager delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+            final ConnectionRequest request = delegate.requestConnection(route, state);
+            final RequestAbort abort = SENDING.get();
+            if (abort == null) {
+                return request;
+            }
+            return new ConnectionRequest() {
+                @Override
+                public HttpClientConnection get(long timeout, TimeUnit unit)
+                        throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                    if (!abort.waitingFor(request)) {
+                        request.cancel();
+                        // Not retried by HttpClient, unlike an I/O error
+                        throw new InterruptedException("Request aborted");
+                    }
+                    HttpClientConnection connection = request.get(timeout, unit);
+                    holders.put(connection, abort);
+                    if (!abort.leased(connection)) {
+                        try {
+                            connection.shutdown();
+                        } catch (IOException e) {
+                            LOGGER.log(Level.FINE, "Error shutting down an aborted connection", e);
+                        }
+                    }
+                    return connection;
+                }
+
+                @Override
+                public boolean cancel() {
+                    return request.cancel();
+                }
+            };
+        }
+
+        @Override
+        public void releaseConnection(HttpClientConnection connection, Object state, long validDuration, TimeUnit unit) {
+            RequestAbort abort = holders.remove(connection);
+            if (abort != null) {
+                abort.released(connection);
+            }
+            delegate.releaseConnection(connection, state, validDuration, unit);
+        }
+
+        @Override
+        public void connect(HttpClientConnection connection, HttpRoute route, int connectTimeout, HttpContext context) throws IOException {
+            delegate.connect(connection, route, connectTimeout, context);
+        }
+
+        @Override
+        public void upgrade(HttpClientConnection connection, HttpRoute route, HttpContext context) throws IOException {
+            delegate.upgrade(connection, route, context);
+        }
+
+        @Override
+        public void routeComplete(HttpClientConnection connection, HttpRoute route, HttpContext context) throws IOException {
+            delegate.routeComplete(connection, route, context);
+        }
+
+        @Override
+        public void closeIdleConnections(long idleTime, TimeUnit unit) {
+            delegate.closeIdleConnections(idleTime, unit);
+        }
+
+        @Override
+        public void closeExpiredConnections() {
+            delegate.closeExpiredConnections();
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+    }
+}
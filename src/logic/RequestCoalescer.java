@@ -0,0 +1,244 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Single-flight coalescing of identical GET requests.
+ * <p>
+ * When a GET is requested while an identical one (same URI, media type and
+ * result type) is still on its way, no new HTTP call is made: the second
+ * caller waits for the call already in flight and receives the same
+ * unmarshalled result. The first caller gets the result itself; every other
+ * caller gets its own copy (see {@link Snapshots}), since the controllers
+ * modify the entities they receive. A call started before a write
+ * invalidated the {@link EntityCache} is never joined by later requests,
+ * which could otherwise get the data from before the write.
+ * <p>
+ * Each caller's stage completes on its own executor. Cancelling one caller's
+ * stage only detaches that caller; the HTTP request is aborted once every
+ * caller has cancelled.
+ * <p>
+ * Coalescing can be disabled with the system property
+ * <b>bank.rest.coalesce</b>{@code =false}.
+ */
+public final class RequestCoalescer {
+
+    private static volatile boolean enabled
+            = Boolean.parseBoolean(System.getProperty("bank.rest.coalesce", "true"));
+
+    private static final Map<String, Flight<?>> IN_FLIGHT = new HashMap<String, Flight<?>>();
+
+    private static final AtomicLong CALLS_SENT = new AtomicLong();
+    private static final AtomicLong CALLS_COALESCED = new AtomicLong();
+
+    private RequestCoalescer() {
+    }
+
+    /**
+     * Starts the HTTP call of a flight.
+     *
+     * @param <T> Result type.
+     */
+    interface Call<T> {
+
+        /**
+         * @return Stage of the call, completed on the thread that received
+         * the response.
+         */
+        CompletionStage<T> start();
+    }
+
+    /**
+     * One HTTP call and the callers waiting for it.
+     */
+    private static final class Flight<T> {
+
+        final List<CompletableFuture<T>> stages = new ArrayList<CompletableFuture<T>>();
+        final List<Executor> executors = new ArrayList<Executor>();
+        CompletableFuture<T> source;
+        int active;
+        boolean done;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        RequestCoalescer.enabled = enabled;
+    }
+
+    /**
+     * Takes a snapshot of the coalescing counters.
+     *
+     * @return Current statistics.
+     */
+    public static CoalescerStatistics getStatistics() {
+        int inFlight;
+        synchronized (IN_FLIGHT) {
+            inFlight = IN_FLIGHT.size();
+        }
+        return new CoalescerStatistics(inFlight, CALLS_SENT.get(), CALLS_COALESCED.get());
+    }
+
+    /**
+     * Joins the call in flight for a key, or starts it.
+     *
+     * @param key Identifies the request (URI, media type, result type and
+     * cache generation).
+     * @param executor Executor on which the caller's stage completes.
+     * @param call Starts the HTTP call if none is in flight.
+     * @return Stage for this caller.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> CompletionStage<T> join(final String key, Executor executor, Call<T> call) {
+        if (!enabled) {
+            CALLS_SENT.incrementAndGet();
+            return relay(call.start(), executor);
+        }
+        final CompletableFuture<T> stage = new CompletableFuture<T>();
+        final Flight<T> flight;
+        boolean leader = false;
+        synchronized (IN_FLIGHT) {
+            Flight<T> existing = (Flight<T>) IN_FLIGHT.get(key);
+            if (existing == null) {
+                existing = new Flight<T>();
+                IN_FLIGHT.put(key, existing);
+                leader = true;
+            }
+            flight = existing;
+            flight.stages.add(stage);
+            flight.executors.add(executor);
+            flight.active++;
+        }
+
+        stage.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T result, Throwable error) {
+                if (stage.isCancelled()) {
+                    leave(key, flight);
+                }
+            }
+        });
+
+        if (!leader) {
+            CALLS_COALESCED.incrementAndGet();
+            return stage;
+        }
+        CALLS_SENT.incrementAndGet();
+        CompletableFuture<T> source;
+        try {
+            source = call.start().toCompletableFuture();
+        } catch (RuntimeException e) {
+            source = new CompletableFuture<T>();
+            source.completeExceptionally(e);
+        }
+        boolean abandoned;
+        synchronized (IN_FLIGHT) {
+            flight.source = source;
+            abandoned = flight.active == 0;
+        }
+        if (abandoned) {
+            source.cancel(true);
+        }
+        source.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T result, Throwable error) {
+                land(key, flight, result, error);
+            }
+        });
+        return stage;
+    }
+
+    /**
+     * Hands the result of a call to every caller still waiting.
+     */
+    private static <T> void land(String key, Flight<T> flight, T result, Throwable error) {
+        List<CompletableFuture<T>> stages;
+        List<Executor> executors;
+        synchronized (IN_FLIGHT) {
+            if (IN_FLIGHT.get(key) == flight) {
+                IN_FLIGHT.remove(key);
+            }
+            flight.done = true;
+            stages = new ArrayList<CompletableFuture<T>>(flight.stages);
+            executors = new ArrayList<Executor>(flight.executors);
+        }
+        byte[] snapshot = null;
+        boolean originalGiven = false;
+        for (int i = 0; i < stages.size(); i++) {
+            CompletableFuture<T> stage = stages.get(i);
+            if (stage.isDone()) {
+                continue;
+            }
+            T value = result;
+            if (error == null && result != null && originalGiven) {
+                if (snapshot == null) {
+                    snapshot = Snapshots.take(result);
+                }
+                if (snapshot != null) {
+                    value = Snapshots.restore(snapshot);
+                }
+            }
+            originalGiven = true;
+            AsyncRequests.completeOn(executors.get(i), stage, value, error);
+        }
+    }
+
+    /**
+     * Detaches a caller that cancelled; aborts the call if nobody is left.
+     */
+    private static void leave(String key, Flight<?> flight) {
+        CompletableFuture<?> abort = null;
+        synchronized (IN_FLIGHT) {
+            flight.active--;
+            if (flight.active == 0 && !flight.done) {
+                if (IN_FLIGHT.get(key) == flight) {
+                    IN_FLIGHT.remove(key);
+                }
+                abort = flight.source;
+            }
+        }
+        if (abort != null) {
+            abort.cancel(true);
+        }
+    }
+
+    /**
+     * Passes the outcome of a stage to a new stage completed on the given
+     * executor; cancelling the new stage cancels the original.
+     */
+    private static <T> CompletionStage<T> relay(CompletionStage<T> source, Executor executor) {
+        final CompletableFuture<T> original = source.toCompletableFuture();
+        final CompletableFuture<T> stage = new CompletableFuture<T>();
+        final Executor target = executor;
+        original.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T result, Throwable error) {
+                AsyncRequests.completeOn(target, stage, result, error);
+            }
+        });
+        stage.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T result, Throwable error) {
+                if (stage.isCancelled()) {
+                    original.cancel(true);
+                }
+            }
+        });
+        return stage;
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ * Response time histograms, byte counts and error counts of every request
+ * sent by {@link AccountRESTClient}, {@link CustomerRESTClient} and
+ * {@link MovementRESTClient}, grouped by logical operation, for example
+ * {@code customer.signin}, {@code account.findByCustomer} or
+ * {@code movement.create} (see {@link Endpoints}).
+ * <p>
+ * The response time of a request is measured from the moment it leaves the
+ * filters that choose the server until its response headers arrive, so it
+ * includes the wait for a pooled connection, the network and the server,
+ * but not reading the body: a long streamed list is counted by its bytes. Each
+ * attempt of a retried or hedged call is a request of its own, and requests
+ * rejected by an open {@link CircuitBreaker} are not sent and not counted.
+ * <p>
+ * The histograms ({@link LatencyHistogram}) keep every response time in a
+ * fixed amount of memory, so the metrics are always collected; take a
+ * {@link #getStatistics() snapshot} to baseline the endpoints and
+ * {@link #clear()} to start a new measurement.
+ */
+public final class RequestMetrics {
+
+    private static final String START_PROPERTY = "logic.RequestMetrics.start";
+    private static final String OPERATION_PROPERTY = "logic.RequestMetrics.operation";
+
+    private static final Map<String, Metrics> METRICS = new ConcurrentHashMap<String, Metrics>();
+
+    private RequestMetrics() {
+    }
+
+    /**
+     * Counters of one operation.
+     */
+    private static final class Metrics {
+
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final AtomicLong sent = new AtomicLong();
+        final AtomicLong clientErrors = new AtomicLong();
+        final AtomicLong serverErrors = new AtomicLong();
+        final AtomicLong requestBytes = new AtomicLong();
+        final AtomicLong responseBytes = new AtomicLong();
+
+        LatencyStatistics snapshot(String operation) {
+            long count = histogram.getCount();
+            return new LatencyStatistics(operation, count, clientErrors.get(), serverErrors.get(),
+                    Math.max(0, sent.get() - count), requestBytes.get(), responseBytes.get(),
+                    count == 0 ? 0 : histogram.getTotalMicros() / count,
+                    histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+                    histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9),
+                    histogram.getMaxMicros());
+        }
+    }
+
+    /**
+     * Takes a snapshot of every operation used so far.
+     *
+     * @return Statistics by operation name, sorted by name.
+     */
+    public static Map<String, LatencyStatistics> getStatistics() {
+        Map<String, LatencyStatistics> statistics = new TreeMap<String, LatencyStatistics>();
+        for (Map.Entry<String, Metrics> entry : METRICS.entrySet()) {
+            statistics.put(entry.getKey(), entry.getValue().snapshot(entry.getKey()));
+        }
+        return statistics;
+    }
+
+    /**
+     * @param operation Operation name, for example {@code movement.create}.
+     * @return Snapshot of the operation, or null if it has not been used.
+     */
+    public static LatencyStatistics getStatistics(String operation) {
+        Metrics metrics = METRICS.get(operation);
+        return (metrics == null) ? null : metrics.snapshot(operation);
+    }
+
+    /**
+     * Forgets every measurement.
+     */
+    public static void clear() {
+        METRICS.clear();
+    }
+
+    /**
+     * @return Provider to register in the shared client, after the filters
+     * that choose the server and before {@link ContentEncoding}.
+     */
+    static Object filter() {
+        return new Recorder();
+    }
+
+    private static Metrics metricsFor(String operation) {
+        Metrics metrics = METRICS.get(operation);
+        if (metrics == null) {
+            Metrics created = new Metrics();
+            metrics = METRICS.putIfAbsent(operation, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Request and response filter and writer interceptor of the shared
+     * client.
+     */
+    private static class Recorder implements ClientRequestFilter, ClientResponseFilter, WriterInterceptor {
+
+        @Override
+        public void filter(ClientRequestContext request) {
+            String operation = Endpoints.operationOf(Endpoints.nameOf(request.getMethod(), request.getUri()));
+            request.setProperty(OPERATION_PROPERTY, operation);
+            metricsFor(operation).sent.incrementAndGet();
+            request.setProperty(START_PROPERTY, System.nanoTime());
+        }
+
+        @Override
+        public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+            String operation = (String) context.getProperty(OPERATION_PROPERTY);
+            if (operation == null) {
+                context.proceed();
+                return;
+            }
+            // Outside ContentEncoding, so the body is counted as sent
+            context.setOutputStream(new CountingOutputStream(context.getOutputStream(),
+                    metricsFor(operation).requestBytes));
+            context.proceed();
+        }
+
+        @Override
+        public void filter(ClientRequestContext request, ClientResponseContext response) {
+            Long start = (Long) request.getProperty(START_PROPERTY);
+            if (start == null) {
+                return;
+            }
+            Metrics metrics = metricsFor((String) request.getProperty(OPERATION_PROPERTY));
+            metrics.histogram.record(System.nanoTime() - start);
+            int status = response.getStatus();
+            if (status >= 500) {
+                metrics.serverErrors.incrementAndGet();
+            } else if (status >= 400) {
+                metrics.clientErrors.incrementAndGet();
+            }
+            if (response.hasEntity()) {
+                response.setEntityStream(new CountingInputStream(response.getEntityStream(), metrics.responseBytes));
+            }
+        }
+    }
+
+    /**
+     * Adds the bytes read through it to a counter, once each: Jersey peeks
+     * at the first byte with mark and reset to tell empty bodies apart.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private final AtomicLong counter;
+        private long position;
+        private long marked;
+        private long counted;
+
+        CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        private void advance(long bytes) {
+            position += bytes;
+            if (position > counted) {
+                counter.addAndGet(position - counted);
+                counted = position;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                advance(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                advance(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            advance(skipped);
+            return skipped;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            super.mark(readlimit);
+            marked = position;
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            super.reset();
+            position = marked;
+        }
+    }
+
+    /**
+     * Adds the bytes written through it to a counter.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private final AtomicLong counter;
+
+        CountingOutputStream(OutputStream out, AtomicLong counter) {
+            super(out);
+            this.counter = counter;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            counter.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            counter.addAndGet(len);
+        }
+    }
+}
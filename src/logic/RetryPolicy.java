@@ -0,0 +1,191 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.ws.rs.ProcessingException;
+import org.apache.http.conn.ConnectTimeoutException;
+
+/**
+ * Automatic retries of failed REST calls, applied by {@link AsyncRequests}
+ * to every request of the shared client.
+ * <p>
+ * A request is retried only when repeating it cannot do anything twice:
+ * <ul>
+ * <li>the connection could not be established (nothing was sent), whatever
+ * the method;</li>
+ * <li>or the method is idempotent (GET, HEAD, PUT, DELETE, OPTIONS) and the
+ * request failed with an I/O error or a 429, 502, 503 or 504 answer.</li>
+ * </ul>
+ * A POST that may have reached the server is never retried automatically.
+ * Each write carries an {@value #IDEMPOTENCY_KEY_HEADER} header, the same on
+ * every attempt, so that a server that honours it can discard repeats; a
+ * caller that retries a whole operation by hand (a second click on Save)
+ * passes the key of the first attempt to the client method.
+ * <p>
+ * Attempts are spaced with exponential backoff and full jitter: before
+ * attempt {@code n + 1} the request waits a random time between 0 and
+ * {@code min(maxDelay, baseDelay * 2^(n-1))}, so that clients that failed
+ * together do not come back together.
+ * <p>
+ * Settings, read at startup:
+ * <ul>
+ * <li><b>bank.rest.retry.maxAttempts</b>: attempts per request, including
+ * the first (default 3; 1 disables retries).</li>
+ * <li><b>bank.rest.retry.baseDelayMillis</b>: backoff before the second
+ * attempt (default 100).</li>
+ * <li><b>bank.rest.retry.maxDelayMillis</b>: backoff limit (default
+ * 2000).</li>
+ * </ul>
+ */
+public final class RetryPolicy {
+
+    /**
+     * Request header identifying one logical write across its attempts.
+     */
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+    private static volatile int maxAttempts
+            = Math.max(1, Integer.getInteger("bank.rest.retry.maxAttempts", 3));
+    private static volatile long baseDelayMillis
+            = Long.getLong("bank.rest.retry.baseDelayMillis", 100L);
+    private static volatile long maxDelayMillis
+            = Long.getLong("bank.rest.retry.maxDelayMillis", 2000L);
+
+    private static final AtomicLong RETRIES = new AtomicLong();
+    private static ScheduledExecutorService scheduler;
+
+    private RetryPolicy() {
+    }
+
+    /**
+     * @return A new idempotency key, for one logical write.
+     */
+    public static String newIdempotencyKey() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * @return Attempts per request, including the first.
+     */
+    public static int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Changes the number of attempts per request.
+     *
+     * @param attempts At least 1 (1 disables retries).
+     */
+    public static void setMaxAttempts(int attempts) {
+        if (attempts < 1) {
+            throw new IllegalArgumentException("attempts must be at least 1");
+        }
+        maxAttempts = attempts;
+    }
+
+    /**
+     * Changes the backoff between attempts.
+     *
+     * @param baseMillis Backoff limit before the second attempt.
+     * @param maxMillis Backoff limit for any attempt.
+     */
+    public static void setDelays(long baseMillis, long maxMillis) {
+        if (baseMillis < 0 || maxMillis < baseMillis) {
+            throw new IllegalArgumentException("Invalid delays: " + baseMillis + ", " + maxMillis);
+        }
+        baseDelayMillis = baseMillis;
+        maxDelayMillis = maxMillis;
+    }
+
+    /**
+     * @return Retries made since startup (attempts after the first).
+     */
+    public static long getRetryCount() {
+        return RETRIES.get();
+    }
+
+    static boolean isIdempotent(String method) {
+        return "GET".equals(method) || "HEAD".equals(method) || "PUT".equals(method)
+                || "DELETE".equals(method) || "OPTIONS".equals(method);
+    }
+
+    /**
+     * @return true if the request failed before anything was sent.
+     */
+    static boolean isConnectFailure(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof ConnectTimeoutException
+                    || cause instanceof NoRouteToHostException || cause instanceof UnknownHostException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether a request that failed without an answer may be sent again.
+     *
+     * @param method HTTP method.
+     * @param error Failure.
+     * @param attempt Attempts made so far.
+     */
+    static boolean shouldRetry(String method, Throwable error, int attempt) {
+        if (attempt >= maxAttempts || CircuitOpenException.find(error) != null) {
+            return false;
+        }
+        if (isConnectFailure(error)) {
+            return true;
+        }
+        return isIdempotent(method) && (error instanceof ProcessingException || error instanceof IOException)
+                && !(error.getCause() instanceof InterruptedException);
+    }
+
+    /**
+     * Whether a request answered with the given status may be sent again.
+     */
+    static boolean shouldRetry(String method, int status, int attempt) {
+        return attempt < maxAttempts && isIdempotent(method)
+                && (status == 429 || status == 502 || status == 503 || status == 504);
+    }
+
+    /**
+     * Random backoff before the attempt after {@code attempt}.
+     */
+    static long delayMillis(int attempt) {
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 20));
+        return (ceiling <= 0) ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    static synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "rest-retry");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            scheduler = executor;
+        }
+        return scheduler;
+    }
+
+    static void countRetry() {
+        RETRIES.incrementAndGet();
+    }
+}
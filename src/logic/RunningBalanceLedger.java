@@ -0,0 +1,427 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import model.Movement;
+
+/**
+ * Incremental running-balance index for the movements of one account.
+ * <p>
+ * Movements are kept in chronological order, keyed by (timestamp, id). The
+ * structure is a treap whose nodes also store the size and the sum of amounts
+ * of their subtree, so it works like a Fenwick tree that allows insertions and
+ * removals in the middle:
+ * <ul>
+ * <li>{@link #insert(Movement)} and {@link #remove(Movement)}: O(log n).</li>
+ * <li>{@link #balanceAt(int)}: balance after the movement at a position,
+ * O(log n).</li>
+ * <li>{@link #reset(double, Collection)}: O(n) for input that is already in
+ * order, O(n log n) otherwise.</li>
+ * </ul>
+ * Inserting or removing the movement at position {@code i} only changes the
+ * balance of rows {@code i} and after. The index is returned so that callers
+ * can repaint just those rows. When movements are appended in date order,
+ * which is the usual case, only the last row changes.
+ * <p>
+ * Movements without timestamp sort first. Movements without id (not saved
+ * yet) sort after saved ones with the same timestamp. The ledger is not
+ * thread-safe.
+ */
+public class RunningBalanceLedger {
+
+    private static final Comparator<Movement> ORDER = new Comparator<Movement>() {
+        @Override
+        public int compare(Movement m1, Movement m2) {
+            int c = Long.compare(timeOf(m1), timeOf(m2));
+            return c != 0 ? c : Long.compare(idOf(m1), idOf(m2));
+        }
+    };
+
+    private final Map<Movement, Node> nodes = new IdentityHashMap<Movement, Node>();
+    private final Random priorities;
+    private Node root;
+    private double openingBalance;
+    private long nextSequence;
+
+    /**
+     * Creates an empty ledger with a zero opening balance.
+     */
+    public RunningBalanceLedger() {
+        this(0.0);
+    }
+
+    /**
+     * Creates an empty ledger.
+     *
+     * @param openingBalance Balance of the account before its first movement.
+     */
+    public RunningBalanceLedger(double openingBalance) {
+        this.openingBalance = openingBalance;
+        this.priorities = new Random(0x5EEDL);
+    }
+
+    /**
+     * Replaces the content of the ledger.
+     *
+     * @param openingBalance Balance of the account before its first movement.
+     * @param movements Movements of the account, in any order.
+     */
+    public void reset(double openingBalance, Collection<Movement> movements) {
+        this.openingBalance = openingBalance;
+        nodes.clear();
+        root = null;
+        nextSequence = 0;
+
+        List<Movement> sorted = new ArrayList<Movement>(movements);
+        if (!isSorted(sorted)) {
+            Collections.sort(sorted, ORDER);
+        }
+        root = build(sorted);
+    }
+
+    /**
+     * Removes every movement. The opening balance is kept.
+     */
+    public void clear() {
+        nodes.clear();
+        root = null;
+        nextSequence = 0;
+    }
+
+    public double getOpeningBalance() {
+        return openingBalance;
+    }
+
+    /**
+     * Changes the opening balance. Every row balance changes.
+     *
+     * @param openingBalance New opening balance.
+     */
+    public void setOpeningBalance(double openingBalance) {
+        this.openingBalance = openingBalance;
+    }
+
+    /**
+     * @return Number of movements in the ledger.
+     */
+    public int size() {
+        return size(root);
+    }
+
+    /**
+     * Adds a movement at its chronological position.
+     *
+     * @param movement Movement to add. It must not already be in the ledger.
+     * @return Position of the movement; rows from this one on have a new balance.
+     */
+    public int insert(Movement movement) {
+        if (nodes.containsKey(movement)) {
+            throw new IllegalArgumentException("Movement already in ledger: " + movement);
+        }
+        Node node = newNode(movement);
+        Node[] parts = split(root, node);
+        int index = size(parts[0]);
+        root = merge(merge(parts[0], node), parts[1]);
+        return index;
+    }
+
+    /**
+     * Removes a movement.
+     *
+     * @param movement Movement to remove (same instance that was added).
+     * @return Former position of the movement, or -1 if it was not in the
+     * ledger. Rows from this position on have a new balance.
+     */
+    public int remove(Movement movement) {
+        Node node = nodes.remove(movement);
+        if (node == null) {
+            return -1;
+        }
+        int index = rank(node);
+        root = remove(root, node);
+        return index;
+    }
+
+    /**
+     * Position of a movement in chronological order.
+     *
+     * @param movement Movement to find (same instance that was added).
+     * @return Its position, or -1 if it is not in the ledger.
+     */
+    public int indexOf(Movement movement) {
+        Node node = nodes.get(movement);
+        return node == null ? -1 : rank(node);
+    }
+
+    /**
+     * Movement at a position.
+     *
+     * @param index Position, from 0 to size() - 1.
+     * @return The movement.
+     */
+    public Movement get(int index) {
+        checkIndex(index);
+        Node n = root;
+        while (true) {
+            int leftSize = size(n.left);
+            if (index < leftSize) {
+                n = n.left;
+            } else if (index == leftSize) {
+                return n.movement;
+            } else {
+                index -= leftSize + 1;
+                n = n.right;
+            }
+        }
+    }
+
+    /**
+     * Account balance right after the movement at a position.
+     *
+     * @param index Position, from 0 to size() - 1.
+     * @return Opening balance plus the amounts of movements 0..index.
+     */
+    public double balanceAt(int index) {
+        checkIndex(index);
+        double sum = openingBalance;
+        Node n = root;
+        while (n != null) {
+            int leftSize = size(n.left);
+            if (index < leftSize) {
+                n = n.left;
+            } else {
+                sum += sum(n.left) + n.amount;
+                if (index == leftSize) {
+                    break;
+                }
+                index -= leftSize + 1;
+                n = n.right;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @return Balance after the last movement (the opening balance if empty).
+     */
+    public double finalBalance() {
+        return openingBalance + sum(root);
+    }
+
+    /**
+     * @return The movements in chronological order.
+     */
+    public List<Movement> toList() {
+        List<Movement> list = new ArrayList<Movement>(size());
+        Node[] stack = new Node[64];
+        int top = 0;
+        Node n = root;
+        while (n != null || top > 0) {
+            while (n != null) {
+                if (top == stack.length) {
+                    Node[] bigger = new Node[stack.length * 2];
+                    System.arraycopy(stack, 0, bigger, 0, top);
+                    stack = bigger;
+                }
+                stack[top++] = n;
+                n = n.left;
+            }
+            n = stack[--top];
+            list.add(n.movement);
+            n = n.right;
+        }
+        return list;
+    }
+
+    // ------------------------------------------------------------------
+    // Treap internals
+    // ------------------------------------------------------------------
+
+    private static final class Node {
+
+        final Movement movement;
+        final long time;
+        final long id;
+        final long sequence;
+        final double amount;
+        final int priority;
+        Node left;
+        Node right;
+        int size;
+        double sum;
+
+        Node(Movement movement, long sequence, int priority) {
+            this.movement = movement;
+            this.time = timeOf(movement);
+            this.id = idOf(movement);
+            this.sequence = sequence;
+            this.amount = movement.getAmount() != null ? movement.getAmount() : 0.0;
+            this.priority = priority;
+            this.size = 1;
+            this.sum = amount;
+        }
+    }
+
+    private Node newNode(Movement movement) {
+        Node node = new Node(movement, nextSequence++, priorities.nextInt());
+        nodes.put(movement, node);
+        return node;
+    }
+
+    private static long timeOf(Movement m) {
+        return m.getTimestamp() != null ? m.getTimestamp().getTime() : Long.MIN_VALUE;
+    }
+
+    private static long idOf(Movement m) {
+        return (m.getId() != null && m.getId() != 0) ? m.getId() : Long.MAX_VALUE;
+    }
+
+    private static int compare(Node a, Node b) {
+        int c = Long.compare(a.time, b.time);
+        if (c == 0) {
+            c = Long.compare(a.id, b.id);
+        }
+        if (c == 0) {
+            c = Long.compare(a.sequence, b.sequence);
+        }
+        return c;
+    }
+
+    private static int size(Node n) {
+        return n == null ? 0 : n.size;
+    }
+
+    private static double sum(Node n) {
+        return n == null ? 0.0 : n.sum;
+    }
+
+    private static void update(Node n) {
+        n.size = 1 + size(n.left) + size(n.right);
+        n.sum = n.amount + sum(n.left) + sum(n.right);
+    }
+
+    /**
+     * Splits a subtree into the nodes ordered before the key and the rest.
+     */
+    private static Node[] split(Node n, Node key) {
+        if (n == null) {
+            return new Node[]{null, null};
+        }
+        if (compare(n, key) < 0) {
+            Node[] parts = split(n.right, key);
+            n.right = parts[0];
+            update(n);
+            parts[0] = n;
+            return parts;
+        } else {
+            Node[] parts = split(n.left, key);
+            n.left = parts[1];
+            update(n);
+            parts[1] = n;
+            return parts;
+        }
+    }
+
+    /**
+     * Joins two subtrees where every node of {@code a} precedes those of {@code b}.
+     */
+    private static Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        } else {
+            b.left = merge(a, b.left);
+            update(b);
+            return b;
+        }
+    }
+
+    private static Node remove(Node n, Node target) {
+        if (n == target) {
+            return merge(n.left, n.right);
+        }
+        if (compare(target, n) < 0) {
+            n.left = remove(n.left, target);
+        } else {
+            n.right = remove(n.right, target);
+        }
+        update(n);
+        return n;
+    }
+
+    private int rank(Node target) {
+        int index = 0;
+        Node n = root;
+        while (n != null) {
+            int c = compare(target, n);
+            if (c < 0) {
+                n = n.left;
+            } else if (c > 0) {
+                index += size(n.left) + 1;
+                n = n.right;
+            } else {
+                return index + size(n.left);
+            }
+        }
+        throw new IllegalStateException("Ledger out of sync for " + target.movement);
+    }
+
+    /**
+     * Builds the treap in linear time from movements already in order, using
+     * the right spine of a Cartesian tree.
+     */
+    private Node build(List<Movement> sorted) {
+        Node[] spine = new Node[sorted.size()];
+        int top = -1;
+        for (Movement m : sorted) {
+            Node node = newNode(m);
+            Node last = null;
+            while (top >= 0 && spine[top].priority < node.priority) {
+                last = spine[top--];
+                update(last);
+            }
+            node.left = last;
+            if (top >= 0) {
+                spine[top].right = node;
+            }
+            spine[++top] = node;
+        }
+        while (top >= 0) {
+            update(spine[top--]);
+        }
+        return sorted.isEmpty() ? null : spine[0];
+    }
+
+    private static boolean isSorted(List<Movement> movements) {
+        for (int i = 1; i < movements.size(); i++) {
+            if (ORDER.compare(movements.get(i - 1), movements.get(i)) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+    }
+}
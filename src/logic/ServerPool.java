@@ -0,0 +1,616 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+
+/**
+ * Replicas of the CRUDBankServerSide server and client-side load balancing
+ * between them.
+ * <p>
+ * The REST clients address the <i>service URI</i> (the first configured base
+ * URI); a filter on the shared client sends each request to one of the
+ * replicas instead, chosen by round robin or by fewest outstanding requests.
+ * Caches and validators keep using the service URI, so a resource is the same
+ * whatever replica answers it.
+ * <p>
+ * A replica that fails {@code maxFailures} times in a row (no answer, or a
+ * 502, 503 or 504 answer) is ejected and gets no traffic. Every
+ * {@code probeMillis} all replicas are probed with a GET of the probe path;
+ * any answer below 500 counts as alive, so an ejected replica comes back with
+ * its first good probe. Replicas whose {@link CircuitBreaker} is open are also
+ * skipped. If no replica is available requests go to all of them as usual,
+ * and fail there.
+ * <p>
+ * The pool is {@linkplain #isOffline() offline} while the circuit of every
+ * replica is open: no server is expected to answer, so the clients serve
+ * expired cached copies and the UI switches to its degraded mode. The changes
+ * are reported to the pool's {@link Listener}s.
+ * <p>
+ * With sharding on, the replicas are shards instead: the requests for one
+ * customer ({@code customer/{id}}, {@code account/customer/{id}}) or one
+ * account ({@code account/{id}}, {@code movement/account/{id}},
+ * {@code movement/{id}/batch}) always go to the replica that owns that key on
+ * a {@link ConsistentHashRing}, so no routing proxy is needed in front of the
+ * servers. While the owner is ejected its keys go to the next replica on the
+ * ring. Other requests are balanced as usual.
+ * <p>
+ * Settings, read at startup:
+ * <ul>
+ * <li><b>bank.rest.baseUris</b>: comma-separated base URIs (default
+ * {@value #DEFAULT_BASE_URI}).</li>
+ * <li><b>bank.rest.balancing</b>: {@code round-robin} or
+ * {@code least-outstanding} (default).</li>
+ * <li><b>bank.rest.pool.maxFailures</b>: consecutive failures that eject a
+ * replica (default 3).</li>
+ * <li><b>bank.rest.pool.probeMillis</b>: time between health probes (default
+ * 5000; probes only run with more than one replica).</li>
+ * <li><b>bank.rest.pool.probePath</b>: path probed, relative to the base URI
+ * (default the base URI itself).</li>
+ * <li><b>bank.rest.sharding</b>: {@code true} routes customer and account
+ * requests by consistent hashing (default false).</li>
+ * <li><b>bank.rest.sharding.virtualNodes</b>: points per replica on the ring
+ * (default 160).</li>
+ * </ul>
+ */
+public final class ServerPool {
+
+    private static final Logger LOGGER = Logger.getLogger(ServerPool.class.getName());
+
+    public static final String DEFAULT_BASE_URI = "http://localhost:8080/CRUDBankServerSide/webresources";
+
+    /**
+     * Request property holding the {@link Lease} of an attempt sent by
+     * {@link AsyncRequests}.
+     */
+    static final String LEASE_PROPERTY = "logic.ServerPool.lease";
+
+    private static final int PROBE_TIMEOUT_MILLIS = 2000;
+
+    public enum Balancing {
+        ROUND_ROBIN, LEAST_OUTSTANDING
+    }
+
+    /**
+     * Receives the changes of {@link #isOffline()}, on the thread that
+     * changed the state of a circuit.
+     */
+    public interface Listener {
+
+        void offlineChanged(boolean offline);
+    }
+
+    private static volatile int maxFailures
+            = Math.max(1, Integer.getInteger("bank.rest.pool.maxFailures", 3));
+    private static final long PROBE_MILLIS = Long.getLong("bank.rest.pool.probeMillis", 5000L);
+    private static final String PROBE_PATH = System.getProperty("bank.rest.pool.probePath", "");
+    private static final int VIRTUAL_NODES = Math.max(1,
+            Integer.getInteger("bank.rest.sharding.virtualNodes", ConsistentHashRing.DEFAULT_VIRTUAL_NODES));
+    private static volatile boolean sharded = Boolean.getBoolean("bank.rest.sharding");
+
+    // Replaced as a whole by configure
+    private static volatile List<Node> nodes;
+    private static volatile Map<String, Node> nodesByUri;
+    private static volatile ConsistentHashRing ring;
+    private static volatile Balancing balancing;
+    private static final AtomicInteger NEXT = new AtomicInteger();
+    private static ScheduledExecutorService prober;
+
+    private static final List<Listener> LISTENERS = new CopyOnWriteArrayList<Listener>();
+    private static final AtomicBoolean OFFLINE = new AtomicBoolean();
+    // Registered on the breaker of every configured replica
+    private static final CircuitBreaker.Listener CIRCUIT_LISTENER = new CircuitBreaker.Listener() {
+        @Override
+        public void stateChanged(CircuitBreaker breaker, CircuitBreaker.State from, CircuitBreaker.State to) {
+            updateOffline();
+        }
+    };
+
+    static {
+        String property = System.getProperty("bank.rest.baseUris", DEFAULT_BASE_URI);
+        Balancing configured = "round-robin".equalsIgnoreCase(System.getProperty("bank.rest.balancing"))
+                ? Balancing.ROUND_ROBIN : Balancing.LEAST_OUTSTANDING;
+        configure(Arrays.asList(property.split(",")), configured);
+    }
+
+    private ServerPool() {
+    }
+
+    /**
+     * One replica.
+     */
+    public static final class Node {
+
+        private final String baseUri;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicLong requests = new AtomicLong();
+        // Guarded by this
+        private boolean healthy = true;
+        private int failures;
+
+        private Node(String baseUri) {
+            this.baseUri = baseUri;
+        }
+
+        public String getBaseUri() {
+            return baseUri;
+        }
+
+        /**
+         * @return false while the replica is ejected.
+         */
+        public synchronized boolean isHealthy() {
+            return healthy;
+        }
+
+        /**
+         * @return Requests sent and not yet answered.
+         */
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        /**
+         * @return Requests sent to this replica since it was configured.
+         */
+        public long getRequestCount() {
+            return requests.get();
+        }
+
+        private boolean isAvailable() {
+            return isHealthy() && (!CircuitBreaker.isEnabled()
+                    || breaker().getState() != CircuitBreaker.State.OPEN);
+        }
+
+        private CircuitBreaker breaker() {
+            return CircuitBreaker.forServer(URI.create(baseUri));
+        }
+
+        private void succeeded() {
+            boolean readmitted;
+            synchronized (this) {
+                failures = 0;
+                readmitted = !healthy;
+                healthy = true;
+            }
+            if (readmitted) {
+                LOGGER.log(Level.INFO, "Server {0} is back", baseUri);
+            }
+        }
+
+        private void failed() {
+            boolean ejected;
+            synchronized (this) {
+                failures++;
+                ejected = healthy && failures >= maxFailures;
+                if (ejected) {
+                    healthy = false;
+                }
+            }
+            if (ejected) {
+                LOGGER.log(Level.WARNING, "Server {0} ejected after {1} failures",
+                        new Object[]{baseUri, maxFailures});
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Node{" + baseUri + (isHealthy() ? "" : ", ejected")
+                    + ", outstanding=" + getOutstanding() + "}";
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // Configuration
+    // ---------------------------------------------------------------------
+
+    /**
+     * Replaces the replicas. Clients created from now on address the first
+     * of them.
+     *
+     * @param baseUris Base URIs of the replicas, at least one.
+     * @param balancing How requests are spread.
+     */
+    public static synchronized void configure(List<String> baseUris, Balancing balancing) {
+        List<Node> configured = new ArrayList<Node>();
+        for (String baseUri : baseUris) {
+            String trimmed = baseUri.trim();
+            while (trimmed.endsWith("/")) {
+                trimmed = trimmed.substring(0, trimmed.length() - 1);
+            }
+            if (!trimmed.isEmpty()) {
+                configured.add(new Node(trimmed));
+            }
+        }
+        if (configured.isEmpty() || balancing == null) {
+            throw new IllegalArgumentException("At least one base URI and a balancing policy are required");
+        }
+        Map<String, Node> byUri = new HashMap<String, Node>();
+        List<String> names = new ArrayList<String>();
+        for (Node node : configured) {
+            byUri.put(node.baseUri, node);
+            names.add(node.baseUri);
+        }
+        nodesByUri = byUri;
+        ring = new ConsistentHashRing(names, VIRTUAL_NODES);
+        if (nodes != null) {
+            for (Node node : nodes) {
+                node.breaker().removeListener(CIRCUIT_LISTENER);
+            }
+        }
+        for (Node node : configured) {
+            node.breaker().addListener(CIRCUIT_LISTENER);
+        }
+        nodes = Collections.unmodifiableList(configured);
+        ServerPool.balancing = balancing;
+        if (prober != null) {
+            prober.shutdownNow();
+            prober = null;
+        }
+        if (configured.size() > 1 && PROBE_MILLIS > 0) {
+            prober = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "rest-health-probe");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            prober.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    probeAll();
+                }
+            }, PROBE_MILLIS, PROBE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        LOGGER.info("REST servers: " + configured + ", balancing " + balancing);
+        updateOffline();
+    }
+
+    /**
+     * Changes how many consecutive failures eject a replica.
+     */
+    public static void setMaxFailures(int failures) {
+        if (failures < 1) {
+            throw new IllegalArgumentException("failures must be at least 1");
+        }
+        maxFailures = failures;
+    }
+
+    public static boolean isSharded() {
+        return sharded;
+    }
+
+    /**
+     * Turns routing by customer or account on or off.
+     */
+    public static void setSharded(boolean sharded) {
+        ServerPool.sharded = sharded;
+    }
+
+    /**
+     * @return Base URI addressed by the REST clients.
+     */
+    public static String getServiceUri() {
+        return nodes.get(0).baseUri;
+    }
+
+    /**
+     * @return The replicas, in configuration order.
+     */
+    public static List<Node> getNodes() {
+        return nodes;
+    }
+
+    public static Balancing getBalancing() {
+        return balancing;
+    }
+
+    // ---------------------------------------------------------------------
+    // Degraded mode
+    // ---------------------------------------------------------------------
+
+    /**
+     * @return true while the circuit of every replica is open (never with
+     * the breakers disabled); an open circuit whose wait is over counts as
+     * half-open, so the pool comes back online for the trial requests.
+     */
+    public static boolean isOffline() {
+        if (!CircuitBreaker.isEnabled()) {
+            return false;
+        }
+        for (Node node : nodes) {
+            if (node.breaker().getState() != CircuitBreaker.State.OPEN) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void addListener(Listener listener) {
+        LISTENERS.add(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    private static void updateOffline() {
+        boolean offline = isOffline();
+        if (OFFLINE.getAndSet(offline) == offline) {
+            return;
+        }
+        LOGGER.log(offline ? Level.WARNING : Level.INFO, offline
+                ? "Every REST server has its circuit open" : "A REST server is reachable again");
+        for (Listener listener : LISTENERS) {
+            try {
+                listener.offlineChanged(offline);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Server pool listener failed", e);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // Health
+    // ---------------------------------------------------------------------
+
+    /**
+     * Probes every replica now, on the calling thread.
+     */
+    static void probeAll() {
+        for (Node node : nodes) {
+            if (probe(node)) {
+                node.succeeded();
+            } else {
+                node.failed();
+            }
+        }
+    }
+
+    private static boolean probe(Node node) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(node.baseUri
+                    + (PROBE_PATH.isEmpty() ? "" : "/" + PROBE_PATH)).openConnection();
+            connection.setConnectTimeout(PROBE_TIMEOUT_MILLIS);
+            connection.setReadTimeout(PROBE_TIMEOUT_MILLIS);
+            connection.setUseCaches(false);
+            int status = connection.getResponseCode();
+            InputStream body = (status < 400) ? connection.getInputStream() : connection.getErrorStream();
+            if (body != null) {
+                body.close();
+            }
+            return status < 500;
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Health probe failed for " + node.baseUri, e);
+            return false;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // Balancing
+    // ---------------------------------------------------------------------
+
+    /**
+     * Chooses the replica for the next request.
+     */
+    static Node choose() {
+        List<Node> all = nodes;
+        if (all.size() == 1) {
+            return all.get(0);
+        }
+        List<Node> candidates = new ArrayList<Node>(all.size());
+        for (Node node : all) {
+            if (node.isAvailable()) {
+                candidates.add(node);
+            }
+        }
+        if (candidates.isEmpty()) {
+            candidates = all;
+        }
+        int start = (NEXT.getAndIncrement() & Integer.MAX_VALUE) % candidates.size();
+        if (balancing == Balancing.ROUND_ROBIN) {
+            return candidates.get(start);
+        }
+        // Fewest outstanding; ties are taken in turns
+        Node best = null;
+        for (int i = 0; i < candidates.size(); i++) {
+            Node node = candidates.get((start + i) % candidates.size());
+            if (best == null || node.getOutstanding() < best.getOutstanding()) {
+                best = node;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Replica owning a shard key, or the next available one clockwise.
+     */
+    static Node owner(String key) {
+        final Map<String, Node> byUri = nodesByUri;
+        ConsistentHashRing current = ring;
+        String owner = current.get(key, new Predicate<String>() {
+            @Override
+            public boolean test(String baseUri) {
+                Node node = byUri.get(baseUri);
+                return node != null && node.isAvailable();
+            }
+        });
+        Node node = byUri.get((owner != null) ? owner : current.get(key));
+        // Null only while the replicas are being replaced
+        return (node != null) ? node : choose();
+    }
+
+    /**
+     * Shard key of a request path relative to the service URI: the customer
+     * or the account it is about, or null for the rest.
+     */
+    static String shardKey(String path) {
+        int end = path.length();
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '?' || path.charAt(i) == '#') {
+                end = i;
+                break;
+            }
+        }
+        String[] segments = path.substring(0, end).replaceFirst("^/+", "").split("/");
+        if (segments.length >= 2 && "customer".equals(segments[0]) && isId(segments[1])) {
+            return "customer/" + segments[1];
+        }
+        if (segments.length >= 2 && "account".equals(segments[0])) {
+            if (segments.length >= 3 && "customer".equals(segments[1]) && isId(segments[2])) {
+                return "customer/" + segments[2];
+            }
+            if (isId(segments[1])) {
+                return "account/" + segments[1];
+            }
+        }
+        if (segments.length >= 2 && "movement".equals(segments[0])) {
+            if (segments.length >= 3 && "account".equals(segments[1]) && isId(segments[2])) {
+                return "account/" + segments[2];
+            }
+            if (segments.length >= 3 && "batch".equals(segments[2]) && isId(segments[1])) {
+                return "account/" + segments[1];
+            }
+        }
+        return null;
+    }
+
+    private static boolean isId(String segment) {
+        if (segment.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < segment.length(); i++) {
+            if (!Character.isDigit(segment.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replica of one attempt: started by the request filter and ended exactly
+     * once, by the response filter or by {@link AsyncRequests}.
+     */
+    static final class Lease {
+
+        private final AtomicBoolean ended = new AtomicBoolean();
+        private volatile Node node;
+
+        /**
+         * @return Base URI of the replica chosen for the attempt, or null if
+         * it was not addressed to the service.
+         */
+        String getBaseUri() {
+            Node target = node;
+            return (target == null) ? null : target.baseUri;
+        }
+
+        void answered(int status) {
+            Node target = end();
+            if (target != null) {
+                if (status == 502 || status == 503 || status == 504) {
+                    target.failed();
+                } else {
+                    target.succeeded();
+                }
+            }
+        }
+
+        void failed() {
+            Node target = end();
+            if (target != null) {
+                target.failed();
+            }
+        }
+
+        void ignored() {
+            end();
+        }
+
+        private Node end() {
+            Node target = node;
+            if (target == null || !ended.compareAndSet(false, true)) {
+                return null;
+            }
+            target.outstanding.decrementAndGet();
+            return target;
+        }
+    }
+
+    /**
+     * Filter registered on the shared client, before the
+     * {@link CircuitBreaker} one so that the breaker sees the replica.
+     */
+    static Object filter() {
+        return new Filter();
+    }
+
+    private static final class Filter implements ClientRequestFilter, ClientResponseFilter {
+
+        @Override
+        public void filter(ClientRequestContext request) throws IOException {
+            List<Node> all = nodes;
+            String service = all.get(0).baseUri;
+            String uri = request.getUri().toString();
+            if (!uri.startsWith(service) || (uri.length() > service.length()
+                    && "/?#".indexOf(uri.charAt(service.length())) < 0)) {
+                // Not a request to the service
+                return;
+            }
+            String path = uri.substring(service.length());
+            String key = sharded ? shardKey(path) : null;
+            Node node = (key != null) ? owner(key) : choose();
+            if (node != all.get(0)) {
+                request.setUri(URI.create(node.baseUri + path));
+            }
+            node.requests.incrementAndGet();
+            Object lease = request.getProperty(LEASE_PROPERTY);
+            if (lease instanceof Lease) {
+                node.outstanding.incrementAndGet();
+                ((Lease) lease).node = node;
+            }
+        }
+
+        @Override
+        public void filter(ClientRequestContext request, ClientResponseContext response) throws IOException {
+            Object lease = request.getProperty(LEASE_PROPERTY);
+            if (lease instanceof Lease) {
+                ((Lease) lease).answered(response.getStatus());
+            }
+        }
+    }
+}
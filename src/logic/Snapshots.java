@@ -0,0 +1,68 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Deep copies of unmarshalled entities kept by the client-side caches.
+ * <p>
+ * The controllers edit the entities they receive in place (for example the
+ * account table commits cell edits straight into the {@code Account}), so a
+ * cache must never hand out the instance it keeps. The cached value is stored
+ * in serialized form and every hit gets its own copy. The model classes are
+ * {@link Serializable}, and so are the JDK lists returned by Jersey.
+ */
+final class Snapshots {
+
+    private static final Logger LOGGER = Logger.getLogger("logic.Snapshots");
+
+    private Snapshots() {
+    }
+
+    /**
+     * Serializes a value.
+     *
+     * @param value Value to keep.
+     * @return Its serialized form, or null if it cannot be serialized (the
+     * caller then does not cache it).
+     */
+    static byte[] take(Object value) {
+        if (!(value instanceof Serializable)) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Value not cached, it cannot be serialized", e);
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Rebuilds a fresh copy of a value taken with {@link #take(Object)}.
+     *
+     * @param snapshot Serialized form.
+     * @return A new copy of the value.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T restore(byte[] snapshot) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(snapshot))) {
+            return (T) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Corrupted cache snapshot", e);
+        }
+    }
+}
@@ -0,0 +1,475 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ * Records the REST traffic of the shared client to a file, so that a real
+ * session can be served back later by the stand-in server and replayed
+ * against new client builds without a live server.
+ * <p>
+ * Every exchange that gets a response is appended to the file as soon as its
+ * body has been read: method, resource path and query, request headers and
+ * body, status, response headers and body, and the time to the response
+ * headers and to the end of the body. Bodies are kept as they travelled, so a
+ * compressed response is recorded compressed. Requests rejected before they
+ * are sent (an open {@link CircuitBreaker}) and requests without a response
+ * are not recorded.
+ * <p>
+ * While recording, response bodies are read completely before the clients
+ * see them, so streamed lists are not parsed as they arrive. The file holds
+ * the sign-in URIs and customer bodies, passwords included, and must be kept
+ * like any other credential store.
+ * <p>
+ * Recording starts at startup if the <b>bank.rest.record</b> system property
+ * names a file, or with {@link #start(Path)}. A file that already exists is
+ * appended to.
+ */
+public final class TrafficRecorder {
+
+    private static final Logger LOGGER = Logger.getLogger("logic.TrafficRecorder");
+
+    private static final int MAGIC = 0x42524543; // "BREC"
+    private static final int VERSION = 1;
+    private static final String START_PROPERTY = "logic.TrafficRecorder.start";
+    private static final String START_MILLIS_PROPERTY = "logic.TrafficRecorder.startMillis";
+    private static final String BODY_PROPERTY = "logic.TrafficRecorder.body";
+    // Headers set by the connector, not by the clients
+    private static final Set<String> SKIPPED_HEADERS = new HashSet<String>(Arrays.asList(
+            "content-length", "transfer-encoding", "connection", "host", "user-agent", "date",
+            "keep-alive"));
+
+    private static DataOutputStream out;
+    private static Path file;
+    private static long recorded;
+
+    static {
+        String property = System.getProperty("bank.rest.record");
+        if (property != null && !property.isEmpty()) {
+            try {
+                start(Paths.get(property));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Cannot record REST traffic to " + property, e);
+            }
+        }
+    }
+
+    private TrafficRecorder() {
+    }
+
+    /**
+     * One recorded request and its response.
+     */
+    public static final class Exchange {
+
+        private final long startMillis;
+        private final long headerNanos;
+        private final long totalNanos;
+        private final String method;
+        private final String path;
+        private final String query;
+        private final Map<String, String> requestHeaders;
+        private final byte[] requestBody;
+        private final int status;
+        private final Map<String, String> responseHeaders;
+        private final byte[] responseBody;
+
+        public Exchange(long startMillis, long headerNanos, long totalNanos, String method,
+                String path, String query, Map<String, String> requestHeaders, byte[] requestBody,
+                int status, Map<String, String> responseHeaders, byte[] responseBody) {
+            this.startMillis = startMillis;
+            this.headerNanos = headerNanos;
+            this.totalNanos = totalNanos;
+            this.method = method;
+            this.path = path;
+            this.query = query;
+            this.requestHeaders = Collections.unmodifiableMap(new LinkedHashMap<String, String>(requestHeaders));
+            this.requestBody = requestBody;
+            this.status = status;
+            this.responseHeaders = Collections.unmodifiableMap(new LinkedHashMap<String, String>(responseHeaders));
+            this.responseBody = responseBody;
+        }
+
+        /**
+         * @return Wall-clock time the request was sent, in epoch millis.
+         */
+        public long getStartMillis() {
+            return startMillis;
+        }
+
+        /**
+         * @return Time from sending the request to receiving the response
+         * headers.
+         */
+        public long getHeaderNanos() {
+            return headerNanos;
+        }
+
+        /**
+         * @return Time from sending the request to the end of the response
+         * body.
+         */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * @return Raw resource path, relative to the resources root, for
+         * example {@code movement/account/7}.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return Raw query, or null if there was none.
+         */
+        public String getQuery() {
+            return query;
+        }
+
+        /**
+         * @return Endpoint name, as in the traffic metrics.
+         */
+        public String getEndpoint() {
+            return Endpoints.nameOf(method, URI.create("/" + path));
+        }
+
+        public Map<String, String> getRequestHeaders() {
+            return requestHeaders;
+        }
+
+        /**
+         * @return Request body as sent (compressed if it was), empty if
+         * there was none. Not copied.
+         */
+        public byte[] getRequestBody() {
+            return requestBody;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public Map<String, String> getResponseHeaders() {
+            return responseHeaders;
+        }
+
+        /**
+         * @return Response body as received (compressed if it was), empty if
+         * there was none. Not copied.
+         */
+        public byte[] getResponseBody() {
+            return responseBody;
+        }
+    }
+
+    /**
+     * Starts recording to the given file, appending to it if it exists. A
+     * recording in progress is stopped first.
+     *
+     * @param target File to write.
+     * @throws IOException If the file cannot be opened or is not a
+     * recording.
+     */
+    public static synchronized void start(Path target) throws IOException {
+        stop();
+        boolean empty = !Files.exists(target) || Files.size(target) == 0;
+        if (!empty) {
+            // Refuse to append to something else
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(target))) {
+                readHeader(in, target);
+            }
+        }
+        DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(target, StandardOpenOption.CREATE, StandardOpenOption.APPEND), 64 * 1024));
+        if (empty) {
+            stream.writeInt(MAGIC);
+            stream.writeShort(VERSION);
+            stream.flush();
+        }
+        out = stream;
+        file = target;
+        recorded = 0;
+        LOGGER.info("Recording REST traffic to " + target);
+    }
+
+    /**
+     * Stops recording and closes the file. Does nothing if not recording.
+     */
+    public static synchronized void stop() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error closing " + file, e);
+        }
+        LOGGER.info("Recorded " + recorded + " REST exchanges to " + file);
+        out = null;
+        file = null;
+    }
+
+    public static synchronized boolean isRecording() {
+        return out != null;
+    }
+
+    /**
+     * @return Exchanges recorded since the last {@link #start(Path)}.
+     */
+    public static synchronized long getRecordedCount() {
+        return recorded;
+    }
+
+    /**
+     * Reads a recording.
+     *
+     * @param source File written by the recorder.
+     * @return Its exchanges, in the order they were recorded (the order the
+     * responses ended).
+     * @throws IOException If the file cannot be read or is not a recording.
+     */
+    public static List<Exchange> read(Path source) throws IOException {
+        List<Exchange> exchanges = new ArrayList<Exchange>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(source), 64 * 1024))) {
+            readHeader(in, source);
+            while (true) {
+                long startMillis;
+                try {
+                    startMillis = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                long headerNanos = in.readLong();
+                long totalNanos = in.readLong();
+                String method = in.readUTF();
+                String path = in.readUTF();
+                String query = in.readBoolean() ? in.readUTF() : null;
+                Map<String, String> requestHeaders = readHeaders(in);
+                byte[] requestBody = readBytes(in);
+                int status = in.readUnsignedShort();
+                Map<String, String> responseHeaders = readHeaders(in);
+                byte[] responseBody = readBytes(in);
+                exchanges.add(new Exchange(startMillis, headerNanos, totalNanos, method, path, query,
+                        requestHeaders, requestBody, status, responseHeaders, responseBody));
+            }
+        }
+        return exchanges;
+    }
+
+    private static void readHeader(DataInputStream in, Path source) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a REST recording: " + source);
+        }
+        int version = in.readUnsignedShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported recording version " + version + ": " + source);
+        }
+    }
+
+    private static Map<String, String> readHeaders(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        for (int i = 0; i < count; i++) {
+            headers.put(in.readUTF(), in.readUTF());
+        }
+        return headers;
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static synchronized void append(Exchange exchange) {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.writeLong(exchange.startMillis);
+            out.writeLong(exchange.headerNanos);
+            out.writeLong(exchange.totalNanos);
+            out.writeUTF(exchange.method);
+            out.writeUTF(exchange.path);
+            out.writeBoolean(exchange.query != null);
+            if (exchange.query != null) {
+                out.writeUTF(exchange.query);
+            }
+            writeHeaders(exchange.requestHeaders);
+            out.writeInt(exchange.requestBody.length);
+            out.write(exchange.requestBody);
+            out.writeShort(exchange.status);
+            writeHeaders(exchange.responseHeaders);
+            out.writeInt(exchange.responseBody.length);
+            out.write(exchange.responseBody);
+            // A session cut short keeps every exchange completed so far
+            out.flush();
+            recorded++;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot record REST traffic, recording stopped", e);
+            stop();
+        }
+    }
+
+    private static void writeHeaders(Map<String, String> headers) throws IOException {
+        out.writeShort(headers.size());
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            out.writeUTF(header.getKey());
+            out.writeUTF(header.getValue());
+        }
+    }
+
+    private static Map<String, String> headers(Map<String, List<String>> headers) {
+        Map<String, String> result = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (!SKIPPED_HEADERS.contains(header.getKey().toLowerCase(Locale.ROOT))) {
+                StringBuilder value = new StringBuilder();
+                for (String item : header.getValue()) {
+                    if (value.length() > 0) {
+                        value.append(',');
+                    }
+                    value.append(item);
+                }
+                result.put(header.getKey(), value.toString());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Provider to register in the shared client, after the filters
+     * that choose the server and before {@link ContentEncoding}.
+     */
+    static Object filter() {
+        return new Recorder();
+    }
+
+    /**
+     * Request and response filter and writer interceptor of the shared
+     * client.
+     */
+    private static class Recorder implements ClientRequestFilter, ClientResponseFilter, WriterInterceptor {
+
+        @Override
+        public void filter(ClientRequestContext request) {
+            if (isRecording()) {
+                request.setProperty(START_MILLIS_PROPERTY, System.currentTimeMillis());
+                request.setProperty(START_PROPERTY, System.nanoTime());
+            }
+        }
+
+        @Override
+        public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+            if (context.getProperty(START_PROPERTY) == null) {
+                context.proceed();
+                return;
+            }
+            // Outside ContentEncoding, so the body is seen as sent
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            context.setProperty(BODY_PROPERTY, body);
+            context.setOutputStream(new TeeOutputStream(context.getOutputStream(), body));
+            context.proceed();
+        }
+
+        @Override
+        public void filter(ClientRequestContext request, ClientResponseContext response) throws IOException {
+            Long start = (Long) request.getProperty(START_PROPERTY);
+            if (start == null) {
+                return;
+            }
+            long headerNanos = System.nanoTime() - start;
+            byte[] responseBody = new byte[0];
+            if (response.hasEntity()) {
+                try (InputStream in = response.getEntityStream()) {
+                    responseBody = readAll(in);
+                }
+                response.setEntityStream(new ByteArrayInputStream(responseBody));
+            }
+            long totalNanos = System.nanoTime() - start;
+            ByteArrayOutputStream requestBody = (ByteArrayOutputStream) request.getProperty(BODY_PROPERTY);
+            append(new Exchange((Long) request.getProperty(START_MILLIS_PROPERTY), headerNanos, totalNanos,
+                    request.getMethod(), Endpoints.resourcePath(request.getUri()), request.getUri().getRawQuery(),
+                    headers(request.getStringHeaders()),
+                    requestBody == null ? new byte[0] : requestBody.toByteArray(),
+                    response.getStatus(), headers(response.getHeaders()), responseBody));
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Copies what is written to a second stream.
+     */
+    private static class TeeOutputStream extends FilterOutputStream {
+
+        private final OutputStream copy;
+
+        TeeOutputStream(OutputStream out, OutputStream copy) {
+            super(out);
+            this.copy = copy;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            copy.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            copy.write(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+/**
+ * Immutable snapshot of the body traffic of one REST endpoint, collected by
+ * {@link ContentEncoding}. "On wire" sizes are those actually transferred
+ * (compressed if the body was compressed); "raw" and "decoded" sizes are those
+ * of the XML or JSON document.
+ */
+public class TrafficStatistics {
+
+    private final String endpoint;
+    private final long requests;
+    private final long compressedRequests;
+    private final long requestBytesRaw;
+    private final long requestBytesOnWire;
+    private final long responses;
+    private final long compressedResponses;
+    private final long responseBytesOnWire;
+    private final long responseBytesDecoded;
+    private final long decodeNanos;
+
+    public TrafficStatistics(String endpoint, long requests, long compressedRequests,
+            long requestBytesRaw, long requestBytesOnWire, long responses,
+            long compressedResponses, long responseBytesOnWire, long responseBytesDecoded,
+            long decodeNanos) {
+        this.endpoint = endpoint;
+        this.requests = requests;
+        this.compressedRequests = compressedRequests;
+        this.requestBytesRaw = requestBytesRaw;
+        this.requestBytesOnWire = requestBytesOnWire;
+        this.responses = responses;
+        this.compressedResponses = compressedResponses;
+        this.responseBytesOnWire = responseBytesOnWire;
+        this.responseBytesDecoded = responseBytesDecoded;
+        this.decodeNanos = decodeNanos;
+    }
+
+    /**
+     * @return Endpoint name, for example {@code GET movement/account/{id}}.
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return Requests sent.
+     */
+    public long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return Requests whose body was sent compressed.
+     */
+    public long getCompressedRequests() {
+        return compressedRequests;
+    }
+
+    /**
+     * @return Size of the request bodies before compression.
+     */
+    public long getRequestBytesRaw() {
+        return requestBytesRaw;
+    }
+
+    /**
+     * @return Size of the request bodies as sent.
+     */
+    public long getRequestBytesOnWire() {
+        return requestBytesOnWire;
+    }
+
+    /**
+     * @return Response bodies read.
+     */
+    public long getResponses() {
+        return responses;
+    }
+
+    /**
+     * @return Response bodies that arrived compressed.
+     */
+    public long getCompressedResponses() {
+        return compressedResponses;
+    }
+
+    /**
+     * @return Size of the response bodies as received.
+     */
+    public long getResponseBytesOnWire() {
+        return responseBytesOnWire;
+    }
+
+    /**
+     * @return Size of the response bodies after decompression.
+     */
+    public long getResponseBytesDecoded() {
+        return responseBytesDecoded;
+    }
+
+    /**
+     * @return Time spent decompressing and unmarshalling response bodies.
+     */
+    public long getDecodeNanos() {
+        return decodeNanos;
+    }
+
+    /**
+     * @return Received bytes divided by decoded bytes (1.0 means no saving).
+     */
+    public double getResponseCompressionRatio() {
+        return responseBytesDecoded == 0 ? 1.0 : (double) responseBytesOnWire / responseBytesDecoded;
+    }
+
+    /**
+     * @return Average decode time per response, in microseconds.
+     */
+    public double getAverageDecodeMicros() {
+        return responses == 0 ? 0.0 : decodeNanos / 1000.0 / responses;
+    }
+
+    @Override
+    public String toString() {
+        return "TrafficStatistics[" + endpoint + ": requests=" + requests
+                + ", compressedRequests=" + compressedRequests
+                + ", requestBytesRaw=" + requestBytesRaw
+                + ", requestBytesOnWire=" + requestBytesOnWire
+                + ", responses=" + responses
+                + ", compressedResponses=" + compressedResponses
+                + ", responseBytesOnWire=" + responseBytesOnWire
+                + ", responseBytesDecoded=" + responseBytesDecoded
+                + ", avgDecodeMicros=" + String.format("%.1f", getAverageDecodeMicros()) + "]";
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+/**
+ * HTTP validator cache for the GET requests of the REST clients.
+ * <p>
+ * When a response carries an {@code ETag} or {@code Last-Modified} header,
+ * the validators and the unmarshalled result are remembered per URI, media
+ * type and result type. The next request for the same resource sends
+ * {@code If-None-Match} / {@code If-Modified-Since}; if the server answers
+ * {@code 304 Not Modified} the remembered result is returned without
+ * downloading or unmarshalling the body again. Responses without validators
+ * are not cached at all, so a server that does not send them behaves exactly
+ * as before.
+ * <p>
+ * Each caller gets its own copy of the result (see {@link Snapshots}), since
+ * the controllers modify the entities they receive.
+ * <p>
+ * Configuration, read at startup:
+ * <ul>
+ * <li><b>bank.rest.validatorCache</b>: {@code false} disables conditional
+ * requests (default {@code true}).</li>
+ * <li><b>bank.rest.validatorCache.maxEntries</b>: resources remembered, least
+ * recently used first out (default 256).</li>
+ * </ul>
+ */
+public final class ValidatorCache {
+
+    private static final int MAX_ENTRIES
+            = Integer.getInteger("bank.rest.validatorCache.maxEntries", 256);
+
+    private static volatile boolean enabled
+            = Boolean.parseBoolean(System.getProperty("bank.rest.validatorCache", "true"));
+
+    private static final Map<String, Entry> ENTRIES = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ValidatorCache.Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private static final AtomicLong CONDITIONAL_REQUESTS = new AtomicLong();
+    private static final AtomicLong NOT_MODIFIED = new AtomicLong();
+    private static final AtomicLong VALIDATED_RESPONSES = new AtomicLong();
+    private static final AtomicLong BYTES_DOWNLOADED = new AtomicLong();
+    private static final AtomicLong BYTES_SAVED = new AtomicLong();
+    private static final AtomicLong PARSE_NANOS = new AtomicLong();
+    private static final AtomicLong PARSE_NANOS_SAVED = new AtomicLong();
+
+    private ValidatorCache() {
+    }
+
+    /**
+     * Validators and result of one resource.
+     */
+    private static final class Entry {
+
+        final String etag;
+        final String lastModified;
+        final byte[] snapshot;
+        final long bodyBytes;
+        final long parseNanos;
+
+        Entry(String etag, String lastModified, byte[] snapshot, long bodyBytes, long parseNanos) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.snapshot = snapshot;
+            this.bodyBytes = bodyBytes;
+            this.parseNanos = parseNanos;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns conditional requests on or off. Turning them off also forgets
+     * every remembered response.
+     *
+     * @param enabled true to send validators.
+     */
+    public static void setEnabled(boolean enabled) {
+        ValidatorCache.enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    /**
+     * Forgets every remembered response. Counters are kept.
+     */
+    public static void clear() {
+        synchronized (ENTRIES) {
+            ENTRIES.clear();
+        }
+    }
+
+    /**
+     * Takes a snapshot of the cache counters.
+     *
+     * @return Current statistics.
+     */
+    public static ValidatorCacheStatistics getStatistics() {
+        int size;
+        synchronized (ENTRIES) {
+            size = ENTRIES.size();
+        }
+        return new ValidatorCacheStatistics(size, CONDITIONAL_REQUESTS.get(),
+                NOT_MODIFIED.get(), VALIDATED_RESPONSES.get(), BYTES_DOWNLOADED.get(),
+                BYTES_SAVED.get(), PARSE_NANOS.get(), PARSE_NANOS_SAVED.get());
+    }
+
+    /**
+     * Cache key of a request.
+     *
+     * @param uri Full request URI, query included.
+     * @param mediaType Accepted media type.
+     * @param variant Identifies the Java type the body is read as.
+     * @return The key.
+     */
+    static String key(URI uri, String mediaType, String variant) {
+        return uri + " " + mediaType + " " + variant;
+    }
+
+    /**
+     * Adds the remembered validators of a resource to a request and returns
+     * the reader that must handle its response.
+     *
+     * @param key Key built with {@link #key(URI, String, String)}.
+     * @param request Request about to be sent.
+     * @param reader Reads a full 2xx response.
+     * @return Reader that also handles 304 answers and remembers validated
+     * responses.
+     */
+    static <T> AsyncRequests.ResponseReader<T> conditional(final String key,
+            Invocation.Builder request, final AsyncRequests.ResponseReader<T> reader) {
+        final Entry cached = enabled ? lookup(key) : null;
+        if (cached != null) {
+            if (cached.etag != null) {
+                request.header(HttpHeaders.IF_NONE_MATCH, cached.etag);
+            }
+            if (cached.lastModified != null) {
+                request.header(HttpHeaders.IF_MODIFIED_SINCE, cached.lastModified);
+            }
+            CONDITIONAL_REQUESTS.incrementAndGet();
+        }
+        return new AsyncRequests.ResponseReader<T>() {
+            @Override
+            public T read(Response response) {
+                return ValidatorCache.read(key, cached, response, reader);
+            }
+        };
+    }
+
+    private static <T> T read(String key, Entry cached, Response response,
+            AsyncRequests.ResponseReader<T> reader) {
+        if (cached != null && response.getStatus() == Response.Status.NOT_MODIFIED.getStatusCode()) {
+            NOT_MODIFIED.incrementAndGet();
+            BYTES_SAVED.addAndGet(cached.bodyBytes);
+            PARSE_NANOS_SAVED.addAndGet(cached.parseNanos);
+            return Snapshots.restore(cached.snapshot);
+        }
+        AsyncRequests.checkStatus(response);
+
+        String etag = response.getHeaderString(HttpHeaders.ETAG);
+        String lastModified = response.getHeaderString(HttpHeaders.LAST_MODIFIED);
+        if (!enabled || (etag == null && lastModified == null)) {
+            if (cached != null) {
+                remove(key);
+            }
+            return reader.read(response);
+        }
+
+        // The body is buffered once to measure it; reading the entity again
+        // afterwards parses the buffered copy
+        response.bufferEntity();
+        long bodyBytes = response.readEntity(byte[].class).length;
+        long start = System.nanoTime();
+        T value = reader.read(response);
+        long parseNanos = System.nanoTime() - start;
+
+        VALIDATED_RESPONSES.incrementAndGet();
+        BYTES_DOWNLOADED.addAndGet(bodyBytes);
+        PARSE_NANOS.addAndGet(parseNanos);
+        byte[] snapshot = Snapshots.take(value);
+        if (snapshot != null) {
+            synchronized (ENTRIES) {
+                ENTRIES.put(key, new Entry(etag, lastModified, snapshot, bodyBytes, parseNanos));
+            }
+        } else {
+            remove(key);
+        }
+        return value;
+    }
+
+    private static Entry lookup(String key) {
+        synchronized (ENTRIES) {
+            return ENTRIES.get(key);
+        }
+    }
+
+    private static void remove(String key) {
+        synchronized (ENTRIES) {
+            ENTRIES.remove(key);
+        }
+    }
+}
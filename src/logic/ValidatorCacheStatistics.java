@@ -0,0 +1,111 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+/**
+ * Immutable snapshot of the counters of {@link ValidatorCache}. The saved
+ * bytes and parse time are those measured when each reused response was
+ * first downloaded and unmarshalled.
+ */
+public class ValidatorCacheStatistics {
+
+    private final int entries;
+    private final long conditionalRequests;
+    private final long notModified;
+    private final long validatedResponses;
+    private final long bytesDownloaded;
+    private final long bytesSaved;
+    private final long parseNanos;
+    private final long parseNanosSaved;
+
+    public ValidatorCacheStatistics(int entries, long conditionalRequests, long notModified,
+            long validatedResponses, long bytesDownloaded, long bytesSaved,
+            long parseNanos, long parseNanosSaved) {
+        this.entries = entries;
+        this.conditionalRequests = conditionalRequests;
+        this.notModified = notModified;
+        this.validatedResponses = validatedResponses;
+        this.bytesDownloaded = bytesDownloaded;
+        this.bytesSaved = bytesSaved;
+        this.parseNanos = parseNanos;
+        this.parseNanosSaved = parseNanosSaved;
+    }
+
+    /**
+     * @return Responses currently remembered.
+     */
+    public int getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return GET requests sent with If-None-Match or If-Modified-Since.
+     */
+    public long getConditionalRequests() {
+        return conditionalRequests;
+    }
+
+    /**
+     * @return Conditional requests answered with 304 Not Modified.
+     */
+    public long getNotModified() {
+        return notModified;
+    }
+
+    /**
+     * @return Full responses that carried an ETag or Last-Modified header.
+     */
+    public long getValidatedResponses() {
+        return validatedResponses;
+    }
+
+    /**
+     * @return Body bytes of the responses that carried validators.
+     */
+    public long getBytesDownloaded() {
+        return bytesDownloaded;
+    }
+
+    /**
+     * @return Body bytes not downloaded thanks to 304 answers.
+     */
+    public long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    /**
+     * @return Time spent unmarshalling the responses that carried validators.
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    /**
+     * @return Unmarshalling time avoided thanks to 304 answers.
+     */
+    public long getParseNanosSaved() {
+        return parseNanosSaved;
+    }
+
+    /**
+     * @return Fraction of conditional requests answered with 304.
+     */
+    public double getNotModifiedRatio() {
+        return conditionalRequests == 0 ? 0.0 : (double) notModified / conditionalRequests;
+    }
+
+    @Override
+    public String toString() {
+        return "ValidatorCacheStatistics[entries=" + entries
+                + ", conditionalRequests=" + conditionalRequests
+                + ", notModified=" + notModified
+                + ", validatedResponses=" + validatedResponses
+                + ", bytesDownloaded=" + bytesDownloaded
+                + ", bytesSaved=" + bytesSaved
+                + ", parseMillis=" + parseNanos / 1000000
+                + ", parseMillisSaved=" + parseNanosSaved / 1000000 + "]";
+    }
+}
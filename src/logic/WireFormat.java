@@ -0,0 +1,57 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package logic;
+
+import java.util.logging.Logger;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Representation used by a REST client to exchange entities with the server.
+ * Each client starts with {@link #getDefault()}, taken from the system
+ * property <b>bank.rest.wireFormat</b> ({@code xml} or {@code json}, default
+ * {@code xml}), and can be switched at run time with its
+ * {@code setWireFormat} method.
+ */
+public enum WireFormat {
+
+    /**
+     * JAXB XML, the format the application has always used.
+     */
+    XML(MediaType.APPLICATION_XML),
+    /**
+     * JSON, read and written by {@link EntityJson}.
+     */
+    JSON(MediaType.APPLICATION_JSON);
+
+    private static final Logger LOGGER = Logger.getLogger("logic.WireFormat");
+
+    private final String mediaType;
+
+    private WireFormat(String mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    /**
+     * @return Media type sent in {@code Accept} and {@code Content-Type}.
+     */
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * @return Format configured with <b>bank.rest.wireFormat</b>.
+     */
+    public static WireFormat getDefault() {
+        String value = System.getProperty("bank.rest.wireFormat", "xml");
+        for (WireFormat format : values()) {
+            if (format.name().equalsIgnoreCase(value.trim())) {
+                return format;
+            }
+        }
+        LOGGER.warning("Unknown bank.rest.wireFormat '" + value + "', using XML");
+        return XML;
+    }
+}
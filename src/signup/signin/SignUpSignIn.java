@@ -1,5 +1,6 @@
 package signup.signin;
 
+import UI.FxmlLoadEvent;
 import UI.GestionUsuariosController;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
@@ -12,6 +13,7 @@ import javafx.stage.Stage;
 import java.util.Optional;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import logic.RESTClientFactory;
 
 /**
  * Clase principal de la aplicación para el sistema de Registro/Inicio de Sesión (Sign Up/Sign In).
@@ -40,7 +42,7 @@ public class SignUpSignIn extends Application {
         try {
             // Cargar interfaz desde FXML
             FXMLLoader loader = new FXMLLoader(getClass().getResource("/UI/FXMLDocument.fxml"));
-            Parent root = loader.load();
+            Parent root = FxmlLoadEvent.load(loader);
         
             if (root == null) {
                 LOGGER.severe("No se pudo cargar la interfaz FXML: root es null.");
@@ -71,6 +73,14 @@ public class SignUpSignIn extends Application {
     }
     }
 
+    /**
+     * Libera el pool de conexiones HTTP compartido al terminar la aplicación.
+     */
+    @Override
+    public void stop() {
+        RESTClientFactory.shutdown();
+    }
+
     /**
      * Muestra una confirmación antes de cerrar la aplicación.
      */
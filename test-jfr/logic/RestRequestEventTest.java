@@ -0,0 +1,141 @@
+package logic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.ws.rs.core.GenericType;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import model.Account;
+import model.Movement;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Pruebas de los eventos {@code bank.RestRequest} de Java Flight Recorder:
+ * se graban unas peticiones contra un servidor local y se comprueban los
+ * campos de los eventos leídos del fichero de la grabación.
+ */
+public class RestRequestEventTest {
+
+    private static final String CONTEXT = "/CRUDBankServerSide/webresources";
+
+    private HttpServer server;
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private byte[] accounts;
+    private Path dump;
+
+    @Before
+    public void setUp() throws IOException {
+        accounts = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?><accounts>"
+                + "<account><balance>10.0</balance><id>1</id></account></accounts>").getBytes(StandardCharsets.UTF_8);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(CONTEXT, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath().substring(CONTEXT.length());
+                try (InputStream in = exchange.getRequestBody()) {
+                    byte[] buffer = new byte[4096];
+                    for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                        receivedBytes.addAndGet(n);
+                    }
+                }
+                if (path.startsWith("/account/customer/")) {
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    exchange.getResponseHeaders().set("Content-Type", "application/xml");
+                    exchange.sendResponseHeaders(200, accounts.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(accounts);
+                    }
+                } else {
+                    exchange.sendResponseHeaders(500, -1);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        ServerPool.configure(Collections.singletonList("http://127.0.0.1:" + server.getAddress().getPort() + CONTEXT),
+                ServerPool.Balancing.LEAST_OUTSTANDING);
+        EntityCache.setEnabled(false);
+        dump = Files.createTempFile("rest", ".jfr");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop(0);
+        ServerPool.configure(Collections.singletonList(ServerPool.DEFAULT_BASE_URI),
+                ServerPool.Balancing.LEAST_OUTSTANDING);
+        EntityCache.setEnabled(true);
+        CircuitBreaker.resetAll();
+        Files.deleteIfExists(dump);
+    }
+
+    @Test
+    public void testEventsOfRecordedRequests() throws Exception {
+        AccountRESTClient accountClient = new AccountRESTClient();
+        GenericType<List<Account>> type = new GenericType<List<Account>>() {};
+        // Sin grabación no se crea ningún evento
+        accountClient.findAccountsByCustomerId_XML(type, "1");
+
+        try (Recording recording = new Recording()) {
+            recording.enable("bank.RestRequest");
+            recording.start();
+            assertEquals(1, accountClient.findAccountsByCustomerId_XML(type, "7").size());
+            Movement movement = new Movement();
+            movement.setAmount(-10.0);
+            movement.setDescription("Payment");
+            movement.setTimestamp(new Date());
+            receivedBytes.set(0);
+            // La creación no mira el estado de la respuesta
+            new MovementRESTClient().create_XML(movement, "3");
+            recording.stop();
+            recording.dump(dump);
+        }
+
+        // El fichero no garantiza el orden de los eventos
+        Map<String, RecordedEvent> events = new HashMap<String, RecordedEvent>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+            if (event.getEventType().getName().equals("bank.RestRequest")) {
+                assertNull(events.put(event.getString("operation"), event));
+            }
+        }
+        assertEquals(2, events.size());
+
+        RecordedEvent find = events.get("account.findByCustomer");
+        assertEquals("GET", find.getString("method"));
+        assertEquals("GET account/customer/{id}", find.getString("endpoint"));
+        assertEquals("account.findByCustomer", find.getString("operation"));
+        assertEquals("127.0.0.1:" + server.getAddress().getPort(), find.getString("server"));
+        assertEquals(200, find.getInt("status"));
+        assertEquals(0, find.getLong("requestBytes"));
+        assertEquals(accounts.length, find.getLong("responseBytes"));
+        assertTrue(find.getDuration().compareTo(Duration.ofMillis(50)) >= 0);
+
+        RecordedEvent create = events.get("movement.create");
+        assertEquals("movement.create", create.getString("operation"));
+        assertEquals(500, create.getInt("status"));
+        assertTrue(create.getLong("requestBytes") > 0);
+        assertEquals(receivedBytes.get(), create.getLong("requestBytes"));
+    }
+}
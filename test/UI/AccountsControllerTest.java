@@ -8,6 +8,7 @@ import javafx.stage.Stage;
 import model.Account;
 import model.AccountType;
 import static org.junit.Assert.*;
+import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.FixMethodOrder;
@@ -15,6 +16,8 @@ import org.junit.runners.MethodSorters;
 import org.testfx.framework.junit.ApplicationTest;
 import static org.testfx.api.FxAssert.verifyThat;
 import static org.testfx.matcher.base.NodeMatchers.*;
+import server.BankServer;
+import server.BankStore;
 import signup.signin.SignUpSignIn;
 
 /**
@@ -28,13 +31,22 @@ public class AccountsControllerTest extends ApplicationTest {
 
     
     private static SignUpSignIn app;
+    private static BankServer server;
 
     @BeforeClass
     public static void setUpClass() throws Exception {
+        // Servidor sustituto con los datos de ejemplo
+        server = BankServer.start(BankStore.sample());
+        server.useForClients();
         app = new SignUpSignIn();
 
     }
 
+    @AfterClass
+    public static void tearDownClass() {
+        server.close();
+    }
+
     @Override
     public void start(Stage stage) throws Exception {
         app.start(stage);
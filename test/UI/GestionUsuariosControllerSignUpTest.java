@@ -2,6 +2,8 @@ package UI;
 
 import javafx.stage.Stage;
 import org.junit.Test;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
 import org.junit.FixMethodOrder;
 import org.junit.runners.MethodSorters;
 import static org.testfx.api.FxAssert.verifyThat;
@@ -10,11 +12,29 @@ import static org.testfx.matcher.base.NodeMatchers.isDisabled;
 import static org.testfx.matcher.base.NodeMatchers.isEnabled;
 import static org.testfx.matcher.base.NodeMatchers.isFocused;
 import static org.testfx.matcher.base.NodeMatchers.isVisible;
+import server.BankServer;
+import server.BankStore;
 import signup.signin.SignUpSignIn;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class GestionUsuariosControllerSignUpTest extends ApplicationTest {
-    
+
+    private static BankServer server;
+
+    /**
+     * Levanta el servidor sustituto con los datos de ejemplo.
+     */
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = BankServer.start(BankStore.sample());
+        server.useForClients();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
     @Override
     public void start(Stage stage) throws Exception {
         new SignUpSignIn().start(stage);
@@ -5,14 +5,35 @@ import static org.testfx.matcher.base.NodeMatchers.isEnabled;
 import static org.testfx.matcher.base.NodeMatchers.isVisible; 
 import javafx.stage.Stage;
 import org.junit.Test;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
 import org.junit.FixMethodOrder;
 import org.junit.runners.MethodSorters;
 import org.testfx.framework.junit.ApplicationTest;
 import static org.testfx.api.FxAssert.verifyThat;
 import static org.testfx.matcher.control.TextInputControlMatchers.hasText;
+import server.BankServer;
+import server.BankStore;
 import signup.signin.SignUpSignIn;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING) public class GestionUsuariosControllerTest extends ApplicationTest{
+
+    private static BankServer server;
+
+    /**
+     * Levanta el servidor sustituto con los datos de ejemplo.
+     */
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = BankServer.start(BankStore.sample());
+        server.useForClients();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
     @Override
     public void start(Stage stage) throws Exception {
         new SignUpSignIn().start(stage);
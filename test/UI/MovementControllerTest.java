@@ -1,8 +1,14 @@
 package UI;
 
+import java.util.concurrent.TimeUnit;
 import javafx.scene.Node;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.Labeled;
+import javafx.scene.control.TableView;
 import javafx.scene.control.TextField;
 import javafx.stage.Stage;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
@@ -12,8 +18,14 @@ import javafx.scene.input.KeyCode;
 
 import static org.testfx.api.FxAssert.verifyThat;
 import static org.testfx.matcher.base.NodeMatchers.isVisible;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 
+import logic.RESTClientFactory;
+import model.Account;
+import server.BankServer;
+import server.BankStore;
+import server.FaultProfile;
 import signup.signin.SignUpSignIn;
 
 /**
@@ -26,6 +38,22 @@ public class MovementControllerTest extends ApplicationTest {
     private static final String USUARIO = "awallace@gmail.com";
     private static final String PASS = "qwerty*9876";
 
+    private static BankServer server;
+
+    /**
+     * Levanta el servidor sustituto con los datos de ejemplo.
+     */
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = BankServer.start(BankStore.sample());
+        server.useForClients();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
     /**
      * Inicializa la aplicación principal antes de cada test.
      */
@@ -152,4 +180,45 @@ public class MovementControllerTest extends ApplicationTest {
         // 5. Cierra la alerta para dejar el entorno limpio para otros tests
         clickOn("Aceptar"); 
     }
-}
\ No newline at end of file
+
+    /**
+     * Test 4: Al cambiar de cuenta antes de que llegue la respuesta, la carga
+     * anterior se aborta: solo queda abierta la petición de la última cuenta
+     * elegida y es la única que llega a la tabla.
+     */
+    @Test
+    public void test4_SoloCuentaLaUltimaSeleccion() throws Exception {
+        navegarHastaMovements();
+
+        ComboBox<Account> selector = lookup("#cbAccountSelector").queryComboBox();
+        TableView<?> movimientos = lookup("#tvMovements").queryTableView();
+        Account primera = selector.getItems().get(0);
+        Account segunda = selector.getItems().get(1);
+
+        // Respuestas lentas para cambiar de cuenta con las cargas aún en vuelo
+        FaultProfile lento = new FaultProfile("lento", 1);
+        lento.endpoint("GET movement").latency(FaultProfile.Latency.fixed(1500));
+        server.setProfile(lento);
+        try {
+            interact(() -> selector.getSelectionModel().select(segunda));
+            interact(() -> selector.getSelectionModel().select(primera));
+
+            // La carga de la segunda cuenta se ha abortado y ha devuelto su conexión
+            WaitForAsyncUtils.waitFor(1, TimeUnit.SECONDS,
+                    () -> RESTClientFactory.getPoolStatistics().getLeased() == 1);
+
+            // Se muestran los movimientos de la primera cuenta, no los de la segunda
+            int esperados = server.getStore().countMovements(primera.getId());
+            Labeled estado = lookup("#lblStatus").queryLabeled();
+            WaitForAsyncUtils.waitFor(5, TimeUnit.SECONDS,
+                    () -> RESTClientFactory.getPoolStatistics().getLeased() == 0
+                    && estado.getText().startsWith("Movimientos cargados"));
+            WaitForAsyncUtils.waitForFxEvents();
+            assertEquals(esperados, movimientos.getItems().size());
+            assertEquals(String.valueOf(primera.getId()), lookup("#lblAccountId").queryLabeled().getText());
+        } finally {
+            server.setProfile(new FaultProfile("normal", 1));
+        }
+        clickOn((Node) lookup("#btBack").query());
+    }
+}
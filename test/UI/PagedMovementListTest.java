@@ -0,0 +1,201 @@
+package UI;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import javafx.collections.ListChangeListener;
+import logic.EntityCache;
+import logic.MovementRESTClient;
+import logic.Page;
+import logic.ValidatorCache;
+import model.Account;
+import model.AccountType;
+import model.Movement;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import server.BankServer;
+import server.BankStore;
+
+/**
+ * Pruebas de la lista de movimientos paginada contra el servidor sustituto:
+ * descarga de páginas al pedirlas, precarga de la siguiente, expulsión de la
+ * página menos usada, sustitución de las filas provisionales y saldo
+ * acumulado sin descargar las páginas anteriores.
+ * <p>
+ * Las páginas se reciben en una cola que vacía el hilo de la prueba, que hace
+ * de hilo de JavaFX.
+ */
+public class PagedMovementListTest {
+
+    private static final int PAGE_SIZE = 10;
+    private static final int MOVEMENTS = 50;
+    private static final double OPENING = 100.0;
+
+    private BankServer server;
+    private final LinkedBlockingQueue<Runnable> fx = new LinkedBlockingQueue<>();
+    private final List<ListChangeListener.Change<? extends Movement>> changes = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        server = BankServer.start(BankStore.sample());
+        server.useForClients();
+        EntityCache.setEnabled(false);
+        ValidatorCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        EntityCache.setEnabled(true);
+    }
+
+    /** Cuenta con {@link #MOVEMENTS} movimientos de 1, 2, 3... */
+    private String account(boolean withBalances) {
+        BankStore store = server.getStore();
+        Account account = new Account();
+        account.setType(AccountType.STANDARD);
+        account.setDescription("Paginada");
+        account.setBalance(OPENING);
+        account.setBeginBalance(OPENING);
+        account.setCreditLine(0.0);
+        account.setBeginBalanceTimestamp(new Date(0));
+        account.setCustomers(new HashSet<>(store.findCustomers().subList(0, 1)));
+        long id = store.addAccount(account).getId();
+        double balance = OPENING;
+        for (int i = 1; i <= MOVEMENTS; i++) {
+            balance += i;
+            Movement movement = new Movement();
+            movement.setAmount((double) i);
+            movement.setBalance(withBalances ? balance : null);
+            movement.setDescription("Deposit");
+            movement.setTimestamp(new Date(i * 1000L));
+            store.addMovement(id, movement);
+        }
+        return Long.toString(id);
+    }
+
+    private PagedMovementList open(String accountId, int maxPages) throws Exception {
+        MovementRESTClient client = new MovementRESTClient();
+        Page<Movement> first = client.findMovementByAccountPageAsync(accountId, 0, PAGE_SIZE, Runnable::run)
+                .toCompletableFuture().get();
+        PagedMovementList list = new PagedMovementList(client, accountId, PAGE_SIZE, maxPages, OPENING, first, fx::add);
+        list.addListener((ListChangeListener<Movement>) change -> changes.add(change));
+        return list;
+    }
+
+    /** Ejecuta las tareas recibidas hasta que se cumple la condición. */
+    private void pumpUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            Runnable task = fx.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            assertNotNull("timeout", task);
+            task.run();
+        }
+    }
+
+    /** Ejecuta lo que llegue durante un rato, para comprobar que no se pide nada más. */
+    private void pumpQuietly() throws InterruptedException {
+        Runnable task;
+        while ((task = fx.poll(300, TimeUnit.MILLISECONDS)) != null) {
+            task.run();
+        }
+    }
+
+    private static double amount(int index) {
+        return index + 1;
+    }
+
+    @Test
+    public void testFetchesOnDemandAndReplacesPlaceholders() throws Exception {
+        PagedMovementList list = open(account(true), 4);
+        assertEquals(MOVEMENTS, list.size());
+        assertEquals(amount(3), list.get(3).getAmount(), 0.0);
+        pumpQuietly();
+
+        long requests = server.getRequestCount();
+        assertSame(PagedMovementList.PLACEHOLDER, list.get(25));
+        // Una sola petición aunque la tabla pida otra fila de la misma página
+        assertSame(PagedMovementList.PLACEHOLDER, list.get(27));
+        pumpUntil(() -> list.get(25) != PagedMovementList.PLACEHOLDER);
+        assertEquals(amount(25), list.get(25).getAmount(), 0.0);
+        pumpQuietly();
+        // La página 2 y la 3, precargada al leer la 2
+        assertEquals(requests + 2, server.getRequestCount());
+
+        // La tabla recibe el reemplazo de las filas provisionales de la página
+        boolean replaced = false;
+        for (ListChangeListener.Change<? extends Movement> change : changes) {
+            while (change.next()) {
+                if (change.wasReplaced() && change.getFrom() == 20 && change.getTo() == 30) {
+                    replaced = true;
+                }
+            }
+        }
+        assertTrue(replaced);
+    }
+
+    @Test
+    public void testPrefetchesTheNextPage() throws Exception {
+        PagedMovementList list = open(account(true), 4);
+        long requests = server.getRequestCount();
+        list.get(15);
+        // Leer la página 1 ya cargada precarga la 2
+        pumpUntil(() -> list.get(15) != PagedMovementList.PLACEHOLDER);
+        pumpQuietly();
+        assertEquals(requests + 2, server.getRequestCount());
+        assertEquals(amount(25), list.get(25).getAmount(), 0.0);
+    }
+
+    @Test
+    public void testEvictsTheLeastRecentlyUsedPage() throws Exception {
+        PagedMovementList list = open(account(true), 2);
+        Movement first = list.get(0);
+        pumpQuietly();
+        list.get(25);
+        pumpUntil(() -> list.get(25) != PagedMovementList.PLACEHOLDER);
+        pumpQuietly();
+        // Con dos páginas en memoria, la 2 y la 3 desplazan a la 0 y la 1
+        assertEquals(-1, list.indexOf(first));
+        assertEquals(25, list.indexOf(list.get(25)));
+        assertSame(PagedMovementList.PLACEHOLDER, list.get(0));
+        pumpUntil(() -> list.get(0) != PagedMovementList.PLACEHOLDER);
+        assertEquals(amount(0), list.get(0).getAmount(), 0.0);
+    }
+
+    @Test
+    public void testBalanceComesFromTheServerWithoutEarlierPages() throws Exception {
+        PagedMovementList list = open(account(true), 4);
+        list.get(35);
+        pumpUntil(() -> list.get(35) != PagedMovementList.PLACEHOLDER);
+        pumpQuietly();
+        long requests = server.getRequestCount();
+        // 100 + 1 + 2 + ... + 36
+        assertEquals(OPENING + 36 * 37 / 2, list.balanceAt(35), 1e-9);
+        pumpQuietly();
+        assertEquals(requests, server.getRequestCount());
+    }
+
+    @Test
+    public void testBalanceWaitsForEarlierPagesWithoutServerBalance() throws Exception {
+        PagedMovementList list = open(account(false), 4);
+        list.get(25);
+        pumpUntil(() -> list.get(25) != PagedMovementList.PLACEHOLDER);
+        pumpQuietly();
+        long requests = server.getRequestCount();
+        // Falta la página 1 y no se descarga solo para el saldo
+        assertNull(list.balanceAt(25));
+        pumpQuietly();
+        assertEquals(requests, server.getRequestCount());
+
+        // Cuando el usuario pasa por ella ya se puede calcular
+        list.get(15);
+        pumpUntil(() -> list.get(15) != PagedMovementList.PLACEHOLDER);
+        assertEquals(OPENING + 26 * 27 / 2, list.balanceAt(25), 1e-9);
+    }
+}
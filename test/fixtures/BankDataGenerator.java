@@ -0,0 +1,408 @@
+package fixtures;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import model.Account;
+import model.AccountType;
+import model.Customer;
+import model.Movement;
+import server.BankStore;
+
+/**
+ * Generador de datos sintéticos para las pruebas de rendimiento: clientes,
+ * sus cuentas y los movimientos de cada cuenta, en cantidades grandes
+ * (cientos de cuentas por cliente, millones de movimientos por cuenta).
+ * <p>
+ * Los datos se entregan uno a uno a un {@link Sink}, en orden (cada cliente,
+ * después sus cuentas y después los movimientos de cada cuenta por fecha),
+ * y el generador no guarda nada de lo entregado: se pueden volcar
+ * directamente en el servidor sustituto ({@link #into(BankStore)}) o en un
+ * fichero ({@link FixtureWriter}) sin tenerlos en memoria.
+ * <p>
+ * El resultado solo depende de la semilla y de los parámetros: cada cliente
+ * y cada cuenta tienen su propio generador aleatorio, derivado de la
+ * semilla y de su posición, y los ids se asignan en orden desde 1.
+ * <p>
+ * Los movimientos imitan los de una cuenta real:
+ * <ul>
+ * <li>Fechas repartidas por los días del periodo, menos en fin de semana,
+ * y dentro del día sobre todo entre las 8 y las 22.</li>
+ * <li>Pagos ({@code Payment}) de importe log-normal, la mayoría pequeños y
+ * algunos recibos grandes; ingresos ({@code Deposit}) menos frecuentes y
+ * mayores, y la nómina el primer movimiento de cada mes en las cuentas
+ * estándar.</li>
+ * <li>El saldo de una cuenta estándar nunca es negativo y el de una de
+ * crédito no baja de menos su línea de crédito: un pago que no cabe se
+ * cambia por un ingreso (en las de crédito, una devolución de parte de lo
+ * dispuesto).</li>
+ * </ul>
+ * Cada movimiento lleva el saldo de la cuenta tras él; el saldo de la cuenta
+ * que se entrega es el inicial, y el almacén lo actualiza con cada
+ * movimiento.
+ */
+public final class BankDataGenerator {
+
+    private static final String[] FIRST_NAMES = {"Ane", "Jon", "María", "Iker", "Lucía", "Mikel", "Laura",
+        "Unai", "Elena", "Asier", "Sara", "Pablo", "Nerea", "Jorge", "Irene", "David"};
+    private static final String[] LAST_NAMES = {"García", "Etxeberria", "López", "Aguirre", "Martínez",
+        "Fernández", "Zubiri", "Sánchez", "Uriarte", "Pérez", "Gómez", "Arrieta"};
+    private static final String[] CITIES = {"Bilbao", "Donostia", "Vitoria-Gasteiz", "Madrid", "Barcelona"};
+    private static final String[] STATES = {"Bizkaia", "Gipuzkoa", "Araba", "Madrid", "Barcelona"};
+    private static final double[] CREDIT_LINES = {1000, 2000, 3000, 5000, 10_000};
+    // Peso de cada hora del día en el número de movimientos
+    private static final double[] HOURS = {0.2, 0.1, 0.1, 0.1, 0.1, 0.2, 0.5, 1.5, 3, 4, 4.5, 5,
+        6, 5.5, 4, 3.5, 4, 5, 6, 6.5, 5, 3.5, 1.5, 0.5};
+    private static final double[] HOUR_CUMULATIVE = cumulative(HOURS);
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private long seed;
+    private int customers = 10;
+    private int minAccounts = 1;
+    private int maxAccounts = 3;
+    private long minMovements = 10;
+    private long maxMovements = 1000;
+    private double creditShare = 0.3;
+    private long startMillis = date(2020, Calendar.JANUARY, 1);
+    private int days = 5 * 365;
+
+    /**
+     * Destino de los datos generados, que llegan en orden: un cliente, sus
+     * cuentas y los movimientos de cada cuenta.
+     */
+    public interface Sink {
+
+        void customer(Customer customer);
+
+        /**
+         * @param account Cuenta, con su cliente (solo el id) en
+         * {@code customers}.
+         */
+        void account(Account account);
+
+        void movement(long accountId, Movement movement);
+    }
+
+    /**
+     * @return Destino que guarda los datos en el almacén del servidor
+     * sustituto.
+     */
+    public static Sink into(final BankStore store) {
+        return new Sink() {
+            @Override
+            public void customer(Customer customer) {
+                store.addCustomer(customer);
+            }
+
+            @Override
+            public void account(Account account) {
+                store.addAccount(account);
+            }
+
+            @Override
+            public void movement(long accountId, Movement movement) {
+                store.addMovement(accountId, movement);
+            }
+        };
+    }
+
+    /**
+     * Generador configurado con las propiedades de sistema
+     * {@code bank.data.*}: {@code seed}, {@code customers},
+     * {@code minAccounts}, {@code maxAccounts}, {@code minMovements},
+     * {@code maxMovements}, {@code creditShare} y {@code days}.
+     */
+    public static BankDataGenerator fromSystemProperties() {
+        return new BankDataGenerator()
+                .seed(Long.getLong("bank.data.seed", 0L))
+                .customers(Integer.getInteger("bank.data.customers", 10))
+                .accounts(Integer.getInteger("bank.data.minAccounts", 1), Integer.getInteger("bank.data.maxAccounts", 3))
+                .movements(Long.getLong("bank.data.minMovements", 10L), Long.getLong("bank.data.maxMovements", 1000L))
+                .creditShare(Double.parseDouble(System.getProperty("bank.data.creditShare", "0.3")))
+                .period(new Date(date(2020, Calendar.JANUARY, 1)), Integer.getInteger("bank.data.days", 5 * 365));
+    }
+
+    // --- Parámetros, encadenables ---
+
+    public BankDataGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public BankDataGenerator customers(int customers) {
+        if (customers < 0) {
+            throw new IllegalArgumentException("Invalid customers: " + customers);
+        }
+        this.customers = customers;
+        return this;
+    }
+
+    /** Cuentas de cada cliente, uniforme entre los dos valores. */
+    public BankDataGenerator accounts(int min, int max) {
+        if (min < 0 || max < min) {
+            throw new IllegalArgumentException("Invalid accounts: " + min + "-" + max);
+        }
+        minAccounts = min;
+        maxAccounts = max;
+        return this;
+    }
+
+    /**
+     * Movimientos de cada cuenta, log-uniforme entre los dos valores: muchas
+     * cuentas con pocos y algunas con muchísimos.
+     */
+    public BankDataGenerator movements(long min, long max) {
+        if (min < 0 || max < min) {
+            throw new IllegalArgumentException("Invalid movements: " + min + "-" + max);
+        }
+        minMovements = min;
+        maxMovements = max;
+        return this;
+    }
+
+    /** Parte de las cuentas que son de crédito, entre 0 y 1. */
+    public BankDataGenerator creditShare(double creditShare) {
+        if (!(creditShare >= 0 && creditShare <= 1)) {
+            throw new IllegalArgumentException("Invalid share: " + creditShare);
+        }
+        this.creditShare = creditShare;
+        return this;
+    }
+
+    /** Periodo de los movimientos: desde el día dado, durante los días dados. */
+    public BankDataGenerator period(Date start, int days) {
+        if (days <= 0) {
+            throw new IllegalArgumentException("Invalid days: " + days);
+        }
+        startMillis = start.getTime() - Math.floorMod(start.getTime(), DAY_MILLIS);
+        this.days = days;
+        return this;
+    }
+
+    /**
+     * @param index Posición del cliente, desde 0.
+     * @return Correo del cliente generado en esa posición.
+     */
+    public static String email(int index) {
+        return "customer" + (index + 1) + "@bank.test";
+    }
+
+    /**
+     * @return Contraseña del cliente generado en esa posición.
+     */
+    public static String password(int index) {
+        return "Passw0rd*" + (index + 1);
+    }
+
+    /**
+     * Genera todos los datos.
+     *
+     * @return Movimientos generados.
+     */
+    public long generate(Sink sink) {
+        long accountId = 0;
+        long movementId = 0;
+        for (int c = 0; c < customers; c++) {
+            Random random = new Random(mix(seed, c, -1));
+            Customer customer = customer(c, random);
+            sink.customer(customer);
+            int accounts = minAccounts + random.nextInt(maxAccounts - minAccounts + 1);
+            double salary = Math.round(logNormal(random, 1800, 0.35));
+            for (int a = 0; a < accounts; a++) {
+                Random accountRandom = new Random(mix(seed, c, a));
+                Account account = account(++accountId, customer, a, accountRandom);
+                sink.account(account);
+                movementId = movements(sink, account, salary, movementId, accountRandom);
+            }
+        }
+        return movementId;
+    }
+
+    private Customer customer(int index, Random random) {
+        Customer customer = new Customer();
+        customer.setId((long) index + 1);
+        customer.setFirstName(FIRST_NAMES[random.nextInt(FIRST_NAMES.length)]);
+        customer.setMiddleInitial(String.valueOf((char) ('A' + random.nextInt(26))));
+        customer.setLastName(LAST_NAMES[random.nextInt(LAST_NAMES.length)]);
+        int place = random.nextInt(CITIES.length);
+        customer.setStreet("Calle " + (1 + random.nextInt(200)));
+        customer.setCity(CITIES[place]);
+        customer.setState(STATES[place]);
+        customer.setZip(1000 + random.nextInt(50_000));
+        customer.setPhone(600_000_000L + random.nextInt(100_000_000));
+        customer.setEmail(email(index));
+        customer.setPassword(password(index));
+        return customer;
+    }
+
+    private Account account(long id, Customer customer, int index, Random random) {
+        Account account = new Account();
+        account.setId(id);
+        boolean credit = random.nextDouble() < creditShare;
+        account.setType(credit ? AccountType.CREDIT : AccountType.STANDARD);
+        account.setDescription((credit ? "Crédito " : "Cuenta ") + (index + 1));
+        double begin = credit ? 0 : cents(logNormal(random, 1500, 1));
+        account.setCreditLine(credit ? CREDIT_LINES[random.nextInt(CREDIT_LINES.length)] : 0.0);
+        account.setBeginBalance(begin);
+        account.setBalance(begin);
+        account.setBeginBalanceTimestamp(new Date(startMillis));
+        Customer owner = new Customer();
+        owner.setId(customer.getId());
+        account.setCustomers(new HashSet<>(Collections.singleton(owner)));
+        return account;
+    }
+
+    /**
+     * Genera los movimientos de una cuenta día a día: solo se guardan las
+     * horas del día en curso.
+     */
+    private long movements(Sink sink, Account account, double salary, long lastId, Random random) {
+        long count = minMovements;
+        if (maxMovements > minMovements) {
+            // Log-uniforme
+            double low = Math.log(minMovements + 1);
+            double high = Math.log(maxMovements + 1);
+            count = Math.min(maxMovements, Math.round(Math.exp(low + random.nextDouble() * (high - low))) - 1);
+        }
+        // Peso de cada día: menos en fin de semana y algo de variación
+        double[] weights = new double[days];
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        for (int d = 0; d < days; d++) {
+            calendar.setTimeInMillis(startMillis + d * DAY_MILLIS);
+            int weekday = calendar.get(Calendar.DAY_OF_WEEK);
+            boolean weekend = weekday == Calendar.SATURDAY || weekday == Calendar.SUNDAY;
+            weights[d] = (weekend ? 0.6 : 1) * (0.5 + random.nextDouble());
+        }
+        double[] cumulative = cumulative(weights);
+        double total = cumulative[days - 1];
+
+        boolean credit = account.getType() == AccountType.CREDIT;
+        double floor = credit ? -account.getCreditLine() : 0;
+        double balance = account.getBeginBalance();
+        int lastMonth = -1;
+        long id = lastId;
+        long generated = 0;
+        for (int d = 0; d < days && generated < count; d++) {
+            // Los del día: los que llevan hasta hoy menos los que ya se hicieron
+            long upTo = (d == days - 1) ? count : Math.round(count * cumulative[d] / total);
+            int today = (int) (upTo - generated);
+            if (today <= 0) {
+                continue;
+            }
+            long[] times = new long[today];
+            for (int i = 0; i < today; i++) {
+                times[i] = startMillis + d * DAY_MILLIS + timeOfDay(random);
+            }
+            Arrays.sort(times);
+            calendar.setTimeInMillis(times[0]);
+            int month = calendar.get(Calendar.YEAR) * 12 + calendar.get(Calendar.MONTH);
+            for (int i = 0; i < today; i++) {
+                double amount;
+                if (!credit && month != lastMonth && i == 0) {
+                    // Nómina
+                    amount = cents(salary * (0.95 + random.nextDouble() * 0.1));
+                    lastMonth = month;
+                } else {
+                    amount = amount(random, credit);
+                }
+                if (balance + amount < floor) {
+                    // El pago no cabe: ingreso, o devolución de lo dispuesto
+                    amount = (credit && balance < 0) ? cents(-balance * (0.3 + random.nextDouble() * 0.7))
+                            : cents(logNormal(random, 120, 0.8));
+                    amount = Math.max(amount, 0.01);
+                }
+                balance = cents(balance + amount);
+                Movement movement = new Movement();
+                movement.setId(++id);
+                movement.setTimestamp(new Date(times[i]));
+                movement.setAmount(amount);
+                movement.setBalance(balance);
+                movement.setDescription(amount < 0 ? "Payment" : "Deposit");
+                sink.movement(account.getId(), movement);
+            }
+            generated += today;
+        }
+        return id;
+    }
+
+    /**
+     * Importe de un movimiento que no es la nómina: pagos pequeños con
+     * algún recibo grande, e ingresos menos frecuentes y mayores.
+     */
+    private static double amount(Random random, boolean credit) {
+        double deposit = credit ? 0.08 : 0.2;
+        if (random.nextDouble() < deposit) {
+            return cents(logNormal(random, 150, 1));
+        }
+        if (random.nextDouble() < 0.04) {
+            return -cents(logNormal(random, 400, 0.6));
+        }
+        return -Math.max(0.5, cents(logNormal(random, 25, 1)));
+    }
+
+    private static long timeOfDay(Random random) {
+        double r = random.nextDouble() * HOUR_CUMULATIVE[HOUR_CUMULATIVE.length - 1];
+        int hour = Arrays.binarySearch(HOUR_CUMULATIVE, r);
+        hour = (hour >= 0) ? hour : -hour - 1;
+        return TimeUnit.HOURS.toMillis(Math.min(hour, 23)) + (long) (random.nextDouble() * TimeUnit.HOURS.toMillis(1));
+    }
+
+    private static double logNormal(Random random, double median, double sigma) {
+        return median * Math.exp(sigma * random.nextGaussian());
+    }
+
+    private static double cents(double amount) {
+        return Math.round(amount * 100) / 100.0;
+    }
+
+    private static double[] cumulative(double[] weights) {
+        double[] result = new double[weights.length];
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += weights[i];
+            result[i] = sum;
+        }
+        return result;
+    }
+
+    /** Semilla propia de un cliente o de una de sus cuentas. */
+    private static long mix(long seed, int customer, int account) {
+        long h = seed * 0x9E3779B97F4A7C15L + customer * 0xC2B2AE3D27D4EB4FL + account * 0x165667B19E3779F9L;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Escribe en el fichero dado (comprimido si acaba en {@code .gz}) los
+     * datos configurados con {@link #fromSystemProperties()}; el servidor
+     * sustituto los carga con {@code -Dbank.server.fixture=fichero}.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: BankDataGenerator <file.xml[.gz]>");
+            System.exit(2);
+        }
+        long start = System.nanoTime();
+        long movements;
+        try (FixtureWriter writer = new FixtureWriter(Paths.get(args[0]))) {
+            movements = fromSystemProperties().generate(writer);
+        }
+        System.out.println(movements + " movimientos en " + args[0] + " ("
+                + (System.nanoTime() - start) / 1_000_000 + " ms)");
+    }
+
+    private static long date(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(year, month, day);
+        return calendar.getTimeInMillis();
+    }
+}
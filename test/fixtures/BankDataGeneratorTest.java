@@ -0,0 +1,168 @@
+package fixtures;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import model.Account;
+import model.AccountType;
+import model.Customer;
+import model.Movement;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import server.BankStore;
+
+/**
+ * Pruebas del generador de datos sintéticos: que con la misma semilla da
+ * los mismos datos, que respeta las reglas de saldo y que los ficheros se
+ * leen igual que se escribieron.
+ */
+public class BankDataGeneratorTest {
+
+    private static BankDataGenerator generator(long seed) {
+        return new BankDataGenerator().seed(seed).customers(5).accounts(1, 4).movements(0, 2000).creditShare(0.5);
+    }
+
+    /** Guarda un resumen de cada dato, en el orden en que llega. */
+    private static final class Recorder implements BankDataGenerator.Sink {
+
+        final List<String> events = new ArrayList<>();
+        final Map<Long, Account> accounts = new HashMap<>();
+        final Map<Long, Integer> counts = new HashMap<>();
+        final Map<Long, Long> lastTimes = new HashMap<>();
+        final Map<Long, Double> balances = new HashMap<>();
+
+        @Override
+        public void customer(Customer customer) {
+            events.add("c" + customer.getId() + customer.getEmail() + customer.getLastName());
+        }
+
+        @Override
+        public void account(Account account) {
+            events.add("a" + account.getId() + account.getType() + account.getBeginBalance());
+            accounts.put(account.getId(), account);
+            counts.put(account.getId(), 0);
+            balances.put(account.getId(), account.getBeginBalance());
+        }
+
+        @Override
+        public void movement(long accountId, Movement movement) {
+            events.add("m" + movement.getId() + movement.getTimestamp().getTime() + movement.getAmount());
+            Account account = accounts.get(accountId);
+            assertNotNull("Movement before its account", account);
+            // Ordenados por fecha
+            Long last = lastTimes.put(accountId, movement.getTimestamp().getTime());
+            assertTrue(last == null || last <= movement.getTimestamp().getTime());
+            // El saldo de cada movimiento es el anterior más el importe
+            double balance = balances.get(accountId) + movement.getAmount();
+            assertEquals(balance, movement.getBalance(), 0.005);
+            balances.put(accountId, movement.getBalance());
+            double floor = account.getType() == AccountType.CREDIT ? -account.getCreditLine() : 0;
+            assertTrue(movement.getBalance() + " < " + floor, movement.getBalance() >= floor);
+            assertEquals(movement.getAmount() < 0 ? "Payment" : "Deposit", movement.getDescription());
+            counts.put(accountId, counts.get(accountId) + 1);
+        }
+    }
+
+    @Test
+    public void testSameSeedSameData() {
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        Recorder other = new Recorder();
+        generator(7).generate(first);
+        generator(7).generate(second);
+        generator(8).generate(other);
+        assertEquals(first.events, second.events);
+        assertNotEquals(first.events, other.events);
+    }
+
+    @Test
+    public void testBalanceRules() {
+        Recorder recorder = new Recorder();
+        long movements = generator(1).creditShare(0.5).generate(recorder);
+        int total = 0;
+        boolean credit = false;
+        for (Account account : recorder.accounts.values()) {
+            int count = recorder.counts.get(account.getId());
+            assertTrue(count <= 2000);
+            total += count;
+            credit |= account.getType() == AccountType.CREDIT;
+            assertEquals(1, account.getCustomers().size());
+        }
+        assertTrue(credit);
+        assertEquals(total, movements);
+        assertTrue(recorder.accounts.size() >= 5 && recorder.accounts.size() <= 20);
+    }
+
+    @Test
+    public void testFixtureRoundTrip() throws Exception {
+        for (String name : new String[]{"bank.xml", "bank.xml.gz"}) {
+            Path file = Files.createTempFile("fixture", name);
+            try {
+                BankStore generated = new BankStore();
+                try (FixtureWriter writer = new FixtureWriter(file)) {
+                    generator(3).generate(new Tee(writer, BankDataGenerator.into(generated)));
+                }
+                BankStore loaded = new BankStore();
+                Recorder recorder = new Recorder();
+                long movements = FixtureReader.read(file, new Tee(recorder, BankDataGenerator.into(loaded)));
+                assertEquals(recorder.events.size() - recorder.accounts.size() - 5, movements);
+
+                List<Customer> customers = loaded.findCustomers();
+                assertEquals(5, customers.size());
+                assertEquals(BankDataGenerator.email(0),
+                        loaded.signIn(BankDataGenerator.email(0), BankDataGenerator.password(0)).getEmail());
+                for (Customer customer : generated.findCustomers()) {
+                    List<Account> expected = generated.findAccountsByCustomer(customer.getId());
+                    List<Account> actual = loaded.findAccountsByCustomer(customer.getId());
+                    assertEquals(expected.size(), actual.size());
+                    for (int i = 0; i < expected.size(); i++) {
+                        long id = expected.get(i).getId();
+                        assertEquals(id, (long) actual.get(i).getId());
+                        assertEquals(expected.get(i).getBalance(), actual.get(i).getBalance(), 0);
+                        assertEquals(generated.countMovements(id), loaded.countMovements(id));
+                    }
+                }
+            } finally {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRange() {
+        new BankDataGenerator().movements(10, 5);
+    }
+
+    /** Entrega cada dato a dos destinos. */
+    private static final class Tee implements BankDataGenerator.Sink {
+
+        private final BankDataGenerator.Sink first;
+        private final BankDataGenerator.Sink second;
+
+        Tee(BankDataGenerator.Sink first, BankDataGenerator.Sink second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public void customer(Customer customer) {
+            first.customer(customer);
+            second.customer(customer);
+        }
+
+        @Override
+        public void account(Account account) {
+            first.account(account);
+            second.account(account);
+        }
+
+        @Override
+        public void movement(long accountId, Movement movement) {
+            first.movement(accountId, movement);
+            second.movement(accountId, movement);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package fixtures;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import model.Account;
+import model.Customer;
+import model.Movement;
+
+/**
+ * Lee en streaming un fichero de {@link FixtureWriter} y entrega sus datos,
+ * en el mismo orden, a un {@link BankDataGenerator.Sink}: por ejemplo
+ * {@code BankDataGenerator.into(store)} para cargarlo en el servidor
+ * sustituto.
+ */
+public final class FixtureReader {
+
+    private FixtureReader() {
+    }
+
+    /**
+     * @return Movimientos leídos.
+     * @throws IOException Si el fichero no se puede leer o no es un fichero
+     * de datos.
+     */
+    public static long read(Path file, BankDataGenerator.Sink sink) throws IOException {
+        InputStream stream = new BufferedInputStream(Files.newInputStream(file), 64 * 1024);
+        try (InputStream in = file.toString().endsWith(".gz") ? new GZIPInputStream(stream, 64 * 1024) : stream) {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+            Unmarshaller unmarshaller = FixtureWriter.JAXB.createUnmarshaller();
+            reader.nextTag();
+            if (!FixtureWriter.ROOT.equals(reader.getLocalName())) {
+                throw new IOException("Not a fixture file: " + file);
+            }
+            long movements = 0;
+            reader.next();
+            nextElement(reader);
+            while (reader.getEventType() == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if ("customer".equals(name)) {
+                    sink.customer(unmarshaller.unmarshal(reader, Customer.class).getValue());
+                } else if ("account".equals(name)) {
+                    sink.account(unmarshaller.unmarshal(reader, Account.class).getValue());
+                } else if (FixtureWriter.MOVEMENTS.equals(name)) {
+                    long accountId = Long.parseLong(reader.getAttributeValue(null, FixtureWriter.ACCOUNT_ATTRIBUTE));
+                    reader.next();
+                    nextElement(reader);
+                    while (reader.getEventType() == XMLStreamConstants.START_ELEMENT) {
+                        sink.movement(accountId, unmarshaller.unmarshal(reader, Movement.class).getValue());
+                        movements++;
+                        nextElement(reader);
+                    }
+                    // Fin de la lista
+                    reader.next();
+                } else {
+                    throw new IOException("Unexpected element: " + name);
+                }
+                nextElement(reader);
+            }
+            return movements;
+        } catch (XMLStreamException | JAXBException | NumberFormatException e) {
+            throw new IOException("Invalid fixture file: " + file, e);
+        }
+    }
+
+    /** Avanza hasta el siguiente principio o fin de elemento, si no está ya en uno. */
+    private static void nextElement(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.getEventType() != XMLStreamConstants.START_ELEMENT
+                && reader.getEventType() != XMLStreamConstants.END_ELEMENT) {
+            reader.next();
+        }
+    }
+}
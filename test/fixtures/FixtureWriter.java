@@ -0,0 +1,130 @@
+package fixtures;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import model.Account;
+import model.Customer;
+import model.Movement;
+
+/**
+ * Escribe en un fichero XML, según llegan, los datos de un
+ * {@link BankDataGenerator}, con la misma representación JAXB que la API
+ * REST:
+ * <pre>
+ * &lt;bank&gt;
+ *   &lt;customer&gt;...&lt;/customer&gt;
+ *   &lt;account&gt;...&lt;/account&gt;
+ *   &lt;movements account="1"&gt;&lt;movement&gt;...&lt;/movement&gt;...&lt;/movements&gt;
+ *   ...
+ * &lt;/bank&gt;
+ * </pre>
+ * Si el nombre del fichero acaba en {@code .gz}, se comprime. Se lee con
+ * {@link FixtureReader}.
+ */
+public final class FixtureWriter implements BankDataGenerator.Sink, Closeable {
+
+    static final String ROOT = "bank";
+    static final String MOVEMENTS = "movements";
+    static final String ACCOUNT_ATTRIBUTE = "account";
+    static final JAXBContext JAXB;
+
+    static {
+        try {
+            JAXB = JAXBContext.newInstance(Customer.class, Account.class, Movement.class);
+        } catch (JAXBException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final OutputStream out;
+    private final XMLStreamWriter writer;
+    private final Marshaller marshaller;
+    // Cuenta de la lista de movimientos abierta, o null
+    private Long openAccount;
+
+    public FixtureWriter(Path file) throws IOException {
+        OutputStream stream = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024);
+        out = file.toString().endsWith(".gz") ? new GZIPOutputStream(stream, 64 * 1024) : stream;
+        try {
+            writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement(ROOT);
+            marshaller = JAXB.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+        } catch (XMLStreamException | JAXBException e) {
+            out.close();
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void customer(Customer customer) {
+        closeMovements();
+        marshal(customer);
+    }
+
+    @Override
+    public void account(Account account) {
+        closeMovements();
+        marshal(account);
+    }
+
+    @Override
+    public void movement(long accountId, Movement movement) {
+        try {
+            if (openAccount == null || openAccount != accountId) {
+                closeMovements();
+                writer.writeStartElement(MOVEMENTS);
+                writer.writeAttribute(ACCOUNT_ATTRIBUTE, Long.toString(accountId));
+                openAccount = accountId;
+            }
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException(e);
+        }
+        marshal(movement);
+    }
+
+    private void closeMovements() {
+        if (openAccount != null) {
+            try {
+                writer.writeEndElement();
+            } catch (XMLStreamException e) {
+                throw new IllegalStateException(e);
+            }
+            openAccount = null;
+        }
+    }
+
+    private void marshal(Object entity) {
+        try {
+            marshaller.marshal(entity, writer);
+        } catch (JAXBException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            closeMovements();
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package load;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.GenericType;
+import logic.AccountRESTClient;
+import logic.CustomerRESTClient;
+import logic.MovementRESTClient;
+import model.Account;
+import model.AccountType;
+import model.Customer;
+import model.Movement;
+
+/**
+ * Una sesión de un cliente del banco, con las mismas llamadas que hace la
+ * interfaz: entrada, lista de cuentas y, varias veces, movimientos de una
+ * cuenta, a veces un movimiento nuevo (con la recarga posterior de
+ * movimientos y cuentas) y a veces deshacerlo (borrado, saldo de la cuenta y
+ * recarga de las cuentas). Entre operación y operación, el tiempo de
+ * reflexión del usuario.
+ * <p>
+ * Cada llamada se mide como una operación del informe:
+ * {@code customer.signin}, {@code account.findByCustomer},
+ * {@code movement.findByAccount}, {@code movement.create},
+ * {@code movement.remove} y {@code account.update}. Un error acaba la
+ * sesión.
+ */
+final class CustomerSession {
+
+    private static final GenericType<List<Account>> ACCOUNTS = new GenericType<List<Account>>() {};
+    // Los de MovementController
+    private static final int PAGE_SIZE = 100;
+    private static final int STREAM_BATCH_SIZE = 500;
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            task.run();
+        }
+    };
+
+    private final LoadGenerator.Settings settings;
+    private final LoadReport report;
+    private final Random random;
+    private final CustomerRESTClient customerClient = new CustomerRESTClient();
+    private final AccountRESTClient accountClient = new AccountRESTClient();
+    private final MovementRESTClient movementClient = new MovementRESTClient();
+
+    /** Una llamada medida. */
+    private abstract static class Step<T> {
+
+        abstract T run() throws Exception;
+    }
+
+    CustomerSession(LoadGenerator.Settings settings, LoadReport report, Random random) {
+        this.settings = settings;
+        this.report = report;
+        this.random = random;
+    }
+
+    /**
+     * Hace la sesión completa.
+     *
+     * @param email Correo del cliente.
+     * @param password Su contraseña.
+     * @return false si acabó por un error.
+     */
+    boolean run(final String email, final String password) throws InterruptedException {
+        try {
+            final Customer customer = step("customer.signin", new Step<Customer>() {
+                @Override
+                Customer run() throws UnsupportedEncodingException {
+                    // Como GestionUsuariosController: el correo y la contraseña van codificados
+                    return customerClient.findCustomerByEmailPassword(Customer.class,
+                            URLEncoder.encode(email, "UTF-8"), URLEncoder.encode(password, "UTF-8"));
+                }
+            });
+            final String customerId = String.valueOf(customer.getId());
+            List<Account> accounts = findAccounts(customerId);
+            for (int i = 0; i < settings.actions && !accounts.isEmpty(); i++) {
+                think();
+                Account account = accounts.get(random.nextInt(accounts.size()));
+                final String accountId = String.valueOf(account.getId());
+                List<Movement> movements = findMovements(accountId);
+                if (random.nextDouble() >= settings.createRatio) {
+                    continue;
+                }
+                think();
+                final Movement movement = newMovement(account);
+                step("movement.create", new Step<Void>() {
+                    @Override
+                    Void run() {
+                        movementClient.create(movement, accountId);
+                        return null;
+                    }
+                });
+                movements = findMovements(accountId);
+                accounts = findAccounts(customerId);
+                if (movements.isEmpty() || random.nextDouble() >= settings.undoRatio) {
+                    continue;
+                }
+                think();
+                final Movement last = last(movements);
+                step("movement.remove", new Step<Void>() {
+                    @Override
+                    Void run() {
+                        movementClient.remove(String.valueOf(last.getId()));
+                        return null;
+                    }
+                });
+                final Account updated = find(accounts, account.getId());
+                if (updated != null) {
+                    updated.setBalance(updated.getBalance() - last.getAmount());
+                    step("account.update", new Step<Void>() {
+                        @Override
+                        Void run() {
+                            accountClient.updateAccount(updated);
+                            return null;
+                        }
+                    });
+                }
+                accounts = findAccounts(customerId);
+            }
+            return true;
+        } catch (StepFailed e) {
+            return false;
+        }
+    }
+
+    private List<Account> findAccounts(final String customerId) throws InterruptedException {
+        return step("account.findByCustomer", new Step<List<Account>>() {
+            @Override
+            List<Account> run() {
+                return accountClient.findAccountsByCustomerId(ACCOUNTS, customerId);
+            }
+        });
+    }
+
+    /** Como MovementController: la lista en streaming, por lotes. */
+    private List<Movement> findMovements(final String accountId) throws InterruptedException {
+        return step("movement.findByAccount", new Step<List<Movement>>() {
+            @Override
+            List<Movement> run() throws Exception {
+                final List<Movement> rows = new ArrayList<>();
+                try {
+                    movementClient.findMovementByAccountStreamAsync(accountId, 0, PAGE_SIZE, STREAM_BATCH_SIZE,
+                            new Consumer<List<Movement>>() {
+                        @Override
+                        public void accept(List<Movement> batch) {
+                            rows.addAll(batch);
+                        }
+                    }, DIRECT).toCompletableFuture().get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw (cause instanceof Exception) ? (Exception) cause : e;
+                }
+                return rows;
+            }
+        });
+    }
+
+    /**
+     * Un ingreso o un pago, que respeta el saldo mínimo de la cuenta: cero
+     * en las estándar y menos la línea de crédito en las de crédito.
+     */
+    private Movement newMovement(Account account) {
+        double balance = (account.getBalance() == null) ? 0 : account.getBalance();
+        double floor = (account.getType() == AccountType.CREDIT && account.getCreditLine() != null)
+                ? -account.getCreditLine() : 0;
+        double amount = Math.round((10 + random.nextDouble() * 490) * 100) / 100.0;
+        if (random.nextBoolean() && balance - amount >= floor) {
+            amount = -amount;
+        }
+        Movement movement = new Movement();
+        movement.setAmount(amount);
+        movement.setBalance(balance + amount);
+        movement.setDescription(amount < 0 ? "Payment" : "Deposit");
+        movement.setTimestamp(new Date());
+        movement.setAccount(account);
+        return movement;
+    }
+
+    private static Movement last(List<Movement> movements) {
+        Movement last = movements.get(0);
+        for (Movement movement : movements) {
+            if (movement.getId() != null && (last.getId() == null || movement.getId() > last.getId())) {
+                last = movement;
+            }
+        }
+        return last;
+    }
+
+    private static Account find(List<Account> accounts, Long id) {
+        for (Account account : accounts) {
+            if (account.getId().equals(id)) {
+                return account;
+            }
+        }
+        return null;
+    }
+
+    private void think() throws InterruptedException {
+        long mean = settings.thinkMillis;
+        if (mean <= 0) {
+            return;
+        }
+        // Exponencial: muchas pausas cortas y algunas largas
+        long millis = Math.round(-mean * Math.log(1 - random.nextDouble()));
+        TimeUnit.MILLISECONDS.sleep(Math.min(millis, mean * 10));
+    }
+
+    private <T> T step(String name, Step<T> step) throws InterruptedException {
+        long start = System.nanoTime();
+        try {
+            T value = step.run();
+            if (report.isMeasuring(start)) {
+                report.operation(name).record(System.nanoTime() - start);
+            }
+            return value;
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            if (report.isMeasuring(start)) {
+                report.operation(name).error(kind(e));
+            }
+            throw new StepFailed();
+        }
+    }
+
+    private static String kind(Exception e) {
+        if (e instanceof WebApplicationException) {
+            return (((WebApplicationException) e).getResponse().getStatus() / 100) + "xx";
+        }
+        if (e instanceof ProcessingException && e.getCause() != null) {
+            return e.getCause().getClass().getSimpleName();
+        }
+        return e.getClass().getSimpleName();
+    }
+
+    /** Fin de la sesión por un error ya contado. */
+    private static final class StepFailed extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        StepFailed() {
+            super(null, null, false, false);
+        }
+    }
+}
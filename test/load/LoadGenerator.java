@@ -0,0 +1,442 @@
+package load;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import logic.LatencyStatistics;
+import logic.RESTClientFactory;
+import logic.RequestMetrics;
+import logic.ServerPool;
+import model.Account;
+import model.AccountType;
+import model.Customer;
+import model.Movement;
+import server.BankServer;
+import server.BankStore;
+
+/**
+ * Generador de carga: muchos clientes del banco a la vez, cada uno con sus
+ * sesiones ({@link CustomerSession}) sobre los clientes REST reales, para
+ * dimensionar el servidor y comprobar cuánta carga le quitan los cambios del
+ * lado del cliente (conexiones, cachés, lotes), que se activan con sus
+ * propiedades {@code bank.rest.*} como en la aplicación.
+ * <p>
+ * Dos modelos de carga:
+ * <ul>
+ * <li><b>Cerrado</b>: un número fijo de usuarios, cada uno empieza una
+ * sesión nueva al acabar la anterior. La productividad se ajusta a lo que
+ * aguante el servidor.</li>
+ * <li><b>Abierto</b>: las sesiones llegan a un ritmo dado (llegadas de
+ * Poisson), aguante o no el servidor, hasta un máximo de sesiones en curso;
+ * el tiempo de la sesión se cuenta desde su llegada prevista, para que la
+ * cola también se vea en los percentiles.</li>
+ * </ul>
+ * Las operaciones de los primeros segundos (calentamiento) no se cuentan.
+ * <p>
+ * Ejecución: {@code java -cp <test classpath> load.LoadGenerator}, con estas
+ * propiedades:
+ * <ul>
+ * <li><b>bank.load.model</b>: {@code closed} (por defecto) u
+ * {@code open}.</li>
+ * <li><b>bank.load.sessions</b>: usuarios del modelo cerrado (10).</li>
+ * <li><b>bank.load.rate</b>: sesiones por segundo del modelo abierto
+ * (5).</li>
+ * <li><b>bank.load.maxSessions</b>: sesiones en curso del modelo abierto
+ * (200).</li>
+ * <li><b>bank.load.warmupSeconds</b> y <b>bank.load.durationSeconds</b>:
+ * calentamiento y medida (5 y 30).</li>
+ * <li><b>bank.load.thinkMillis</b>: media del tiempo de reflexión entre
+ * operaciones, exponencial (500).</li>
+ * <li><b>bank.load.actions</b>: cuentas que mira cada sesión (5).</li>
+ * <li><b>bank.load.createRatio</b> y <b>bank.load.undoRatio</b>: parte de
+ * las cuentas vistas en que se crea un movimiento, y parte de esos que se
+ * deshacen (0,3 y 0,3).</li>
+ * <li><b>bank.load.seed</b>: semilla de las decisiones de las sesiones
+ * (0).</li>
+ * <li><b>bank.load.target</b>: URI base de un servidor real; sin ella se
+ * arranca el servidor sustituto (con el perfil de
+ * {@code bank.server.profile}) y <b>bank.load.customers</b> clientes (50),
+ * y el informe incluye las peticiones que recibió.</li>
+ * </ul>
+ */
+public final class LoadGenerator {
+
+    /** Modelo de carga. */
+    public enum Model {
+        CLOSED, OPEN
+    }
+
+    /**
+     * Parámetros de una carga. Los métodos devuelven los mismos parámetros,
+     * para encadenarlos.
+     */
+    public static final class Settings {
+
+        Model model = Model.CLOSED;
+        int sessions = 10;
+        double rate = 5;
+        int maxSessions = 200;
+        long warmupMillis = 5000;
+        long durationMillis = 30_000;
+        long thinkMillis = 500;
+        int actions = 5;
+        double createRatio = 0.3;
+        double undoRatio = 0.3;
+        long seed;
+
+        /**
+         * @return Los parámetros de las propiedades {@code bank.load.*}.
+         */
+        public static Settings fromSystemProperties() {
+            return new Settings()
+                    .model(Model.valueOf(System.getProperty("bank.load.model", "closed").toUpperCase(Locale.ROOT)))
+                    .sessions(Integer.getInteger("bank.load.sessions", 10))
+                    .rate(Double.parseDouble(System.getProperty("bank.load.rate", "5")))
+                    .maxSessions(Integer.getInteger("bank.load.maxSessions", 200))
+                    .warmup(Long.getLong("bank.load.warmupSeconds", 5L), TimeUnit.SECONDS)
+                    .duration(Long.getLong("bank.load.durationSeconds", 30L), TimeUnit.SECONDS)
+                    .thinkMillis(Long.getLong("bank.load.thinkMillis", 500L))
+                    .actions(Integer.getInteger("bank.load.actions", 5))
+                    .createRatio(Double.parseDouble(System.getProperty("bank.load.createRatio", "0.3")))
+                    .undoRatio(Double.parseDouble(System.getProperty("bank.load.undoRatio", "0.3")))
+                    .seed(Long.getLong("bank.load.seed", 0L));
+        }
+
+        public Settings model(Model model) {
+            if (model == null) {
+                throw new IllegalArgumentException("Null model");
+            }
+            this.model = model;
+            return this;
+        }
+
+        /** Usuarios del modelo cerrado. */
+        public Settings sessions(int sessions) {
+            this.sessions = checkPositive(sessions);
+            return this;
+        }
+
+        /** Sesiones por segundo del modelo abierto. */
+        public Settings rate(double rate) {
+            if (!(rate > 0)) {
+                throw new IllegalArgumentException("Invalid rate: " + rate);
+            }
+            this.rate = rate;
+            return this;
+        }
+
+        /** Sesiones en curso del modelo abierto; las que lleguen de más no se empiezan. */
+        public Settings maxSessions(int maxSessions) {
+            this.maxSessions = checkPositive(maxSessions);
+            return this;
+        }
+
+        public Settings warmup(long time, TimeUnit unit) {
+            warmupMillis = checkNotNegative(unit.toMillis(time));
+            return this;
+        }
+
+        public Settings duration(long time, TimeUnit unit) {
+            durationMillis = checkPositive(unit.toMillis(time));
+            return this;
+        }
+
+        /** Media del tiempo de reflexión entre operaciones (0 para ninguno). */
+        public Settings thinkMillis(long thinkMillis) {
+            this.thinkMillis = checkNotNegative(thinkMillis);
+            return this;
+        }
+
+        /** Cuentas que mira cada sesión. */
+        public Settings actions(int actions) {
+            this.actions = checkPositive(actions);
+            return this;
+        }
+
+        public Settings createRatio(double createRatio) {
+            this.createRatio = checkRatio(createRatio);
+            return this;
+        }
+
+        public Settings undoRatio(double undoRatio) {
+            this.undoRatio = checkRatio(undoRatio);
+            return this;
+        }
+
+        public Settings seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s model, %s, warm-up %d s, %d s, think %d ms, %d actions, create %.2f, undo %.2f",
+                    model.name().toLowerCase(Locale.ROOT),
+                    (model == Model.CLOSED) ? sessions + " sessions" : rate + " sessions/s (max " + maxSessions + ")",
+                    warmupMillis / 1000, durationMillis / 1000, thinkMillis, actions, createRatio, undoRatio);
+        }
+
+        private static <T extends Number> T checkPositive(T value) {
+            if (value.longValue() <= 0) {
+                throw new IllegalArgumentException("Must be positive: " + value);
+            }
+            return value;
+        }
+
+        private static long checkNotNegative(long value) {
+            if (value < 0) {
+                throw new IllegalArgumentException("Negative value: " + value);
+            }
+            return value;
+        }
+
+        private static double checkRatio(double ratio) {
+            if (!(ratio >= 0 && ratio <= 1)) {
+                throw new IllegalArgumentException("Invalid ratio: " + ratio);
+            }
+            return ratio;
+        }
+    }
+
+    private final Settings settings;
+    private final List<Customer> customers;
+    private final BankServer server;
+
+    /**
+     * @param settings Parámetros de la carga.
+     * @param customers Clientes con los que se entra (correo y contraseña).
+     * @param server Servidor sustituto, para contar sus peticiones, o null.
+     */
+    public LoadGenerator(Settings settings, List<Customer> customers, BankServer server) {
+        if (customers.isEmpty()) {
+            throw new IllegalArgumentException("No customers");
+        }
+        this.settings = settings;
+        this.customers = new ArrayList<>(customers);
+        this.server = server;
+    }
+
+    /**
+     * Hace la carga completa, calentamiento incluido, y espera a que acaben
+     * las sesiones en curso (que se interrumpen).
+     */
+    public LoadReport run() throws InterruptedException {
+        final LoadReport report = new LoadReport();
+        final AtomicInteger count = new AtomicInteger();
+        ExecutorService threads = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "load-session-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long start = System.nanoTime();
+        final long measureAt = start + TimeUnit.MILLISECONDS.toNanos(settings.warmupMillis);
+        final long end = measureAt + TimeUnit.MILLISECONDS.toNanos(settings.durationMillis);
+        long serverBefore = 0;
+        try {
+            if (settings.model == Model.CLOSED) {
+                for (int i = 0; i < settings.sessions; i++) {
+                    threads.execute(closedUser(report, new Random(settings.seed + i), end));
+                }
+                sleepUntil(measureAt);
+                report.startMeasuring();
+                serverBefore = requestCount();
+                sleepUntil(end);
+            } else {
+                serverBefore = openArrivals(report, threads, measureAt, end);
+            }
+            report.stopMeasuring();
+            if (server != null) {
+                report.setServerRequests(server.getRequestCount() - serverBefore);
+            }
+        } finally {
+            threads.shutdownNow();
+            threads.awaitTermination(30, TimeUnit.SECONDS);
+        }
+        return report;
+    }
+
+    /** Usuario del modelo cerrado: una sesión detrás de otra. */
+    private Runnable closedUser(final LoadReport report, final Random random, final long end) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (System.nanoTime() - end < 0) {
+                        session(report, random, System.nanoTime());
+                    }
+                } catch (InterruptedException e) {
+                    // Fin de la carga
+                }
+            }
+        };
+    }
+
+    /**
+     * Llegadas del modelo abierto, desde este hilo, hasta el final.
+     *
+     * @return Peticiones del servidor al empezar la medida.
+     */
+    private long openArrivals(final LoadReport report, ExecutorService threads, long measureAt, long end)
+            throws InterruptedException {
+        Random arrivals = new Random(settings.seed);
+        final Semaphore running = new Semaphore(settings.maxSessions);
+        long serverBefore = 0;
+        boolean measuring = false;
+        long next = System.nanoTime();
+        while (true) {
+            // Tiempo entre llegadas exponencial, de media 1 / ritmo
+            next += (long) (-Math.log(1 - arrivals.nextDouble()) / settings.rate * TimeUnit.SECONDS.toNanos(1));
+            if (next - end >= 0) {
+                sleepUntil(end);
+                return serverBefore;
+            }
+            sleepUntil(next);
+            if (!measuring && next - measureAt >= 0) {
+                report.startMeasuring();
+                serverBefore = requestCount();
+                measuring = true;
+            }
+            if (!running.tryAcquire()) {
+                if (measuring) {
+                    report.rejectSession();
+                }
+                continue;
+            }
+            final long arrival = next;
+            final Random random = new Random(arrivals.nextLong());
+            threads.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        session(report, random, arrival);
+                    } catch (InterruptedException e) {
+                        // Fin de la carga
+                    } finally {
+                        running.release();
+                    }
+                }
+            });
+        }
+    }
+
+    private void session(LoadReport report, Random random, long arrival) throws InterruptedException {
+        Customer customer = customers.get(random.nextInt(customers.size()));
+        boolean ok = new CustomerSession(settings, report, random).run(customer.getEmail(), customer.getPassword());
+        if (report.isMeasuring(arrival)) {
+            if (ok) {
+                report.operation(LoadReport.SESSION).record(System.nanoTime() - arrival);
+            } else {
+                report.operation(LoadReport.SESSION).error("failed");
+            }
+        }
+    }
+
+    private long requestCount() {
+        return (server == null) ? 0 : server.getRequestCount();
+    }
+
+    private static void sleepUntil(long nanoTime) throws InterruptedException {
+        long wait = nanoTime - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * Guarda en el almacén clientes para la carga, cada uno con una cuenta
+     * estándar y otra de crédito con algunos movimientos.
+     *
+     * @return Los clientes, con su correo y su contraseña.
+     */
+    public static List<Customer> seed(BankStore store, int count) {
+        List<Customer> result = new ArrayList<>(count);
+        long start = 1_700_000_000_000L;
+        for (int i = 1; i <= count; i++) {
+            Customer customer = new Customer();
+            customer.setFirstName("Load");
+            customer.setLastName("Customer " + i);
+            customer.setEmail("customer" + i + "@load.test");
+            customer.setPassword("load*" + i);
+            Customer stored = store.addCustomer(customer);
+            result.add(stored);
+            seedAccount(store, stored, AccountType.STANDARD, 0, 1000, start);
+            seedAccount(store, stored, AccountType.CREDIT, 2000, 0, start);
+        }
+        return result;
+    }
+
+    private static void seedAccount(BankStore store, Customer owner, AccountType type, double creditLine,
+            double beginBalance, long start) {
+        Account account = new Account();
+        account.setType(type);
+        account.setDescription(type == AccountType.CREDIT ? "Credit" : "Standard");
+        account.setCreditLine(creditLine);
+        account.setBeginBalance(beginBalance);
+        account.setBeginBalanceTimestamp(new Date(start));
+        account.setBalance(beginBalance);
+        account.setCustomers(new HashSet<>(Collections.singleton(owner)));
+        long accountId = store.addAccount(account).getId();
+        double balance = beginBalance;
+        for (int i = 1; i <= 20; i++) {
+            double amount = (i % 2 == 0) ? -25.0 : 40.0;
+            balance += amount;
+            Movement movement = new Movement();
+            movement.setAmount(amount);
+            movement.setBalance(balance);
+            movement.setDescription(amount < 0 ? "Payment" : "Deposit");
+            movement.setTimestamp(new Date(start + i * 3_600_000L));
+            store.addMovement(accountId, movement);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Settings settings = Settings.fromSystemProperties();
+        String target = System.getProperty("bank.load.target");
+        BankServer server = null;
+        List<Customer> customers;
+        if (target != null) {
+            ServerPool.configure(Collections.singletonList(target), ServerPool.Balancing.LEAST_OUTSTANDING);
+            // Los usuarios de ejemplo, que también existen en la base de datos del servidor real
+            customers = BankStore.sample().findCustomers();
+        } else {
+            BankStore store = new BankStore();
+            customers = seed(store, Integer.getInteger("bank.load.customers", 50));
+            server = BankServer.start(store);
+            server.useForClients();
+            target = server.getBaseUri() + " (stand-in, profile " + server.getProfile().getName() + ")";
+        }
+        System.out.println("Target: " + target);
+        System.out.println("Load: " + settings);
+        try {
+            new LoadGenerator(settings, customers, server).run().print(System.out);
+            // Lo mismo visto petición a petición por el cliente, calentamiento incluido
+            System.out.println();
+            System.out.println(String.format(Locale.ROOT, "%-24s %8s %9s %9s %9s %9s %6s %6s %11s",
+                    "request", "count", "p50 ms", "p90 ms", "p99 ms", "p999 ms", "4xx", "5xx", "bytes in"));
+            for (LatencyStatistics stats : RequestMetrics.getStatistics().values()) {
+                System.out.println(String.format(Locale.ROOT, "%-24s %8d %9.2f %9.2f %9.2f %9.2f %6d %6d %11d",
+                        stats.getOperation(), stats.getRequests(), stats.getP50Millis(), stats.getP90Millis(),
+                        stats.getP99Millis(), stats.getP999Millis(), stats.getClientErrors(),
+                        stats.getServerErrors(), stats.getResponseBytes()));
+            }
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+            RESTClientFactory.shutdown();
+        }
+    }
+}
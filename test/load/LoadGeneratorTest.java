@@ -0,0 +1,97 @@
+package load;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import logic.CircuitBreaker;
+import model.Customer;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import server.BankServer;
+import server.BankStore;
+
+/**
+ * Pruebas del generador de carga contra el servidor sustituto: cargas
+ * cortas con los dos modelos y el cálculo de los percentiles.
+ */
+public class LoadGeneratorTest {
+
+    private static final String[] OPERATIONS = {"customer.signin", "account.findByCustomer",
+        "movement.findByAccount", "movement.create", "movement.remove", "account.update", LoadReport.SESSION};
+
+    private BankServer server;
+    private List<Customer> customers;
+
+    @Before
+    public void setUp() throws Exception {
+        BankStore store = new BankStore();
+        customers = LoadGenerator.seed(store, 10);
+        server = BankServer.start(store);
+        server.useForClients();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        CircuitBreaker.resetAll();
+    }
+
+    private static LoadGenerator.Settings shortRun() {
+        return new LoadGenerator.Settings()
+                .warmup(200, TimeUnit.MILLISECONDS)
+                .duration(1500, TimeUnit.MILLISECONDS)
+                .thinkMillis(5)
+                .actions(4)
+                .createRatio(0.8)
+                .undoRatio(0.8);
+    }
+
+    private static void assertAllOperations(LoadReport report) {
+        for (String name : OPERATIONS) {
+            OperationStats stats = report.getOperation(name);
+            assertNotNull(name, stats);
+            assertTrue(name, stats.getCount() > 0);
+            assertEquals(name + " " + stats.getErrors(), 0, stats.getErrorCount());
+            assertTrue(stats.getPercentileMillis(50) <= stats.getPercentileMillis(99));
+        }
+        assertTrue(report.getThroughput() > 0);
+    }
+
+    @Test
+    public void testClosedModel() throws Exception {
+        LoadReport report = new LoadGenerator(shortRun().sessions(4), customers, server).run();
+        assertAllOperations(report);
+        assertEquals(1.5, report.getSeconds(), 0.2);
+        // Algunas lecturas salen de las cachés del cliente sin petición
+        assertTrue(report.getServerRequests() > 0);
+    }
+
+    @Test
+    public void testOpenModel() throws Exception {
+        // Solo cuentan las sesiones que llegan y acaban durante la medida; el ritmo
+        // queda lejos de saturar el cliente para que las sesiones duren poco
+        LoadGenerator.Settings settings = shortRun().model(LoadGenerator.Model.OPEN).rate(5).maxSessions(50)
+                .duration(3, TimeUnit.SECONDS);
+        LoadReport report = new LoadGenerator(settings, customers, server).run();
+        assertAllOperations(report);
+        assertEquals(0, report.getRejectedSessions());
+    }
+
+    @Test
+    public void testPercentiles() {
+        OperationStats stats = new OperationStats("test");
+        assertEquals(0, stats.getPercentileMillis(99), 0);
+        for (int i = 100; i >= 1; i--) {
+            stats.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        assertEquals(50, stats.getPercentileMillis(50), 0);
+        assertEquals(99, stats.getPercentileMillis(99), 0);
+        assertEquals(100, stats.getMaxMillis(), 0);
+        assertEquals(50.5, stats.getMeanMillis(), 1e-9);
+        stats.error("5xx");
+        stats.error("5xx");
+        assertEquals(2, stats.getErrorCount());
+        assertEquals(Integer.valueOf(2), stats.getErrors().get("5xx"));
+    }
+}
@@ -0,0 +1,157 @@
+package load;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resultado de una carga: tiempos y errores por operación, productividad y,
+ * con el servidor sustituto, las peticiones que recibió.
+ */
+public final class LoadReport {
+
+    /** Sesión completa, desde su llegada prevista hasta su última operación. */
+    public static final String SESSION = "session";
+
+    private final ConcurrentMap<String, OperationStats> operations = new ConcurrentHashMap<>();
+    private final AtomicLong rejectedSessions = new AtomicLong();
+    private volatile long measureStartNanos;
+    private volatile long measureNanos;
+    private volatile boolean stopped;
+    private volatile long serverRequests = -1;
+
+    /**
+     * Marca el final del calentamiento: las operaciones que empiecen antes no
+     * cuentan.
+     */
+    void startMeasuring() {
+        measureStartNanos = System.nanoTime();
+    }
+
+    void stopMeasuring() {
+        measureNanos = System.nanoTime() - measureStartNanos;
+        stopped = true;
+    }
+
+    /**
+     * @return Si cuenta una operación que empezó en ese momento y acaba
+     * ahora: empezó después del calentamiento y la medida no ha terminado.
+     */
+    boolean isMeasuring(long startNanos) {
+        return measureStartNanos != 0 && !stopped && startNanos - measureStartNanos >= 0;
+    }
+
+    void setServerRequests(long serverRequests) {
+        this.serverRequests = serverRequests;
+    }
+
+    void rejectSession() {
+        rejectedSessions.incrementAndGet();
+    }
+
+    OperationStats operation(String name) {
+        OperationStats stats = operations.get(name);
+        if (stats == null) {
+            OperationStats created = new OperationStats(name);
+            stats = operations.putIfAbsent(name, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * @return Las operaciones medidas, por nombre.
+     */
+    public List<OperationStats> getOperations() {
+        List<OperationStats> result = new ArrayList<>(operations.values());
+        Collections.sort(result, new Comparator<OperationStats>() {
+            @Override
+            public int compare(OperationStats a, OperationStats b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return Los datos de una operación, o null si no se hizo ninguna.
+     */
+    public OperationStats getOperation(String name) {
+        return operations.get(name);
+    }
+
+    /**
+     * @return Duración de la medida, en segundos.
+     */
+    public double getSeconds() {
+        return measureNanos / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * @return Operaciones por segundo, sin contar las sesiones.
+     */
+    public double getThroughput() {
+        return (measureNanos == 0) ? 0 : getOperationCount() / getSeconds();
+    }
+
+    /**
+     * @return Operaciones terminadas sin error, sin contar las sesiones.
+     */
+    public long getOperationCount() {
+        long total = 0;
+        for (OperationStats stats : operations.values()) {
+            if (!SESSION.equals(stats.getName())) {
+                total += stats.getCount();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return Peticiones que recibió el servidor durante la medida, o -1 si
+     * no se conoce (servidor externo).
+     */
+    public long getServerRequests() {
+        return serverRequests;
+    }
+
+    /**
+     * @return Sesiones que no se empezaron, en el modelo abierto, por haber
+     * ya el máximo de sesiones en curso.
+     */
+    public long getRejectedSessions() {
+        return rejectedSessions.get();
+    }
+
+    public void print(PrintStream out) {
+        out.println(String.format(Locale.ROOT, "%-24s %8s %9s %9s %9s %9s %9s %9s %7s",
+                "operation", "count", "ops/s", "mean ms", "p50 ms", "p90 ms", "p99 ms", "max ms", "errors"));
+        for (OperationStats stats : getOperations()) {
+            out.println(String.format(Locale.ROOT, "%-24s %8d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %7d",
+                    stats.getName(), stats.getCount(), stats.getCount() / Math.max(getSeconds(), 1e-9),
+                    stats.getMeanMillis(), stats.getPercentileMillis(50), stats.getPercentileMillis(90),
+                    stats.getPercentileMillis(99), stats.getMaxMillis(), stats.getErrorCount()));
+            for (Map.Entry<String, Integer> error : stats.getErrors().entrySet()) {
+                out.println(String.format(Locale.ROOT, "    %-20s %d", error.getKey(), error.getValue()));
+            }
+        }
+        out.println(String.format(Locale.ROOT, "throughput: %.1f ops/s in %.1f s", getThroughput(), getSeconds()));
+        if (serverRequests >= 0) {
+            out.println(String.format(Locale.ROOT, "server requests: %d (%.2f per operation)",
+                    serverRequests, serverRequests / (double) Math.max(1, getOperationCount())));
+        }
+        if (getRejectedSessions() > 0) {
+            out.println("rejected sessions: " + getRejectedSessions());
+        }
+    }
+}
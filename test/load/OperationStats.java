@@ -0,0 +1,98 @@
+package load;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tiempos y errores de una operación (por ejemplo {@code movement.create})
+ * durante una carga. Guarda todos los tiempos, en microsegundos, para
+ * calcular los percentiles exactos al final.
+ */
+public final class OperationStats {
+
+    private final String name;
+    // Guardados por this
+    private long[] micros = new long[1024];
+    private int count;
+    private long totalMicros;
+    private final Map<String, Integer> errors = new TreeMap<>();
+
+    OperationStats(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    synchronized void record(long nanos) {
+        if (count == micros.length) {
+            micros = Arrays.copyOf(micros, count * 2);
+        }
+        long value = TimeUnit.NANOSECONDS.toMicros(nanos);
+        micros[count++] = value;
+        totalMicros += value;
+    }
+
+    /**
+     * @param kind Clase del error: {@code 4xx}, {@code 5xx} o el nombre de
+     * la excepción.
+     */
+    synchronized void error(String kind) {
+        Integer previous = errors.get(kind);
+        errors.put(kind, (previous == null) ? 1 : previous + 1);
+    }
+
+    /**
+     * @return Operaciones terminadas sin error.
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * @return Errores por clase.
+     */
+    public synchronized Map<String, Integer> getErrors() {
+        return new TreeMap<>(errors);
+    }
+
+    public synchronized int getErrorCount() {
+        int total = 0;
+        for (int value : errors.values()) {
+            total += value;
+        }
+        return total;
+    }
+
+    /**
+     * @return Media en milisegundos, o 0 sin operaciones.
+     */
+    public synchronized double getMeanMillis() {
+        return (count == 0) ? 0 : totalMicros / 1000.0 / count;
+    }
+
+    /**
+     * @param percentile Entre 0 y 100.
+     * @return El tiempo en milisegundos por debajo del cual queda ese
+     * porcentaje de las operaciones, o 0 sin operaciones.
+     */
+    public synchronized double getPercentileMillis(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Invalid percentile: " + percentile);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(micros, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, rank))] / 1000.0;
+    }
+
+    public double getMaxMillis() {
+        return getPercentileMillis(100);
+    }
+}
@@ -0,0 +1,157 @@
+package logic;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import javax.ws.rs.InternalServerErrorException;
+import javax.ws.rs.NotAuthorizedException;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.core.GenericType;
+import model.Account;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import server.BankServer;
+import server.BankStore;
+import server.FaultProfile;
+
+/**
+ * Pruebas de las peticiones asíncronas contra el servidor sustituto:
+ * cancelar una petición lenta libera al momento su conexión y su permiso,
+ * {@code await} lanza la excepción que corresponde a cada código de error y
+ * la etapa se completa en el executor indicado.
+ */
+public class AsyncRequestsTest {
+
+    private static final GenericType<Account> ACCOUNT = new GenericType<Account>(Account.class);
+
+    private BankServer server;
+    private String accountId;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        server = BankServer.start(BankStore.sample());
+        server.useForClients();
+        BankStore store = server.getStore();
+        accountId = store.findAccountsByCustomer(store.findCustomers().get(0).getId())
+                .get(0).getId().toString();
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "async-requests-test");
+            }
+        });
+        EntityCache.setEnabled(false);
+        ValidatorCache.clear();
+        HedgingPolicy.setEnabled(false);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        executor.shutdownNow();
+        EntityCache.setEnabled(true);
+        HedgingPolicy.setEnabled(true);
+    }
+
+    private static boolean waitFor(int leased, int inFlight, long millis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        while (System.nanoTime() < deadline) {
+            if (RESTClientFactory.getPoolStatistics().getLeased() == leased
+                    && ConcurrencyLimiter.getInFlight() == inFlight) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+    @Test
+    public void testCancelReleasesConnectionAndPermit() throws Exception {
+        FaultProfile profile = new FaultProfile("slow", 1);
+        profile.endpoint("GET account").latency(FaultProfile.Latency.fixed(10000));
+        server.setProfile(profile);
+
+        CompletableFuture<Account> stage = new AccountRESTClient()
+                .findAsync(ACCOUNT, accountId, executor).toCompletableFuture();
+        long deadline = System.currentTimeMillis() + 3000;
+        while (server.getRequestCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("request not received", 1, server.getRequestCount());
+        assertTrue("request not sent", waitFor(1, 1, 3000));
+
+        long start = System.nanoTime();
+        assertTrue(stage.cancel(true));
+        // Sin esperar a que el servidor conteste ni a que venza el tiempo de lectura
+        assertTrue("connection or permit still held", waitFor(0, 0, 2000));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+        // HttpClient no reintenta la petición abortada por otra conexión
+        assertEquals(1, server.getRequestCount());
+        try {
+            AsyncRequests.await(stage);
+            fail("Cancelled stage completed");
+        } catch (CancellationException e) {
+            // esperado
+        }
+
+        // La conexión cerrada no se reutiliza: la siguiente petición funciona
+        server.setProfile(new FaultProfile("none", 1));
+        Account account = new AccountRESTClient().find_XML(ACCOUNT, accountId);
+        assertEquals(accountId, account.getId().toString());
+        assertTrue(waitFor(0, 0, 2000));
+    }
+
+    @Test
+    public void testAwaitThrowsTheExceptionOfTheStatus() throws Exception {
+        try {
+            AsyncRequests.await(new AccountRESTClient().findAsync(ACCOUNT, "999999", executor));
+            fail("Missing account found");
+        } catch (NotFoundException e) {
+            assertEquals(404, e.getResponse().getStatus());
+        }
+        try {
+            AsyncRequests.await(new CustomerRESTClient().findCustomerByEmailPasswordAsync(
+                    model.Customer.class, "awallace@gmail.com", "wrong", executor));
+            fail("Wrong password accepted");
+        } catch (NotAuthorizedException e) {
+            assertEquals(401, e.getResponse().getStatus());
+        }
+        FaultProfile profile = new FaultProfile("errors", 1);
+        profile.endpoint("GET account").errors(1, 500);
+        server.setProfile(profile);
+        try {
+            AsyncRequests.await(new AccountRESTClient().findAsync(ACCOUNT, accountId, executor));
+            fail("Server error ignored");
+        } catch (InternalServerErrorException e) {
+            assertEquals(500, e.getResponse().getStatus());
+        }
+    }
+
+    @Test
+    public void testCompletesOnTheGivenExecutor() throws Exception {
+        FaultProfile profile = new FaultProfile("slow", 1);
+        profile.endpoint("GET account").latency(FaultProfile.Latency.fixed(200));
+        server.setProfile(profile);
+
+        final AtomicReference<String> thread = new AtomicReference<String>();
+        CompletionStage<Account> stage = new AccountRESTClient().findAsync(ACCOUNT, accountId, executor);
+        // Se registra antes de la respuesta, así que corre donde se complete la etapa
+        CompletionStage<Account> done = stage.whenComplete(new BiConsumer<Account, Throwable>() {
+            @Override
+            public void accept(Account result, Throwable error) {
+                thread.set(Thread.currentThread().getName());
+            }
+        });
+        assertEquals(accountId, AsyncRequests.await(done).getId().toString());
+        assertEquals("async-requests-test", thread.get());
+    }
+}
@@ -0,0 +1,231 @@
+package logic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.ServerErrorException;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import model.Account;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Pruebas del disyuntor: apertura por tasa de fallos y de llamadas lentas,
+ * fallo inmediato sin tocar la red mientras está abierto, recuperación
+ * tras las llamadas de prueba y lecturas de la caché en modo degradado.
+ */
+public class CircuitBreakerTest {
+
+    private static final String BODY = "<account><id>1</id></account>";
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    // Código que devuelve el servidor y retardo de cada respuesta
+    private volatile int status = 200;
+    private volatile long delayMillis = 0;
+
+    @Before
+    public void setUp() {
+        RetryPolicy.setMaxAttempts(1);
+        CircuitBreaker.setThresholds(4, 50, 5000, 80);
+        CircuitBreaker.setRecovery(200, 2);
+        EntityCache.setEnabled(true);
+        EntityCache.clear();
+        ValidatorCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop(0);
+        }
+        RetryPolicy.setMaxAttempts(3);
+        CircuitBreaker.setThresholds(10, 50, 5000, 80);
+        CircuitBreaker.setRecovery(10000, 3);
+        CircuitBreaker.resetAll();
+        ServerPool.configure(Collections.singletonList(ServerPool.DEFAULT_BASE_URI),
+                ServerPool.Balancing.LEAST_OUTSTANDING);
+        EntityCache.setTimeToLive(30, TimeUnit.SECONDS);
+        EntityCache.clear();
+    }
+
+    private WebTarget start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/account", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                if (delayMillis > 0) {
+                    try {
+                        Thread.sleep(delayMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (status != 200) {
+                    exchange.sendResponseHeaders(status, -1);
+                    exchange.close();
+                    return;
+                }
+                byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", MediaType.APPLICATION_XML);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        return RESTClientFactory.getClient().target("http://127.0.0.1:" + server.getAddress().getPort()).path("account");
+    }
+
+    private static Account find(WebTarget target) {
+        return AsyncRequests.await(AsyncRequests.get(target.path("1").request(MediaType.APPLICATION_XML),
+                Account.class, AsyncRequests.DIRECT));
+    }
+
+    private static void failing(WebTarget target, int times) {
+        for (int i = 0; i < times; i++) {
+            try {
+                find(target);
+                fail("Se esperaba un error");
+            } catch (ServerErrorException | ProcessingException expected) {
+                // fallo contado por el disyuntor
+            }
+        }
+    }
+
+    @Test
+    public void testFailuresOpenTheCircuitAndRequestsFailFast() throws IOException {
+        WebTarget target = start();
+        CircuitBreaker breaker = CircuitBreaker.forServer(target.getUri());
+        find(target);
+        status = 503;
+        failing(target, 2);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        failing(target, 1);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(75f, breaker.getFailureRate(), 0.01f);
+
+        // Abierto: no se envía nada ni se reintenta
+        RetryPolicy.setMaxAttempts(3);
+        int sent = requests.get();
+        try {
+            find(target);
+            fail("Se esperaba CircuitOpenException");
+        } catch (CircuitOpenException expected) {
+            assertEquals(breaker.getServer(), expected.getServer());
+        }
+        assertEquals(sent, requests.get());
+        assertEquals(1, breaker.getNotPermittedCalls());
+    }
+
+    @Test
+    public void testTrialCallsCloseOrReopenTheCircuit() throws Exception {
+        WebTarget target = start();
+        CircuitBreaker breaker = CircuitBreaker.forServer(target.getUri());
+        final List<String> changes = Collections.synchronizedList(new ArrayList<String>());
+        breaker.addListener(new CircuitBreaker.Listener() {
+            @Override
+            public void stateChanged(CircuitBreaker source, CircuitBreaker.State from, CircuitBreaker.State to) {
+                changes.add(from + "->" + to);
+            }
+        });
+        status = 500;
+        failing(target, 4);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // Tras la espera, una llamada de prueba fallida vuelve a abrirlo
+        Thread.sleep(250);
+        failing(target, 1);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // Y dos llamadas de prueba correctas lo cierran
+        status = 200;
+        Thread.sleep(250);
+        find(target);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        find(target);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(-1f, breaker.getFailureRate(), 0.01f);
+        assertEquals(Arrays.asList("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->OPEN",
+                "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED"), changes);
+    }
+
+    @Test
+    public void testSlowCallsOpenTheCircuit() throws IOException {
+        CircuitBreaker.setThresholds(4, 50, 50, 75);
+        WebTarget target = start();
+        CircuitBreaker breaker = CircuitBreaker.forServer(target.getUri());
+        delayMillis = 100;
+        for (int i = 0; i < 3; i++) {
+            find(target);
+        }
+        delayMillis = 0;
+        find(target);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(75f, breaker.getSlowCallRate(), 0.01f);
+        assertEquals(0f, breaker.getFailureRate(), 0.01f);
+    }
+
+    @Test
+    public void testConnectFailuresCountAndCacheServesExpiredEntries() throws IOException, InterruptedException {
+        WebTarget target = start();
+        // Único servidor del servicio: con su disyuntor abierto no responde ninguno
+        ServerPool.configure(Collections.singletonList("http://127.0.0.1:" + server.getAddress().getPort()),
+                ServerPool.Balancing.LEAST_OUTSTANDING);
+        EntityCache.setTimeToLive(1, TimeUnit.MILLISECONDS);
+        GenericType<Account> type = new GenericType<Account>(Account.class);
+        Account fresh = AsyncRequests.await(AsyncRequests.getCached(target.path("1"),
+                MediaType.APPLICATION_XML, type, AsyncRequests.DIRECT));
+        Thread.sleep(5);
+
+        // Servidor caído: los fallos de conexión también cuentan
+        server.stop(0);
+        server = null;
+        failing(target, 4);
+        assertEquals(CircuitBreaker.State.OPEN, CircuitBreaker.forServer(target.getUri()).getState());
+
+        Account cached = AsyncRequests.await(AsyncRequests.getCached(target.path("1"),
+                MediaType.APPLICATION_XML, type, AsyncRequests.DIRECT));
+        assertEquals(fresh.getId(), cached.getId());
+        assertNotSame(fresh, cached);
+        // Sin copia en la caché se falla sin esperar
+        try {
+            AsyncRequests.await(AsyncRequests.getCached(target.path("2"),
+                    MediaType.APPLICATION_XML, type, AsyncRequests.DIRECT));
+            fail("Se esperaba CircuitOpenException");
+        } catch (CircuitOpenException expected) {
+            // modo degradado
+        }
+    }
+
+    @Test
+    public void testDisabledBreakerLetsEverythingThrough() throws IOException {
+        WebTarget target = start();
+        CircuitBreaker.setEnabled(false);
+        try {
+            status = 500;
+            failing(target, 6);
+            assertEquals(6, requests.get());
+            assertEquals(CircuitBreaker.State.CLOSED, CircuitBreaker.forServer(target.getUri()).getState());
+        } finally {
+            CircuitBreaker.setEnabled(true);
+        }
+    }
+}
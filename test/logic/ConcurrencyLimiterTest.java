@@ -0,0 +1,201 @@
+package logic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import model.Account;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Pruebas del límite adaptativo de peticiones en vuelo: cola acotada,
+ * crecimiento mientras el servidor responde rápido y reducción cuando se
+ * ralentiza o se satura.
+ */
+public class ConcurrencyLimiterTest {
+
+    private static final long MS = 1000000L;
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    private final CountDownLatch open = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        ConcurrencyLimiter.setLimits(2, 1, 2);
+        ConcurrencyLimiter.setQueueSize(1);
+        EntityCache.clear();
+        ValidatorCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        open.countDown();
+        if (server != null) {
+            server.stop(0);
+            serverThreads.shutdownNow();
+        }
+        ConcurrencyLimiter.setLimits(4, 1, 20);
+        ConcurrencyLimiter.setQueueSize(100);
+    }
+
+    /** Servidor que retiene las respuestas hasta que se abre {@code open}. */
+    private WebTarget start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serverThreads = Executors.newFixedThreadPool(8);
+        server.setExecutor(serverThreads);
+        server.createContext("/account", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int now = active.incrementAndGet();
+                synchronized (maxActive) {
+                    maxActive.set(Math.max(maxActive.get(), now));
+                }
+                try {
+                    open.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                active.decrementAndGet();
+                byte[] body = "<account><id>1</id></account>".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", MediaType.APPLICATION_XML);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        return RESTClientFactory.getClient().target("http://127.0.0.1:" + server.getAddress().getPort()).path("account");
+    }
+
+    /** Espera a que el servidor tenga {@code count} peticiones retenidas. */
+    private void awaitActive(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (active.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, active.get());
+    }
+
+    /** Espera a que se devuelvan los permisos (tras completarse la etapa). */
+    private static void awaitIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (ConcurrencyLimiter.getInFlight() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, ConcurrencyLimiter.getInFlight());
+    }
+
+    @Test
+    public void testRequestsOverTheLimitWaitInABoundedQueue() throws Exception {
+        WebTarget target = start();
+        long rejected = ConcurrencyLimiter.getRejectedCount();
+        List<CompletionStage<Account>> stages = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            stages.add(AsyncRequests.get(target.path(String.valueOf(i)).request(MediaType.APPLICATION_XML),
+                    Account.class, AsyncRequests.DIRECT));
+        }
+        assertEquals(2, ConcurrencyLimiter.getInFlight());
+        assertEquals(1, ConcurrencyLimiter.getQueueLength());
+
+        // Cola llena: se rechaza sin enviar nada
+        try {
+            AsyncRequests.await(AsyncRequests.get(target.path("3").request(MediaType.APPLICATION_XML),
+                    Account.class, AsyncRequests.DIRECT));
+            fail("Se esperaba LimitExceededException");
+        } catch (LimitExceededException expected) {
+            assertEquals(2, expected.getLimit());
+        }
+        assertEquals(rejected + 1, ConcurrencyLimiter.getRejectedCount());
+
+        awaitActive(2);
+        open.countDown();
+        for (CompletionStage<Account> stage : stages) {
+            assertEquals(Long.valueOf(1), AsyncRequests.await(stage).getId());
+        }
+        assertEquals(2, maxActive.get());
+        awaitIdle();
+        assertEquals(0, ConcurrencyLimiter.getQueueLength());
+    }
+
+    @Test
+    public void testCancelledWaitingRequestReleasesNothing() throws Exception {
+        WebTarget target = start();
+        List<CompletionStage<Account>> stages = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            stages.add(AsyncRequests.get(target.path(String.valueOf(i)).request(MediaType.APPLICATION_XML),
+                    Account.class, AsyncRequests.DIRECT));
+        }
+        stages.get(2).toCompletableFuture().cancel(true);
+        // Sale de la cola y deja sitio a otra petición
+        assertEquals(0, ConcurrencyLimiter.getQueueLength());
+        stages.add(AsyncRequests.get(target.path("3").request(MediaType.APPLICATION_XML),
+                Account.class, AsyncRequests.DIRECT));
+        assertEquals(1, ConcurrencyLimiter.getQueueLength());
+        awaitActive(2);
+        open.countDown();
+        AsyncRequests.await(stages.get(0));
+        AsyncRequests.await(stages.get(1));
+        AsyncRequests.await(stages.get(3));
+        // El cancelado no llega a enviarse y el permiso se devuelve
+        awaitIdle();
+        assertEquals(2, maxActive.get());
+    }
+
+    @Test
+    public void testLimitGrowsWhileFastAndShrinksWhenSlow() {
+        ConcurrencyLimiter.setLimits(4, 1, 20);
+        // Respuestas rápidas con el límite en uso: crece hasta el máximo
+        for (int i = 0; i < 30; i++) {
+            ConcurrencyLimiter.update(10 * MS, ConcurrencyLimiter.getLimit(), false);
+        }
+        assertEquals(20, ConcurrencyLimiter.getLimit());
+
+        // Con el límite sin usar no crece
+        ConcurrencyLimiter.setLimits(4, 1, 20);
+        for (int i = 0; i < 30; i++) {
+            ConcurrencyLimiter.update(10 * MS, 1, false);
+        }
+        assertEquals(4, ConcurrencyLimiter.getLimit());
+
+        // El servidor tarda cinco veces más: se estima cola y baja
+        ConcurrencyLimiter.setLimits(20, 1, 20);
+        ConcurrencyLimiter.update(10 * MS, 20, false);
+        for (int i = 0; i < 10; i++) {
+            ConcurrencyLimiter.update(50 * MS, 20, false);
+        }
+        assertEquals(10, ConcurrencyLimiter.getLimit());
+    }
+
+    @Test
+    public void testDropsShrinkTheLimitMultiplicatively() {
+        ConcurrencyLimiter.setLimits(20, 2, 20);
+        long drops = ConcurrencyLimiter.getDropCount();
+        ConcurrencyLimiter.update(10 * MS, 20, true);
+        assertEquals(18, ConcurrencyLimiter.getLimit());
+        for (int i = 0; i < 50; i++) {
+            ConcurrencyLimiter.update(10 * MS, 20, true);
+        }
+        assertEquals(2, ConcurrencyLimiter.getLimit());
+        assertEquals(drops + 51, ConcurrencyLimiter.getDropCount());
+    }
+}
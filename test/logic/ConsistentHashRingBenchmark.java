@@ -0,0 +1,128 @@
+package logic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmark JMH del anillo de hash consistente con 3 a 50 nodos: coste de
+ * buscar el nodo de una clave (con todos los nodos disponibles y con uno
+ * expulsado). Antes de medir, {@code main} imprime el reparto de 1.000.000
+ * de claves de clientes entre los nodos (desviación respecto a la media) y
+ * la fracción de claves que cambian de nodo al añadir uno (lo ideal es
+ * 1/(n+1)).
+ * <p>
+ * Ejecución: {@code java -cp <test classpath> logic.ConsistentHashRingBenchmark}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsistentHashRingBenchmark {
+
+    private static final int KEYS = 1_000_000;
+    private static final int[] SIZES = {3, 5, 10, 20, 50};
+
+    @Param({"3", "5", "10", "20", "50"})
+    public int nodes;
+
+    private ConsistentHashRing ring;
+    private Predicate<String> allButFirst;
+    private String[] keys;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ring = new ConsistentHashRing(names(nodes), ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        final String ejected = ring.getNodes().get(0);
+        allButFirst = new Predicate<String>() {
+            @Override
+            public boolean test(String node) {
+                return !node.equals(ejected);
+            }
+        };
+        keys = new String[4096];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "customer/" + (i * 7919L + 1);
+        }
+    }
+
+    private static List<String> names(int count) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            names.add("http://bank-node-" + i + ":8080/CRUDBankServerSide/webresources");
+        }
+        return names;
+    }
+
+    @Benchmark
+    public String lookup() {
+        return ring.get(keys[next++ & (keys.length - 1)]);
+    }
+
+    @Benchmark
+    public String lookupWithEjectedNode() {
+        return ring.get(keys[next++ & (keys.length - 1)], allButFirst);
+    }
+
+    /** Reparto de claves y claves movidas al añadir un nodo. */
+    private static void printDistribution() {
+        System.out.println("nodes  min%mean  max%mean  stddev%  moved%  ideal%");
+        for (int size : SIZES) {
+            ConsistentHashRing ring = new ConsistentHashRing(names(size), ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+            ConsistentHashRing grown = new ConsistentHashRing(names(size + 1), ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+            Map<String, Integer> counts = new HashMap<>();
+            int moved = 0;
+            for (int i = 0; i < KEYS; i++) {
+                String key = "customer/" + i;
+                String owner = ring.get(key);
+                Integer count = counts.get(owner);
+                counts.put(owner, (count == null) ? 1 : count + 1);
+                if (!owner.equals(grown.get(key))) {
+                    moved++;
+                }
+            }
+            double mean = (double) KEYS / size;
+            int min = Integer.MAX_VALUE;
+            int max = 0;
+            double variance = 0;
+            for (String node : ring.getNodes()) {
+                Integer boxed = counts.get(node);
+                int count = (boxed == null) ? 0 : boxed;
+                min = Math.min(min, count);
+                max = Math.max(max, count);
+                variance += (count - mean) * (count - mean) / size;
+            }
+            System.out.printf("%5d  %8.1f  %8.1f  %7.2f  %6.2f  %6.2f%n", size,
+                    100 * min / mean, 100 * max / mean, 100 * Math.sqrt(variance) / mean,
+                    100.0 * moved / KEYS, 100.0 / (size + 1));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        printDistribution();
+        new Runner(new OptionsBuilder()
+                .include(ConsistentHashRingBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,106 @@
+package logic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Pruebas del anillo de hash consistente: reparto equilibrado con nodos
+ * virtuales, cambios mínimos al añadir o quitar nodos y salto de los nodos
+ * expulsados sin mover el resto de claves.
+ */
+public class ConsistentHashRingTest {
+
+    private static final int KEYS = 100_000;
+
+    private static List<String> names(int count) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            names.add("http://node-" + i + ":8080/webresources");
+        }
+        return names;
+    }
+
+    @Test
+    public void testKeysAreSpreadEvenly() {
+        ConsistentHashRing ring = new ConsistentHashRing(names(10), ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            String owner = ring.get("customer/" + i);
+            Integer count = counts.get(owner);
+            counts.put(owner, (count == null) ? 1 : count + 1);
+        }
+        assertEquals(10, counts.size());
+        for (int count : counts.values()) {
+            // Cada nodo recibe entre el 75 % y el 125 % de la media
+            assertTrue("count " + count, count > KEYS / 10 * 3 / 4 && count < KEYS / 10 * 5 / 4);
+        }
+    }
+
+    @Test
+    public void testAddingANodeOnlyMovesKeysToIt() {
+        ConsistentHashRing ring = new ConsistentHashRing(names(5), ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        ConsistentHashRing grown = new ConsistentHashRing(names(6), ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        String added = names(6).get(5);
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = "account/" + i;
+            String before = ring.get(key);
+            String after = grown.get(key);
+            if (!before.equals(after)) {
+                assertEquals(added, after);
+                moved++;
+            }
+        }
+        // Lo ideal es 1/6 de las claves
+        assertTrue("moved " + moved, moved > KEYS / 6 * 3 / 4 && moved < KEYS / 6 * 5 / 4);
+    }
+
+    @Test
+    public void testSkippedNodeOnlyMovesItsOwnKeys() {
+        ConsistentHashRing ring = new ConsistentHashRing(names(4), ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        final String down = names(4).get(2);
+        Predicate<String> available = new Predicate<String>() {
+            @Override
+            public boolean test(String node) {
+                return !node.equals(down);
+            }
+        };
+        // Equivale a quitar el nodo del anillo
+        ConsistentHashRing without = new ConsistentHashRing(
+                Arrays.asList(names(4).get(0), names(4).get(1), names(4).get(3)),
+                ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        for (int i = 0; i < KEYS; i += 7) {
+            String key = "customer/" + i;
+            String owner = ring.get(key);
+            String skipping = ring.get(key, available);
+            assertEquals(without.get(key), skipping);
+            if (!owner.equals(down)) {
+                assertEquals(owner, skipping);
+            }
+        }
+        assertNull(ring.get("customer/1", new Predicate<String>() {
+            @Override
+            public boolean test(String node) {
+                return false;
+            }
+        }));
+    }
+
+    @Test
+    public void testShardKeysFromPaths() {
+        assertEquals("customer/5", ServerPool.shardKey("/customer/5"));
+        assertEquals("customer/5", ServerPool.shardKey("/account/customer/5"));
+        assertEquals("account/9", ServerPool.shardKey("/account/9?x=1"));
+        assertEquals("account/9", ServerPool.shardKey("/movement/account/9"));
+        assertEquals("account/9", ServerPool.shardKey("/movement/9/batch"));
+        assertNull(ServerPool.shardKey("/customer/sigin/a%40b.com/secret"));
+        assertNull(ServerPool.shardKey("/account"));
+        assertNull(ServerPool.shardKey("/movement/12"));
+    }
+}
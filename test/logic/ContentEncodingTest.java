@@ -0,0 +1,184 @@
+package logic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import model.Account;
+import model.Movement;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Pruebas de ContentEncoding contra un servidor local que comprime sus
+ * respuestas con gzip cuando el cliente lo acepta y que descomprime los
+ * cuerpos que recibe comprimidos.
+ */
+public class ContentEncodingTest {
+
+    private static final int ACCOUNTS = 200;
+
+    private HttpServer server;
+    private WebTarget base;
+    private volatile String lastAcceptEncoding;
+    private volatile String lastContentEncoding;
+    private volatile String lastBody;
+
+    @Before
+    public void setUp() throws IOException {
+        final StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><accounts>");
+        for (int i = 1; i <= ACCOUNTS; i++) {
+            xml.append("<account><balance>").append(i * 10.0).append("</balance>")
+                    .append("<description>Cuenta ").append(i).append("</description>")
+                    .append("<id>").append(i).append("</id></account>");
+        }
+        xml.append("</accounts>");
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/webresources", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                lastAcceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                lastContentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+                if ("POST".equals(exchange.getRequestMethod())) {
+                    InputStream in = exchange.getRequestBody();
+                    if ("gzip".equals(lastContentEncoding)) {
+                        in = new GZIPInputStream(in);
+                    }
+                    lastBody = new String(readAll(in), StandardCharsets.UTF_8);
+                    exchange.sendResponseHeaders(204, -1);
+                    exchange.close();
+                    return;
+                }
+                byte[] body = xml.toString().getBytes(StandardCharsets.UTF_8);
+                if (lastAcceptEncoding != null && lastAcceptEncoding.contains("gzip")) {
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                    try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                        gzip.write(body);
+                    }
+                    body = compressed.toByteArray();
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                exchange.getResponseHeaders().set("Content-Type", MediaType.APPLICATION_XML);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        base = RESTClientFactory.getClient()
+                .target("http://127.0.0.1:" + server.getAddress().getPort())
+                .path("webresources");
+        ContentEncoding.clearStatistics();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        ContentEncoding.setEnabled(false);
+        ContentEncoding.setMinRequestBytes(1024);
+        ContentEncoding.clearStatistics();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private List<Account> fetch() {
+        return base.path("account/customer/42").request(MediaType.APPLICATION_XML)
+                .get(new GenericType<List<Account>>() {});
+    }
+
+    private TrafficStatistics statistics(String endpoint) {
+        TrafficStatistics stats = ContentEncoding.getStatistics().get(endpoint);
+        assertNotNull("Sin estadísticas para " + endpoint, stats);
+        return stats;
+    }
+
+    @Test
+    public void testDisabledSendsNoAcceptEncoding() {
+        ContentEncoding.setEnabled(false);
+        assertEquals(ACCOUNTS, fetch().size());
+        assertNull(lastAcceptEncoding);
+        TrafficStatistics stats = statistics("GET account/customer/{id}");
+        assertEquals(0, stats.getCompressedResponses());
+        assertEquals(stats.getResponseBytesOnWire(), stats.getResponseBytesDecoded());
+    }
+
+    @Test
+    public void testGzipResponseIsDecodedAndMeasured() {
+        ContentEncoding.setEnabled(true);
+        List<Account> accounts = fetch();
+        assertEquals(ACCOUNTS, accounts.size());
+        assertEquals("Cuenta 1", accounts.get(0).getDescription());
+        assertTrue(lastAcceptEncoding.contains("gzip"));
+
+        TrafficStatistics stats = statistics("GET account/customer/{id}");
+        assertEquals(1, stats.getRequests());
+        assertEquals(1, stats.getResponses());
+        assertEquals(1, stats.getCompressedResponses());
+        assertTrue(stats.getResponseBytesOnWire() < stats.getResponseBytesDecoded() / 2);
+        assertTrue(stats.getDecodeNanos() > 0);
+    }
+
+    @Test
+    public void testSmallRequestBodyIsNotCompressed() {
+        ContentEncoding.setEnabled(true);
+        Movement movement = new Movement();
+        movement.setDescription("Deposito");
+        base.path("movement").request().post(Entity.entity(movement, MediaType.APPLICATION_XML));
+        assertNull(lastContentEncoding);
+        assertTrue(lastBody.contains("Deposito"));
+        TrafficStatistics stats = statistics("POST movement");
+        assertEquals(0, stats.getCompressedRequests());
+        assertEquals(stats.getRequestBytesRaw(), stats.getRequestBytesOnWire());
+    }
+
+    @Test
+    public void testLargeRequestBodyIsCompressed() {
+        ContentEncoding.setEnabled(true);
+        ContentEncoding.setMinRequestBytes(64);
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            description.append("Transferencia ");
+        }
+        Movement movement = new Movement();
+        movement.setDescription(description.toString());
+        base.path("movement").request().post(Entity.entity(movement, MediaType.APPLICATION_XML));
+        assertEquals("gzip", lastContentEncoding);
+        assertTrue(lastBody.contains("Transferencia Transferencia"));
+        TrafficStatistics stats = statistics("POST movement");
+        assertEquals(1, stats.getCompressedRequests());
+        assertTrue(stats.getRequestBytesOnWire() < stats.getRequestBytesRaw());
+    }
+
+    @Test
+    public void testEndpointNamesHideIdsAndCredentials() {
+        assertEquals("GET customer/sigin/{email}/{password}", Endpoints.nameOf("GET",
+                URI.create("http://localhost:8080/CRUDBankServerSide/webresources/customer/sigin/ana@mail.com/secreto")));
+        assertEquals("DELETE movement/{id}", Endpoints.nameOf("DELETE",
+                URI.create("http://localhost:8080/CRUDBankServerSide/webresources/movement/17")));
+    }
+}
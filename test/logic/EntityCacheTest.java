@@ -0,0 +1,161 @@
+package logic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import model.Account;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Pruebas de EntityCache contra un servidor HTTP local mínimo que cuenta las
+ * peticiones GET que recibe.
+ */
+public class EntityCacheTest {
+
+    private static final String BODY = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<accounts><account><description>Ahorro</description><id>1</id></account>"
+            + "<account><description>Nomina</description><id>2</id></account></accounts>";
+
+    private HttpServer server;
+    private final AtomicInteger gets = new AtomicInteger();
+    private WebTarget base;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/account", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if ("GET".equals(exchange.getRequestMethod())) {
+                    gets.incrementAndGet();
+                    byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", MediaType.APPLICATION_XML);
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                } else {
+                    try (InputStream in = exchange.getRequestBody()) {
+                        while (in.read() >= 0) {
+                            // descartar el cuerpo
+                        }
+                    }
+                    exchange.sendResponseHeaders(204, -1);
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        base = RESTClientFactory.getClient()
+                .target("http://127.0.0.1:" + server.getAddress().getPort())
+                .path("account");
+        EntityCache.setEnabled(true);
+        EntityCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        EntityCache.setTimeToLive(30, TimeUnit.SECONDS);
+        EntityCache.setMaxEntries(128);
+        EntityCache.clear();
+    }
+
+    private List<Account> fetch(String customerId) {
+        return AsyncRequests.await(AsyncRequests.getCached(base.path("customer/" + customerId),
+                MediaType.APPLICATION_XML, new GenericType<List<Account>>() {},
+                AsyncRequests.DIRECT, EntityCache.customerTag(customerId)));
+    }
+
+    @Test
+    public void testSecondLookupIsServedFromCache() {
+        EntityCacheStatistics before = EntityCache.getStatistics();
+        List<Account> first = fetch("1");
+        List<Account> second = fetch("1");
+
+        assertEquals(1, gets.get());
+        assertNotSame(first, second);
+        assertEquals("Nomina", second.get(1).getDescription());
+        EntityCacheStatistics after = EntityCache.getStatistics();
+        assertEquals(1, after.getHits() - before.getHits());
+        assertEquals(1, after.getMisses() - before.getMisses());
+    }
+
+    @Test
+    public void testCallersCannotAlterCachedResult() {
+        fetch("1").get(0).setDescription("Cambiada en la tabla");
+        assertEquals("Ahorro", fetch("1").get(0).getDescription());
+    }
+
+    @Test
+    public void testExpiredEntryIsFetchedAgain() throws InterruptedException {
+        EntityCache.setTimeToLive(50, TimeUnit.MILLISECONDS);
+        long expirations = EntityCache.getStatistics().getExpirations();
+        fetch("1");
+        Thread.sleep(100);
+        fetch("1");
+        assertEquals(2, gets.get());
+        assertEquals(1, EntityCache.getStatistics().getExpirations() - expirations);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() {
+        EntityCache.setMaxEntries(2);
+        long evictions = EntityCache.getStatistics().getEvictions();
+        fetch("1");
+        fetch("2");
+        fetch("1");
+        fetch("3"); // expulsa al cliente 2, el menos usado
+        assertEquals(3, gets.get());
+        fetch("1");
+        assertEquals(3, gets.get());
+        fetch("2");
+        assertEquals(4, gets.get());
+        assertTrue(EntityCache.getStatistics().getEvictions() - evictions >= 1);
+    }
+
+    @Test
+    public void testInvalidationDropsOnlyTaggedEntries() {
+        fetch("1");
+        fetch("2");
+        // La cuenta 2 aparece en ambas listas; el cliente 7 en ninguna
+        EntityCache.invalidate(EntityCache.customerTag("7"));
+        fetch("1");
+        assertEquals(2, gets.get());
+
+        EntityCache.invalidate(EntityCache.customerTag("1"));
+        fetch("1");
+        fetch("2");
+        assertEquals(3, gets.get());
+
+        EntityCache.invalidate(EntityCache.accountTag(2));
+        fetch("1");
+        fetch("2");
+        assertEquals(5, gets.get());
+    }
+
+    @Test
+    public void testAsyncWriteInvalidatesBeforeCompleting() {
+        fetch("1");
+        AsyncRequests.await(AsyncRequests.send(base.request(MediaType.APPLICATION_XML), "PUT",
+                Entity.entity("<account><id>1</id></account>", MediaType.APPLICATION_XML),
+                EntityCache.invalidating(AsyncRequests.DIRECT, EntityCache.accountTag(1))));
+        fetch("1");
+        assertEquals(2, gets.get());
+    }
+}
@@ -0,0 +1,201 @@
+package logic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.xml.bind.DatatypeConverter;
+import model.Account;
+import model.AccountType;
+import model.Customer;
+import model.Movement;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Pruebas del formato JSON de las entidades: ida y vuelta de cuentas,
+ * clientes y movimientos, fechas en formato xsd:dateTime, propiedades
+ * desconocidas, errores de sintaxis y lectura de listas a través del
+ * cliente compartido.
+ */
+public class EntityJsonTest {
+
+    private static final GenericType<List<Movement>> MOVEMENT_LIST = new GenericType<List<Movement>>() {};
+
+    private static Object read(String json, GenericType<?> type) throws IOException {
+        return EntityJson.read(new StringReader(json), type.getRawType(), type.getType());
+    }
+
+    private static String write(Object value) throws IOException {
+        StringWriter out = new StringWriter();
+        EntityJson.write(out, value);
+        return out.toString();
+    }
+
+    @Test
+    public void testAccountRoundTrip() throws IOException {
+        Customer owner = new Customer();
+        owner.setId(7L);
+        owner.setFirstName("Ana \"la\" López");
+        owner.setZip(48001);
+        owner.setPhone(944000000L);
+        Account account = new Account();
+        account.setId(3L);
+        account.setType(AccountType.CREDIT);
+        account.setDescription("Línea\nde crédito");
+        account.setBalance(-150.25);
+        account.setCreditLine(1000.0);
+        account.setBeginBalance(0.0);
+        account.setBeginBalanceTimestamp(new Date(1546300800123L));
+        account.setCustomers(Collections.singleton(owner));
+
+        Account copy = (Account) read(write(account), new GenericType<Account>(Account.class));
+        assertEquals(account.getId(), copy.getId());
+        assertEquals(AccountType.CREDIT, copy.getType());
+        assertEquals(account.getDescription(), copy.getDescription());
+        assertEquals(-150.25, copy.getBalance(), 0.0);
+        assertEquals(1000.0, copy.getCreditLine(), 0.0);
+        assertEquals(account.getBeginBalanceTimestamp(), copy.getBeginBalanceTimestamp());
+        assertNull(copy.getMovements());
+        Customer ownerCopy = copy.getCustomers().iterator().next();
+        assertEquals("Ana \"la\" López", ownerCopy.getFirstName());
+        assertEquals(Integer.valueOf(48001), ownerCopy.getZip());
+        assertEquals(Long.valueOf(944000000L), ownerCopy.getPhone());
+        assertNull(ownerCopy.getEmail());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testMovementListRoundTrip() throws IOException {
+        List<Movement> movements = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Movement m = new Movement();
+            m.setId((long) i);
+            m.setAmount(i % 2 == 0 ? 10.5 : -3.25);
+            m.setBalance(i * 1.5);
+            m.setDescription(i % 2 == 0 ? "Deposit" : "Payment");
+            m.setTimestamp(new Date(1_500_000_000_000L + i * 60_000L));
+            movements.add(m);
+        }
+        List<Movement> copy = (List<Movement>) read(write(movements), MOVEMENT_LIST);
+        assertEquals(movements.size(), copy.size());
+        for (int i = 0; i < movements.size(); i++) {
+            assertEquals(movements.get(i).getId(), copy.get(i).getId());
+            assertEquals(movements.get(i).getAmount(), copy.get(i).getAmount());
+            assertEquals(movements.get(i).getDescription(), copy.get(i).getDescription());
+            assertEquals(movements.get(i).getTimestamp(), copy.get(i).getTimestamp());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testServerStyleDocument() throws IOException {
+        String json = "[ {\"amount\":\"25.0\",\"balance\":125.0,\"description\":\"Deposit\","
+                + "\"id\":1,\"timestamp\":\"2019-10-01T12:30:00+02:00\",\"extra\":{\"a\":[1,2,null]}},\n"
+                + "  {\"amount\":-5,\"id\":2,\"timestamp\":1569925800000,\"description\":null} ]";
+        List<Movement> movements = (List<Movement>) read(json, MOVEMENT_LIST);
+        assertEquals(2, movements.size());
+        assertEquals(25.0, movements.get(0).getAmount(), 0.0);
+        assertEquals(DatatypeConverter.parseDateTime("2019-10-01T12:30:00+02:00").getTime(),
+                movements.get(0).getTimestamp());
+        assertEquals(-5.0, movements.get(1).getAmount(), 0.0);
+        assertEquals(new Date(1569925800000L), movements.get(1).getTimestamp());
+        assertNull(movements.get(1).getDescription());
+
+        // Una lista de un solo elemento escrita como objeto suelto
+        Set<Customer> customers = (Set<Customer>) read("{\"id\":4,\"email\":\"a\\u0040b.com\"}",
+                new GenericType<Set<Customer>>() {});
+        assertEquals("a@b.com", customers.iterator().next().getEmail());
+    }
+
+    @Test
+    public void testDateFormatMatchesXmlSchema() {
+        Date date = new Date(1569925800007L);
+        String text = EntityJson.formatDate(date);
+        assertEquals("2019-10-01T10:30:00.007Z", text);
+        assertEquals(date, DatatypeConverter.parseDateTime(text).getTime());
+        assertEquals(date.getTime(), EntityJson.parseDate(text));
+        assertEquals(-1L, EntityJson.parseDate(EntityJson.formatDate(new Date(-1L))));
+    }
+
+    @Test
+    public void testMalformedDocumentsAreRejected() {
+        for (String json : Arrays.asList("[{\"id\":1}", "[{\"id\":1,}]", "{\"id\" 1}", "[{\"id\":1}] x",
+                "[{\"description\":\"sin cerrar}]")) {
+            try {
+                read(json, MOVEMENT_LIST);
+                fail("Se esperaba un error para " + json);
+            } catch (IOException expected) {
+                assertTrue(expected.getMessage().startsWith("Malformed JSON"));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSharedClientReadsAndWritesJson() throws IOException {
+        final List<String> received = new ArrayList<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/movement", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if ("POST".equals(exchange.getRequestMethod())) {
+                    InputStream in = exchange.getRequestBody();
+                    ByteArrayOutputStream body = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[1024];
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        body.write(buffer, 0, n);
+                    }
+                    received.add(exchange.getRequestHeaders().getFirst("Content-Type") + " "
+                            + new String(body.toByteArray(), StandardCharsets.UTF_8));
+                    exchange.sendResponseHeaders(204, -1);
+                    exchange.close();
+                    return;
+                }
+                byte[] body = "[{\"id\":1,\"amount\":12.5,\"description\":\"Café\"}]".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", MediaType.APPLICATION_JSON);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        try {
+            javax.ws.rs.client.WebTarget target = RESTClientFactory.getClient()
+                    .target("http://127.0.0.1:" + server.getAddress().getPort()).path("movement");
+            List<Movement> movements = AsyncRequests.await(AsyncRequests.get(target.path("account/1"),
+                    MediaType.APPLICATION_JSON, MOVEMENT_LIST, AsyncRequests.DIRECT));
+            assertEquals(1, movements.size());
+            assertEquals("Café", movements.get(0).getDescription());
+
+            Movement created = new Movement();
+            created.setAmount(-20.0);
+            created.setDescription("Payment");
+            target.path("1").request(MediaType.APPLICATION_JSON)
+                    .post(Entity.entity(created, MediaType.APPLICATION_JSON)).close();
+            assertEquals(1, received.size());
+            assertTrue(received.get(0), received.get(0).startsWith(MediaType.APPLICATION_JSON));
+            assertTrue(received.get(0), received.get(0).endsWith("{\"amount\":-20.0,\"description\":\"Payment\"}"));
+        } finally {
+            server.stop(0);
+        }
+    }
+}
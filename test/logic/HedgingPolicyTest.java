@@ -0,0 +1,174 @@
+package logic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import model.Account;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Pruebas de las peticiones GET duplicadas ante respuestas lentas: la
+ * segunda petición se envía pasado el percentil observado, gana la primera
+ * respuesta y la otra se cancela; sin muestras suficientes o sin presupuesto
+ * no se duplica nada.
+ */
+public class HedgingPolicyTest {
+
+    private HttpServer server;
+    private final ExecutorService threads = Executors.newFixedThreadPool(4);
+    private final AtomicInteger requests = new AtomicInteger();
+    // Si no es null, la siguiente petición espera hasta que se abra
+    private volatile CountDownLatch slowNext;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(threads);
+        server.createContext("/webresources", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                CountDownLatch latch = slowNext;
+                slowNext = null;
+                if (latch != null) {
+                    try {
+                        latch.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                byte[] body = "<account><id>1</id></account>".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", MediaType.APPLICATION_XML);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        ServerPool.configure(Collections.singletonList(
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/webresources"),
+                ServerPool.Balancing.LEAST_OUTSTANDING);
+        EntityCache.setEnabled(false);
+        ValidatorCache.clear();
+        HedgingPolicy.reset();
+        HedgingPolicy.setEnabled(true);
+        HedgingPolicy.setBudget(100);
+        HedgingPolicy.setMinDelay(200);
+    }
+
+    @After
+    public void tearDown() {
+        CountDownLatch latch = slowNext;
+        if (latch != null) {
+            latch.countDown();
+        }
+        server.stop(0);
+        threads.shutdownNow();
+        ServerPool.configure(Collections.singletonList(ServerPool.DEFAULT_BASE_URI),
+                ServerPool.Balancing.LEAST_OUTSTANDING);
+        HedgingPolicy.setEnabled(false);
+        HedgingPolicy.setBudget(10);
+        HedgingPolicy.reset();
+        EntityCache.setEnabled(true);
+    }
+
+    private static Account find(AccountRESTClient client, int id) {
+        return client.find_XML(new GenericType<Account>(Account.class), String.valueOf(id));
+    }
+
+    private void warmUp(AccountRESTClient client) {
+        for (int i = 0; i < 30; i++) {
+            find(client, i);
+        }
+        assertTrue(HedgingPolicy.getDelayMillis() >= 0);
+        assertEquals(0, HedgingPolicy.getHedgedCount());
+    }
+
+    @Test
+    public void testSlowAnswerIsHedgedAndTheFastOneWins() throws Exception {
+        AccountRESTClient client = new AccountRESTClient();
+        warmUp(client);
+        CountDownLatch latch = new CountDownLatch(1);
+        slowNext = latch;
+        int before = requests.get();
+
+        long start = System.nanoTime();
+        assertEquals(Long.valueOf(1), find(client, 100).getId());
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // No se esperan los 5 s de la respuesta lenta
+        assertTrue("took " + millis + " ms", millis < 2000);
+        assertEquals(before + 2, requests.get());
+        assertEquals(1, HedgingPolicy.getHedgedCount());
+
+        // La petición perdedora se cancela sin contar como fallo del servidor
+        latch.countDown();
+        ServerPool.Node node = ServerPool.getNodes().get(0);
+        long deadline = System.currentTimeMillis() + 2000;
+        while ((node.getOutstanding() > 0 || HedgingPolicy.getHedgeWinCount() == 0)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, HedgingPolicy.getHedgeWinCount());
+        assertEquals(0, node.getOutstanding());
+        assertTrue(node.isHealthy());
+        assertEquals(CircuitBreaker.State.CLOSED, client.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void testNoHedgingWithoutEnoughSamples() {
+        AccountRESTClient client = new AccountRESTClient();
+        assertEquals(-1, HedgingPolicy.getDelayMillis());
+        for (int i = 0; i < 10; i++) {
+            find(client, i);
+        }
+        assertEquals(-1, HedgingPolicy.getDelayMillis());
+        assertEquals(10, requests.get());
+        assertEquals(0, HedgingPolicy.getHedgedCount());
+    }
+
+    @Test
+    public void testNoHedgingBeyondTheBudget() throws Exception {
+        AccountRESTClient client = new AccountRESTClient();
+        warmUp(client);
+        HedgingPolicy.setBudget(0);
+        CountDownLatch latch = new CountDownLatch(1);
+        slowNext = latch;
+        int before = requests.get();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                latch.countDown();
+            }
+        }).start();
+        find(client, 100);
+        assertEquals(before + 1, requests.get());
+        assertEquals(0, HedgingPolicy.getHedgedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPercentile() {
+        HedgingPolicy.setPercentile(100);
+    }
+}
@@ -0,0 +1,196 @@
+package logic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.ForbiddenException;
+import javax.ws.rs.core.MediaType;
+import model.Movement;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Pruebas del alta de movimientos por lotes: recurso de lote, servidor sin
+ * él (envío movimiento a movimiento con varias peticiones en vuelo) y
+ * resultados por elemento.
+ */
+public class MovementBatchTest {
+
+    private final List<HttpServer> servers = new ArrayList<>();
+    private final List<ExecutorService> serverThreads = new ArrayList<>();
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+
+    @After
+    public void tearDown() {
+        for (HttpServer server : servers) {
+            server.stop(0);
+        }
+        for (ExecutorService threads : serverThreads) {
+            threads.shutdownNow();
+        }
+        ServerPool.configure(Collections.singletonList(ServerPool.DEFAULT_BASE_URI),
+                ServerPool.Balancing.LEAST_OUTSTANDING);
+    }
+
+    private static List<Movement> movements(int count) {
+        List<Movement> movements = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Movement m = new Movement();
+            m.setAmount(i == 2 ? -5000.0 : 10.0 + i);
+            m.setDescription(i == 2 ? "Payment" : "Deposit");
+            movements.add(m);
+        }
+        return movements;
+    }
+
+    private static String body(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            body.write(buffer, 0, n);
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Servidor local: con {@code batch} responde al recurso de lote con los
+     * movimientos creados; sin él, el lote da 404 y los altas sueltos se
+     * aceptan salvo los pagos, que dan 403. Las peticiones se anotan con el
+     * prefijo {@code tag}.
+     *
+     * @return URI base del servidor.
+     */
+    private String serve(final String tag, final boolean batch, final int batchStatus) throws IOException {
+        final AtomicInteger ids = new AtomicInteger(100);
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        server.setExecutor(threads);
+        servers.add(server);
+        serverThreads.add(threads);
+        server.createContext("/movement", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                String body = body(exchange);
+                requests.add(tag + exchange.getRequestMethod() + " " + path);
+                if (path.endsWith("/batch")) {
+                    if (!batch || batchStatus != 200) {
+                        exchange.sendResponseHeaders(batch ? batchStatus : 404, -1);
+                        exchange.close();
+                        return;
+                    }
+                    StringBuilder xml = new StringBuilder("<movements>");
+                    for (int i = body.indexOf("<movement>"); i >= 0; i = body.indexOf("<movement>", i + 1)) {
+                        xml.append("<movement><id>").append(ids.getAndIncrement()).append("</id></movement>");
+                    }
+                    byte[] answer = xml.append("</movements>").toString().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", MediaType.APPLICATION_XML);
+                    exchange.sendResponseHeaders(200, answer.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(answer);
+                    }
+                    return;
+                }
+                exchange.sendResponseHeaders(body.contains("Payment") ? 403 : 204, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private MovementRESTClient start(boolean batch, int batchStatus) throws IOException {
+        MovementRESTClient client = new MovementRESTClient(serve("", batch, batchStatus));
+        client.setWireFormat(WireFormat.XML);
+        return client;
+    }
+
+    @Test
+    public void testBatchResourceCreatesAllInOneRequest() throws IOException {
+        MovementRESTClient client = start(true, 200);
+        List<Movement> movements = movements(5);
+        List<BatchResult<Movement>> results = client.createAll(movements, "7");
+
+        assertEquals(Collections.singletonList("POST /movement/7/batch"), requests);
+        assertEquals(5, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertTrue(results.get(i).isSuccess());
+            assertSame(movements.get(i), results.get(i).getItem());
+            assertEquals(Long.valueOf(100 + i), movements.get(i).getId());
+        }
+    }
+
+    @Test
+    public void testRejectedBatchFailsEveryItem() throws IOException {
+        MovementRESTClient client = start(true, 400);
+        List<BatchResult<Movement>> results = client.createAll(movements(3), "7");
+        assertEquals(1, requests.size());
+        for (BatchResult<Movement> result : results) {
+            assertFalse(result.isSuccess());
+            assertTrue(result.getError() instanceof BadRequestException);
+        }
+    }
+
+    @Test
+    public void testServerWithoutBatchResourceGetsPipelinedPosts() throws IOException {
+        MovementRESTClient client = start(false, 0);
+        List<Movement> movements = movements(10);
+        List<BatchResult<Movement>> results = client.createAll(movements, "7");
+
+        assertEquals("POST /movement/7/batch", requests.get(0));
+        assertEquals(11, requests.size());
+        assertEquals(10, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertSame(movements.get(i), results.get(i).getItem());
+            assertEquals(i != 2, results.get(i).isSuccess());
+        }
+        assertTrue(results.get(2).getError() instanceof ForbiddenException);
+
+        // El servidor sin recurso de lote se recuerda: ya no se prueba
+        requests.clear();
+        client.createAll(movements(2), "7");
+        assertEquals(2, requests.size());
+        assertFalse(requests.contains("POST /movement/7/batch"));
+    }
+
+    @Test
+    public void testBatchResourceIsRememberedPerReplica() throws IOException {
+        // Réplicas de versiones distintas: solo la primera tiene el recurso de lote
+        ServerPool.configure(Arrays.asList(serve("new ", true, 200), serve("old ", false, 0)),
+                ServerPool.Balancing.ROUND_ROBIN);
+        MovementRESTClient client = new MovementRESTClient();
+        client.setWireFormat(WireFormat.XML);
+        for (int i = 0; i < 4; i++) {
+            for (BatchResult<Movement> result : client.createAll(movements(2), "7")) {
+                assertTrue(result.isSuccess());
+            }
+        }
+
+        // Que la réplica antigua no lo tenga no impide probarlo en la nueva
+        int batches = 0;
+        for (String request : requests) {
+            if (request.endsWith("/batch")) {
+                batches++;
+            }
+        }
+        assertEquals(4, batches);
+        assertTrue(requests.contains("new POST /movement/7/batch"));
+    }
+}
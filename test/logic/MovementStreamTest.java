@@ -0,0 +1,185 @@
+package logic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.core.MediaType;
+import model.Movement;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Pruebas de la lectura de movimientos en streaming: lotes acotados en XML y
+ * JSON, cancelación, documentos mal formados y entrega del primer lote antes
+ * de que el servidor termine de enviar la respuesta.
+ */
+public class MovementStreamTest {
+
+    private static String movementXml(int id) {
+        return "<movement><amount>" + (id % 2 == 0 ? "10.5" : "-3.25") + "</amount>"
+                + "<description>Mov " + id + "</description><id>" + id + "</id>"
+                + "<timestamp>2019-10-01T10:30:00.000Z</timestamp></movement>";
+    }
+
+    private static byte[] xmlList(int first, int count) {
+        StringBuilder xml = new StringBuilder();
+        for (int i = first; i < first + count; i++) {
+            xml.append(movementXml(i));
+        }
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Consumidor que guarda los lotes recibidos. */
+    private static class Batches implements Consumer<List<Movement>> {
+
+        final List<List<Movement>> received = new ArrayList<>();
+
+        @Override
+        public synchronized void accept(List<Movement> batch) {
+            received.add(batch);
+        }
+
+        synchronized List<Movement> all() {
+            List<Movement> all = new ArrayList<>();
+            for (List<Movement> batch : received) {
+                all.addAll(batch);
+            }
+            return all;
+        }
+    }
+
+    @Test
+    public void testXmlIsDeliveredInBoundedBatches() {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<movements>\n"
+                + new String(xmlList(1, 1234), StandardCharsets.UTF_8) + "\n</movements>";
+        Batches batches = new Batches();
+        long count = MovementStream.readXml(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)),
+                500, batches, new AtomicBoolean());
+
+        assertEquals(1234, count);
+        assertEquals(3, batches.received.size());
+        assertEquals(500, batches.received.get(0).size());
+        assertEquals(500, batches.received.get(1).size());
+        assertEquals(234, batches.received.get(2).size());
+        List<Movement> all = batches.all();
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(Long.valueOf(i + 1), all.get(i).getId());
+        }
+        assertEquals(-3.25, all.get(0).getAmount(), 0.0);
+        assertEquals("Mov 2", all.get(1).getDescription());
+
+        // Lista vacía: ningún lote
+        Batches none = new Batches();
+        assertEquals(0, MovementStream.readXml(new ByteArrayInputStream("<movements/>".getBytes(StandardCharsets.UTF_8)),
+                10, none, new AtomicBoolean()));
+        assertTrue(none.received.isEmpty());
+    }
+
+    @Test
+    public void testJsonIsDeliveredInBoundedBatches() {
+        String json = "[{\"id\":1,\"amount\":5.0},{\"id\":2,\"amount\":-1.5},{\"id\":3}]";
+        Batches batches = new Batches();
+        long count = MovementStream.readJson(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),
+                2, batches, new AtomicBoolean());
+        assertEquals(3, count);
+        assertEquals(2, batches.received.size());
+        assertEquals(Long.valueOf(3), batches.received.get(1).get(0).getId());
+    }
+
+    @Test
+    public void testCancelAndMalformedInput() {
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        String xml = "<movements>" + new String(xmlList(1, 50), StandardCharsets.UTF_8) + "</movements>";
+        final List<Movement> seen = new ArrayList<>();
+        try {
+            MovementStream.readXml(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), 10,
+                    new Consumer<List<Movement>>() {
+                @Override
+                public void accept(List<Movement> batch) {
+                    seen.addAll(batch);
+                    cancelled.set(true);
+                }
+            }, cancelled);
+            fail("Se esperaba la cancelación");
+        } catch (CancellationException expected) {
+            assertEquals(10, seen.size());
+        }
+
+        try {
+            MovementStream.readXml(new ByteArrayInputStream("<movements><movement><id>1</id>".getBytes(StandardCharsets.UTF_8)),
+                    10, new Batches(), new AtomicBoolean());
+            fail("Se esperaba un error de formato");
+        } catch (ProcessingException expected) {
+            // El documento está cortado
+        }
+    }
+
+    @Test
+    public void testFirstBatchArrivesBeforeResponseEnds() throws Exception {
+        final CountDownLatch firstBatchSeen = new CountDownLatch(1);
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/movement", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().set("Content-Type", MediaType.APPLICATION_XML);
+                exchange.getResponseHeaders().set(Page.TOTAL_COUNT_HEADER, "2000");
+                exchange.sendResponseHeaders(200, 0);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?><movements>".getBytes(StandardCharsets.UTF_8));
+                    out.write(xmlList(1, 1000));
+                    out.flush();
+                    // El resto solo se envía cuando el cliente ha recibido el primer lote
+                    try {
+                        firstBatchSeen.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    out.write(xmlList(1001, 1000));
+                    out.write("</movements>".getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        });
+        server.start();
+        try {
+            final Batches batches = new Batches();
+            final long[] firstBatchAt = new long[1];
+            MovementRESTClient client = new MovementRESTClient("http://127.0.0.1:" + server.getAddress().getPort());
+
+            long start = System.nanoTime();
+            CompletableFuture<Long> stage = client.findMovementByAccountStreamAsync_XML("1", 0, 100, 250,
+                    new Consumer<List<Movement>>() {
+                @Override
+                public void accept(List<Movement> batch) {
+                    if (firstBatchAt[0] == 0) {
+                        firstBatchAt[0] = System.nanoTime();
+                        firstBatchSeen.countDown();
+                    }
+                    batches.accept(batch);
+                }
+            }, AsyncRequests.DIRECT).toCompletableFuture();
+
+            assertEquals(Long.valueOf(2000), stage.get(20, TimeUnit.SECONDS));
+            assertTrue(firstBatchAt[0] > start);
+            assertEquals(8, batches.received.size());
+            List<Movement> all = batches.all();
+            assertEquals(2000, all.size());
+            assertEquals(Long.valueOf(2000), all.get(1999).getId());
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package logic;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import model.Account;
+import model.AccountType;
+import model.Movement;
+import server.BankServer;
+import server.BankStore;
+
+/**
+ * Medida del tiempo hasta la primera fila y del pico de memoria al cargar
+ * todos los movimientos de una cuenta cuando el servidor ignora la
+ * paginación: lectura de la lista entera (como antes) frente a la lectura en
+ * streaming por lotes que usa MovementController.
+ * <p>
+ * No es un benchmark JMH porque lo que interesa no es el tiempo medio por
+ * operación sino dos medidas de cada carga. El servidor es el sustituto de
+ * {@code server.BankServer}, con la API original (sin paginación), que
+ * escribe la respuesta XML en trozos como haría el servidor real con una
+ * cuenta grande. Las filas recibidas se conservan en ambos casos, igual que
+ * las conserva la tabla. Los movimientos del almacén están en el heap desde
+ * antes de empezar, así que no cuentan en el pico.
+ * <p>
+ * El pico de memoria es la suma de los picos de las zonas del heap desde el
+ * inicio de cada carga, e incluye basura aún no recogida: para comparar,
+ * conviene fijar el heap (por ejemplo {@code -Xmx1g}).
+ * <p>
+ * Ejecución: {@code java -Xmx1g -cp <test classpath> logic.MovementStreamingBenchmark [movimientos...]}
+ */
+public class MovementStreamingBenchmark {
+
+    private static final int BATCH_SIZE = 500;
+    private static final int RUNS = 5;
+
+    /** Guarda en el almacén una cuenta con el número de movimientos dado. */
+    private static long seed(BankStore store, int count) {
+        Account account = new Account();
+        account.setType(AccountType.STANDARD);
+        account.setDescription(count + " movements");
+        account.setBalance(0.0);
+        account.setBeginBalance(0.0);
+        account.setCreditLine(0.0);
+        account.setBeginBalanceTimestamp(new Date(1_500_000_000_000L));
+        long accountId = store.addAccount(account).getId();
+        double balance = 0;
+        for (int i = 1; i <= count; i++) {
+            double amount = (i % 3 == 0) ? -12.5 : 20.25;
+            balance += amount;
+            Movement movement = new Movement();
+            movement.setAmount(amount);
+            movement.setBalance(balance);
+            movement.setDescription(amount < 0 ? "Payment" : "Deposit");
+            movement.setTimestamp(new Date(1_500_000_000_000L + i * 60_000L));
+            store.addMovement(accountId, movement);
+        }
+        return accountId;
+    }
+
+    /** Resultado de una carga. */
+    private static class Run {
+
+        long firstRowNanos;
+        long totalNanos;
+        long peakHeapBytes;
+        int rows;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {10_000, 100_000, 500_000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        BankStore store = new BankStore();
+        long warmUp = seed(store, 20_000);
+        long[] accounts = new long[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            accounts[i] = seed(store, sizes[i]);
+        }
+        // Como el servidor real: sin paginación ni ETag que obliguen a guardar la respuesta
+        ValidatorCache.setEnabled(false);
+        EntityCache.setEnabled(false);
+        BankServer server = BankServer.start(store);
+        server.setOriginalApi(true);
+        try {
+            MovementRESTClient client = new MovementRESTClient(server.getBaseUri());
+            // Calentamiento de JAXB, Jersey y el JIT
+            for (int i = 0; i < 3; i++) {
+                loadAll(client, warmUp, 20_000);
+                loadStreamed(client, warmUp, 20_000);
+            }
+            System.out.println(String.format(Locale.ROOT, "%-10s %-8s %18s %14s %14s",
+                    "movements", "mode", "first row (ms)", "total (ms)", "peak heap (MB)"));
+            for (int i = 0; i < sizes.length; i++) {
+                report(sizes[i], "list", best(client, accounts[i], sizes[i], false));
+                report(sizes[i], "stream", best(client, accounts[i], sizes[i], true));
+            }
+        } finally {
+            server.close();
+            RESTClientFactory.shutdown();
+        }
+    }
+
+    /** Mediana de tiempos y pico mínimo de varias cargas. */
+    private static Run best(MovementRESTClient client, long accountId, int size, boolean streamed) throws Exception {
+        long[] first = new long[RUNS];
+        long[] total = new long[RUNS];
+        Run result = new Run();
+        result.peakHeapBytes = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            Run run = streamed ? loadStreamed(client, accountId, size) : loadAll(client, accountId, size);
+            if (run.rows != size) {
+                throw new IllegalStateException("Expected " + size + " rows, got " + run.rows);
+            }
+            first[i] = run.firstRowNanos;
+            total[i] = run.totalNanos;
+            result.peakHeapBytes = Math.min(result.peakHeapBytes, run.peakHeapBytes);
+        }
+        java.util.Arrays.sort(first);
+        java.util.Arrays.sort(total);
+        result.firstRowNanos = first[RUNS / 2];
+        result.totalNanos = total[RUNS / 2];
+        result.rows = size;
+        return result;
+    }
+
+    private static void report(int size, String mode, Run run) {
+        System.out.println(String.format(Locale.ROOT, "%-10d %-8s %18.1f %14.1f %14.1f", size, mode,
+                run.firstRowNanos / 1e6, run.totalNanos / 1e6, run.peakHeapBytes / (1024.0 * 1024.0)));
+    }
+
+    /** Lista entera: la primera fila está disponible cuando llega la última. */
+    private static Run loadAll(MovementRESTClient client, long accountId, int size) throws Exception {
+        long baseline = resetPeakHeap();
+        long start = System.nanoTime();
+        Page<Movement> page = client.findMovementByAccountPageAsync_XML(Long.toString(accountId), 0, 100, AsyncRequests.DIRECT)
+                .toCompletableFuture().get(5, TimeUnit.MINUTES);
+        Run run = new Run();
+        run.totalNanos = System.nanoTime() - start;
+        run.firstRowNanos = run.totalNanos;
+        run.rows = page.getItems().size();
+        run.peakHeapBytes = peakHeap() - baseline;
+        return run;
+    }
+
+    /** Streaming por lotes: la primera fila está disponible con el primer lote. */
+    private static Run loadStreamed(MovementRESTClient client, long accountId, int size) throws Exception {
+        long baseline = resetPeakHeap();
+        final List<Movement> rows = new ArrayList<>();
+        final long start = System.nanoTime();
+        final Run run = new Run();
+        client.findMovementByAccountStreamAsync_XML(Long.toString(accountId), 0, 100, BATCH_SIZE,
+                new Consumer<List<Movement>>() {
+            @Override
+            public void accept(List<Movement> batch) {
+                if (rows.isEmpty()) {
+                    run.firstRowNanos = System.nanoTime() - start;
+                }
+                rows.addAll(batch);
+            }
+        }, AsyncRequests.DIRECT).toCompletableFuture().get(5, TimeUnit.MINUTES);
+        run.totalNanos = System.nanoTime() - start;
+        run.rows = rows.size();
+        run.peakHeapBytes = peakHeap() - baseline;
+        return run;
+    }
+
+    /** Recoge la basura, reinicia los picos del heap y devuelve el heap en uso. */
+    private static long resetPeakHeap() {
+        System.gc();
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                used += pool.getUsage().getUsed();
+            }
+        }
+        return used;
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,42 @@
+package logic;
+
+import java.util.Arrays;
+import java.util.Collections;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Pruebas unitarias de Page: detección del final de la lista con y sin la
+ * cabecera X-Total-Count, y de servidores que ignoran la paginación.
+ */
+public class PageTest {
+
+    @Test
+    public void testShortPageIsLastWithoutTotal() {
+        Page<Integer> page = new Page<>(Arrays.asList(1, 2), 10, 5, -1);
+        assertTrue(page.isPagingHonored());
+        assertTrue(page.isLast());
+        assertFalse(page.isComplete());
+    }
+
+    @Test
+    public void testFullPageIsNotLastWithoutTotal() {
+        Page<Integer> page = new Page<>(Arrays.asList(1, 2, 3), 0, 3, -1);
+        assertFalse(page.isLast());
+        assertFalse(page.isComplete());
+    }
+
+    @Test
+    public void testTotalDecidesLastPage() {
+        assertTrue(new Page<>(Arrays.asList(1, 2, 3), 0, 3, 3).isComplete());
+        assertFalse(new Page<>(Arrays.asList(1, 2, 3), 0, 3, 4).isLast());
+        assertTrue(new Page<>(Collections.<Integer>emptyList(), 0, 3, 0).isComplete());
+    }
+
+    @Test
+    public void testWholeListMeansPagingIgnored() {
+        Page<Integer> page = new Page<>(Arrays.asList(1, 2, 3, 4), 0, 3, -1);
+        assertFalse(page.isPagingHonored());
+        assertTrue(page.isComplete());
+    }
+}
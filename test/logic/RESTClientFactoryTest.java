@@ -0,0 +1,75 @@
+package logic;
+
+import java.net.URLEncoder;
+import java.util.List;
+import javax.ws.rs.core.GenericType;
+import model.Account;
+import model.Customer;
+import model.Movement;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import server.BankServer;
+import server.BankStore;
+
+/**
+ * Pruebas del cliente compartido con los tres clientes REST contra el
+ * servidor sustituto: entrada, cuentas y movimientos reutilizan la misma
+ * conexión del pool y la devuelven al terminar cada petición.
+ */
+public class RESTClientFactoryTest {
+
+    private BankServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = BankServer.start(BankStore.sample());
+        server.useForClients();
+        EntityCache.setEnabled(false);
+        ValidatorCache.clear();
+        // Conexiones de pruebas anteriores a otros servidores
+        RESTClientFactory.getClient();
+        RESTClientFactory.shutdown();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        EntityCache.setEnabled(true);
+    }
+
+    @Test
+    public void testClientsShareOneKeepAliveConnection() throws Exception {
+        PoolStatistics before = RESTClientFactory.getPoolStatistics();
+        assertEquals(0, before.getLeased());
+        assertEquals(0, before.getAvailable());
+
+        CustomerRESTClient customers = new CustomerRESTClient();
+        Customer customer = customers.findCustomerByEmailPassword(Customer.class,
+                URLEncoder.encode("awallace@gmail.com", "UTF-8"), URLEncoder.encode("qwerty*9876", "UTF-8"));
+        PoolStatistics afterLogin = RESTClientFactory.getPoolStatistics();
+        assertEquals(0, afterLogin.getLeased());
+        assertEquals(1, afterLogin.getAvailable());
+
+        AccountRESTClient accounts = new AccountRESTClient();
+        List<Account> list = accounts.findAccountsByCustomerId(new GenericType<List<Account>>() {},
+                customer.getId().toString());
+        assertEquals(2, list.size());
+        MovementRESTClient movements = new MovementRESTClient();
+        List<Movement> movementList = movements.findMovementByAccount(new GenericType<List<Movement>>() {},
+                list.get(0).getId().toString());
+        assertEquals(6, movementList.size());
+        customers.close();
+        accounts.close();
+        movements.close();
+
+        // Tres peticiones por la misma conexión, que sigue en el pool
+        PoolStatistics after = RESTClientFactory.getPoolStatistics();
+        assertEquals(0, after.getLeased());
+        assertEquals(1, after.getAvailable());
+        assertEquals(before.getConnectionsOpened() + 1, after.getConnectionsOpened());
+        assertEquals(before.getRequestsSent() + 3, after.getRequestsSent());
+        assertEquals(3, server.getRequestCount());
+    }
+}
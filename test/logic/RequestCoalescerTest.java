@@ -0,0 +1,198 @@
+package logic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import model.Account;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Pruebas de concurrencia de RequestCoalescer: varias peticiones GET iguales
+ * lanzadas a la vez contra un servidor local lento deben producir una sola
+ * llamada HTTP.
+ */
+public class RequestCoalescerTest {
+
+    private static final int CALLERS = 8;
+    private static final String BODY = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<accounts><account><description>Ahorro</description><id>1</id></account></accounts>";
+
+    private HttpServer server;
+    private final AtomicInteger gets = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private WebTarget base;
+    private ExecutorService pool;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/account", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    // Las escrituras responden en el acto
+                    exchange.getRequestBody().close();
+                    exchange.sendResponseHeaders(204, -1);
+                    exchange.close();
+                    return;
+                }
+                gets.incrementAndGet();
+                try {
+                    // La respuesta se retiene hasta que la prueba la libera
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", MediaType.APPLICATION_XML);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        base = RESTClientFactory.getClient()
+                .target("http://127.0.0.1:" + server.getAddress().getPort())
+                .path("account");
+        pool = Executors.newFixedThreadPool(CALLERS);
+        RequestCoalescer.setEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        pool.shutdownNow();
+        server.stop(0);
+        RequestCoalescer.setEnabled(true);
+    }
+
+    private CompletionStage<List<Account>> fetchAsync(String customerId) {
+        return AsyncRequests.get(base.path("customer/" + customerId), MediaType.APPLICATION_XML,
+                new GenericType<List<Account>>() {}, AsyncRequests.DIRECT);
+    }
+
+    private void waitForGets(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (gets.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testConcurrentIdenticalGetsShareOneCall() throws Exception {
+        CoalescerStatistics before = RequestCoalescer.getStatistics();
+        final CyclicBarrier start = new CyclicBarrier(CALLERS);
+        List<Future<CompletionStage<List<Account>>>> submitted = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            submitted.add(pool.submit(new Callable<CompletionStage<List<Account>>>() {
+                @Override
+                public CompletionStage<List<Account>> call() throws Exception {
+                    start.await();
+                    return fetchAsync("1");
+                }
+            }));
+        }
+        List<CompletionStage<List<Account>>> stages = new ArrayList<>();
+        for (Future<CompletionStage<List<Account>>> f : submitted) {
+            stages.add(f.get(5, TimeUnit.SECONDS));
+        }
+        waitForGets(1);
+        release.countDown();
+
+        List<List<Account>> results = new ArrayList<>();
+        for (CompletionStage<List<Account>> stage : stages) {
+            results.add(stage.toCompletableFuture().get(5, TimeUnit.SECONDS));
+        }
+
+        assertEquals(1, gets.get());
+        CoalescerStatistics after = RequestCoalescer.getStatistics();
+        assertEquals(1, after.getCallsSent() - before.getCallsSent());
+        assertEquals(CALLERS - 1, after.getCallsCoalesced() - before.getCallsCoalesced());
+        assertEquals(0, after.getInFlight());
+        // Todos reciben el mismo contenido, pero cada uno su propia copia
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals("Ahorro", results.get(i).get(0).getDescription());
+            for (int j = i + 1; j < results.size(); j++) {
+                assertNotSame(results.get(i), results.get(j));
+            }
+        }
+    }
+
+    @Test
+    public void testDifferentResourcesAreNotCoalesced() throws Exception {
+        CompletionStage<List<Account>> first = fetchAsync("1");
+        CompletionStage<List<Account>> second = fetchAsync("2");
+        waitForGets(2);
+        release.countDown();
+        first.toCompletableFuture().get(5, TimeUnit.SECONDS);
+        second.toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertEquals(2, gets.get());
+    }
+
+    @Test
+    public void testCancellingOneCallerKeepsTheCallForTheOthers() throws Exception {
+        CompletionStage<List<Account>> cancelled = fetchAsync("1");
+        CompletionStage<List<Account>> kept = fetchAsync("1");
+        waitForGets(1);
+        cancelled.toCompletableFuture().cancel(true);
+        release.countDown();
+
+        assertEquals(1, kept.toCompletableFuture().get(5, TimeUnit.SECONDS).size());
+        assertTrue(cancelled.toCompletableFuture().isCancelled());
+        assertEquals(1, gets.get());
+    }
+
+    @Test
+    public void testGetAfterWriteDoesNotJoinEarlierCall() throws Exception {
+        CompletionStage<List<Account>> before = fetchAsync("1");
+        waitForGets(1);
+        // Escritura terminada mientras la primera lectura sigue en curso
+        Account account = new Account();
+        account.setId(1L);
+        AsyncRequests.await(AsyncRequests.send(base.request(MediaType.APPLICATION_XML), "PUT",
+                Entity.entity(account, MediaType.APPLICATION_XML),
+                EntityCache.invalidating(AsyncRequests.DIRECT, EntityCache.accountTag(1L))));
+        CoalescerStatistics stats = RequestCoalescer.getStatistics();
+
+        CompletionStage<List<Account>> after = fetchAsync("1");
+        waitForGets(2);
+        release.countDown();
+        before.toCompletableFuture().get(5, TimeUnit.SECONDS);
+        after.toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, gets.get());
+        assertEquals(stats.getCallsCoalesced(), RequestCoalescer.getStatistics().getCallsCoalesced());
+    }
+
+    @Test
+    public void testLaterRequestAfterCompletionIsSentAgain() throws Exception {
+        release.countDown();
+        fetchAsync("1").toCompletableFuture().get(5, TimeUnit.SECONDS);
+        fetchAsync("1").toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertEquals(2, gets.get());
+    }
+}
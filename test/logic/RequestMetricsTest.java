@@ -0,0 +1,181 @@
+package logic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.ws.rs.NotAuthorizedException;
+import javax.ws.rs.core.GenericType;
+import model.Account;
+import model.Customer;
+import model.Movement;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Pruebas de RequestMetrics: precisión del histograma y métricas por
+ * operación de los tres clientes REST contra un servidor local que tarda
+ * lo que se le dice y responde con errores en algunas rutas.
+ */
+public class RequestMetricsTest {
+
+    private static final String CONTEXT = "/CRUDBankServerSide/webresources";
+
+    private HttpServer server;
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private byte[] accounts;
+
+    @Before
+    public void setUp() throws IOException {
+        accounts = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?><accounts>"
+                + "<account><balance>10.0</balance><id>1</id></account>"
+                + "<account><balance>20.0</balance><id>2</id></account></accounts>").getBytes(StandardCharsets.UTF_8);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(CONTEXT, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath().substring(CONTEXT.length());
+                try (InputStream in = exchange.getRequestBody()) {
+                    byte[] buffer = new byte[4096];
+                    for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                        receivedBytes.addAndGet(n);
+                    }
+                }
+                if (path.startsWith("/account/customer/")) {
+                    try {
+                        Thread.sleep(Long.parseLong(path.substring("/account/customer/".length())));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    exchange.getResponseHeaders().set("Content-Type", "application/xml");
+                    exchange.sendResponseHeaders(200, accounts.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(accounts);
+                    }
+                } else if (path.startsWith("/customer/sigin/")) {
+                    exchange.sendResponseHeaders(401, -1);
+                } else {
+                    exchange.sendResponseHeaders(500, -1);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        ServerPool.configure(Collections.singletonList("http://127.0.0.1:" + server.getAddress().getPort() + CONTEXT),
+                ServerPool.Balancing.LEAST_OUTSTANDING);
+        EntityCache.setEnabled(false);
+        ValidatorCache.clear();
+        RequestMetrics.clear();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        ServerPool.configure(Collections.singletonList(ServerPool.DEFAULT_BASE_URI),
+                ServerPool.Balancing.LEAST_OUTSTANDING);
+        EntityCache.setEnabled(true);
+        CircuitBreaker.resetAll();
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        for (int micros = 10_000; micros >= 1; micros--) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(5000, histogram.getValueAtPercentile(50), 50);
+        assertEquals(9000, histogram.getValueAtPercentile(90), 90);
+        assertEquals(9900, histogram.getValueAtPercentile(99), 99);
+        assertEquals(9990, histogram.getValueAtPercentile(99.9), 99);
+        assertEquals(10_000, histogram.getValueAtPercentile(100));
+        assertEquals(10_000, histogram.getMaxMicros());
+        // Valores pequeños exactos y enormes limitados
+        histogram.reset();
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(7));
+        assertEquals(7, histogram.getValueAtPercentile(50));
+        histogram.record(TimeUnit.DAYS.toNanos(10));
+        assertEquals(LatencyHistogram.MAX_MICROS, histogram.getMaxMicros());
+    }
+
+    @Test
+    public void testHistogramRelativeError() {
+        long previous = -1;
+        for (long micros = 0; micros < LatencyHistogram.MAX_MICROS; micros = micros * 3 / 2 + 1) {
+            int index = LatencyHistogram.index(micros);
+            long highest = LatencyHistogram.highestEquivalentValue(index);
+            assertTrue(micros + " > " + highest, highest >= micros);
+            assertTrue(micros + " ~ " + highest, highest - micros <= Math.max(1, micros / 100));
+            assertTrue(highest >= previous);
+            previous = highest;
+        }
+    }
+
+    @Test
+    public void testMetricsByOperation() throws Exception {
+        AccountRESTClient accountClient = new AccountRESTClient();
+        GenericType<List<Account>> type = new GenericType<List<Account>>() {};
+        for (int i = 0; i < 5; i++) {
+            assertEquals(2, accountClient.findAccountsByCustomerId_XML(type, "60").size());
+        }
+        try {
+            new CustomerRESTClient().findCustomerByEmailPassword(Customer.class, "a%40b.c", "x");
+            fail("Sign in accepted");
+        } catch (NotAuthorizedException e) {
+            // Esperado
+        }
+        Movement movement = new Movement();
+        movement.setAmount(-10.0);
+        movement.setDescription("Payment");
+        movement.setTimestamp(new Date());
+        // La creación no mira el estado de la respuesta
+        new MovementRESTClient().create_XML(movement, "3");
+
+        Map<String, LatencyStatistics> statistics = RequestMetrics.getStatistics();
+        assertEquals(3, statistics.size());
+
+        LatencyStatistics find = statistics.get("account.findByCustomer");
+        assertEquals(5, find.getRequests());
+        assertEquals(0, find.getClientErrors() + find.getServerErrors() + find.getUnanswered());
+        assertEquals(5L * accounts.length, find.getResponseBytes());
+        assertTrue(find.toString(), find.getP50Millis() >= 60);
+        assertTrue(find.getP50Millis() <= find.getP90Millis());
+        assertTrue(find.getP99Millis() <= find.getP999Millis());
+        assertTrue(find.getP999Millis() <= find.getMaxMillis());
+
+        LatencyStatistics signIn = RequestMetrics.getStatistics("customer.signin");
+        assertEquals(1, signIn.getRequests());
+        assertEquals(1, signIn.getClientErrors());
+
+        LatencyStatistics create = RequestMetrics.getStatistics("movement.create");
+        assertEquals(1, create.getServerErrors());
+        assertTrue(create.getRequestBytes() > 0);
+        assertEquals(receivedBytes.get(), create.getRequestBytes());
+
+        RequestMetrics.clear();
+        assertNull(RequestMetrics.getStatistics("movement.create"));
+    }
+
+    @Test
+    public void testOperationNames() {
+        assertEquals("customer.signin", Endpoints.operationOf("GET customer/sigin/{email}/{password}"));
+        assertEquals("account.findByCustomer", Endpoints.operationOf("GET account/customer/{id}"));
+        assertEquals("movement.create", Endpoints.operationOf("POST movement/{id}"));
+        assertEquals("movement.findByAccount", Endpoints.operationOf("GET movement/account/{id}"));
+        assertEquals("account.update", Endpoints.operationOf("PUT account"));
+        assertEquals("GET other", Endpoints.operationOf("GET other"));
+    }
+}
@@ -0,0 +1,176 @@
+package logic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Pruebas de los reintentos automáticos: solo métodos idempotentes o fallos
+ * de conexión, espera con jitter acotada y clave de idempotencia común a
+ * todos los intentos de una escritura.
+ */
+public class RetryPolicyTest {
+
+    private HttpServer server;
+    private final List<String> keys = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        RetryPolicy.setMaxAttempts(3);
+        RetryPolicy.setDelays(1, 5);
+        EntityCache.clear();
+        ValidatorCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop(0);
+        }
+        RetryPolicy.setMaxAttempts(3);
+        RetryPolicy.setDelays(100, 2000);
+    }
+
+    /** Servidor que responde 503 a las primeras {@code failures} peticiones. */
+    private WebTarget start(final int failures) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/account", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                keys.add(exchange.getRequestHeaders().getFirst(RetryPolicy.IDEMPOTENCY_KEY_HEADER));
+                // Se consume el cuerpo para que la conexión se pueda reutilizar
+                InputStream in = exchange.getRequestBody();
+                while (in.read() >= 0) {
+                    // descartar
+                }
+                if (requests.incrementAndGet() <= failures) {
+                    exchange.sendResponseHeaders(503, -1);
+                    exchange.close();
+                    return;
+                }
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(204, -1);
+                    exchange.close();
+                    return;
+                }
+                byte[] body = "<account><id>1</id></account>".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", MediaType.APPLICATION_XML);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        return RESTClientFactory.getClient().target("http://127.0.0.1:" + server.getAddress().getPort()).path("account");
+    }
+
+    @Test
+    public void testIdempotentRequestsAreRetried() throws IOException {
+        WebTarget target = start(2);
+        long retries = RetryPolicy.getRetryCount();
+        model.Account account = AsyncRequests.await(AsyncRequests.get(target.path("1"), MediaType.APPLICATION_XML,
+                new javax.ws.rs.core.GenericType<model.Account>(model.Account.class), AsyncRequests.DIRECT));
+        assertEquals(Long.valueOf(1), account.getId());
+        assertEquals(3, requests.get());
+        assertEquals(retries + 2, RetryPolicy.getRetryCount());
+
+        // PUT: mismo tratamiento y la misma clave en todos los intentos
+        requests.set(0);
+        keys.clear();
+        AsyncRequests.await(AsyncRequests.send(target.request(MediaType.APPLICATION_XML), "PUT",
+                Entity.entity(account, MediaType.APPLICATION_XML), AsyncRequests.DIRECT));
+        assertEquals(3, keys.size());
+        assertNotNull(keys.get(0));
+        assertEquals(keys.get(0), keys.get(1));
+        assertEquals(keys.get(0), keys.get(2));
+    }
+
+    @Test
+    public void testPostIsNotRetriedOnErrorStatus() throws IOException {
+        WebTarget target = start(5);
+        try {
+            AsyncRequests.await(AsyncRequests.send(target.request(MediaType.APPLICATION_XML), "POST",
+                    Entity.entity(new model.Account(), MediaType.APPLICATION_XML), AsyncRequests.DIRECT));
+            fail("Se esperaba el 503");
+        } catch (ServiceUnavailableException expected) {
+            assertEquals(1, requests.get());
+        }
+        // Los intentos se agotan también para los métodos idempotentes
+        requests.set(0);
+        try {
+            AsyncRequests.await(AsyncRequests.send(target.request(), "DELETE", null, AsyncRequests.DIRECT));
+            fail("Se esperaba el 503");
+        } catch (ServiceUnavailableException expected) {
+            assertEquals(3, requests.get());
+        }
+    }
+
+    @Test
+    public void testCallerKeyIsSentAndWritesWithoutKeyGetOne() throws IOException {
+        WebTarget target = start(0);
+        AsyncRequests.write(target.request(MediaType.APPLICATION_XML), "POST",
+                Entity.entity(new model.Account(), MediaType.APPLICATION_XML), "clave-1");
+        AsyncRequests.write(target.request(MediaType.APPLICATION_XML), "POST",
+                Entity.entity(new model.Account(), MediaType.APPLICATION_XML), "clave-1");
+        AsyncRequests.write(target.request(MediaType.APPLICATION_XML), "POST",
+                Entity.entity(new model.Account(), MediaType.APPLICATION_XML), null);
+        AsyncRequests.await(AsyncRequests.get(target.path("1").request(MediaType.APPLICATION_XML),
+                model.Account.class, AsyncRequests.DIRECT));
+        assertEquals("clave-1", keys.get(0));
+        assertEquals("clave-1", keys.get(1));
+        assertNotNull(keys.get(2));
+        assertNotEquals("clave-1", keys.get(2));
+        assertNull(keys.get(3));
+    }
+
+    @Test
+    public void testConnectFailuresAreRetriedForAnyMethod() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        WebTarget target = RESTClientFactory.getClient().target("http://127.0.0.1:" + port).path("account");
+        long retries = RetryPolicy.getRetryCount();
+        try {
+            AsyncRequests.write(target.request(MediaType.APPLICATION_XML), "POST",
+                    Entity.entity(new model.Account(), MediaType.APPLICATION_XML), null);
+            fail("Se esperaba un error de conexión");
+        } catch (ProcessingException expected) {
+            assertTrue(RetryPolicy.isConnectFailure(expected));
+            assertEquals(retries + 2, RetryPolicy.getRetryCount());
+        }
+    }
+
+    @Test
+    public void testBackoffIsBoundedAndJittered() {
+        RetryPolicy.setDelays(100, 1000);
+        for (int attempt = 1; attempt <= 10; attempt++) {
+            long ceiling = Math.min(1000, 100L << (attempt - 1));
+            for (int i = 0; i < 50; i++) {
+                long delay = RetryPolicy.delayMillis(attempt);
+                assertTrue(delay >= 0 && delay <= ceiling);
+            }
+        }
+    }
+}
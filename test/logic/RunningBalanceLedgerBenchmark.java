@@ -0,0 +1,131 @@
+package logic;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import model.Movement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmark JMH: recálculo completo de saldos (lo que hacía
+ * MovementController.recalculateLocalBalances: ordenar masterData y recorrer
+ * todos los movimientos) frente al libro incremental RunningBalanceLedger.
+ * <p>
+ * Cada operación añade un movimiento en una fecha aleatoria, obtiene los
+ * saldos de las filas visibles de la tabla (30) y deshace el cambio.
+ * <p>
+ * Ejecución: {@code java -cp <test classpath> logic.RunningBalanceLedgerBenchmark}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RunningBalanceLedgerBenchmark {
+
+    private static final int VISIBLE_ROWS = 30;
+
+    private static final Comparator<Movement> BY_TIMESTAMP = new Comparator<Movement>() {
+        @Override
+        public int compare(Movement m1, Movement m2) {
+            if (m1.getTimestamp() == null || m2.getTimestamp() == null) {
+                return 0;
+            }
+            return m1.getTimestamp().compareTo(m2.getTimestamp());
+        }
+    };
+
+    @Param({"1000", "100000", "1000000"})
+    public int movements;
+
+    private List<Movement> masterData;
+    private RunningBalanceLedger ledger;
+    private Random random;
+    private long maxTime;
+    private long nextId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        random = new Random(7);
+        masterData = new ArrayList<>(movements + 1);
+        long time = 1_500_000_000_000L;
+        for (int i = 0; i < movements; i++) {
+            time += 1 + random.nextInt(3_600_000);
+            Movement m = new Movement();
+            m.setId((long) i + 1);
+            m.setTimestamp(new Date(time));
+            m.setAmount(random.nextBoolean() ? random.nextInt(50000) / 100.0 : -random.nextInt(30000) / 100.0);
+            masterData.add(m);
+        }
+        maxTime = time;
+        nextId = movements + 1;
+        ledger = new RunningBalanceLedger();
+        ledger.reset(1000.0, masterData);
+    }
+
+    private Movement newMovement() {
+        Movement m = new Movement();
+        m.setId(nextId++);
+        m.setTimestamp(new Date(1_500_000_000_000L + (long) (random.nextDouble() * (maxTime - 1_500_000_000_000L))));
+        m.setAmount(12.5);
+        return m;
+    }
+
+    /**
+     * Enfoque anterior: añadir, reordenar toda la lista y recalcular todos los saldos.
+     */
+    @Benchmark
+    public void fullResort(Blackhole bh) {
+        Movement added = newMovement();
+        masterData.add(added);
+        masterData.sort(BY_TIMESTAMP);
+        double running = 1000.0;
+        for (Movement m : masterData) {
+            running += m.getAmount();
+            m.setBalance(running);
+        }
+        int index = masterData.indexOf(added);
+        for (int i = index; i < Math.min(masterData.size(), index + VISIBLE_ROWS); i++) {
+            bh.consume(masterData.get(i).getBalance());
+        }
+        masterData.remove(index);
+    }
+
+    /**
+     * Libro incremental: inserción O(log n) y saldo de las filas visibles afectadas.
+     */
+    @Benchmark
+    public void incremental(Blackhole bh) {
+        Movement added = newMovement();
+        int index = ledger.insert(added);
+        for (int i = index; i < Math.min(ledger.size(), index + VISIBLE_ROWS); i++) {
+            bh.consume(ledger.balanceAt(i));
+        }
+        ledger.remove(added);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RunningBalanceLedgerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,158 @@
+package logic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import model.Movement;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Pruebas unitarias de RunningBalanceLedger.
+ * Se comparan los saldos del libro incremental con el cálculo clásico
+ * (ordenar y acumular) sobre los mismos datos.
+ */
+public class RunningBalanceLedgerTest {
+
+    private static final double DELTA = 1e-6;
+
+    private static Movement movement(long id, long time, double amount) {
+        Movement m = new Movement();
+        m.setId(id);
+        m.setTimestamp(new Date(time));
+        m.setAmount(amount);
+        return m;
+    }
+
+    /**
+     * Cálculo de referencia: ordena por fecha e id y acumula.
+     */
+    private static double[] naiveBalances(double opening, List<Movement> movements) {
+        List<Movement> sorted = new ArrayList<>(movements);
+        Collections.sort(sorted, new Comparator<Movement>() {
+            @Override
+            public int compare(Movement a, Movement b) {
+                int c = a.getTimestamp().compareTo(b.getTimestamp());
+                return c != 0 ? c : a.getId().compareTo(b.getId());
+            }
+        });
+        double[] balances = new double[sorted.size()];
+        double running = opening;
+        for (int i = 0; i < sorted.size(); i++) {
+            running += sorted.get(i).getAmount();
+            balances[i] = running;
+        }
+        return balances;
+    }
+
+    private static void assertSameBalances(double opening, List<Movement> movements, RunningBalanceLedger ledger) {
+        double[] expected = naiveBalances(opening, movements);
+        assertEquals(expected.length, ledger.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("Saldo en la fila " + i, expected[i], ledger.balanceAt(i), DELTA);
+        }
+        double last = expected.length == 0 ? opening : expected[expected.length - 1];
+        assertEquals(last, ledger.finalBalance(), DELTA);
+    }
+
+    @Test
+    public void testEmptyLedgerReturnsOpeningBalance() {
+        RunningBalanceLedger ledger = new RunningBalanceLedger(150.0);
+        assertEquals(0, ledger.size());
+        assertEquals(150.0, ledger.finalBalance(), DELTA);
+    }
+
+    @Test
+    public void testResetSortsByTimestampAndId() {
+        List<Movement> movements = new ArrayList<>();
+        movements.add(movement(3, 2000, -20.0));
+        movements.add(movement(1, 1000, 100.0));
+        movements.add(movement(2, 2000, 50.0));
+
+        RunningBalanceLedger ledger = new RunningBalanceLedger();
+        ledger.reset(10.0, movements);
+
+        List<Movement> ordered = ledger.toList();
+        assertEquals(Long.valueOf(1), ordered.get(0).getId());
+        assertEquals(Long.valueOf(2), ordered.get(1).getId());
+        assertEquals(Long.valueOf(3), ordered.get(2).getId());
+        assertEquals(110.0, ledger.balanceAt(0), DELTA);
+        assertEquals(160.0, ledger.balanceAt(1), DELTA);
+        assertEquals(140.0, ledger.balanceAt(2), DELTA);
+    }
+
+    @Test
+    public void testInsertReturnsFirstChangedRow() {
+        RunningBalanceLedger ledger = new RunningBalanceLedger();
+        List<Movement> movements = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            movements.add(movement(i + 1, i * 1000L, 10.0));
+        }
+        ledger.reset(0.0, movements);
+
+        // Añadir al final solo cambia la última fila
+        assertEquals(10, ledger.insert(movement(11, 20000, 5.0)));
+        // Añadir en medio cambia desde esa fila en adelante
+        Movement middle = movement(12, 4500, -3.0);
+        assertEquals(5, ledger.insert(middle));
+        assertEquals(5, ledger.indexOf(middle));
+        assertSame(middle, ledger.get(5));
+    }
+
+    @Test
+    public void testRemoveReturnsFormerIndex() {
+        RunningBalanceLedger ledger = new RunningBalanceLedger();
+        List<Movement> movements = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            movements.add(movement(i + 1, i * 1000L, 1.0));
+        }
+        ledger.reset(0.0, movements);
+
+        assertEquals(2, ledger.remove(movements.get(2)));
+        assertEquals(-1, ledger.remove(movements.get(2)));
+        assertEquals(-1, ledger.indexOf(movements.get(2)));
+        assertEquals(4.0, ledger.finalBalance(), DELTA);
+    }
+
+    @Test
+    public void testUnsavedMovementSortsAfterSavedOnesWithSameTimestamp() {
+        RunningBalanceLedger ledger = new RunningBalanceLedger();
+        Movement saved = movement(7, 1000, 10.0);
+        Movement unsaved = new Movement();
+        unsaved.setTimestamp(new Date(1000));
+        unsaved.setAmount(5.0);
+
+        ledger.insert(unsaved);
+        ledger.insert(saved);
+        assertSame(saved, ledger.get(0));
+        assertSame(unsaved, ledger.get(1));
+    }
+
+    @Test
+    public void testRandomOperationsMatchNaiveCalculation() {
+        Random random = new Random(42);
+        RunningBalanceLedger ledger = new RunningBalanceLedger();
+        List<Movement> movements = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            movements.add(movement(i + 1, random.nextInt(100000), random.nextInt(2000) - 1000));
+        }
+        ledger.reset(250.0, movements);
+        assertSameBalances(250.0, movements, ledger);
+
+        long nextId = 1000;
+        for (int step = 0; step < 300; step++) {
+            if (random.nextBoolean() && !movements.isEmpty()) {
+                Movement victim = movements.remove(random.nextInt(movements.size()));
+                assertTrue(ledger.remove(victim) >= 0);
+            } else {
+                Movement added = movement(nextId++, random.nextInt(100000), random.nextInt(2000) - 1000);
+                movements.add(added);
+                ledger.insert(added);
+            }
+        }
+        assertSameBalances(250.0, movements, ledger);
+    }
+}
@@ -0,0 +1,314 @@
+package logic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import model.Account;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Pruebas del reparto de peticiones entre varias réplicas del servidor
+ * (servidores locales en puertos distintos): turno rotatorio, menos
+ * peticiones pendientes, expulsión de réplicas que fallan y vuelta tras la
+ * sonda de salud, y modo sin conexión con los disyuntores de todas abiertos.
+ */
+public class ServerPoolTest {
+
+    private static final int REPLICAS = 3;
+
+    private final List<Replica> replicas = new ArrayList<>();
+
+    /** Réplica local que cuenta sus peticiones. */
+    private static final class Replica {
+
+        final HttpServer server;
+        final ExecutorService threads = Executors.newFixedThreadPool(4);
+        final AtomicInteger requests = new AtomicInteger();
+        volatile int status = 200;
+        volatile CountDownLatch hold;
+
+        Replica() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.setExecutor(threads);
+            server.createContext("/webresources", new HttpHandler() {
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    if (!exchange.getRequestURI().getPath().equals("/webresources")) {
+                        // Las sondas de salud no cuentan como tráfico
+                        requests.incrementAndGet();
+                    }
+                    CountDownLatch latch = hold;
+                    if (latch != null) {
+                        try {
+                            latch.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    if (status != 200) {
+                        exchange.sendResponseHeaders(status, -1);
+                        exchange.close();
+                        return;
+                    }
+                    String xml = "<account><id>1</id></account>";
+                    if (exchange.getRequestURI().getPath().contains("/customer/")) {
+                        xml = "<accounts>" + xml + "</accounts>";
+                    }
+                    byte[] body = xml.getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", MediaType.APPLICATION_XML);
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                }
+            });
+            server.start();
+        }
+
+        String baseUri() {
+            return "http://127.0.0.1:" + server.getAddress().getPort() + "/webresources";
+        }
+
+        void stop() {
+            CountDownLatch latch = hold;
+            if (latch != null) {
+                latch.countDown();
+            }
+            server.stop(0);
+            threads.shutdownNow();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < REPLICAS; i++) {
+            replicas.add(new Replica());
+        }
+        RetryPolicy.setDelays(1, 5);
+        // Cada consulta debe llegar a alguna réplica
+        EntityCache.setEnabled(false);
+        ValidatorCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        for (Replica replica : replicas) {
+            replica.stop();
+        }
+        ServerPool.configure(Collections.singletonList(ServerPool.DEFAULT_BASE_URI),
+                ServerPool.Balancing.LEAST_OUTSTANDING);
+        ServerPool.setMaxFailures(3);
+        ServerPool.setSharded(false);
+        RetryPolicy.setDelays(100, 2000);
+        CircuitBreaker.resetAll();
+        EntityCache.setEnabled(true);
+    }
+
+    private void configure(ServerPool.Balancing balancing) {
+        List<String> uris = new ArrayList<>();
+        for (Replica replica : replicas) {
+            uris.add(replica.baseUri());
+        }
+        ServerPool.configure(uris, balancing);
+    }
+
+    private static Account find(AccountRESTClient client, int id) {
+        return client.find_XML(new GenericType<Account>(Account.class), String.valueOf(id));
+    }
+
+    @Test
+    public void testRoundRobinSpreadsRequestsEvenly() {
+        configure(ServerPool.Balancing.ROUND_ROBIN);
+        AccountRESTClient client = new AccountRESTClient();
+        for (int i = 0; i < 9; i++) {
+            assertEquals(Long.valueOf(1), find(client, i).getId());
+        }
+        for (Replica replica : replicas) {
+            assertEquals(3, replica.requests.get());
+        }
+        assertEquals(3, ServerPool.getNodes().get(0).getRequestCount());
+    }
+
+    @Test
+    public void testLeastOutstandingAvoidsBusyReplica() throws Exception {
+        configure(ServerPool.Balancing.LEAST_OUTSTANDING);
+        AccountRESTClient client = new AccountRESTClient();
+        Replica busy = replicas.get(0);
+        CountDownLatch latch = new CountDownLatch(1);
+        busy.hold = latch;
+        // Se ocupa la réplica 0 con una petición que no termina
+        CompletionStage<Account> pending = null;
+        while (busy.requests.get() == 0) {
+            CompletionStage<Account> stage = client.findAsync_XML(
+                    new GenericType<Account>(Account.class), "100", AsyncRequests.DIRECT);
+            Thread.sleep(50);
+            if (busy.requests.get() > 0) {
+                pending = stage;
+            } else {
+                AsyncRequests.await(stage);
+            }
+        }
+        int before = busy.requests.get();
+        for (int i = 0; i < 10; i++) {
+            find(client, i);
+        }
+        assertEquals(before, busy.requests.get());
+        assertEquals(1, ServerPool.getNodes().get(0).getOutstanding());
+
+        latch.countDown();
+        AsyncRequests.await(pending);
+        Thread.sleep(50);
+        assertEquals(0, ServerPool.getNodes().get(0).getOutstanding());
+    }
+
+    @Test
+    public void testFailingReplicaIsEjectedAndComesBackAfterProbe() {
+        configure(ServerPool.Balancing.ROUND_ROBIN);
+        AccountRESTClient client = new AccountRESTClient();
+        Replica failing = replicas.get(1);
+        failing.status = 503;
+        // Los GET que reciben 503 se reintentan en otra réplica
+        for (int i = 0; i < 12; i++) {
+            assertEquals(Long.valueOf(1), find(client, i).getId());
+        }
+        ServerPool.Node node = ServerPool.getNodes().get(1);
+        assertFalse(node.isHealthy());
+        assertEquals(3, failing.requests.get());
+
+        // Expulsada: no recibe tráfico mientras la sonda falle
+        ServerPool.probeAll();
+        for (int i = 0; i < 6; i++) {
+            find(client, i);
+        }
+        assertEquals(3, failing.requests.get());
+
+        // Se recupera: la sonda la devuelve al reparto
+        failing.status = 200;
+        ServerPool.probeAll();
+        assertTrue(node.isHealthy());
+        for (int i = 0; i < 6; i++) {
+            find(client, i);
+        }
+        assertEquals(5, failing.requests.get());
+    }
+
+    @Test
+    public void testRequestsToOtherServersAreNotRewritten() {
+        configure(ServerPool.Balancing.ROUND_ROBIN);
+        Replica outside = replicas.get(2);
+        ServerPool.configure(Collections.singletonList(replicas.get(0).baseUri()), ServerPool.Balancing.ROUND_ROBIN);
+        AsyncRequests.await(AsyncRequests.get(RESTClientFactory.getClient().target(outside.baseUri())
+                .path("account/1").request(MediaType.APPLICATION_XML), Account.class, AsyncRequests.DIRECT));
+        assertEquals(1, outside.requests.get());
+        assertEquals(0, replicas.get(0).requests.get());
+    }
+
+    @Test
+    public void testShardedRequestsGoToTheOwnerOfTheCustomer() {
+        configure(ServerPool.Balancing.ROUND_ROBIN);
+        ServerPool.setSharded(true);
+        AccountRESTClient client = new AccountRESTClient();
+        String owner = ServerPool.owner("customer/42").getBaseUri();
+        Replica target = null;
+        for (Replica replica : replicas) {
+            if (replica.baseUri().equals(owner)) {
+                target = replica;
+            }
+        }
+        for (int i = 0; i < 5; i++) {
+            ValidatorCache.clear();
+            client.findAccountsByCustomerId_XML(new GenericType<List<Account>>() {}, "42");
+        }
+        assertEquals(5, target.requests.get());
+
+        // Réplica propietaria expulsada: sus clientes pasan a la siguiente del anillo
+        ServerPool.setMaxFailures(1);
+        target.status = 503;
+        ServerPool.probeAll();
+        ServerPool.setMaxFailures(3);
+        assertNotEquals(owner, ServerPool.owner("customer/42").getBaseUri());
+        client.findAccountsByCustomerId_XML(new GenericType<List<Account>>() {}, "42");
+        assertEquals(5, target.requests.get());
+    }
+
+    @Test
+    public void testPoolIsOfflineOnlyWhenEveryCircuitIsOpen() {
+        configure(ServerPool.Balancing.ROUND_ROBIN);
+        CircuitBreaker.setThresholds(2, 50, 5000, 80);
+        RetryPolicy.setMaxAttempts(1);
+        final List<Boolean> changes = new CopyOnWriteArrayList<>();
+        ServerPool.Listener listener = new ServerPool.Listener() {
+            @Override
+            public void offlineChanged(boolean offline) {
+                changes.add(offline);
+            }
+        };
+        ServerPool.addListener(listener);
+        try {
+            AccountRESTClient client = new AccountRESTClient();
+            replicas.get(0).status = 500;
+            replicas.get(1).status = 500;
+            failUntilOpen(client, 0, 1);
+            // Queda una réplica con el disyuntor cerrado
+            assertFalse(ServerPool.isOffline());
+            assertTrue(changes.isEmpty());
+
+            replicas.get(2).status = 500;
+            failUntilOpen(client, 2);
+            assertTrue(ServerPool.isOffline());
+            assertEquals(Collections.singletonList(true), changes);
+
+            CircuitBreaker.resetAll();
+            assertFalse(ServerPool.isOffline());
+            assertEquals(Arrays.asList(true, false), changes);
+        } finally {
+            ServerPool.removeListener(listener);
+            CircuitBreaker.setThresholds(10, 50, 5000, 80);
+            RetryPolicy.setMaxAttempts(3);
+        }
+    }
+
+    private static void failUntilOpen(AccountRESTClient client, int... indexes) {
+        for (int i = 0; i < 20 && !allOpen(indexes); i++) {
+            try {
+                find(client, i);
+            } catch (WebApplicationException | ProcessingException expected) {
+                // fallo contado por el disyuntor de la réplica
+            }
+        }
+        assertTrue(allOpen(indexes));
+    }
+
+    private static boolean allOpen(int... indexes) {
+        for (int index : indexes) {
+            URI uri = URI.create(ServerPool.getNodes().get(index).getBaseUri());
+            if (CircuitBreaker.forServer(uri).getState() != CircuitBreaker.State.OPEN) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,123 @@
+package logic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import model.Account;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Pruebas de ValidatorCache contra un servidor HTTP local mínimo que envía
+ * ETag y responde 304 cuando recibe el mismo valor en If-None-Match.
+ */
+public class ValidatorCacheTest {
+
+    private static final String BODY = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<accounts><account><description>Ahorro</description><id>1</id></account>"
+            + "<account><description>Nomina</description><id>2</id></account></accounts>";
+
+    private HttpServer server;
+    private final AtomicInteger fullResponses = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private volatile String etag = "\"v1\"";
+    private WebTarget target;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/account", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String current = etag;
+                if (current.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModified.incrementAndGet();
+                    exchange.getResponseHeaders().set("ETag", current);
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                fullResponses.incrementAndGet();
+                byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", MediaType.APPLICATION_XML);
+                exchange.getResponseHeaders().set("ETag", current);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        target = RESTClientFactory.getClient()
+                .target("http://127.0.0.1:" + server.getAddress().getPort())
+                .path("account/customer/1");
+        ValidatorCache.setEnabled(true);
+        ValidatorCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private List<Account> fetch() {
+        return AsyncRequests.await(AsyncRequests.get(target, MediaType.APPLICATION_XML,
+                new GenericType<List<Account>>() {}, AsyncRequests.DIRECT));
+    }
+
+    @Test
+    public void testNotModifiedReturnsCachedResult() {
+        ValidatorCacheStatistics before = ValidatorCache.getStatistics();
+        List<Account> first = fetch();
+        List<Account> second = fetch();
+
+        assertEquals(1, fullResponses.get());
+        assertEquals(1, notModified.get());
+        assertEquals(2, second.size());
+        assertEquals("Nomina", second.get(1).getDescription());
+
+        ValidatorCacheStatistics after = ValidatorCache.getStatistics();
+        assertEquals(1, after.getNotModified() - before.getNotModified());
+        assertEquals(BODY.getBytes(StandardCharsets.UTF_8).length,
+                after.getBytesSaved() - before.getBytesSaved());
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void testCallersCannotAlterCachedResult() {
+        fetch().get(0).setDescription("Cambiada en la tabla");
+        assertEquals("Ahorro", fetch().get(0).getDescription());
+    }
+
+    @Test
+    public void testChangedResourceIsDownloadedAgain() {
+        fetch();
+        etag = "\"v2\"";
+        fetch();
+        assertEquals(2, fullResponses.get());
+        assertEquals(0, notModified.get());
+    }
+
+    @Test
+    public void testDisabledCacheSendsNoValidators() {
+        ValidatorCache.setEnabled(false);
+        try {
+            fetch();
+            fetch();
+            assertEquals(2, fullResponses.get());
+        } finally {
+            ValidatorCache.setEnabled(true);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package logic;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.GenericType;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import model.Movement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmark JMH: lectura y escritura de listas de movimientos en XML con
+ * JAXB (como lo hace el proveedor de colecciones de Jersey: StAX y un
+ * Unmarshaller por petición) frente a JSON con EntityJson.
+ * <p>
+ * Los tamaños de los documentos de cada caso se imprimen al preparar el
+ * benchmark.
+ * <p>
+ * Ejecución: {@code java -cp <test classpath> logic.WireFormatBenchmark}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    private static final GenericType<List<Movement>> MOVEMENT_LIST = new GenericType<List<Movement>>() {};
+
+    @Param({"10", "1000", "100000"})
+    public int movements;
+
+    private List<Movement> data;
+    private JAXBContext context;
+    private XMLInputFactory inputFactory;
+    private XMLOutputFactory outputFactory;
+    private byte[] xml;
+    private byte[] json;
+    private ByteArrayOutputStream sink;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Random random = new Random(11);
+        data = new ArrayList<>(movements);
+        long time = 1_500_000_000_000L;
+        double balance = 1000.0;
+        for (int i = 0; i < movements; i++) {
+            time += 1 + random.nextInt(3_600_000);
+            Movement m = new Movement();
+            m.setId((long) i + 1);
+            m.setTimestamp(new Date(time));
+            m.setAmount(random.nextBoolean() ? random.nextInt(50000) / 100.0 : -random.nextInt(30000) / 100.0);
+            balance += m.getAmount();
+            m.setBalance(balance);
+            m.setDescription(m.getAmount() >= 0 ? "Deposit" : "Payment");
+            data.add(m);
+        }
+        context = JAXBContext.newInstance(Movement.class);
+        inputFactory = XMLInputFactory.newInstance();
+        outputFactory = XMLOutputFactory.newInstance();
+        sink = new ByteArrayOutputStream();
+        writeXml();
+        xml = sink.toByteArray();
+        writeJson();
+        json = sink.toByteArray();
+        System.out.println("\n" + movements + " movements: XML " + xml.length + " bytes, JSON "
+                + json.length + " bytes");
+    }
+
+    @Benchmark
+    public List<Movement> readXml() throws JAXBException, XMLStreamException {
+        Unmarshaller unmarshaller = context.createUnmarshaller();
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(new ByteArrayInputStream(xml), "UTF-8");
+        List<Movement> result = new ArrayList<>();
+        // Saltar el elemento raíz <movements>
+        reader.nextTag();
+        reader.next();
+        while (reader.hasNext()) {
+            if (reader.getEventType() == XMLStreamConstants.START_ELEMENT) {
+                result.add(unmarshaller.unmarshal(reader, Movement.class).getValue());
+            } else {
+                reader.next();
+            }
+        }
+        reader.close();
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Benchmark
+    public List<Movement> readJson() throws IOException {
+        return (List<Movement>) EntityJson.read(new InputStreamReader(new ByteArrayInputStream(json),
+                StandardCharsets.UTF_8), MOVEMENT_LIST.getRawType(), MOVEMENT_LIST.getType());
+    }
+
+    @Benchmark
+    public int writeXml() throws JAXBException, XMLStreamException {
+        sink.reset();
+        Marshaller marshaller = context.createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+        XMLStreamWriter writer = outputFactory.createXMLStreamWriter(sink, "UTF-8");
+        writer.writeStartDocument("UTF-8", "1.0");
+        writer.writeStartElement("movements");
+        for (Movement m : data) {
+            marshaller.marshal(m, writer);
+        }
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.flush();
+        return sink.size();
+    }
+
+    @Benchmark
+    public int writeJson() throws IOException {
+        sink.reset();
+        Writer out = new OutputStreamWriter(sink, StandardCharsets.UTF_8);
+        EntityJson.write(out, data);
+        out.flush();
+        return sink.size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(WireFormatBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,824 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import fixtures.BankDataGenerator;
+import fixtures.FixtureReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.stream.StreamSource;
+import logic.EntityJson;
+import logic.Page;
+import logic.RetryPolicy;
+import logic.ServerPool;
+import model.Account;
+import model.Customer;
+import model.Movement;
+
+/**
+ * Servidor sustituto de CRUDBankServerSide, dentro del mismo proceso, para
+ * probar y medir la aplicación sin GlassFish: sirve los recursos
+ * {@code customer}, {@code account} y {@code movement} tal como los llaman
+ * las tres clases {@code logic.*RESTClient}, sobre un {@link BankStore} en
+ * memoria, y arranca en pocos milisegundos.
+ * <p>
+ * Rutas, bajo {@value #CONTEXT}:
+ * <ul>
+ * <li>{@code customer}: GET (todos), POST, PUT; {@code customer/{id}}: GET,
+ * DELETE; {@code customer/sigin/{email}/{password}}: GET (con la errata de
+ * la ruta del servidor real; 401 si no coinciden).</li>
+ * <li>{@code account}: POST, PUT; {@code account/{id}}: GET, DELETE;
+ * {@code account/customer/{id}}: GET.</li>
+ * <li>{@code movement}: PUT; {@code movement/{id}}: GET, DELETE y POST (crea
+ * un movimiento de la cuenta {@code id}); {@code movement/account/{id}}: GET,
+ * con {@code from} y {@code limit} opcionales y la cabecera
+ * {@value logic.Page#TOTAL_COUNT_HEADER}; {@code movement/{id}/batch}: POST
+ * de una lista de movimientos, que devuelve los creados.</li>
+ * </ul>
+ * Como el servidor real, responde en XML o JSON según la cabecera
+ * {@code Accept} y lee los cuerpos según su {@code Content-Type}; un correo
+ * repetido al crear un cliente es un 403 y una entidad que no existe, un
+ * 404. Además, como lo haría un servidor de aplicaciones bien configurado:
+ * <ul>
+ * <li>Las respuestas GET llevan una ETag débil calculada con los sellos del
+ * almacén, y un {@code If-None-Match} que coincide recibe un 304.</li>
+ * <li>Las respuestas de más de 1 KB se comprimen si la petición acepta gzip
+ * o deflate, y los cuerpos comprimidos de las peticiones se descomprimen.</li>
+ * <li>Las listas largas de movimientos se envían por trozos según se
+ * serializan, sin construir el documento entero.</li>
+ * <li>Una escritura repetida con la misma cabecera
+ * {@value logic.RetryPolicy#IDEMPOTENCY_KEY_HEADER} recibe la respuesta de la
+ * primera sin repetirse.</li>
+ * </ul>
+ * Con {@link #setOriginalApi(boolean)} se comporta como el servidor
+ * original, que no pagina ni tiene el recurso de lotes, y con
+ * {@link #setProfile(FaultProfile)} añade latencia, límites de ancho de
+ * banda y fallos como los de una red real (por defecto, el perfil de la
+ * propiedad {@code bank.server.profile}). Con
+ * {@link #setReplay(TrafficReplay)} sirve las respuestas de una sesión
+ * grabada en vez de las de su almacén.
+ * <p>
+ * Ejecución suelta, para usar la aplicación con datos de ejemplo:
+ * {@code java -cp <test classpath> server.BankServer [puerto]} (8080 por
+ * defecto, la misma dirección que el servidor real), con
+ * {@code -Dbank.server.fixture=<fichero>} para cargar datos sintéticos y
+ * {@code -Dbank.server.replay=<fichero>} (y
+ * {@code -Dbank.server.replayScale}) para repetir una grabación.
+ */
+public final class BankServer implements AutoCloseable {
+
+    /** Ruta de los recursos, la misma que en GlassFish. */
+    public static final String CONTEXT = "/CRUDBankServerSide/webresources";
+
+    // Tamaño mínimo de una respuesta para comprimirla
+    private static final int COMPRESS_MIN_BYTES = 1024;
+    // Movimientos a partir de los cuales una lista se envía por trozos
+    private static final int STREAM_MIN_ITEMS = 1000;
+    // Claves de idempotencia recordadas
+    private static final int IDEMPOTENCY_KEYS = 10_000;
+
+    private static final Type MOVEMENT_LIST = new GenericType<List<Movement>>() {}.getType();
+    private static final JAXBContext JAXB;
+    private static final XMLInputFactory XML_INPUT = XMLInputFactory.newInstance();
+
+    static {
+        // Sin TCP_NODELAY, las cabeceras y el cuerpo van en dos segmentos y el
+        // segundo espera al ACK retardado del cliente (unos 40 ms por
+        // respuesta). El HttpServer la lee una vez, al crear el primero.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        try {
+            JAXB = JAXBContext.newInstance(Customer.class, Account.class, Movement.class);
+        } catch (JAXBException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final ThreadLocal<Marshaller> MARSHALLER = new ThreadLocal<Marshaller>() {
+        @Override
+        protected Marshaller initialValue() {
+            try {
+                return JAXB.createMarshaller();
+            } catch (JAXBException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final BankStore store;
+    private final HttpServer server;
+    private final ExecutorService threads;
+    private final AtomicLong requests = new AtomicLong();
+    private final Map<String, Reply> idempotentReplies = new LinkedHashMap<String, Reply>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Reply> eldest) {
+            return size() > IDEMPOTENCY_KEYS;
+        }
+    };
+    private volatile boolean originalApi;
+    private volatile FaultProfile profile = FaultProfile.fromSystemProperties();
+    private volatile TrafficReplay replay;
+    private volatile boolean usedByClients;
+
+    /** Respuesta de un recurso, antes de codificarla. */
+    private static final class Reply {
+
+        final int status;
+        final Object entity;
+        // Elemento raíz de una lista en XML
+        final String root;
+        String etag;
+        final Map<String, String> headers = new LinkedHashMap<>();
+
+        Reply(int status) {
+            this(status, null, null);
+        }
+
+        Reply(int status, Object entity, String root) {
+            this.status = status;
+            this.entity = entity;
+            this.root = root;
+        }
+    }
+
+    /** Petición ya analizada. */
+    private static final class Request {
+
+        final HttpExchange exchange;
+        final String method;
+        final String[] path;
+        final Map<String, String> query;
+        final boolean json;
+
+        Request(HttpExchange exchange, String[] path) {
+            this.exchange = exchange;
+            this.method = exchange.getRequestMethod();
+            this.path = path;
+            this.query = parseQuery(exchange.getRequestURI().getRawQuery());
+            String accept = exchange.getRequestHeaders().getFirst("Accept");
+            this.json = accept != null && accept.contains("json") && !accept.contains("xml");
+        }
+
+        boolean is(String method, int segments) {
+            return this.method.equals(method) && path.length == segments;
+        }
+
+        long id(int segment) {
+            return Long.parseLong(path[segment]);
+        }
+    }
+
+    private BankServer(BankStore store, int port) throws IOException {
+        this.store = store;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        final AtomicInteger count = new AtomicInteger();
+        threads = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "bank-server-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(threads);
+        server.createContext(CONTEXT, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                BankServer.this.handle(exchange);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Arranca un servidor en un puerto libre.
+     *
+     * @param store Datos que sirve.
+     * @return El servidor, ya atendiendo peticiones.
+     * @throws IOException Si no se puede abrir el puerto.
+     */
+    public static BankServer start(BankStore store) throws IOException {
+        return start(store, 0);
+    }
+
+    /**
+     * Arranca un servidor en el puerto dado (0 para uno libre).
+     */
+    public static BankServer start(BankStore store, int port) throws IOException {
+        return new BankServer(store, port);
+    }
+
+    /**
+     * @return URI base de los recursos, como {@code ServerPool.DEFAULT_BASE_URI}.
+     */
+    public String getBaseUri() {
+        return "http://" + server.getAddress().getAddress().getHostAddress() + ":"
+                + server.getAddress().getPort() + CONTEXT;
+    }
+
+    public BankStore getStore() {
+        return store;
+    }
+
+    /**
+     * @return Peticiones recibidas desde el arranque.
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Hace que el servidor se comporte como CRUDBankServerSide: ignora
+     * {@code from} y {@code limit} (sin {@value logic.Page#TOTAL_COUNT_HEADER})
+     * y no tiene {@code movement/{id}/batch}.
+     */
+    public void setOriginalApi(boolean originalApi) {
+        this.originalApi = originalApi;
+    }
+
+    public FaultProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Cambia la latencia y los fallos que se añaden a las peticiones
+     * siguientes.
+     */
+    public void setProfile(FaultProfile profile) {
+        if (profile == null) {
+            throw new IllegalArgumentException("Null profile");
+        }
+        this.profile = profile;
+    }
+
+    public TrafficReplay getReplay() {
+        return replay;
+    }
+
+    /**
+     * Hace que las peticiones siguientes reciban las respuestas grabadas en
+     * vez de las del almacén (null para volver al almacén). El perfil de red
+     * y fallos se sigue aplicando.
+     */
+    public void setReplay(TrafficReplay replay) {
+        this.replay = replay;
+    }
+
+    /**
+     * Dirige a este servidor las peticiones de todos los clientes REST
+     * creados a partir de ahora; {@link #close()} devuelve los clientes al
+     * servidor real.
+     */
+    public void useForClients() {
+        ServerPool.configure(Collections.singletonList(getBaseUri()), ServerPool.Balancing.LEAST_OUTSTANDING);
+        usedByClients = true;
+    }
+
+    /**
+     * Para el servidor.
+     */
+    @Override
+    public void close() {
+        if (usedByClients) {
+            ServerPool.configure(Collections.singletonList(ServerPool.DEFAULT_BASE_URI),
+                    ServerPool.Balancing.LEAST_OUTSTANDING);
+            usedByClients = false;
+        }
+        server.stop(0);
+        threads.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            String raw = exchange.getRequestURI().getRawPath().substring(CONTEXT.length());
+            List<String> segments = new ArrayList<>();
+            for (String segment : raw.split("/")) {
+                if (!segment.isEmpty()) {
+                    segments.add(decode(segment));
+                }
+            }
+            Request request = new Request(exchange, segments.toArray(new String[0]));
+            FaultProfile.Injection injection = profile.inject(endpoint(request));
+            FaultProfile.pause(TimeUnit.MILLISECONDS.toNanos(injection.delayMillis));
+            if (injection.holdMillis > 0) {
+                FaultProfile.pause(TimeUnit.MILLISECONDS.toNanos(injection.holdMillis));
+                throw new InjectedFault("Request held for " + injection.holdMillis + " ms");
+            }
+            TrafficReplay currentReplay = replay;
+            if (currentReplay != null && injection.errorStatus == 0 && !injection.reset) {
+                currentReplay.serve(exchange, raw.startsWith("/") ? raw.substring(1) : raw, injection);
+                exchange.close();
+                return;
+            }
+            Reply reply;
+            try {
+                reply = (injection.errorStatus > 0) ? new Reply(injection.errorStatus) : idempotent(request);
+            } catch (NumberFormatException e) {
+                reply = new Reply(404);
+            } catch (IllegalArgumentException | IOException | JAXBException | XMLStreamException e) {
+                // Cuerpo que no se puede leer
+                reply = new Reply(400);
+            }
+            if (injection.reset) {
+                throw new InjectedFault("Connection reset");
+            }
+            // Un cuerpo sin leer (error inyectado, ruta desconocida) deja la conexión inservible
+            drain(exchange.getRequestBody());
+            send(request, reply, injection);
+        } catch (InjectedFault e) {
+            // Sin cerrar el intercambio: el HttpServer corta la conexión
+            throw e;
+        } catch (RuntimeException e) {
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+        } catch (IOException e) {
+            exchange.close();
+            throw e;
+        }
+        exchange.close();
+    }
+
+    private static void drain(InputStream in) {
+        byte[] buffer = new byte[4096];
+        try {
+            while (in.read(buffer) >= 0) {
+                // Se descarta
+            }
+        } catch (IOException e) {
+            // Ya leído y cerrado
+        }
+    }
+
+    /** Fallo inyectado que deja al cliente sin respuesta. */
+    private static final class InjectedFault extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        InjectedFault(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * @return Método y ruta del recurso, con los ids como {@code {id}}, para
+     * elegir las reglas del perfil.
+     */
+    private static String endpoint(Request request) {
+        StringBuilder endpoint = new StringBuilder(request.method).append(' ');
+        for (int i = 0; i < request.path.length; i++) {
+            if (i > 0) {
+                endpoint.append('/');
+            }
+            if (i >= 2 && "sigin".equals(request.path[1])) {
+                endpoint.append((i == 2) ? "{email}" : "{password}");
+            } else if (isId(request.path[i])) {
+                endpoint.append("{id}");
+            } else {
+                endpoint.append(request.path[i]);
+            }
+        }
+        return endpoint.toString();
+    }
+
+    private static boolean isId(String segment) {
+        if (segment.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < segment.length(); i++) {
+            if (!Character.isDigit(segment.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Atiende la petición, o repite la respuesta de una escritura anterior
+     * con la misma clave de idempotencia.
+     */
+    private Reply idempotent(Request request) throws IOException, JAXBException, XMLStreamException {
+        String key = request.exchange.getRequestHeaders().getFirst(RetryPolicy.IDEMPOTENCY_KEY_HEADER);
+        if (key == null || "GET".equals(request.method)) {
+            return dispatch(request);
+        }
+        key = request.method + " " + request.exchange.getRequestURI().getRawPath() + " " + key;
+        synchronized (idempotentReplies) {
+            Reply previous = idempotentReplies.get(key);
+            if (previous != null) {
+                // El cuerpo de la repetición no se lee
+                return previous;
+            }
+        }
+        Reply reply = dispatch(request);
+        if (reply.status < 500) {
+            synchronized (idempotentReplies) {
+                idempotentReplies.put(key, reply);
+            }
+        }
+        return reply;
+    }
+
+    private Reply dispatch(Request request) throws IOException, JAXBException, XMLStreamException {
+        if (request.path.length == 0) {
+            return new Reply(404);
+        }
+        switch (request.path[0]) {
+            case "customer":
+                return customer(request);
+            case "account":
+                return account(request);
+            case "movement":
+                return movement(request);
+            default:
+                return new Reply(404);
+        }
+    }
+
+    // --- Recursos ---
+
+    private Reply customer(Request request) throws IOException, JAXBException, XMLStreamException {
+        if (request.is("GET", 1)) {
+            List<BankStore.Record<Customer>> records = store.customerRecords();
+            List<Customer> customers = new ArrayList<>();
+            for (BankStore.Record<Customer> record : records) {
+                customers.add(BankStore.copy(record.value));
+            }
+            return list(request, customers, "customers", records, 0, Integer.MAX_VALUE);
+        }
+        if (request.is("GET", 2)) {
+            BankStore.Record<Customer> record = store.customerRecord(request.id(1));
+            return (record == null) ? new Reply(404) : entity(request, BankStore.copy(record.value), record.stamp);
+        }
+        if (request.is("GET", 4) && "sigin".equals(request.path[1])) {
+            Customer customer = store.signIn(request.path[2], request.path[3]);
+            return (customer == null) ? new Reply(401) : new Reply(200, customer, null);
+        }
+        if (request.is("POST", 1)) {
+            try {
+                store.addCustomer(read(request, Customer.class));
+                return new Reply(204);
+            } catch (IllegalStateException e) {
+                return new Reply(403);
+            }
+        }
+        if (request.is("PUT", 1)) {
+            try {
+                return new Reply(store.updateCustomer(read(request, Customer.class)) ? 204 : 404);
+            } catch (IllegalStateException e) {
+                return new Reply(403);
+            }
+        }
+        if (request.is("DELETE", 2)) {
+            return new Reply(store.removeCustomer(request.id(1)) ? 204 : 404);
+        }
+        return notAllowed(request);
+    }
+
+    private Reply account(Request request) throws IOException, JAXBException, XMLStreamException {
+        if (request.is("GET", 2)) {
+            BankStore.Record<Account> record = store.accountRecord(request.id(1));
+            return (record == null) ? new Reply(404) : entity(request, store.represent(record.value), record.stamp);
+        }
+        if (request.is("GET", 3) && "customer".equals(request.path[1])) {
+            List<BankStore.Record<Account>> records = store.accountRecords(request.id(2));
+            List<Account> accounts = new ArrayList<>();
+            for (BankStore.Record<Account> record : records) {
+                accounts.add(store.represent(record.value));
+            }
+            return list(request, accounts, "accounts", records, 0, Integer.MAX_VALUE);
+        }
+        if (request.is("POST", 1)) {
+            try {
+                store.addAccount(read(request, Account.class));
+                return new Reply(204);
+            } catch (IllegalStateException e) {
+                return new Reply(403);
+            }
+        }
+        if (request.is("PUT", 1)) {
+            return new Reply(store.updateAccount(read(request, Account.class)) ? 204 : 404);
+        }
+        if (request.is("DELETE", 2)) {
+            return new Reply(store.removeAccount(request.id(1)) ? 204 : 404);
+        }
+        return notAllowed(request);
+    }
+
+    private Reply movement(Request request) throws IOException, JAXBException, XMLStreamException {
+        if (request.is("GET", 2)) {
+            BankStore.Record<Movement> record = store.movementRecord(request.id(1));
+            return (record == null) ? new Reply(404) : entity(request, BankStore.copy(record.value), record.stamp);
+        }
+        if (request.is("GET", 3) && "account".equals(request.path[1])) {
+            long accountId = request.id(2);
+            List<BankStore.Record<Movement>> records = store.movementRecords(accountId);
+            int total = records.size();
+            int from = 0;
+            int limit = Integer.MAX_VALUE;
+            boolean paged = !originalApi && (request.query.containsKey("from") || request.query.containsKey("limit"));
+            if (paged) {
+                from = Math.max(0, intParam(request, "from", 0));
+                limit = Math.max(0, intParam(request, "limit", Integer.MAX_VALUE));
+                records = records.subList(Math.min(from, total), (int) Math.min(total, (long) from + limit));
+            }
+            List<Movement> movements = new ArrayList<>(records.size());
+            for (BankStore.Record<Movement> record : records) {
+                movements.add(record.value);
+            }
+            Reply reply = list(request, movements, "movements", records, from, limit);
+            if (paged) {
+                reply.headers.put(Page.TOTAL_COUNT_HEADER, Integer.toString(total));
+            }
+            return reply;
+        }
+        if (request.is("POST", 2)) {
+            Movement created = store.addMovement(request.id(1), read(request, Movement.class));
+            return new Reply((created == null) ? 404 : 204);
+        }
+        if (request.is("POST", 3) && "batch".equals(request.path[2]) && !originalApi) {
+            long accountId = request.id(1);
+            if (!store.hasAccount(accountId)) {
+                return new Reply(404);
+            }
+            List<Movement> created = new ArrayList<>();
+            for (Movement movement : readMovements(request)) {
+                created.add(store.addMovement(accountId, movement));
+            }
+            return new Reply(200, created, "movements");
+        }
+        if (request.is("PUT", 1)) {
+            return new Reply(store.updateMovement(read(request, Movement.class)) ? 204 : 404);
+        }
+        if (request.is("DELETE", 2)) {
+            return new Reply(store.removeMovement(request.id(1)) ? 204 : 404);
+        }
+        return notAllowed(request);
+    }
+
+    private static Reply notAllowed(Request request) {
+        // Las rutas conocidas con otro método son un 405, las demás un 404
+        return new Reply((request.path.length <= 2) ? 405 : 404);
+    }
+
+    private static Reply entity(Request request, Object value, long stamp) {
+        Reply reply = new Reply(200, value, null);
+        reply.etag = "W/\"" + Long.toHexString(stamp) + (request.json ? "j" : "x") + "\"";
+        return reply;
+    }
+
+    /**
+     * Lista con la ETag de sus registros: el sello más alto cambia con cada
+     * alta o modificación y el número de elementos con cada baja.
+     */
+    private static Reply list(Request request, List<?> items, String root,
+            List<? extends BankStore.Record<?>> records, int from, int limit) {
+        long newest = 0;
+        for (BankStore.Record<?> record : records) {
+            newest = Math.max(newest, record.stamp);
+        }
+        Reply reply = new Reply(200, items, root);
+        reply.etag = "W/\"" + Long.toHexString(newest) + "-" + records.size() + "-" + from + "-"
+                + ((limit == Integer.MAX_VALUE) ? "all" : Integer.toString(limit))
+                + (request.json ? "j" : "x") + "\"";
+        return reply;
+    }
+
+    private static int intParam(Request request, String name, int missing) {
+        String value = request.query.get(name);
+        return (value == null) ? missing : Integer.parseInt(value);
+    }
+
+    // --- Representaciones ---
+
+    private void send(Request request, Reply reply, FaultProfile.Injection injection) throws IOException {
+        HttpExchange exchange = request.exchange;
+        for (Map.Entry<String, String> header : reply.headers.entrySet()) {
+            exchange.getResponseHeaders().set(header.getKey(), header.getValue());
+        }
+        if (reply.etag != null) {
+            exchange.getResponseHeaders().set("ETag", reply.etag);
+            String match = exchange.getRequestHeaders().getFirst("If-None-Match");
+            if (match != null && (match.equals(reply.etag) || match.equals("*"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+        }
+        if (reply.entity == null) {
+            exchange.sendResponseHeaders(reply.status, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type",
+                request.json ? MediaType.APPLICATION_JSON : MediaType.APPLICATION_XML);
+        String encoding = encoding(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+        if (reply.entity instanceof List && ((List<?>) reply.entity).size() >= STREAM_MIN_ITEMS) {
+            // Por trozos, según se serializa
+            if (encoding != null) {
+                exchange.getResponseHeaders().set("Content-Encoding", encoding);
+            }
+            exchange.sendResponseHeaders(reply.status, 0);
+            try (OutputStream out = encode(injection.wrap(exchange.getResponseBody()), encoding)) {
+                write(out, request.json, reply);
+            }
+            return;
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        write(buffer, request.json, reply);
+        byte[] body = buffer.toByteArray();
+        if (encoding != null && body.length >= COMPRESS_MIN_BYTES) {
+            buffer = new ByteArrayOutputStream();
+            try (OutputStream out = encode(buffer, encoding)) {
+                out.write(body);
+            }
+            body = buffer.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", encoding);
+        }
+        exchange.sendResponseHeaders(reply.status, body.length);
+        try (OutputStream out = injection.wrap(exchange.getResponseBody())) {
+            out.write(body);
+        }
+    }
+
+    private static void write(OutputStream out, boolean json, Reply reply) throws IOException {
+        if (json) {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            EntityJson.write(writer, reply.entity);
+            writer.flush();
+            return;
+        }
+        try {
+            Marshaller marshaller = MARSHALLER.get();
+            if (reply.entity instanceof List) {
+                Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><" + reply.root + ">");
+                marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+                for (Object item : (List<?>) reply.entity) {
+                    marshaller.marshal(item, writer);
+                }
+                writer.write("</" + reply.root + ">");
+                writer.flush();
+            } else {
+                marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.FALSE);
+                marshaller.marshal(reply.entity, out);
+            }
+        } catch (JAXBException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static <T> T read(Request request, Class<T> type) throws IOException, JAXBException {
+        try (InputStream in = body(request)) {
+            if (isJson(request)) {
+                return type.cast(EntityJson.read(new InputStreamReader(in, StandardCharsets.UTF_8), type, type));
+            }
+            Unmarshaller unmarshaller = JAXB.createUnmarshaller();
+            return unmarshaller.unmarshal(new StreamSource(in), type).getValue();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Movement> readMovements(Request request) throws IOException, JAXBException, XMLStreamException {
+        try (InputStream in = body(request)) {
+            if (isJson(request)) {
+                return (List<Movement>) EntityJson.read(new InputStreamReader(in, StandardCharsets.UTF_8), List.class, MOVEMENT_LIST);
+            }
+            Unmarshaller unmarshaller = JAXB.createUnmarshaller();
+            XMLStreamReader reader = XML_INPUT.createXMLStreamReader(in);
+            List<Movement> movements = new ArrayList<>();
+            reader.nextTag();
+            reader.nextTag();
+            while (reader.getEventType() == XMLStreamConstants.START_ELEMENT) {
+                movements.add(unmarshaller.unmarshal(reader, Movement.class).getValue());
+                while (reader.getEventType() != XMLStreamConstants.START_ELEMENT
+                        && reader.getEventType() != XMLStreamConstants.END_ELEMENT) {
+                    reader.next();
+                }
+            }
+            return movements;
+        }
+    }
+
+    private static boolean isJson(Request request) {
+        String type = request.exchange.getRequestHeaders().getFirst("Content-Type");
+        return type != null && type.contains("json");
+    }
+
+    private static InputStream body(Request request) throws IOException {
+        InputStream in = request.exchange.getRequestBody();
+        String encoding = request.exchange.getRequestHeaders().getFirst("Content-Encoding");
+        if ("gzip".equalsIgnoreCase(encoding)) {
+            return new GZIPInputStream(in);
+        }
+        if ("deflate".equalsIgnoreCase(encoding)) {
+            return new InflaterInputStream(in);
+        }
+        return in;
+    }
+
+    private static String encoding(String accepted) {
+        if (accepted == null) {
+            return null;
+        }
+        accepted = accepted.toLowerCase(Locale.ROOT);
+        if (accepted.contains("gzip")) {
+            return "gzip";
+        }
+        return accepted.contains("deflate") ? "deflate" : null;
+    }
+
+    private static OutputStream encode(OutputStream out, String encoding) throws IOException {
+        if ("gzip".equals(encoding)) {
+            return new GZIPOutputStream(out);
+        }
+        return "deflate".equals(encoding) ? new DeflaterOutputStream(out) : out;
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> result = new LinkedHashMap<>();
+        if (query == null) {
+            return result;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                result.put(decode(pair.substring(0, equals)), decode(pair.substring(equals + 1)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Decodifica un segmento como JAX-RS: solo las secuencias {@code %xx}
+     * ({@code +} no es un espacio en una ruta).
+     */
+    private static String decode(String segment) {
+        try {
+            return URLDecoder.decode(segment.replace("+", "%2B"), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : 8080;
+        long start = System.nanoTime();
+        BankStore store = BankStore.sample();
+        String fixture = System.getProperty("bank.server.fixture");
+        if (fixture != null) {
+            // Datos sintéticos de BankDataGenerator en vez de los de ejemplo
+            store = new BankStore();
+            FixtureReader.read(Paths.get(fixture), BankDataGenerator.into(store));
+        }
+        BankServer server = start(store, port);
+        String recording = System.getProperty("bank.server.replay");
+        if (recording != null) {
+            // Respuestas grabadas por logic.TrafficRecorder en vez de las del almacén
+            TrafficReplay replay = TrafficReplay.load(Paths.get(recording));
+            replay.setTimeScale(Double.parseDouble(System.getProperty("bank.server.replayScale", "1")));
+            server.setReplay(replay);
+        }
+        System.out.println("Servidor sustituto en " + server.getBaseUri() + " ("
+                + (System.nanoTime() - start) / 1_000_000 + " ms, perfil " + server.getProfile().getName() + ")");
+        Thread.currentThread().join();
+    }
+}
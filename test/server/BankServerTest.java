@@ -0,0 +1,264 @@
+package server;
+
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.ForbiddenException;
+import javax.ws.rs.NotAuthorizedException;
+import javax.ws.rs.core.GenericType;
+import logic.AccountRESTClient;
+import logic.BatchResult;
+import logic.ContentEncoding;
+import logic.CustomerRESTClient;
+import logic.EntityCache;
+import logic.MovementRESTClient;
+import logic.Page;
+import logic.RetryPolicy;
+import logic.TrafficStatistics;
+import logic.ValidatorCache;
+import model.Account;
+import model.AccountType;
+import model.Customer;
+import model.Movement;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Pruebas del servidor sustituto con los clientes REST reales: entrada con
+ * la ruta {@code sigin}, XML y JSON, altas y bajas, ETag, compresión,
+ * paginación, lotes y claves de idempotencia.
+ */
+public class BankServerTest {
+
+    private static final GenericType<List<Account>> ACCOUNTS = new GenericType<List<Account>>() {};
+    private static final GenericType<List<Movement>> MOVEMENTS = new GenericType<List<Movement>>() {};
+
+    private BankServer server;
+    private long startMillis;
+
+    @Before
+    public void setUp() throws Exception {
+        long start = System.nanoTime();
+        server = BankServer.start(BankStore.sample());
+        startMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        server.useForClients();
+        EntityCache.setEnabled(false);
+        ValidatorCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        EntityCache.setEnabled(true);
+        ContentEncoding.setEnabled(false);
+    }
+
+    private Customer signIn(String email, String password) throws Exception {
+        // Como GestionUsuariosController: el correo y la contraseña van codificados
+        return new CustomerRESTClient().findCustomerByEmailPassword(Customer.class,
+                URLEncoder.encode(email, "UTF-8"), URLEncoder.encode(password, "UTF-8"));
+    }
+
+    @Test
+    public void testStartsQuicklyAndSignsIn() throws Exception {
+        assertTrue("started in " + startMillis + " ms", startMillis < 1000);
+        Customer customer = signIn("awallace@gmail.com", "qwerty*9876");
+        assertEquals("Wallace", customer.getLastName());
+        assertNotNull(customer.getId());
+        try {
+            signIn("awallace@gmail.com", "wrong");
+            fail("Wrong password accepted");
+        } catch (NotAuthorizedException e) {
+            assertEquals(401, e.getResponse().getStatus());
+        }
+    }
+
+    @Test
+    public void testXmlAndJsonGiveTheSameEntities() throws Exception {
+        String id = signIn("awallace@gmail.com", "qwerty*9876").getId().toString();
+        AccountRESTClient accounts = new AccountRESTClient();
+        List<Account> xml = accounts.findAccountsByCustomerId_XML(ACCOUNTS, id);
+        List<Account> json = accounts.findAccountsByCustomerId_JSON(ACCOUNTS, id);
+        assertEquals(2, xml.size());
+        assertEquals(xml.size(), json.size());
+        for (int i = 0; i < xml.size(); i++) {
+            assertEquals(xml.get(i).getId(), json.get(i).getId());
+            assertEquals(xml.get(i).getBalance(), json.get(i).getBalance());
+            assertEquals(xml.get(i).getType(), json.get(i).getType());
+            assertEquals(1, xml.get(i).getCustomers().size());
+        }
+        MovementRESTClient movements = new MovementRESTClient();
+        String accountId = xml.get(0).getId().toString();
+        List<Movement> xmlMovements = movements.findMovementByAccount_XML(MOVEMENTS, accountId);
+        List<Movement> jsonMovements = movements.findMovementByAccount_JSON(MOVEMENTS, accountId);
+        assertEquals(6, xmlMovements.size());
+        assertEquals(xmlMovements.get(5).getBalance(), jsonMovements.get(5).getBalance());
+        assertEquals(xmlMovements.get(5).getTimestamp(), jsonMovements.get(5).getTimestamp());
+        assertEquals(xml.get(0).getBalance(), xmlMovements.get(5).getBalance());
+    }
+
+    @Test
+    public void testCreateAndUndoMovement() throws Exception {
+        Customer customer = signIn("jsmith@gmail.com", "abcd*1234");
+        AccountRESTClient accounts = new AccountRESTClient();
+        Account account = accounts.findAccountsByCustomerId_XML(ACCOUNTS, customer.getId().toString()).get(0);
+        MovementRESTClient movements = new MovementRESTClient();
+        String accountId = account.getId().toString();
+
+        Movement movement = new Movement();
+        movement.setAmount(-100.0);
+        movement.setBalance(account.getBalance() - 100.0);
+        movement.setDescription("Payment");
+        movement.setTimestamp(new Date());
+        movements.create(movement, accountId);
+        List<Movement> after = movements.findMovementByAccount_XML(MOVEMENTS, accountId);
+        assertEquals(4, after.size());
+        Movement last = after.get(3);
+        // El saldo del movimiento pasa a la cuenta, como en el servidor real
+        assertEquals(movement.getBalance(), accounts.find_XML(new GenericType<Account>(Account.class), accountId).getBalance());
+
+        movements.remove(last.getId().toString());
+        assertEquals(3, movements.findMovementByAccount_XML(MOVEMENTS, accountId).size());
+    }
+
+    @Test
+    public void testNewAccountAndDuplicateCustomer() throws Exception {
+        Customer customer = signIn("awallace@gmail.com", "qwerty*9876");
+        Account account = new Account();
+        account.setId(9001L);
+        account.setType(AccountType.CREDIT);
+        account.setDescription("New Account");
+        account.setBalance(0.0);
+        account.setBeginBalance(0.0);
+        account.setCreditLine(500.0);
+        account.setBeginBalanceTimestamp(new Date());
+        account.setCustomers(new HashSet<Customer>());
+        account.getCustomers().add(customer);
+        AccountRESTClient accounts = new AccountRESTClient();
+        accounts.createAccount(account);
+        assertEquals(3, accounts.findAccountsByCustomerId_XML(ACCOUNTS, customer.getId().toString()).size());
+
+        Customer copy = new Customer();
+        copy.setEmail("AWallace@gmail.com");
+        copy.setPassword("x");
+        try {
+            new CustomerRESTClient().create(copy);
+            fail("Duplicate email accepted");
+        } catch (ForbiddenException e) {
+            assertEquals(403, e.getResponse().getStatus());
+        }
+    }
+
+    @Test
+    public void testRepeatedGetIsNotModified() throws Exception {
+        String id = signIn("awallace@gmail.com", "qwerty*9876").getId().toString();
+        AccountRESTClient accounts = new AccountRESTClient();
+        long before = ValidatorCache.getStatistics().getNotModified();
+        accounts.findAccountsByCustomerId_XML(ACCOUNTS, id);
+        accounts.findAccountsByCustomerId_XML(ACCOUNTS, id);
+        assertEquals(before + 1, ValidatorCache.getStatistics().getNotModified());
+
+        // Un cambio en una cuenta cambia la ETag de la lista
+        Account account = accounts.findAccountsByCustomerId_XML(ACCOUNTS, id).get(0);
+        account.setDescription("Renamed");
+        accounts.updateAccount(account);
+        assertEquals("Renamed", accounts.findAccountsByCustomerId_XML(ACCOUNTS, id).get(0).getDescription());
+    }
+
+    @Test
+    public void testLargeListsAreCompressedAndPaged() throws Exception {
+        long accountId = server.getStore().findAccountsByCustomer(1).get(0).getId();
+        for (int i = 0; i < 2000; i++) {
+            Movement movement = new Movement();
+            movement.setAmount(1.0);
+            movement.setDescription("Deposit");
+            movement.setTimestamp(new Date(i * 1000L));
+            server.getStore().addMovement(accountId, movement);
+        }
+        ContentEncoding.setEnabled(true);
+        ContentEncoding.clearStatistics();
+        MovementRESTClient movements = new MovementRESTClient();
+        assertEquals(2006, movements.findMovementByAccount_XML(MOVEMENTS, Long.toString(accountId)).size());
+        long compressed = 0;
+        for (TrafficStatistics statistics : ContentEncoding.getStatistics().values()) {
+            compressed += statistics.getCompressedResponses();
+        }
+        assertEquals(1, compressed);
+
+        Page<Movement> page = movements.findMovementByAccountPage_XML(Long.toString(accountId), 2000, 100);
+        assertEquals(6, page.getItems().size());
+        assertEquals(2006, page.getTotal());
+
+        // Como el servidor original: sin paginación
+        server.setOriginalApi(true);
+        ValidatorCache.clear();
+        page = movements.findMovementByAccountPage_XML(Long.toString(accountId), 0, 100);
+        assertEquals(2006, page.getItems().size());
+    }
+
+    @Test
+    public void testBatchAndIdempotencyKey() throws Exception {
+        long accountId = server.getStore().findAccountsByCustomer(2).get(0).getId();
+        List<Movement> items = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Movement movement = new Movement();
+            movement.setAmount(10.0 + i);
+            movement.setDescription("Deposit");
+            movement.setTimestamp(new Date());
+            items.add(movement);
+        }
+        long before = server.getRequestCount();
+        List<BatchResult<Movement>> results = new MovementRESTClient().createAll(items, Long.toString(accountId));
+        assertEquals(5, results.size());
+        for (BatchResult<Movement> result : results) {
+            assertTrue(result.isSuccess());
+            assertNotNull(result.getItem().getId());
+        }
+        assertEquals(before + 1, server.getRequestCount());
+        assertEquals(8, server.getStore().countMovements(accountId));
+
+        // Un segundo intento de la misma operación no crea otro movimiento
+        String key = RetryPolicy.newIdempotencyKey();
+        Movement movement = new Movement();
+        movement.setAmount(1.0);
+        movement.setTimestamp(new Date());
+        MovementRESTClient client = new MovementRESTClient();
+        client.create(movement, Long.toString(accountId), key);
+        client.create(movement, Long.toString(accountId), key);
+        assertEquals(9, server.getStore().countMovements(accountId));
+
+        // Las variantes asíncronas reciben la clave igual que las síncronas
+        String asyncKey = RetryPolicy.newIdempotencyKey();
+        client.createAsync(movement, Long.toString(accountId), asyncKey, Runnable::run).toCompletableFuture().get();
+        client.createAsync(movement, Long.toString(accountId), asyncKey, Runnable::run).toCompletableFuture().get();
+        assertEquals(10, server.getStore().countMovements(accountId));
+        Account account = server.getStore().findAccount(accountId);
+        account.setId(null);
+        String accountKey = RetryPolicy.newIdempotencyKey();
+        AccountRESTClient accounts = new AccountRESTClient();
+        int count = server.getStore().findAccountsByCustomer(2).size();
+        accounts.createAccountAsync(account, accountKey, Runnable::run).toCompletableFuture().get();
+        accounts.createAccountAsync(account, accountKey, Runnable::run).toCompletableFuture().get();
+        assertEquals(count + 1, server.getStore().findAccountsByCustomer(2).size());
+    }
+
+    @Test
+    public void testAsyncClientsAgainstTheStandIn() throws Exception {
+        String id = signIn("awallace@gmail.com", "qwerty*9876").getId().toString();
+        List<Account> accounts = new AccountRESTClient()
+                .findAccountsByCustomerIdAsync_XML(ACCOUNTS, id, new Executor() {
+                    @Override
+                    public void execute(Runnable task) {
+                        task.run();
+                    }
+                })
+                .toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertEquals(2, accounts.size());
+    }
+}
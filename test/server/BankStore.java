@@ -0,0 +1,612 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import model.Account;
+import model.AccountType;
+import model.Customer;
+import model.Movement;
+
+/**
+ * Almacén en memoria del servidor sustituto: clientes, cuentas y movimientos
+ * en mapas concurrentes, sin bloqueos globales, con las mismas relaciones que
+ * la base de datos del servidor real (una cuenta tiene varios clientes y un
+ * movimiento pertenece a una cuenta).
+ * <p>
+ * Se guardan copias de las entidades y cada consulta devuelve copias nuevas,
+ * así que ni el servidor ni las pruebas comparten objetos con él. Cada
+ * escritura estampa el registro con un número creciente, que el servidor usa
+ * para calcular las ETag sin serializar nada.
+ * <p>
+ * Los movimientos de cada cuenta se guardan en orden de id, que es el orden
+ * en que el servidor los devuelve y pagina.
+ */
+public final class BankStore {
+
+    /** Valor guardado y sello de su última escritura. */
+    static final class Record<T> {
+
+        final T value;
+        final long stamp;
+
+        Record(T value, long stamp) {
+            this.value = value;
+            this.stamp = stamp;
+        }
+    }
+
+    private final AtomicLong stamps = new AtomicLong();
+    private final AtomicLong customerIds = new AtomicLong();
+    private final AtomicLong accountIds = new AtomicLong();
+    private final AtomicLong movementIds = new AtomicLong();
+
+    private final Map<Long, Record<Customer>> customers = new ConcurrentHashMap<>();
+    private final Map<String, Long> customersByEmail = new ConcurrentHashMap<>();
+    private final Map<Long, Record<Account>> accounts = new ConcurrentHashMap<>();
+    // Clientes de cada cuenta y cuentas de cada cliente
+    private final Map<Long, Set<Long>> owners = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Long>> accountsByCustomer = new ConcurrentHashMap<>();
+    private final Map<Long, ConcurrentSkipListMap<Long, Record<Movement>>> movementsByAccount = new ConcurrentHashMap<>();
+    private final Map<Long, Long> movementAccounts = new ConcurrentHashMap<>();
+
+    /**
+     * Datos de ejemplo: los usuarios con los que entran las pruebas de la
+     * interfaz ({@code awallace@gmail.com} / {@code qwerty*9876} y
+     * {@code jsmith@gmail.com} / {@code abcd*1234}), con una cuenta estándar
+     * y otra de crédito cada uno y algunos movimientos.
+     *
+     * @return Un almacén nuevo con esos datos.
+     */
+    public static BankStore sample() {
+        BankStore store = new BankStore();
+        Customer wallace = store.addCustomer(customer("Anne", "R", "Wallace", "awallace@gmail.com", "qwerty*9876"));
+        Customer smith = store.addCustomer(customer("John", "K", "Smith", "jsmith@gmail.com", "abcd*1234"));
+        long day = 24L * 60 * 60 * 1000;
+        long start = date(2024, Calendar.JANUARY, 8).getTime();
+        store.sampleAccount(wallace, AccountType.STANDARD, "Cuenta nómina", 0, 1200.0,
+                new double[]{1500.0, -320.45, -89.9, 250.0, -1200.0, 2100.0}, start, day);
+        store.sampleAccount(wallace, AccountType.CREDIT, "Tarjeta de crédito", 3000.0, 0.0,
+                new double[]{-450.0, -120.3, 300.0}, start, day);
+        store.sampleAccount(smith, AccountType.STANDARD, "Cuenta ahorro", 0, 5000.0,
+                new double[]{250.0, 250.0, -75.5}, start, day);
+        store.sampleAccount(smith, AccountType.CREDIT, "Crédito vivienda", 10000.0, -2500.0,
+                new double[]{-800.0, 400.0}, start, day);
+        return store;
+    }
+
+    private static Customer customer(String first, String middle, String last, String email, String password) {
+        Customer customer = new Customer();
+        customer.setFirstName(first);
+        customer.setMiddleInitial(middle);
+        customer.setLastName(last);
+        customer.setStreet("Calle Mayor 1");
+        customer.setCity("Bilbao");
+        customer.setState("Bizkaia");
+        customer.setZip(48001);
+        customer.setPhone(944000000L);
+        customer.setEmail(email);
+        customer.setPassword(password);
+        return customer;
+    }
+
+    private static Date date(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(year, month, day, 9, 0);
+        return calendar.getTime();
+    }
+
+    private void sampleAccount(Customer owner, AccountType type, String description,
+            double creditLine, double beginBalance, double[] amounts, long start, long step) {
+        Account account = new Account();
+        account.setType(type);
+        account.setDescription(description);
+        account.setCreditLine(creditLine);
+        account.setBeginBalance(beginBalance);
+        account.setBeginBalanceTimestamp(new Date(start));
+        account.setBalance(beginBalance);
+        account.setCustomers(new HashSet<>(Collections.singleton(owner)));
+        account = addAccount(account);
+        double balance = beginBalance;
+        for (int i = 0; i < amounts.length; i++) {
+            balance += amounts[i];
+            Movement movement = new Movement();
+            movement.setTimestamp(new Date(start + (i + 1) * step));
+            movement.setAmount(amounts[i]);
+            movement.setBalance(balance);
+            movement.setDescription(amounts[i] < 0 ? "Payment" : "Deposit");
+            addMovement(account.getId(), movement);
+        }
+    }
+
+    // --- Clientes ---
+
+    /**
+     * Guarda un cliente nuevo, con el id dado o uno nuevo si no tiene.
+     *
+     * @return Copia del cliente guardado, con su id.
+     * @throws IllegalStateException Si el correo o el id ya existen.
+     */
+    public Customer addCustomer(Customer customer) {
+        Customer stored = copy(customer);
+        stored.setId(nextId(customerIds, customer.getId()));
+        String email = emailKey(stored.getEmail());
+        if (email != null && customersByEmail.putIfAbsent(email, stored.getId()) != null) {
+            throw new IllegalStateException("Email already registered: " + stored.getEmail());
+        }
+        if (customers.putIfAbsent(stored.getId(), record(stored)) != null) {
+            if (email != null) {
+                customersByEmail.remove(email, stored.getId());
+            }
+            throw new IllegalStateException("Customer already exists: " + stored.getId());
+        }
+        return copy(stored);
+    }
+
+    /**
+     * Sustituye los datos de un cliente existente.
+     *
+     * @return false si no existe.
+     * @throws IllegalStateException Si el correo nuevo es de otro cliente.
+     */
+    public boolean updateCustomer(Customer customer) {
+        Long id = customer.getId();
+        Record<Customer> old = (id == null) ? null : customers.get(id);
+        if (old == null) {
+            return false;
+        }
+        Customer stored = copy(customer);
+        String email = emailKey(stored.getEmail());
+        String oldEmail = emailKey(old.value.getEmail());
+        if (email != null && !email.equals(oldEmail)) {
+            Long owner = customersByEmail.putIfAbsent(email, id);
+            if (owner != null && !owner.equals(id)) {
+                throw new IllegalStateException("Email already registered: " + stored.getEmail());
+            }
+            if (oldEmail != null) {
+                customersByEmail.remove(oldEmail, id);
+            }
+        }
+        customers.put(id, record(stored));
+        // Las cuentas llevan a sus clientes dentro: cambian también
+        touchCustomerAccounts(id);
+        return true;
+    }
+
+    /**
+     * Borra un cliente; sus cuentas se conservan.
+     *
+     * @return false si no existía.
+     */
+    public boolean removeCustomer(long id) {
+        Record<Customer> old = customers.remove(id);
+        if (old == null) {
+            return false;
+        }
+        String email = emailKey(old.value.getEmail());
+        if (email != null) {
+            customersByEmail.remove(email, id);
+        }
+        Set<Long> owned = accountsByCustomer.remove(id);
+        if (owned != null) {
+            for (Long accountId : owned) {
+                Set<Long> accountOwners = owners.get(accountId);
+                if (accountOwners != null) {
+                    accountOwners.remove(id);
+                }
+                touchAccount(accountId);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Copia del cliente, o null si no existe.
+     */
+    public Customer findCustomer(long id) {
+        Record<Customer> record = customers.get(id);
+        return (record == null) ? null : copy(record.value);
+    }
+
+    /**
+     * @return Copias de todos los clientes, por id.
+     */
+    public List<Customer> findCustomers() {
+        List<Customer> result = new ArrayList<>();
+        for (Record<Customer> record : customerRecords()) {
+            result.add(copy(record.value));
+        }
+        return result;
+    }
+
+    /**
+     * @return El cliente con ese correo y contraseña, o null si no hay
+     * ninguno.
+     */
+    public Customer signIn(String email, String password) {
+        String key = emailKey(email);
+        Long id = (key == null) ? null : customersByEmail.get(key);
+        Record<Customer> record = (id == null) ? null : customers.get(id);
+        if (record == null || password == null || !password.equals(record.value.getPassword())) {
+            return null;
+        }
+        return copy(record.value);
+    }
+
+    // --- Cuentas ---
+
+    /**
+     * Guarda una cuenta nueva, con el id dado o uno nuevo si no tiene, y la
+     * asocia a los clientes de su conjunto {@code customers} que existan.
+     *
+     * @return Copia de la cuenta guardada, con su id y sus clientes.
+     * @throws IllegalStateException Si el id ya existe.
+     */
+    public Account addAccount(Account account) {
+        Account stored = copy(account);
+        stored.setId(nextId(accountIds, account.getId()));
+        if (accounts.putIfAbsent(stored.getId(), record(stored)) != null) {
+            throw new IllegalStateException("Account already exists: " + stored.getId());
+        }
+        owners.put(stored.getId(), ConcurrentHashMap.<Long>newKeySet());
+        movementsByAccount.put(stored.getId(), new ConcurrentSkipListMap<Long, Record<Movement>>());
+        link(stored.getId(), account.getCustomers());
+        return findAccount(stored.getId());
+    }
+
+    /**
+     * Sustituye los datos de una cuenta existente. Si trae clientes, pasan a
+     * ser sus clientes; si no, conserva los que tenía.
+     *
+     * @return false si no existe.
+     */
+    public boolean updateAccount(Account account) {
+        Long id = account.getId();
+        if (id == null || accounts.replace(id, record(copy(account))) == null) {
+            return false;
+        }
+        if (account.getCustomers() != null && !account.getCustomers().isEmpty()) {
+            Set<Long> accountOwners = owners.get(id);
+            if (accountOwners != null) {
+                for (Long customerId : accountOwners) {
+                    Set<Long> owned = accountsByCustomer.get(customerId);
+                    if (owned != null) {
+                        owned.remove(id);
+                    }
+                }
+                accountOwners.clear();
+            }
+            link(id, account.getCustomers());
+        }
+        return true;
+    }
+
+    /**
+     * Borra una cuenta con todos sus movimientos.
+     *
+     * @return false si no existía.
+     */
+    public boolean removeAccount(long id) {
+        if (accounts.remove(id) == null) {
+            return false;
+        }
+        Set<Long> accountOwners = owners.remove(id);
+        if (accountOwners != null) {
+            for (Long customerId : accountOwners) {
+                Set<Long> owned = accountsByCustomer.get(customerId);
+                if (owned != null) {
+                    owned.remove(id);
+                }
+            }
+        }
+        Map<Long, Record<Movement>> movements = movementsByAccount.remove(id);
+        if (movements != null) {
+            for (Long movementId : movements.keySet()) {
+                movementAccounts.remove(movementId);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Copia de la cuenta con sus clientes, o null si no existe.
+     */
+    public Account findAccount(long id) {
+        Record<Account> record = accounts.get(id);
+        return (record == null) ? null : represent(record.value);
+    }
+
+    /**
+     * @return Copias de las cuentas del cliente, con sus clientes, por id.
+     */
+    public List<Account> findAccountsByCustomer(long customerId) {
+        List<Account> result = new ArrayList<>();
+        for (Record<Account> record : accountRecords(customerId)) {
+            result.add(represent(record.value));
+        }
+        return result;
+    }
+
+    // --- Movimientos ---
+
+    /**
+     * Guarda un movimiento nuevo de una cuenta, con el id dado o uno nuevo
+     * si no tiene. Como en el servidor real, el saldo del movimiento (si
+     * trae) pasa a ser el saldo de la cuenta.
+     *
+     * @return Copia del movimiento guardado, con su id, o null si la cuenta
+     * no existe.
+     * @throws IllegalStateException Si el id ya existe.
+     */
+    public Movement addMovement(long accountId, Movement movement) {
+        ConcurrentSkipListMap<Long, Record<Movement>> movements = movementsByAccount.get(accountId);
+        if (movements == null) {
+            return null;
+        }
+        Movement stored = copy(movement);
+        stored.setId(nextId(movementIds, movement.getId()));
+        if (movementAccounts.putIfAbsent(stored.getId(), accountId) != null) {
+            throw new IllegalStateException("Movement already exists: " + stored.getId());
+        }
+        movements.put(stored.getId(), record(stored));
+        if (stored.getBalance() != null) {
+            Record<Account> account = accounts.get(accountId);
+            if (account != null) {
+                Account updated = copy(account.value);
+                updated.setBalance(stored.getBalance());
+                accounts.replace(accountId, account, record(updated));
+            }
+        }
+        return copy(stored);
+    }
+
+    /**
+     * Sustituye los datos de un movimiento existente, que sigue en su
+     * cuenta.
+     *
+     * @return false si no existe.
+     */
+    public boolean updateMovement(Movement movement) {
+        Long id = movement.getId();
+        Long accountId = (id == null) ? null : movementAccounts.get(id);
+        Map<Long, Record<Movement>> movements = (accountId == null) ? null : movementsByAccount.get(accountId);
+        return movements != null && movements.replace(id, record(copy(movement))) != null;
+    }
+
+    /**
+     * @return false si el movimiento no existía.
+     */
+    public boolean removeMovement(long id) {
+        Long accountId = movementAccounts.remove(id);
+        Map<Long, Record<Movement>> movements = (accountId == null) ? null : movementsByAccount.get(accountId);
+        return movements != null && movements.remove(id) != null;
+    }
+
+    /**
+     * @return Copia del movimiento, o null si no existe.
+     */
+    public Movement findMovement(long id) {
+        Long accountId = movementAccounts.get(id);
+        Map<Long, Record<Movement>> movements = (accountId == null) ? null : movementsByAccount.get(accountId);
+        Record<Movement> record = (movements == null) ? null : movements.get(id);
+        return (record == null) ? null : copy(record.value);
+    }
+
+    /**
+     * @return Copias de los movimientos de la cuenta, por id (vacía si la
+     * cuenta no existe).
+     */
+    public List<Movement> findMovementsByAccount(long accountId) {
+        List<Movement> result = new ArrayList<>();
+        for (Record<Movement> record : movementRecords(accountId)) {
+            result.add(copy(record.value));
+        }
+        return result;
+    }
+
+    /**
+     * @return Número de movimientos de la cuenta.
+     */
+    public int countMovements(long accountId) {
+        Map<Long, Record<Movement>> movements = movementsByAccount.get(accountId);
+        return (movements == null) ? 0 : movements.size();
+    }
+
+    // --- Acceso del servidor ---
+
+    boolean hasAccount(long id) {
+        return accounts.containsKey(id);
+    }
+
+    Record<Customer> customerRecord(long id) {
+        return customers.get(id);
+    }
+
+    List<Record<Customer>> customerRecords() {
+        List<Record<Customer>> result = new ArrayList<>();
+        for (Long id : new TreeSet<>(customers.keySet())) {
+            Record<Customer> record = customers.get(id);
+            if (record != null) {
+                result.add(record);
+            }
+        }
+        return result;
+    }
+
+    Record<Account> accountRecord(long id) {
+        return accounts.get(id);
+    }
+
+    List<Record<Account>> accountRecords(long customerId) {
+        List<Record<Account>> result = new ArrayList<>();
+        Set<Long> owned = accountsByCustomer.get(customerId);
+        if (owned != null) {
+            for (Long id : new TreeSet<>(owned)) {
+                Record<Account> record = accounts.get(id);
+                if (record != null) {
+                    result.add(record);
+                }
+            }
+        }
+        return result;
+    }
+
+    Record<Movement> movementRecord(long id) {
+        Long accountId = movementAccounts.get(id);
+        Map<Long, Record<Movement>> movements = (accountId == null) ? null : movementsByAccount.get(accountId);
+        return (movements == null) ? null : movements.get(id);
+    }
+
+    /**
+     * Movimientos de la cuenta en orden de id, sin copiar.
+     */
+    List<Record<Movement>> movementRecords(long accountId) {
+        Map<Long, Record<Movement>> movements = movementsByAccount.get(accountId);
+        return (movements == null) ? Collections.<Record<Movement>>emptyList()
+                : new ArrayList<>(movements.values());
+    }
+
+    /**
+     * @return Cuenta tal como se envía: copia con sus clientes y sin
+     * movimientos.
+     */
+    Account represent(Account account) {
+        Account result = copy(account);
+        Set<Customer> accountCustomers = new HashSet<>();
+        Set<Long> accountOwners = owners.get(account.getId());
+        if (accountOwners != null) {
+            for (Long customerId : accountOwners) {
+                Record<Customer> customer = customers.get(customerId);
+                if (customer != null) {
+                    accountCustomers.add(copy(customer.value));
+                }
+            }
+        }
+        result.setCustomers(accountCustomers);
+        return result;
+    }
+
+    // --- Utilidades ---
+
+    private void link(Long accountId, Set<Customer> accountCustomers) {
+        if (accountCustomers == null) {
+            return;
+        }
+        Set<Long> accountOwners = owners.get(accountId);
+        for (Customer customer : accountCustomers) {
+            Long customerId = customer.getId();
+            if (customerId == null && customer.getEmail() != null) {
+                customerId = customersByEmail.get(emailKey(customer.getEmail()));
+            }
+            if (customerId == null || !customers.containsKey(customerId) || accountOwners == null) {
+                continue;
+            }
+            accountOwners.add(customerId);
+            Set<Long> owned = accountsByCustomer.get(customerId);
+            if (owned == null) {
+                Set<Long> created = ConcurrentHashMap.<Long>newKeySet();
+                owned = accountsByCustomer.putIfAbsent(customerId, created);
+                if (owned == null) {
+                    owned = created;
+                }
+            }
+            owned.add(accountId);
+            touchCustomerAccounts(customerId);
+        }
+    }
+
+    /** Cambia el sello de la cuenta para que cambie la ETag de sus listas. */
+    private void touchAccount(Long accountId) {
+        Record<Account> account = accounts.get(accountId);
+        if (account != null) {
+            accounts.replace(accountId, account, record(account.value));
+        }
+    }
+
+    private void touchCustomerAccounts(Long customerId) {
+        Set<Long> owned = accountsByCustomer.get(customerId);
+        if (owned != null) {
+            for (Long accountId : owned) {
+                touchAccount(accountId);
+            }
+        }
+    }
+
+    private <T> Record<T> record(T value) {
+        return new Record<>(value, stamps.incrementAndGet());
+    }
+
+    /**
+     * Id dado (y los nuevos serán mayores) o el siguiente libre.
+     */
+    private static long nextId(AtomicLong ids, Long given) {
+        if (given == null) {
+            return ids.incrementAndGet();
+        }
+        long current;
+        while ((current = ids.get()) < given && !ids.compareAndSet(current, given)) {
+            // Otro hilo ha cambiado el último id: se vuelve a comparar
+        }
+        return given;
+    }
+
+    private static String emailKey(String email) {
+        return (email == null) ? null : email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    static Customer copy(Customer customer) {
+        Customer copy = new Customer();
+        copy.setId(customer.getId());
+        copy.setFirstName(customer.getFirstName());
+        copy.setMiddleInitial(customer.getMiddleInitial());
+        copy.setLastName(customer.getLastName());
+        copy.setStreet(customer.getStreet());
+        copy.setCity(customer.getCity());
+        copy.setState(customer.getState());
+        copy.setZip(customer.getZip());
+        copy.setPhone(customer.getPhone());
+        copy.setEmail(customer.getEmail());
+        copy.setPassword(customer.getPassword());
+        return copy;
+    }
+
+    /** Copia sin relaciones. */
+    static Account copy(Account account) {
+        Account copy = new Account();
+        copy.setId(account.getId());
+        copy.setType(account.getType());
+        copy.setDescription(account.getDescription());
+        copy.setBalance(account.getBalance());
+        copy.setCreditLine(account.getCreditLine());
+        copy.setBeginBalance(account.getBeginBalance());
+        copy.setBeginBalanceTimestamp(copy(account.getBeginBalanceTimestamp()));
+        return copy;
+    }
+
+    /** Copia sin la cuenta. */
+    static Movement copy(Movement movement) {
+        Movement copy = new Movement();
+        copy.setId(movement.getId());
+        copy.setTimestamp(copy(movement.getTimestamp()));
+        copy.setAmount(movement.getAmount());
+        copy.setBalance(movement.getBalance());
+        copy.setDescription(movement.getDescription());
+        return copy;
+    }
+
+    private static Date copy(Date date) {
+        return (date == null) ? null : new Date(date.getTime());
+    }
+}
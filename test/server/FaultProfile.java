@@ -0,0 +1,509 @@
+package server;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Perfil de red y de fallos del servidor sustituto, para medir la
+ * aplicación (cachés, reintentos, cortacircuitos, cargas asíncronas) en
+ * condiciones parecidas a las de una red real y no a las de localhost.
+ * <p>
+ * Cada perfil tiene unas reglas generales ({@link #all()}) y, si hace falta,
+ * reglas de algunos recursos ({@link #endpoint(String)}), que sustituyen a
+ * las generales. Una regla puede añadir:
+ * <ul>
+ * <li>Latencia fija o según una distribución, antes de atender la
+ * petición.</li>
+ * <li>Un límite de ancho de banda para el cuerpo de la respuesta.</li>
+ * <li>Errores 5xx al azar, sin atender la petición.</li>
+ * <li>Peticiones que no reciben respuesta (el cliente agota su tiempo de
+ * espera).</li>
+ * <li>Conexiones cortadas después de atender la petición, sin enviar la
+ * respuesta (como una respuesta perdida por la red).</li>
+ * <li>Respuestas por goteo: las cabeceras llegan enseguida y el cuerpo, a
+ * trozos pequeños y espaciados.</li>
+ * </ul>
+ * Los recursos se nombran con el método y la ruta, con los ids como
+ * {@code {id}}: {@code GET movement/account/{id}},
+ * {@code POST movement/{id}}, {@code GET customer/sigin/{email}/{password}}.
+ * Una regla se aplica a los recursos que empiezan por su patrón, con o sin
+ * método ({@code movement/account} vale para cualquier método); si varias
+ * coinciden, la del patrón más largo.
+ * <p>
+ * Las decisiones al azar salen de un generador con semilla: con una sola
+ * petición a la vez, la misma semilla da los mismos fallos en el mismo
+ * orden.
+ * <p>
+ * Perfiles con nombre ({@link #named(String)}): {@code none}, {@code lan},
+ * {@code wan}, {@code mobile} y {@code flaky}. El servidor arranca con el
+ * perfil de la propiedad <b>bank.server.profile</b> (con la semilla de
+ * <b>bank.server.seed</b>), de modo que las pruebas de interfaz y las
+ * mediciones se pueden repetir con otro perfil sin cambiar código, y
+ * {@link BankServer#setProfile(FaultProfile)} lo cambia en cualquier
+ * momento.
+ */
+public final class FaultProfile {
+
+    /** Espera de una petición que no recibe respuesta: más que el tiempo de lectura del cliente. */
+    public static final long DEFAULT_HOLD_MILLIS = 35_000;
+
+    private final String name;
+    private final Random random;
+    private final Rules all = new Rules();
+    // Guardado por sí mismo
+    private final Map<String, Rules> endpoints = new LinkedHashMap<>();
+
+    private final AtomicLong delayed = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong resets = new AtomicLong();
+    private final AtomicLong drips = new AtomicLong();
+
+    /**
+     * Distribución de la latencia añadida.
+     */
+    public abstract static class Latency {
+
+        /**
+         * @return Milisegundos de espera de una petición.
+         */
+        abstract long sample(Random random);
+
+        /** Siempre la misma espera. */
+        public static Latency fixed(final long millis) {
+            checkNotNegative(millis);
+            return new Latency() {
+                @Override
+                long sample(Random random) {
+                    return millis;
+                }
+            };
+        }
+
+        /** Espera uniforme entre dos valores. */
+        public static Latency uniform(final long minMillis, final long maxMillis) {
+            checkNotNegative(minMillis);
+            if (maxMillis < minMillis) {
+                throw new IllegalArgumentException("Invalid latency range: " + minMillis + "-" + maxMillis);
+            }
+            return new Latency() {
+                @Override
+                long sample(Random random) {
+                    return minMillis + (long) (random.nextDouble() * (maxMillis - minMillis + 1));
+                }
+            };
+        }
+
+        /**
+         * Espera log-normal, la forma habitual de las latencias de red: la
+         * mayoría cerca de la mediana y una cola larga.
+         *
+         * @param medianMillis Mediana.
+         * @param p99Millis Percentil 99, no menor que la mediana.
+         */
+        public static Latency logNormal(long medianMillis, long p99Millis) {
+            if (medianMillis <= 0 || p99Millis < medianMillis) {
+                throw new IllegalArgumentException("Invalid latency: median " + medianMillis + ", p99 " + p99Millis);
+            }
+            final double mu = Math.log(medianMillis);
+            // 2,326 es el percentil 99 de la normal estándar
+            final double sigma = Math.log((double) p99Millis / medianMillis) / 2.326;
+            return new Latency() {
+                @Override
+                long sample(Random random) {
+                    return Math.round(Math.exp(mu + sigma * random.nextGaussian()));
+                }
+            };
+        }
+    }
+
+    /**
+     * Fallos y condiciones de red de un grupo de recursos. Los métodos
+     * devuelven la misma regla, para encadenarlos.
+     */
+    public static final class Rules {
+
+        private volatile Latency latency;
+        private volatile long bytesPerSecond;
+        private volatile double errorRate;
+        private volatile int errorStatus = 503;
+        private volatile double timeoutRate;
+        private volatile long holdMillis = DEFAULT_HOLD_MILLIS;
+        private volatile double resetRate;
+        private volatile double dripRate;
+        private volatile int dripBytes;
+        private volatile long dripIntervalMillis;
+
+        private Rules() {
+        }
+
+        /** Latencia añadida antes de atender cada petición (null para ninguna). */
+        public Rules latency(Latency latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        /** Límite del cuerpo de las respuestas, en bytes por segundo (0 sin límite). */
+        public Rules bandwidth(long bytesPerSecond) {
+            checkNotNegative(bytesPerSecond);
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Responde con el estado dado, sin atender la petición, a una parte
+         * de ellas.
+         *
+         * @param rate Entre 0 y 1.
+         * @param status Un estado 5xx.
+         */
+        public Rules errors(double rate, int status) {
+            if (status < 500 || status > 599) {
+                throw new IllegalArgumentException("Not a server error: " + status);
+            }
+            errorRate = checkRate(rate);
+            errorStatus = status;
+            return this;
+        }
+
+        /**
+         * Deja sin respuesta una parte de las peticiones, durante el tiempo
+         * dado o hasta que se pare el servidor; después se corta la
+         * conexión.
+         *
+         * @param rate Entre 0 y 1.
+         */
+        public Rules timeouts(double rate, long holdMillis) {
+            checkNotNegative(holdMillis);
+            timeoutRate = checkRate(rate);
+            this.holdMillis = holdMillis;
+            return this;
+        }
+
+        /**
+         * Corta la conexión sin responder, después de atender la petición,
+         * en una parte de ellas.
+         *
+         * @param rate Entre 0 y 1.
+         */
+        public Rules resets(double rate) {
+            resetRate = checkRate(rate);
+            return this;
+        }
+
+        /**
+         * Envía el cuerpo de una parte de las respuestas a trozos de
+         * {@code bytes}, uno cada {@code intervalMillis}.
+         *
+         * @param rate Entre 0 y 1.
+         */
+        public Rules drip(double rate, int bytes, long intervalMillis) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("Invalid drip size: " + bytes);
+            }
+            checkNotNegative(intervalMillis);
+            dripRate = checkRate(rate);
+            dripBytes = bytes;
+            dripIntervalMillis = intervalMillis;
+            return this;
+        }
+    }
+
+    /**
+     * Lo que se hace con una petición concreta.
+     */
+    static final class Injection {
+
+        static final Injection NONE = new Injection();
+
+        long delayMillis;
+        // 0 si se atiende
+        int errorStatus;
+        // 0 si recibe respuesta
+        long holdMillis;
+        boolean reset;
+        // 0 si no hay goteo ni límite
+        int chunkBytes;
+        long chunkNanos;
+
+        /**
+         * @return El cuerpo de la respuesta, con el ritmo de esta petición.
+         */
+        OutputStream wrap(OutputStream out) {
+            return (chunkBytes == 0) ? out : new ThrottledOutputStream(out, chunkBytes, chunkNanos);
+        }
+    }
+
+    /** Escribe a trozos, sin adelantarse al ritmo dado. */
+    private static final class ThrottledOutputStream extends FilterOutputStream {
+
+        private final int chunkBytes;
+        private final long chunkNanos;
+        private final long start = System.nanoTime();
+        private long chunks;
+
+        ThrottledOutputStream(OutputStream out, int chunkBytes, long chunkNanos) {
+            super(out);
+            this.chunkBytes = chunkBytes;
+            this.chunkNanos = chunkNanos;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, chunkBytes);
+                out.write(b, off, n);
+                out.flush();
+                off += n;
+                len -= n;
+                chunks++;
+                // Con la hora de inicio, para que las esperas no acumulen retraso
+                pause(chunks * chunkNanos - (System.nanoTime() - start));
+            }
+        }
+    }
+
+    /**
+     * Crea un perfil vacío, sin fallos, que se configura con {@link #all()}
+     * y {@link #endpoint(String)}.
+     *
+     * @param name Nombre del perfil, para los informes.
+     * @param seed Semilla de las decisiones al azar.
+     */
+    public FaultProfile(String name, long seed) {
+        this.name = name;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Perfil con nombre y semilla 0.
+     *
+     * @see #named(String, long)
+     */
+    public static FaultProfile named(String name) {
+        return named(name, 0L);
+    }
+
+    /**
+     * Perfil con nombre:
+     * <ul>
+     * <li>{@code none}: localhost, sin cambios.</li>
+     * <li>{@code lan}: 1-5 ms de latencia.</li>
+     * <li>{@code wan}: latencia log-normal de mediana 40 ms y percentil 99
+     * de 200 ms, 2 MB/s y un 0,5 % de errores 503.</li>
+     * <li>{@code mobile}: mediana de 120 ms y percentil 99 de 800 ms,
+     * 200 KB/s, y un 1 % de errores, un 0,5 % de peticiones sin respuesta, un
+     * 1 % de conexiones cortadas y un 2 % de respuestas por goteo.</li>
+     * <li>{@code flaky}: como {@code wan}, con un 5 % de errores y un 2 % de
+     * peticiones sin respuesta, de conexiones cortadas y de goteo.</li>
+     * </ul>
+     *
+     * @throws IllegalArgumentException Si el nombre no es ninguno de esos.
+     */
+    public static FaultProfile named(String name, long seed) {
+        FaultProfile profile = new FaultProfile(name, seed);
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "none":
+                break;
+            case "lan":
+                profile.all().latency(Latency.uniform(1, 5));
+                break;
+            case "wan":
+                profile.all().latency(Latency.logNormal(40, 200))
+                        .bandwidth(2L * 1024 * 1024)
+                        .errors(0.005, 503);
+                break;
+            case "mobile":
+                profile.all().latency(Latency.logNormal(120, 800))
+                        .bandwidth(200L * 1024)
+                        .errors(0.01, 503)
+                        .timeouts(0.005, DEFAULT_HOLD_MILLIS)
+                        .resets(0.01)
+                        .drip(0.02, 64, 50);
+                break;
+            case "flaky":
+                profile.all().latency(Latency.logNormal(40, 200))
+                        .bandwidth(2L * 1024 * 1024)
+                        .errors(0.05, 503)
+                        .timeouts(0.02, DEFAULT_HOLD_MILLIS)
+                        .resets(0.02)
+                        .drip(0.02, 64, 50);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown profile: " + name);
+        }
+        return profile;
+    }
+
+    /**
+     * @return El perfil de <b>bank.server.profile</b> (por defecto
+     * {@code none}) con la semilla de <b>bank.server.seed</b> (por defecto
+     * 0).
+     */
+    public static FaultProfile fromSystemProperties() {
+        return named(System.getProperty("bank.server.profile", "none"), Long.getLong("bank.server.seed", 0L));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Las reglas de los recursos que no tienen reglas propias.
+     */
+    public Rules all() {
+        return all;
+    }
+
+    /**
+     * @param pattern Método y ruta, o solo ruta, del principio de los
+     * recursos: {@code GET movement/account}, {@code account}.
+     * @return Las reglas de esos recursos, nuevas si no las tenían.
+     */
+    public Rules endpoint(String pattern) {
+        synchronized (endpoints) {
+            Rules rules = endpoints.get(pattern);
+            if (rules == null) {
+                rules = new Rules();
+                endpoints.put(pattern, rules);
+            }
+            return rules;
+        }
+    }
+
+    /** @return Peticiones con latencia añadida. */
+    public long getDelayedCount() {
+        return delayed.get();
+    }
+
+    /** @return Errores 5xx inyectados. */
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    /** @return Peticiones que se dejaron sin respuesta. */
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    /** @return Conexiones cortadas. */
+    public long getResetCount() {
+        return resets.get();
+    }
+
+    /** @return Respuestas enviadas por goteo. */
+    public long getDripCount() {
+        return drips.get();
+    }
+
+    @Override
+    public String toString() {
+        return "FaultProfile[" + name + ", delayed=" + delayed + ", errors=" + errors + ", timeouts="
+                + timeouts + ", resets=" + resets + ", drips=" + drips + "]";
+    }
+
+    /**
+     * Decide qué se hace con una petición.
+     *
+     * @param endpoint Método y ruta del recurso, con los ids como {@code {id}}.
+     */
+    Injection inject(String endpoint) {
+        Rules rules = rulesFor(endpoint);
+        Latency latency = rules.latency;
+        if (latency == null && rules.bytesPerSecond == 0 && rules.errorRate == 0
+                && rules.timeoutRate == 0 && rules.resetRate == 0 && rules.dripRate == 0) {
+            return Injection.NONE;
+        }
+        Injection injection = new Injection();
+        if (latency != null) {
+            injection.delayMillis = latency.sample(random);
+            delayed.incrementAndGet();
+        }
+        // Se sortea siempre lo mismo, para que la semilla dé la misma secuencia
+        boolean error = random.nextDouble() < rules.errorRate;
+        boolean timeout = random.nextDouble() < rules.timeoutRate;
+        boolean reset = random.nextDouble() < rules.resetRate;
+        boolean drip = random.nextDouble() < rules.dripRate;
+        if (timeout) {
+            injection.holdMillis = Math.max(1, rules.holdMillis);
+            timeouts.incrementAndGet();
+        } else if (error) {
+            injection.errorStatus = rules.errorStatus;
+            errors.incrementAndGet();
+        } else if (reset) {
+            injection.reset = true;
+            resets.incrementAndGet();
+        } else if (drip) {
+            injection.chunkBytes = rules.dripBytes;
+            injection.chunkNanos = TimeUnit.MILLISECONDS.toNanos(rules.dripIntervalMillis);
+            drips.incrementAndGet();
+        } else if (rules.bytesPerSecond > 0) {
+            // Trozos de unos 20 ms
+            injection.chunkBytes = (int) Math.max(256, Math.min(64 * 1024, rules.bytesPerSecond / 50));
+            injection.chunkNanos = TimeUnit.SECONDS.toNanos(injection.chunkBytes) / rules.bytesPerSecond;
+        }
+        return injection;
+    }
+
+    private Rules rulesFor(String endpoint) {
+        String path = endpoint.substring(endpoint.indexOf(' ') + 1);
+        Rules best = all;
+        int bestLength = -1;
+        synchronized (endpoints) {
+            for (Map.Entry<String, Rules> entry : endpoints.entrySet()) {
+                String pattern = entry.getKey();
+                boolean withMethod = pattern.indexOf(' ') > 0;
+                if (matches(withMethod ? endpoint : path, pattern) && pattern.length() > bestLength) {
+                    best = entry.getValue();
+                    bestLength = pattern.length();
+                }
+            }
+        }
+        return best;
+    }
+
+    private static boolean matches(String endpoint, String pattern) {
+        return endpoint.equals(pattern) || endpoint.startsWith(pattern.endsWith("/") ? pattern : pattern + "/");
+    }
+
+    /**
+     * Espera el tiempo dado; una interrupción (al parar el servidor) la
+     * acaba antes.
+     */
+    static void pause(long nanos) throws IOException {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Server stopped", e);
+        }
+    }
+
+    private static double checkRate(double rate) {
+        if (!(rate >= 0 && rate <= 1)) {
+            throw new IllegalArgumentException("Invalid rate: " + rate);
+        }
+        return rate;
+    }
+
+    private static void checkNotNegative(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+    }
+}
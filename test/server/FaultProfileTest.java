@@ -0,0 +1,219 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.core.GenericType;
+import logic.AccountRESTClient;
+import logic.CircuitBreaker;
+import logic.EntityCache;
+import logic.MovementRESTClient;
+import logic.RetryPolicy;
+import logic.ValidatorCache;
+import model.Account;
+import model.Movement;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Pruebas de los perfiles de fallos del servidor sustituto: latencia por
+ * recurso, límite de ancho de banda, errores, peticiones sin respuesta,
+ * conexiones cortadas y goteo, y la repetición de los fallos con la misma
+ * semilla.
+ */
+public class FaultProfileTest {
+
+    private BankServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = BankServer.start(BankStore.sample());
+        server.useForClients();
+        RetryPolicy.setDelays(1, 5);
+        EntityCache.setEnabled(false);
+        ValidatorCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        RetryPolicy.setDelays(100, 2000);
+        CircuitBreaker.resetAll();
+        EntityCache.setEnabled(true);
+    }
+
+    /** Descarga una ruta con HttpURLConnection y devuelve los bytes leídos. */
+    private int download(String path, int readTimeoutMillis) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(server.getBaseUri() + "/" + path).openConnection();
+        connection.setReadTimeout(readTimeoutMillis);
+        connection.setRequestProperty("Accept", "application/xml");
+        assertEquals(200, connection.getResponseCode());
+        int bytes = 0;
+        try (InputStream in = connection.getInputStream()) {
+            byte[] buffer = new byte[8192];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                bytes += n;
+            }
+        }
+        return bytes;
+    }
+
+    private static long millisSince(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @Test
+    public void testLatencyOnlyForTheGivenEndpoint() throws Exception {
+        FaultProfile profile = new FaultProfile("test", 1);
+        profile.endpoint("GET account/customer").latency(FaultProfile.Latency.fixed(300));
+        server.setProfile(profile);
+        AccountRESTClient accounts = new AccountRESTClient();
+        // Calentamiento de Jersey y JAXB
+        accounts.find_XML(new GenericType<Account>(Account.class), "2");
+
+        long start = System.nanoTime();
+        accounts.find_XML(new GenericType<Account>(Account.class), "1");
+        assertTrue(millisSince(start) < 250);
+
+        start = System.nanoTime();
+        accounts.findAccountsByCustomerId_XML(new GenericType<List<Account>>() {}, "1");
+        assertTrue(millisSince(start) >= 300);
+        assertEquals(1, profile.getDelayedCount());
+    }
+
+    @Test
+    public void testBandwidthCap() throws Exception {
+        long accountId = server.getStore().findAccountsByCustomer(1).get(0).getId();
+        for (int i = 0; i < 500; i++) {
+            Movement movement = new Movement();
+            movement.setAmount(1.0);
+            movement.setDescription("Deposit");
+            movement.setTimestamp(new Date(i * 1000L));
+            server.getStore().addMovement(accountId, movement);
+        }
+        int bytes = download("movement/account/" + accountId, 5000);
+        FaultProfile profile = new FaultProfile("test", 1);
+        profile.all().bandwidth(200 * 1024);
+        server.setProfile(profile);
+
+        long start = System.nanoTime();
+        assertEquals(bytes, download("movement/account/" + accountId, 5000));
+        long expected = bytes * 1000L / (200 * 1024);
+        assertTrue("took " + millisSince(start) + " ms for " + bytes + " bytes",
+                millisSince(start) >= expected * 8 / 10);
+    }
+
+    @Test
+    public void testErrorsAreNotServed() throws Exception {
+        FaultProfile profile = new FaultProfile("test", 1);
+        profile.all().errors(1, 503);
+        server.setProfile(profile);
+        try {
+            new AccountRESTClient().find_XML(new GenericType<Account>(Account.class), "1");
+            fail("Injected error not reported");
+        } catch (ServiceUnavailableException e) {
+            assertEquals(503, e.getResponse().getStatus());
+        }
+        // Las escrituras con error no se atienden
+        long before = server.getStore().countMovements(3);
+        long errors = profile.getErrorCount();
+        Movement movement = new Movement();
+        movement.setAmount(5.0);
+        movement.setTimestamp(new Date());
+        new MovementRESTClient().create(movement, "3");
+        assertEquals(before, server.getStore().countMovements(3));
+        assertTrue(profile.getErrorCount() > errors);
+    }
+
+    @Test
+    public void testHeldRequestTimesOut() throws Exception {
+        FaultProfile profile = new FaultProfile("test", 1);
+        profile.all().timeouts(1, 2000);
+        server.setProfile(profile);
+        long start = System.nanoTime();
+        try {
+            download("account/1", 200);
+            fail("Held request answered");
+        } catch (SocketTimeoutException e) {
+            assertTrue(millisSince(start) < 1500);
+        }
+        assertEquals(1, profile.getTimeoutCount());
+    }
+
+    @Test
+    public void testResetAfterServingTheRequest() throws Exception {
+        FaultProfile profile = new FaultProfile("test", 1);
+        profile.endpoint("POST movement").resets(1);
+        server.setProfile(profile);
+        long before = server.getStore().countMovements(3);
+        HttpURLConnection connection = (HttpURLConnection) new URL(server.getBaseUri() + "/movement/3").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/xml");
+        byte[] body = "<movement><amount>5.0</amount></movement>".getBytes("UTF-8");
+        // Con la longitud fija HttpURLConnection no repite el POST
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.getOutputStream().write(body);
+        try {
+            connection.getResponseCode();
+            fail("Reset connection answered");
+        } catch (IOException e) {
+            // Respuesta perdida
+        }
+        // La escritura se hizo aunque el cliente no lo sepa
+        assertEquals(before + 1, server.getStore().countMovements(3));
+        assertEquals(1, profile.getResetCount());
+    }
+
+    @Test
+    public void testSlowDrip() throws Exception {
+        FaultProfile profile = new FaultProfile("test", 1);
+        profile.all().drip(1, 100, 20);
+        server.setProfile(profile);
+        long start = System.nanoTime();
+        int bytes = download("account/customer/1", 5000);
+        // Un trozo de 100 bytes cada 20 ms
+        assertTrue(millisSince(start) >= (bytes / 100 - 1) * 20);
+        assertEquals(1, profile.getDripCount());
+    }
+
+    @Test
+    public void testSameSeedSameFaults() {
+        FaultProfile first = FaultProfile.named("flaky", 42);
+        FaultProfile second = FaultProfile.named("flaky", 42);
+        for (int i = 0; i < 1000; i++) {
+            FaultProfile.Injection a = first.inject("GET account/{id}");
+            FaultProfile.Injection b = second.inject("GET account/{id}");
+            assertEquals(a.delayMillis, b.delayMillis);
+            assertEquals(a.errorStatus, b.errorStatus);
+            assertEquals(a.holdMillis, b.holdMillis);
+            assertEquals(a.reset, b.reset);
+            assertEquals(a.chunkBytes, b.chunkBytes);
+        }
+        assertTrue(first.getErrorCount() > 0);
+        assertTrue(first.getResetCount() > 0);
+        assertEquals(first.toString(), second.toString());
+    }
+
+    @Test
+    public void testNamedProfiles() {
+        for (String name : new String[]{"none", "lan", "wan", "mobile", "flaky"}) {
+            assertEquals(name, FaultProfile.named(name).getName());
+        }
+        assertSame(FaultProfile.Injection.NONE, FaultProfile.named("none").inject("GET customer"));
+        try {
+            FaultProfile.named("satellite");
+            fail("Unknown profile accepted");
+        } catch (IllegalArgumentException e) {
+            // Esperado
+        }
+    }
+}
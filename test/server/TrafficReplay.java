@@ -0,0 +1,214 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import logic.TrafficRecorder;
+
+/**
+ * Respuestas grabadas por {@link TrafficRecorder} que el servidor sustituto
+ * sirve en vez de las de su almacén ({@link BankServer#setReplay}), para
+ * repetir una sesión real contra otra versión del cliente sin el servidor
+ * real.
+ * <p>
+ * Cada petición recibe la siguiente respuesta grabada con el mismo método,
+ * ruta y consulta, en el orden de la grabación; cuando se acaban, se repite
+ * la última. Las respuestas se envían tal como llegaron (cuerpo comprimido
+ * incluido), tras esperar lo que tardaron entonces multiplicado por la
+ * escala: 1 es el tiempo original, 0 sin esperas y 2 el doble de lento. Una
+ * petición que no se grabó recibe un 404 y queda anotada, igual que las
+ * diferencias de tamaño de los cuerpos enviados, para ver qué ha cambiado en
+ * el cliente.
+ */
+public final class TrafficReplay {
+
+    private final Map<String, Deque<TrafficRecorder.Exchange>> pending = new HashMap<>();
+    private final Map<String, TrafficRecorder.Exchange> last = new HashMap<>();
+    private final List<String> misses = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong repeated = new AtomicLong();
+    private final AtomicLong recordedRequestBytes = new AtomicLong();
+    private final AtomicLong receivedRequestBytes = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+    private volatile double timeScale = 1;
+
+    public TrafficReplay(List<TrafficRecorder.Exchange> exchanges) {
+        List<TrafficRecorder.Exchange> sorted = new ArrayList<>(exchanges);
+        // Grabadas según acabaron; se sirven según empezaron
+        Collections.sort(sorted, new Comparator<TrafficRecorder.Exchange>() {
+            @Override
+            public int compare(TrafficRecorder.Exchange a, TrafficRecorder.Exchange b) {
+                return Long.compare(a.getStartMillis(), b.getStartMillis());
+            }
+        });
+        for (TrafficRecorder.Exchange exchange : sorted) {
+            String key = key(exchange.getMethod(), exchange.getPath(), exchange.getQuery());
+            Deque<TrafficRecorder.Exchange> queue = pending.get(key);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                pending.put(key, queue);
+            }
+            queue.add(exchange);
+        }
+    }
+
+    /**
+     * Lee un fichero de {@link TrafficRecorder}.
+     */
+    public static TrafficReplay load(Path file) throws IOException {
+        return new TrafficReplay(TrafficRecorder.read(file));
+    }
+
+    public double getTimeScale() {
+        return timeScale;
+    }
+
+    /**
+     * @param timeScale Factor de los tiempos grabados: 1 el original, 0 sin
+     * esperas.
+     */
+    public void setTimeScale(double timeScale) {
+        if (!(timeScale >= 0)) {
+            throw new IllegalArgumentException("Invalid time scale: " + timeScale);
+        }
+        this.timeScale = timeScale;
+    }
+
+    /**
+     * @return Peticiones servidas con una respuesta grabada.
+     */
+    public long getServedCount() {
+        return served.get();
+    }
+
+    /**
+     * @return Peticiones servidas repitiendo la última respuesta grabada,
+     * porque el cliente las hizo más veces que en la grabación.
+     */
+    public long getRepeatedCount() {
+        return repeated.get();
+    }
+
+    /**
+     * @return Peticiones que no estaban grabadas ({@code método ruta}).
+     */
+    public List<String> getMisses() {
+        synchronized (misses) {
+            return new ArrayList<>(misses);
+        }
+    }
+
+    /**
+     * @return Peticiones grabadas que aún no se han pedido.
+     */
+    public synchronized int getUnusedCount() {
+        int unused = 0;
+        for (Deque<TrafficRecorder.Exchange> queue : pending.values()) {
+            unused += queue.size();
+        }
+        return unused;
+    }
+
+    /**
+     * @return Bytes de los cuerpos de las peticiones servidas, tal como se
+     * grabaron.
+     */
+    public long getRecordedRequestBytes() {
+        return recordedRequestBytes.get();
+    }
+
+    /**
+     * @return Bytes de los cuerpos de esas mismas peticiones, tal como los
+     * envía ahora el cliente.
+     */
+    public long getReceivedRequestBytes() {
+        return receivedRequestBytes.get();
+    }
+
+    /**
+     * @return Bytes de los cuerpos de las respuestas servidas.
+     */
+    public long getResponseBytes() {
+        return responseBytes.get();
+    }
+
+    private static String key(String method, String path, String query) {
+        return method + " " + path + (query == null ? "" : "?" + query);
+    }
+
+    private synchronized TrafficRecorder.Exchange next(String key) {
+        Deque<TrafficRecorder.Exchange> queue = pending.get(key);
+        TrafficRecorder.Exchange exchange = (queue == null) ? null : queue.poll();
+        if (exchange != null) {
+            last.put(key, exchange);
+            return exchange;
+        }
+        exchange = last.get(key);
+        if (exchange != null) {
+            repeated.incrementAndGet();
+        }
+        return exchange;
+    }
+
+    /**
+     * Responde con la respuesta grabada para la petición.
+     *
+     * @param path Ruta cruda bajo {@link BankServer#CONTEXT}, sin la barra
+     * inicial.
+     */
+    void serve(HttpExchange http, String path, FaultProfile.Injection injection) throws IOException {
+        String key = key(http.getRequestMethod(), path, http.getRequestURI().getRawQuery());
+        long received = count(http.getRequestBody());
+        TrafficRecorder.Exchange exchange = next(key);
+        if (exchange == null) {
+            misses.add(key);
+            http.sendResponseHeaders(404, -1);
+            return;
+        }
+        served.incrementAndGet();
+        recordedRequestBytes.addAndGet(exchange.getRequestBody().length);
+        receivedRequestBytes.addAndGet(received);
+        double scale = timeScale;
+        FaultProfile.pause((long) (exchange.getHeaderNanos() * scale));
+        for (Map.Entry<String, String> header : exchange.getResponseHeaders().entrySet()) {
+            http.getResponseHeaders().set(header.getKey(), header.getValue());
+        }
+        byte[] body = exchange.getResponseBody();
+        int status = exchange.getStatus();
+        boolean empty = body.length == 0 || status == 204 || status == 304;
+        http.sendResponseHeaders(status, empty ? -1 : body.length);
+        if (!empty) {
+            // Lo que tardó el cuerpo, antes de enviarlo
+            FaultProfile.pause((long) ((exchange.getTotalNanos() - exchange.getHeaderNanos()) * scale));
+            try (OutputStream out = injection.wrap(http.getResponseBody())) {
+                out.write(body);
+            }
+            responseBytes.addAndGet(body.length);
+        }
+    }
+
+    private static long count(InputStream in) {
+        byte[] buffer = new byte[4096];
+        long total = 0;
+        try {
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                total += n;
+            }
+        } catch (IOException e) {
+            // Ya leído y cerrado
+        }
+        return total;
+    }
+}
@@ -0,0 +1,186 @@
+package server;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.core.GenericType;
+import logic.AccountRESTClient;
+import logic.CircuitBreaker;
+import logic.ContentEncoding;
+import logic.CustomerRESTClient;
+import logic.EntityCache;
+import logic.MovementRESTClient;
+import logic.TrafficRecorder;
+import logic.ValidatorCache;
+import model.Account;
+import model.Customer;
+import model.Movement;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Pruebas de la grabación del tráfico REST y de su reproducción con el
+ * servidor sustituto: una sesión grabada contra los datos de ejemplo se
+ * repite contra un servidor vacío con los mismos resultados.
+ */
+public class TrafficReplayTest {
+
+    private static final GenericType<List<Account>> ACCOUNTS = new GenericType<List<Account>>() {};
+    private static final GenericType<List<Movement>> MOVEMENTS = new GenericType<List<Movement>>() {};
+
+    private BankServer server;
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = Files.createTempFile("traffic", ".rec");
+        Files.delete(file);
+        server = BankServer.start(BankStore.sample());
+        server.useForClients();
+        EntityCache.setEnabled(false);
+        ValidatorCache.clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TrafficRecorder.stop();
+        server.close();
+        Files.deleteIfExists(file);
+        EntityCache.setEnabled(true);
+        ContentEncoding.setEnabled(false);
+        CircuitBreaker.resetAll();
+    }
+
+    /** Sesión como la de la interfaz: entrada, cuentas, movimientos y un alta. */
+    private static int session() throws Exception {
+        Customer customer = new CustomerRESTClient().findCustomerByEmailPassword(Customer.class,
+                URLEncoder.encode("awallace@gmail.com", "UTF-8"), URLEncoder.encode("qwerty*9876", "UTF-8"));
+        assertEquals("Wallace", customer.getLastName());
+        List<Account> accounts = new AccountRESTClient().findAccountsByCustomerId_XML(ACCOUNTS,
+                customer.getId().toString());
+        String accountId = accounts.get(0).getId().toString();
+        MovementRESTClient movements = new MovementRESTClient();
+        List<Movement> before = movements.findMovementByAccount_XML(MOVEMENTS, accountId);
+        Movement movement = new Movement();
+        movement.setAmount(-10.0);
+        movement.setBalance(accounts.get(0).getBalance() - 10.0);
+        movement.setDescription("Payment");
+        movement.setTimestamp(new Date(0));
+        movements.create_XML(movement, accountId);
+        ValidatorCache.clear();
+        List<Movement> after = movements.findMovementByAccount_XML(MOVEMENTS, accountId);
+        assertEquals(before.size() + 1, after.size());
+        return after.size();
+    }
+
+    private void replayOnEmptyServer(double scale) throws Exception {
+        server.close();
+        server = BankServer.start(new BankStore());
+        server.useForClients();
+        TrafficReplay replay = TrafficReplay.load(file);
+        replay.setTimeScale(scale);
+        server.setReplay(replay);
+        ValidatorCache.clear();
+    }
+
+    @Test
+    public void testRecordAndReplaySession() throws Exception {
+        TrafficRecorder.start(file);
+        int movements = session();
+        assertEquals(5, TrafficRecorder.getRecordedCount());
+        TrafficRecorder.stop();
+
+        List<TrafficRecorder.Exchange> exchanges = TrafficRecorder.read(file);
+        assertEquals(5, exchanges.size());
+        assertEquals("GET customer/sigin/{email}/{password}", exchanges.get(0).getEndpoint());
+        assertEquals(200, exchanges.get(0).getStatus());
+        TrafficRecorder.Exchange create = exchanges.get(3);
+        assertEquals("POST movement/{id}", create.getEndpoint());
+        assertTrue(create.getRequestBody().length > 0);
+        assertEquals("application/xml", create.getRequestHeaders().get("Content-Type"));
+        assertTrue(exchanges.get(4).getResponseBody().length > exchanges.get(2).getResponseBody().length);
+        assertTrue(exchanges.get(4).getTotalNanos() >= exchanges.get(4).getHeaderNanos());
+
+        // Sin datos: todo sale de la grabación, también el movimiento nuevo
+        replayOnEmptyServer(0);
+        assertEquals(movements, session());
+        TrafficReplay replay = server.getReplay();
+        assertEquals(5, replay.getServedCount());
+        assertEquals(0, replay.getUnusedCount());
+        assertTrue(replay.getMisses().isEmpty());
+        assertEquals(replay.getRecordedRequestBytes(), replay.getReceivedRequestBytes());
+        assertEquals(0, server.getStore().findCustomers().size());
+
+        // Una petición que no se grabó
+        try {
+            new AccountRESTClient().find_XML(new GenericType<Account>(Account.class), "999");
+            fail("Unrecorded request served");
+        } catch (NotFoundException e) {
+            assertEquals(1, replay.getMisses().size());
+            assertTrue(replay.getMisses().get(0), replay.getMisses().get(0).startsWith("GET account/999"));
+        }
+    }
+
+    @Test
+    public void testCompressedResponsesAndAppend() throws Exception {
+        ContentEncoding.setEnabled(true);
+        ContentEncoding.setMinRequestBytes(0);
+        TrafficRecorder.start(file);
+        session();
+        TrafficRecorder.stop();
+        // Una segunda sesión se añade al mismo fichero
+        TrafficRecorder.start(file);
+        new AccountRESTClient().findAccountsByCustomerId_XML(ACCOUNTS, "1");
+        TrafficRecorder.stop();
+        ContentEncoding.setMinRequestBytes(1024);
+
+        List<TrafficRecorder.Exchange> exchanges = TrafficRecorder.read(file);
+        assertEquals(6, exchanges.size());
+        assertEquals("gzip", exchanges.get(3).getRequestHeaders().get("Content-Encoding"));
+
+        replayOnEmptyServer(0);
+        session();
+        assertTrue(server.getReplay().getMisses().isEmpty());
+    }
+
+    @Test
+    public void testOriginalAndScaledTiming() throws Exception {
+        FaultProfile profile = new FaultProfile("test", 1);
+        profile.endpoint("GET account/customer").latency(FaultProfile.Latency.fixed(200));
+        server.setProfile(profile);
+        AccountRESTClient accounts = new AccountRESTClient();
+        TrafficRecorder.start(file);
+        accounts.findAccountsByCustomerId_XML(ACCOUNTS, "1");
+        accounts.findAccountsByCustomerId_XML(ACCOUNTS, "1");
+        TrafficRecorder.stop();
+        assertTrue(TrafficRecorder.read(file).get(0).getHeaderNanos() >= TimeUnit.MILLISECONDS.toNanos(200));
+
+        replayOnEmptyServer(1);
+        // Los clientes toman el servidor al crearse
+        accounts = new AccountRESTClient();
+        long start = System.nanoTime();
+        assertEquals(2, accounts.findAccountsByCustomerId_XML(ACCOUNTS, "1").size());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 200);
+
+        server.getReplay().setTimeScale(0.1);
+        start = System.nanoTime();
+        assertEquals(2, accounts.findAccountsByCustomerId_XML(ACCOUNTS, "1").size());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 150);
+        // Más veces que en la grabación: se repite la última
+        accounts.findAccountsByCustomerId_XML(ACCOUNTS, "1");
+        assertEquals(1, server.getReplay().getRepeatedCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotARecording() throws Exception {
+        Files.write(file, "not a recording".getBytes("UTF-8"));
+        TrafficRecorder.read(file);
+    }
+}